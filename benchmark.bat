@@ -0,0 +1,3 @@
+@echo off
+set path=%path%;%systemroot%\SysWOW64
+java -cp bin;NullpoMino.jar;lib\log4j-1.2.15.jar mu.nu.nullpo.tool.benchmark.EngineBenchmark %*
@@ -30,6 +30,7 @@ package mu.nu.nullpo.game.component;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 import mu.nu.nullpo.game.play.GameEngine;
@@ -123,6 +124,24 @@ public class Field implements Serializable {
 	/** List of last rows cleared in most recent horizontal line clear. */
 	public ArrayList<Block[]> lastLinesCleared;
 
+	/** Work area of the cascade gravity searches: the stamp of the search that reached each cell */
+	protected transient int[] searchMark;
+
+	/** Stamp of the current search */
+	protected transient int searchStamp;
+
+	/** Work area of the cascade gravity searches: cell indexes of the found blocks */
+	protected transient int[] searchList;
+
+	/** Work area of the color clears: stack of {x, y, next direction} */
+	protected transient int[] colorStack;
+
+	/** Copy of this field that the color clear checks destroy (reused) */
+	protected transient Field colorCheckField;
+
+	/** Search directions of the color clears (right, left, down, up) */
+	private static final int[] COLOR_SEARCH_DX = {1, -1, 0, 0}, COLOR_SEARCH_DY = {0, 0, 1, -1};
+
 	/** Used for TGM garbage, can later be extended to all types */
 	//public ArrayList<Block[]> pendingGarbage;
 
@@ -196,19 +215,29 @@ public class Field implements Serializable {
 	}
 
 	/**
-	 * 別のFieldからコピー
+	 * 別のFieldからコピー<br>
+	 * If the size does not change, the existing arrays and Block objects are reused
+	 * (AI search copies a field many times per frame).
 	 * @param f Copy source
 	 */
 	public void copy(Field f) {
+		boolean reuse = (block_field != null) && (block_hidden != null) &&
+						(width == f.width) && (height == f.height) && (hidden_height == f.hidden_height);
+
 		width = f.width;
 		height = f.height;
 		hidden_height = f.hidden_height;
 		ceiling = f.ceiling;
 
-		block_field = new Block[height][width];
-		block_hidden = new Block[hidden_height][width];
-		lineflag_field = new boolean[height];
-		lineflag_hidden = new boolean[hidden_height];
+		if(reuse) {
+			Arrays.fill(lineflag_field, false);
+			Arrays.fill(lineflag_hidden, false);
+		} else {
+			block_field = new Block[height][width];
+			block_hidden = new Block[hidden_height][width];
+			lineflag_field = new boolean[height];
+			lineflag_hidden = new boolean[hidden_height];
+		}
 		hurryupFloorLines = f.hurryupFloorLines;
 
 		colorClearExtraCount = f.colorClearExtraCount;
@@ -220,10 +249,12 @@ public class Field implements Serializable {
 
 		for(int i = 0; i < width; i++) {
 			for(int j = 0; j < height; j++) {
-				block_field[j][i] = new Block(f.getBlock(i, j));
+				if(reuse && (block_field[j][i] != null)) block_field[j][i].copy(f.getBlock(i, j));
+				else block_field[j][i] = new Block(f.getBlock(i, j));
 			}
 			for(int j = 0; j < hidden_height; j++) {
-				block_hidden[j][i] = new Block(f.getBlock(i, -j-1));
+				if(reuse && (block_hidden[j][i] != null)) block_hidden[j][i].copy(f.getBlock(i, -j-1));
+				else block_hidden[j][i] = new Block(f.getBlock(i, -j-1));
 			}
 		}
 	}
@@ -1957,7 +1988,7 @@ public class Field implements Serializable {
 	 */
 	public int gemClearColor (int size, boolean garbageClear, boolean ignoreHidden)
 	{
-		Field temp = new Field(this);
+		Field temp = copyForColorCheck();
 		int total = 0;
 		Block b;
 
@@ -1991,7 +2022,7 @@ public class Field implements Serializable {
 	 */
 	public int clearColor (int size, boolean garbageClear, boolean gemSame, boolean ignoreHidden)
 	{
-		Field temp = new Field(this);
+		Field temp = copyForColorCheck();
 		int total = 0;
 		for(int i = ignoreHidden ? 0 : (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
 			for(int j = 0; j < width; j++) {
@@ -2042,14 +2073,62 @@ public class Field implements Serializable {
 	private int clearColor (int x, int y, int targetColor, boolean flag, boolean garbageClear,
 			boolean gemSame, boolean ignoreHidden)
 	{
-		if (ignoreHidden && y < 0)
+		if (!clearColorSub(x, y, targetColor, flag, garbageClear, ignoreHidden))
 			return 0;
-		int blockColor = getBlockColor(x, y, gemSame);
+
+		// Same order as searching the right, left, lower and upper neighbors recursively,
+		// but with an explicit stack so that a large group can't overflow the call stack
+		if (colorStack == null)
+			colorStack = new int[3 * 64];
+		int[] stack = colorStack;
+		int sp = 0;
+		stack[sp++] = x;
+		stack[sp++] = y;
+		stack[sp++] = 0;
+		int count = 1;
+
+		while (sp > 0)
+		{
+			int dir = stack[sp - 1];
+			if (dir >= COLOR_SEARCH_DX.length)
+			{
+				sp -= 3;
+				continue;
+			}
+			stack[sp - 1] = dir + 1;
+
+			int nx = stack[sp - 3] + COLOR_SEARCH_DX[dir];
+			int ny = stack[sp - 2] + COLOR_SEARCH_DY[dir];
+			if (clearColorSub(nx, ny, targetColor, flag, garbageClear, ignoreHidden))
+			{
+				count++;
+				if (sp + 3 > stack.length)
+					stack = colorStack = Arrays.copyOf(stack, stack.length * 2);
+				stack[sp++] = nx;
+				stack[sp++] = ny;
+				stack[sp++] = 0;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Clears one block of a color clear, and the garbage block itself if it's garbage.
+	 * @return <code>true</code> if the block is a part of the group (the search continues to its neighbors)
+	 */
+	private boolean clearColorSub (int x, int y, int targetColor, boolean flag, boolean garbageClear,
+			boolean ignoreHidden)
+	{
+		if (ignoreHidden && y < 0)
+			return false;
+		if ((x < 0) || (x >= width) || (y < -hidden_height) || (y >= height))
+			return false;
+		Block b = (y >= 0) ? block_field[y][x] : block_hidden[-y - 1][x];
+		int blockColor = Block.gemToNormalColor(b.color);
 		if (blockColor == Block.BLOCK_COLOR_INVALID)
-			return 0;
-		Block b = getBlock(x, y);
+			return false;
 		if (flag && b.getAttribute(Block.BLOCK_ATTRIBUTE_ERASE))
-			return 0;
+			return false;
 		if (garbageClear && b.getAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE)
 				 && !b.getAttribute(Block.BLOCK_ATTRIBUTE_WALL))
 		{
@@ -2061,20 +2140,30 @@ public class Field implements Serializable {
 			else if (b.hard > 0)
 				b.hard--;
 			else
-				setBlockColor(x, y, Block.BLOCK_COLOR_NONE);
+				b.color = Block.BLOCK_COLOR_NONE;
 		}
 		if (blockColor != targetColor)
-			return 0;
+			return false;
 		if (flag)
 			b.setAttribute(Block.BLOCK_ATTRIBUTE_ERASE, true);
 		else if (b.hard > 0)
 			b.hard--;
 		else
-			setBlockColor(x, y, Block.BLOCK_COLOR_NONE);
-		return 1 + clearColor(x+1, y, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-				 + clearColor(x-1, y, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-				 + clearColor(x, y+1, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-				 + clearColor(x, y-1, targetColor, flag, garbageClear, gemSame, ignoreHidden);
+			b.color = Block.BLOCK_COLOR_NONE;
+		return true;
+	}
+
+	/**
+	 * Get a copy of this field for the color clear checks.
+	 * The same Field object is reused by the next call.
+	 * @return Copy of this field
+	 */
+	protected Field copyForColorCheck() {
+		if (colorCheckField == null)
+			colorCheckField = new Field(this);
+		else
+			colorCheckField.copy(this);
+		return colorCheckField;
 	}
 
 	/**
@@ -2114,6 +2203,7 @@ public class Field implements Serializable {
 
 	/**
 	 * Main routine for cascade gravity.
+	 * Each linked group that has space below falls one row.
 	 * @return <code>true</code> if something falls. <code>false</code> if nothing falls.
 	 */
 	public boolean doCascadeGravity() {
@@ -2126,55 +2216,7 @@ public class Field implements Serializable {
 				Block blk = getBlock(j, i);
 
 				if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
-					boolean fall = true;
-					checkBlockLink(j, i);
-
-					for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-						for(int l = 0; l < width; l++) {
-							Block bTemp = getBlock(l, k);
-
-							if( (bTemp != null) && !bTemp.isEmpty() &&
-								bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-							{
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) == COORD_WALL) ||
-									((bBelow != null) && !bBelow.isEmpty() && !bBelow.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK))
-								  )
-								{
-									fall = false;
-								}
-							}
-						}
-					}
-
-					if(fall) {
-						result = true;
-						for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-							for(int l = 0; l < width; l++) {
-								Block bTemp = getBlock(l, k);
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) != COORD_WALL) &&
-								    (bTemp != null) && !bTemp.isEmpty() && (bBelow != null) && bBelow.isEmpty() &&
-								    bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-								{
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, true);
-									if (bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK))
-									{
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, false);
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, false);
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP, false);
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, false);
-									}
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
-									setBlock(l, k + 1, bTemp);
-									setBlock(l, k, new Block());
-								}
-							}
-						}
-					}
+					if(cascadeFall(j, i, true)) result = true;
 				}
 			}
 		}
@@ -2205,54 +2247,7 @@ public class Field implements Serializable {
 				Block blk = getBlock(j, i);
 
 				if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
-					boolean fall = true;
-					checkBlockLink(j, i);
-
-					for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-						for(int l = 0; l < width; l++) {
-							Block bTemp = getBlock(l, k);
-
-							if( (bTemp != null) && !bTemp.isEmpty() &&
-								bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-							{
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) == COORD_WALL) ||
-									((bBelow != null) && !bBelow.isEmpty() && !bBelow.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK)) )
-								{
-									fall = false;
-								}
-							}
-						}
-					}
-
-					if(fall) {
-						result = true;
-						for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-							for(int l = 0; l < width; l++) {
-								Block bTemp = getBlock(l, k);
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) != COORD_WALL) &&
-								    (bTemp != null) && !bTemp.isEmpty() && (bBelow != null) && bBelow.isEmpty() &&
-								    bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-								{
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, true);
-									if (bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK))
-									{
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, false);
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, false);
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP, false);
-										bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, false);
-									}
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
-									setBlock(l, k + 1, bTemp);
-									setBlock(l, k, new Block());
-								}
-							}
-						}
-					}
+					if(cascadeFall(j, i, true)) result = true;
 				}
 			}
 		}
@@ -2263,6 +2258,66 @@ public class Field implements Serializable {
 		return result;
 	}
 
+	/**
+	 * Checks if the linked group of a block can fall one row, and moves it down.
+	 * Blocks that already fell in this step (BLOCK_ATTRIBUTE_CASCADE_FALL) and blocks in the HURRY UP floor
+	 * don't stop the group and don't move.
+	 * The cost is only the size of the group, so a cascade step is linear in the number of blocks
+	 * unless the groups are large.
+	 * @param x X coord
+	 * @param y Y coord
+	 * @param move <code>true</code> to move the group if it can fall
+	 * @return <code>true</code> if the group can fall
+	 */
+	protected boolean cascadeFall(int x, int y, boolean move) {
+		int count = markBlockLink(x, y);
+		int heightWithoutFloor = getHeightWithoutHurryupFloor();
+
+		// Keep the blocks that move in the beginning of searchList
+		int moveCount = 0;
+		for(int i = 0; i < count; i++) {
+			int index = searchList[i];
+			int bx = index % width;
+			int by = (index / width) - hidden_height;
+			if((by >= heightWithoutFloor) || getBlockFast(bx, by).getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL)) continue;
+
+			if(getCoordAttribute(bx, by + 1) == COORD_WALL) return false;
+			if(!getBlockFast(bx, by + 1).isEmpty() && (searchMark[index + width] != searchStamp)) return false;
+
+			searchList[moveCount++] = index;
+		}
+		if(!move) return true;
+
+		// Move from the bottom row, left to right in each row
+		int lastRow = hidden_height + height - 1;
+		for(int i = 0; i < moveCount; i++) searchList[i] = (lastRow - searchList[i] / width) * width + (searchList[i] % width);
+		Arrays.sort(searchList, 0, moveCount);
+
+		for(int i = 0; i < moveCount; i++) {
+			int bx = searchList[i] % width;
+			int by = lastRow - (searchList[i] / width) - hidden_height;
+			Block bTemp = getBlockFast(bx, by);
+			Block bBelow = getBlockFast(bx, by + 1);
+
+			if(bBelow.isEmpty()) {
+				bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
+				bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, true);
+				if (bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK))
+				{
+					bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, false);
+					bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, false);
+					bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP, false);
+					bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, false);
+				}
+				bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
+				setBlock(bx, by + 1, bTemp);
+				setBlock(bx, by, new Block());
+			}
+		}
+
+		return true;
+	}
+
 	/**
 	 * Checks the connection of blocks and set "mark" to each block.
 	 * @param x X coord
@@ -2270,26 +2325,72 @@ public class Field implements Serializable {
 	 */
 	public void checkBlockLink(int x, int y) {
 		setAllAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
-		checkBlockLinkSub(x, y);
+		int count = markBlockLink(x, y);
+		for(int i = 0; i < count; i++) {
+			int index = searchList[i];
+			getBlockFast(index % width, (index / width) - hidden_height).setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, true);
+		}
 	}
 
 	/**
-	 * Subroutine for checkBlockLink.
+	 * Finds the same blocks as checkBlockLink, but marks them in searchMark instead of the block attributes.
 	 * @param x X coord
 	 * @param y Y coord
+	 * @return Number of blocks in the group (their cell indexes are in the beginning of searchList)
 	 */
-	protected void checkBlockLinkSub(int x, int y) {
-		Block blk = getBlock(x, y);
-		if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK)) {
-			blk.setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, true);
+	protected int markBlockLink(int x, int y) {
+		int size = (hidden_height + height) * width;
+		if((searchMark == null) || (searchMark.length != size)) {
+			searchMark = new int[size];
+			searchList = new int[size];
+			searchStamp = 0;
+		}
+		if(searchStamp == Integer.MAX_VALUE) {
+			Arrays.fill(searchMark, 0);
+			searchStamp = 0;
+		}
+		searchStamp++;
+
+		int count = markBlockLinkSub(x, y, 0);
+		for(int i = 0; i < count; i++) {
+			int bx = searchList[i] % width;
+			int by = (searchList[i] / width) - hidden_height;
+			Block blk = getBlockFast(bx, by);
 
 			if(!blk.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK)) {
-				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP)) checkBlockLinkSub(x, y - 1);
-				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN)) checkBlockLinkSub(x, y + 1);
-				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT)) checkBlockLinkSub(x - 1, y);
-				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT)) checkBlockLinkSub(x + 1, y);
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP)) count = markBlockLinkSub(bx, by - 1, count);
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN)) count = markBlockLinkSub(bx, by + 1, count);
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT)) count = markBlockLinkSub(bx - 1, by, count);
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT)) count = markBlockLinkSub(bx + 1, by, count);
 			}
 		}
+		return count;
+	}
+
+	/**
+	 * Subroutine for markBlockLink: adds a block to searchList if it's not empty and not found yet.
+	 * @param x X coord
+	 * @param y Y coord
+	 * @param count Number of blocks in searchList
+	 * @return New number of blocks in searchList
+	 */
+	private int markBlockLinkSub(int x, int y, int count) {
+		if((x < 0) || (x >= width) || (y < -hidden_height) || (y >= height)) return count;
+		int index = (y + hidden_height) * width + x;
+		if((searchMark[index] == searchStamp) || getBlockFast(x, y).isEmpty()) return count;
+		searchMark[index] = searchStamp;
+		searchList[count] = index;
+		return count + 1;
+	}
+
+	/**
+	 * Get the block at a coordinate that is known to be inside the field
+	 * @param x X coord
+	 * @param y Y coord
+	 * @return Block
+	 */
+	private Block getBlockFast(int x, int y) {
+		return (y >= 0) ? block_field[y][x] : block_hidden[-y - 1][x];
 	}
 
 	/**
@@ -2655,7 +2756,7 @@ public class Field implements Serializable {
 	}
 
 	public int checkColor(int size, boolean flag, boolean garbageClear, boolean gemSame, boolean ignoreHidden) {
-		Field temp = new Field(this);
+		Field temp = copyForColorCheck();
 		int total = 0;
 		boolean[] colorsClearedArray = new boolean[7];
 		if (flag)
@@ -2803,28 +2904,7 @@ public class Field implements Serializable {
 				Block blk = getBlock(j, i);
 
 				if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
-					boolean fall = true;
-					checkBlockLink(j, i);
-
-					for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-						for(int l = 0; l < width; l++) {
-							Block bTemp = getBlock(l, k);
-
-							if( (bTemp != null) && !bTemp.isEmpty() &&
-								bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-							{
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) == COORD_WALL) ||
-									((bBelow != null) && !bBelow.isEmpty() && !bBelow.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK)) )
-								{
-									fall = false;
-								}
-							}
-						}
-					}
-
-					if(fall)
+					if(cascadeFall(j, i, false))
 						return true;
 				}
 			}
@@ -3155,7 +3235,7 @@ public class Field implements Serializable {
 		if (flag)
 			setAllAttribute(Block.BLOCK_ATTRIBUTE_ERASE, false);
 
-		Field temp = new Field(this);
+		Field temp = copyForColorCheck();
 		int total = 0;
 		Block b;
 
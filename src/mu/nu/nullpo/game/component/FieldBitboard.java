@@ -0,0 +1,833 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.component;
+
+import java.io.Serializable;
+
+/**
+ * Occupancy-only copy of a {@link Field}.<br>
+ * Every row is stored as one <code>long</code> (bit x set = cell occupied), so collision,
+ * line and hole queries are word operations instead of walking {@link Block} objects.
+ * Colors, attributes and the <code>hard</code> counter are not kept; a FieldBitboard is
+ * meant to be filled from a Field with {@link #copy(Field)} and then modified only through
+ * its own methods (AI search, headless simulation).<br>
+ * When the journal is enabled ({@link #setJournalEnabled(boolean)}), every row change is
+ * recorded so that a placement and its line clear can be reverted with {@link #undo(int)}
+ * (and re-applied with {@link #redo(int)}) instead of copying the whole field again.<br>
+ * A 64-bit Zobrist-style hash of the contents ({@link #getHash()}) is updated with every row change,
+ * so equal fields can be recognized without comparing them row by row.
+ */
+public class FieldBitboard implements Serializable {
+	/** Serial version ID */
+	private static final long serialVersionUID = -2304912381742096453L;
+
+	/** Maximum supported field width (one row must fit in a long) */
+	public static final int MAX_WIDTH = 64;
+
+	/** Field width */
+	protected int width;
+
+	/** Field height */
+	protected int height;
+
+	/** Height of the hidden area above the field */
+	protected int hidden_height;
+
+	/** Number of HURRY UP floor lines */
+	protected int hurryupFloorLines;
+
+	/** true if the field has a ceiling */
+	public boolean ceiling;
+
+	/** Bit mask of a completely filled row */
+	protected long fullRowMask;
+
+	/** Occupied cells. Index 0 is the top of the hidden area (y = -hidden_height). */
+	protected long[] rows;
+
+	/** Cells that contain a wall block (never part of a completed line) */
+	protected long[] wallRows;
+
+	/** Line clear flags (same indexing as rows) */
+	protected boolean[] lineflag;
+
+	/** XOR of {@link #rowKey} over all rows */
+	protected long hash;
+
+	/** true if row changes are recorded */
+	protected boolean journalEnabled;
+
+	/** Number of journal entries that are currently applied */
+	protected int journalSize;
+
+	/** Number of journal entries that can be re-applied with redo */
+	protected int journalEnd;
+
+	/** Journal: changed row index */
+	protected transient int[] journalIndex;
+
+	/** Journal: row occupancy before and after the change */
+	protected transient long[] journalOldRow, journalNewRow;
+
+	/** Journal: wall mask before and after the change */
+	protected transient long[] journalOldWall, journalNewWall;
+
+	/** Journal: line clear flag before and after the change */
+	protected transient boolean[] journalOldFlag, journalNewFlag;
+
+	/**
+	 * Constructor
+	 * @param w Field width
+	 * @param h Field height
+	 * @param hh Height of the hidden area above the field
+	 * @param c true if the field has a ceiling
+	 */
+	public FieldBitboard(int w, int h, int hh, boolean c) {
+		resize(w, h, hh);
+		ceiling = c;
+	}
+
+	/**
+	 * Constructor
+	 * @param w Field width
+	 * @param h Field height
+	 * @param hh Height of the hidden area above the field
+	 */
+	public FieldBitboard(int w, int h, int hh) {
+		this(w, h, hh, false);
+	}
+
+	/**
+	 * Constructor that copies the occupancy of a Field
+	 * @param f Copy source
+	 */
+	public FieldBitboard(Field f) {
+		copy(f);
+	}
+
+	/**
+	 * Copy constructor
+	 * @param b Copy source
+	 */
+	public FieldBitboard(FieldBitboard b) {
+		copy(b);
+	}
+
+	/**
+	 * Check if a Field can be represented by a FieldBitboard
+	 * @param f Field
+	 * @return true if the field is narrow enough
+	 */
+	public static boolean isSupported(Field f) {
+		return (f != null) && (f.getWidth() <= MAX_WIDTH);
+	}
+
+	/**
+	 * (Re)allocate the row arrays. The arrays are reused when the size does not change.
+	 * @param w Field width
+	 * @param h Field height
+	 * @param hh Height of the hidden area above the field
+	 */
+	protected void resize(int w, int h, int hh) {
+		if(w > MAX_WIDTH) throw new IllegalArgumentException("Field width " + w + " exceeds " + MAX_WIDTH);
+
+		if((rows == null) || (rows.length != h + hh)) {
+			rows = new long[h + hh];
+			wallRows = new long[h + hh];
+			lineflag = new boolean[h + hh];
+		}
+		width = w;
+		height = h;
+		hidden_height = hh;
+		fullRowMask = (w == MAX_WIDTH) ? -1L : ((1L << w) - 1L);
+	}
+
+	/**
+	 * Clear all cells
+	 */
+	public void reset() {
+		for(int i = 0; i < rows.length; i++) {
+			rows[i] = 0L;
+			wallRows[i] = 0L;
+			lineflag[i] = false;
+		}
+		hurryupFloorLines = 0;
+		hash = 0L;
+		clearJournal();
+	}
+
+	/**
+	 * Copy the occupancy of a Field
+	 * @param f Copy source
+	 */
+	public void copy(Field f) {
+		resize(f.getWidth(), f.getHeight(), f.getHiddenHeight());
+		ceiling = f.ceiling;
+		hurryupFloorLines = f.getHurryupFloorLines();
+
+		for(int i = 0; i < rows.length; i++) {
+			Block[] row = f.getRow(i - hidden_height);
+			long bits = 0L;
+			long walls = 0L;
+
+			for(int j = 0; j < width; j++) {
+				Block blk = row[j];
+				if((blk != null) && !blk.isEmpty()) {
+					bits |= 1L << j;
+					if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_WALL)) walls |= 1L << j;
+				}
+			}
+
+			rows[i] = bits;
+			wallRows[i] = walls;
+			lineflag[i] = f.getLineFlag(i - hidden_height);
+		}
+		rehash();
+		clearJournal();
+	}
+
+	/**
+	 * Copy from another FieldBitboard
+	 * @param b Copy source
+	 */
+	public void copy(FieldBitboard b) {
+		resize(b.width, b.height, b.hidden_height);
+		ceiling = b.ceiling;
+		hurryupFloorLines = b.hurryupFloorLines;
+		System.arraycopy(b.rows, 0, rows, 0, rows.length);
+		System.arraycopy(b.wallRows, 0, wallRows, 0, wallRows.length);
+		System.arraycopy(b.lineflag, 0, lineflag, 0, lineflag.length);
+		hash = b.hash;
+		clearJournal();
+	}
+
+	/**
+	 * Enable or disable the journal. The journal is cleared either way.
+	 * @param enabled true to record row changes
+	 */
+	public void setJournalEnabled(boolean enabled) {
+		journalEnabled = enabled;
+		clearJournal();
+		if(enabled && (journalIndex == null)) allocateJournal(rows.length * 4);
+	}
+
+	/**
+	 * Check if the journal is enabled
+	 * @return true if row changes are recorded
+	 */
+	public boolean isJournalEnabled() {
+		return journalEnabled;
+	}
+
+	/**
+	 * Forget every journal entry (the current contents become the new starting point)
+	 */
+	public void clearJournal() {
+		journalSize = 0;
+		journalEnd = 0;
+	}
+
+	/**
+	 * Get the current journal position
+	 * @return Position to pass to {@link #undo(int)} or {@link #redo(int)}
+	 */
+	public int mark() {
+		return journalSize;
+	}
+
+	/**
+	 * Revert every change made after a journal position
+	 * @param mark Position returned by {@link #mark()}
+	 */
+	public void undo(int mark) {
+		while(journalSize > mark) {
+			journalSize--;
+			int i = journalIndex[journalSize];
+			hash ^= rowKey(i, rows[i], wallRows[i], lineflag[i]) ^
+					rowKey(i, journalOldRow[journalSize], journalOldWall[journalSize], journalOldFlag[journalSize]);
+			rows[i] = journalOldRow[journalSize];
+			wallRows[i] = journalOldWall[journalSize];
+			lineflag[i] = journalOldFlag[journalSize];
+		}
+	}
+
+	/**
+	 * Re-apply changes reverted by {@link #undo(int)}, up to a journal position.
+	 * Any new change made after an undo discards the changes that could be redone.
+	 * @param mark Position returned by {@link #mark()} before the undo
+	 */
+	public void redo(int mark) {
+		while((journalSize < mark) && (journalSize < journalEnd)) {
+			int i = journalIndex[journalSize];
+			hash ^= rowKey(i, rows[i], wallRows[i], lineflag[i]) ^
+					rowKey(i, journalNewRow[journalSize], journalNewWall[journalSize], journalNewFlag[journalSize]);
+			rows[i] = journalNewRow[journalSize];
+			wallRows[i] = journalNewWall[journalSize];
+			lineflag[i] = journalNewFlag[journalSize];
+			journalSize++;
+		}
+	}
+
+	/**
+	 * (Re)allocate the journal arrays, keeping the current entries
+	 * @param capacity Number of entries
+	 */
+	protected void allocateJournal(int capacity) {
+		int[] newIndex = new int[capacity];
+		long[] newOldRow = new long[capacity];
+		long[] newNewRow = new long[capacity];
+		long[] newOldWall = new long[capacity];
+		long[] newNewWall = new long[capacity];
+		boolean[] newOldFlag = new boolean[capacity];
+		boolean[] newNewFlag = new boolean[capacity];
+
+		if(journalIndex != null) {
+			System.arraycopy(journalIndex, 0, newIndex, 0, journalEnd);
+			System.arraycopy(journalOldRow, 0, newOldRow, 0, journalEnd);
+			System.arraycopy(journalNewRow, 0, newNewRow, 0, journalEnd);
+			System.arraycopy(journalOldWall, 0, newOldWall, 0, journalEnd);
+			System.arraycopy(journalNewWall, 0, newNewWall, 0, journalEnd);
+			System.arraycopy(journalOldFlag, 0, newOldFlag, 0, journalEnd);
+			System.arraycopy(journalNewFlag, 0, newNewFlag, 0, journalEnd);
+		}
+
+		journalIndex = newIndex;
+		journalOldRow = newOldRow;
+		journalNewRow = newNewRow;
+		journalOldWall = newOldWall;
+		journalNewWall = newNewWall;
+		journalOldFlag = newOldFlag;
+		journalNewFlag = newNewFlag;
+	}
+
+	/**
+	 * Change one row. Every modification goes through here so that the journal sees it.
+	 * @param i Row index (y + hidden_height)
+	 * @param bits Occupancy mask
+	 * @param walls Wall mask
+	 * @param flag Line clear flag
+	 */
+	protected void writeRow(int i, long bits, long walls, boolean flag) {
+		if(journalEnabled) {
+			if((rows[i] == bits) && (wallRows[i] == walls) && (lineflag[i] == flag)) return;
+			if(journalSize >= journalIndex.length) allocateJournal(journalIndex.length * 2);
+
+			journalIndex[journalSize] = i;
+			journalOldRow[journalSize] = rows[i];
+			journalNewRow[journalSize] = bits;
+			journalOldWall[journalSize] = wallRows[i];
+			journalNewWall[journalSize] = walls;
+			journalOldFlag[journalSize] = lineflag[i];
+			journalNewFlag[journalSize] = flag;
+			journalSize++;
+			journalEnd = journalSize;
+		}
+
+		hash ^= rowKey(i, rows[i], wallRows[i], lineflag[i]) ^ rowKey(i, bits, walls, flag);
+		rows[i] = bits;
+		wallRows[i] = walls;
+		lineflag[i] = flag;
+	}
+
+	/**
+	 * Get the hash of the field contents.
+	 * Fields with the same size, blocks, walls, line flags and HURRY UP floor have the same hash.
+	 * @return 64-bit hash
+	 */
+	public long getHash() {
+		return hash ^ mix(hurryupFloorLines);
+	}
+
+	/**
+	 * Recompute the hash from scratch (after the rows were filled without writeRow)
+	 */
+	protected void rehash() {
+		long h = 0L;
+		for(int i = 0; i < rows.length; i++) h ^= rowKey(i, rows[i], wallRows[i], lineflag[i]);
+		hash = h;
+	}
+
+	/**
+	 * Hash key of one row. Empty rows have the key 0.
+	 * @param i Row index (y + hidden_height)
+	 * @param bits Occupancy mask
+	 * @param walls Wall mask
+	 * @param flag Line clear flag
+	 * @return Key
+	 */
+	public static long rowKey(int i, long bits, long walls, boolean flag) {
+		if((bits == 0L) && (walls == 0L) && !flag) return 0L;
+		return mix(bits ^ mix(walls ^ mix(((i << 1) | (flag ? 1 : 0)) + 1)));
+	}
+
+	/**
+	 * 64-bit mixing function (SplitMix64 finalizer)
+	 * @param z Value
+	 * @return Mixed value
+	 */
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Get field width
+	 * @return Field width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get field height
+	 * @return Field height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get height of the hidden area above the field
+	 * @return Height of the hidden area
+	 */
+	public int getHiddenHeight() {
+		return hidden_height;
+	}
+
+	/**
+	 * Get field height without the HURRY UP floor
+	 * @return Field height without the HURRY UP floor
+	 */
+	public int getHeightWithoutHurryupFloor() {
+		return height - hurryupFloorLines;
+	}
+
+	/**
+	 * Get the occupancy mask of a row
+	 * @param y Y-coordinate
+	 * @return Occupancy mask (0 if the row is outside of the field)
+	 */
+	public long getRowBits(int y) {
+		int i = y + hidden_height;
+		if((i < 0) || (i >= rows.length)) return 0L;
+		return rows[i];
+	}
+
+	/**
+	 * Get the attribute of a coordinate (same rules as {@link Field#getCoordAttribute(int, int)})
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return Coordinate attribute
+	 */
+	public int getCoordAttribute(int x, int y) {
+		if((y < 0) && (ceiling)) return Field.COORD_WALL;
+		if((x < 0) || (x >= width) || (y >= height)) return Field.COORD_WALL;
+		if(y >= 0) return Field.COORD_NORMAL;
+		if(-y - 1 < hidden_height) return Field.COORD_HIDDEN;
+		return Field.COORD_VANISH;
+	}
+
+	/**
+	 * Check if a cell is empty
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return true if the cell is empty (also true when the coordinate is out of range)
+	 */
+	public boolean getBlockEmpty(int x, int y) {
+		int i = y + hidden_height;
+		if((x < 0) || (x >= width) || (i < 0) || (i >= rows.length)) return true;
+		return ((rows[i] >>> x) & 1L) == 0L;
+	}
+
+	/**
+	 * Check if a cell is empty
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return true if the cell is empty (false when the coordinate is out of range)
+	 */
+	public boolean getBlockEmptyF(int x, int y) {
+		int i = y + hidden_height;
+		if((x < 0) || (x >= width) || (i < 0) || (i >= rows.length)) return false;
+		return ((rows[i] >>> x) & 1L) == 0L;
+	}
+
+	/**
+	 * Set or clear a cell
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param occupied true to fill the cell, false to empty it
+	 * @return true if successful, false if the coordinate is out of range
+	 */
+	public boolean setBlock(int x, int y, boolean occupied) {
+		int i = y + hidden_height;
+		if((x < 0) || (x >= width) || (i < 0) || (i >= rows.length)) return false;
+
+		long bit = 1L << x;
+		writeRow(i, occupied ? (rows[i] | bit) : (rows[i] & ~bit), wallRows[i] & ~bit, lineflag[i]);
+		return true;
+	}
+
+	/**
+	 * Set a cell from a Block (mirrors {@link Field#setBlock(int, int, Block)})
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param blk Block
+	 * @return true if successful, false if the coordinate is out of range
+	 */
+	public boolean setBlock(int x, int y, Block blk) {
+		boolean occupied = (blk != null) && !blk.isEmpty();
+		if(!setBlock(x, y, occupied)) return false;
+		if(occupied && blk.getAttribute(Block.BLOCK_ATTRIBUTE_WALL)) {
+			int i = y + hidden_height;
+			writeRow(i, rows[i], wallRows[i] | (1L << x), lineflag[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Get line clear flag
+	 * @param y Y-coordinate
+	 * @return true if the line is going to be cleared
+	 */
+	public boolean getLineFlag(int y) {
+		int i = y + hidden_height;
+		if((i < 0) || (i >= lineflag.length)) return false;
+		return lineflag[i];
+	}
+
+	/**
+	 * Check for completed lines and set line clear flags
+	 * @return Number of completed lines
+	 */
+	public int checkLine() {
+		int lines = 0;
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			boolean flag = (rows[i] == fullRowMask) && (wallRows[i] == 0L);
+			if(lineflag[i] != flag) writeRow(i, rows[i], wallRows[i], flag);
+			if(flag) lines++;
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Count completed lines without setting line clear flags
+	 * @return Number of completed lines
+	 */
+	public int checkLineNoFlag() {
+		int lines = 0;
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			if((rows[i] == fullRowMask) && (wallRows[i] == 0L)) lines++;
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Empty every flagged line (the flags stay set until {@link #downFloatingBlocks()})
+	 * @return Number of cleared lines
+	 */
+	public int clearLine() {
+		int lines = 0;
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			if(lineflag[i]) {
+				writeRow(i, 0L, 0L, true);
+				lines++;
+			}
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Remove flagged lines and drop everything above them
+	 * @return Number of removed lines
+	 */
+	public int downFloatingBlocks() {
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+		int dst = end - 1;
+
+		for(int src = end - 1; src >= 0; src--) {
+			if(!lineflag[src]) {
+				writeRow(dst, rows[src], wallRows[src], false);
+				dst--;
+			}
+		}
+
+		int lines = dst + 1;
+		for(; dst >= 0; dst--) {
+			writeRow(dst, 0L, 0L, false);
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Shift the whole field up
+	 * @param lines Number of lines
+	 */
+	public void pushUp(int lines) {
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+		if(lines <= 0) return;
+		if(lines > end) lines = end;
+
+		for(int i = 0; i < end - lines; i++) {
+			writeRow(i, rows[i + lines], wallRows[i + lines], lineflag[i + lines]);
+		}
+		for(int i = end - lines; i < end; i++) {
+			writeRow(i, 0L, 0L, false);
+		}
+	}
+
+	/**
+	 * Shift the whole field up by 1 line
+	 */
+	public void pushUp() {
+		pushUp(1);
+	}
+
+	/**
+	 * Add a garbage line with a single hole at the bottom (the field is pushed up first)
+	 * @param hole X-coordinate of the hole
+	 * @param lines Number of lines
+	 */
+	public void addSingleHoleGarbage(int hole, int lines) {
+		int y = getHeightWithoutHurryupFloor() - 1 + hidden_height;
+		long bits = fullRowMask & ~(1L << hole);
+
+		for(int k = 0; k < lines; k++) {
+			pushUp(1);
+			writeRow(y, bits, 0L, lineflag[y]);
+		}
+	}
+
+	/**
+	 * Check if the field is empty (flagged lines are ignored)
+	 * @return true if there are no blocks
+	 */
+	public boolean isEmpty() {
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			if(!lineflag[i] && (rows[i] != 0L)) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Check if a line is completely empty
+	 * @param y Y-coordinate
+	 * @return true if the line is empty
+	 */
+	public boolean isEmptyLine(int y) {
+		return getRowBits(y) == 0L;
+	}
+
+	/**
+	 * Count the blocks in the field (flagged lines are ignored)
+	 * @return Number of blocks
+	 */
+	public int getHowManyBlocks() {
+		int count = 0;
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			if(!lineflag[i]) count += Long.bitCount(rows[i]);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Get the Y-coordinate of the highest block
+	 * @return Y-coordinate of the highest block (field height if empty)
+	 */
+	public int getHighestBlockY() {
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			if(!lineflag[i] && (rows[i] != 0L)) return i - hidden_height;
+		}
+
+		return height;
+	}
+
+	/**
+	 * Get the Y-coordinate of the highest block in a column
+	 * @param x X-coordinate
+	 * @return Y-coordinate of the highest block (field height if empty)
+	 */
+	public int getHighestBlockY(int x) {
+		if((x < 0) || (x >= width)) return height;
+
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+		long bit = 1L << x;
+
+		for(int i = 0; i < end; i++) {
+			if(!lineflag[i] && ((rows[i] & bit) != 0L)) return i - hidden_height;
+		}
+
+		return height;
+	}
+
+	/**
+	 * Get the Y-coordinate of the highest block of every column
+	 * @param result Output array (length must be at least the field width)
+	 * @return <code>result</code>
+	 */
+	public int[] getHighestBlockYs(int[] result) {
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+		long remaining = fullRowMask;
+
+		for(int x = 0; x < width; x++) result[x] = height;
+
+		for(int i = 0; (i < end) && (remaining != 0L); i++) {
+			if(lineflag[i]) continue;
+
+			long hit = rows[i] & remaining;
+			while(hit != 0L) {
+				int x = Long.numberOfTrailingZeros(hit);
+				result[x] = i - hidden_height;
+				hit &= hit - 1L;
+			}
+			remaining &= ~rows[i];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Count the holes (empty cells with a block somewhere above them in the same column).
+	 * Like Field.getHowManyHoles, rows with the line flag set are skipped but still
+	 * count as the row directly below the one above them.
+	 * @return Number of holes
+	 */
+	public int getHowManyHoles() {
+		int hole = 0;
+		long covered = 0L;
+		int end = getHeightWithoutHurryupFloor() + hidden_height;
+
+		for(int i = 0; i < end; i++) {
+			if(lineflag[i]) continue;
+			long below = (i + 1 < rows.length) ? rows[i + 1] : 0L;
+			hole += Long.bitCount(covered & ~rows[i]);
+			covered = (rows[i] & ~below) | (covered & ~rows[i]);
+		}
+
+		return hole;
+	}
+
+	/**
+	 * Count the blocks stacked on top of holes
+	 * @return Number of blocks above holes
+	 */
+	public int getHowManyLidAboveHoles() {
+		int blocks = 0;
+		int start = getHighestBlockY() + hidden_height;
+		int end = getHeightWithoutHurryupFloor() + hidden_height - 1;
+
+		for(int j = 0; j < width; j++) {
+			long bit = 1L << j;
+			int count = 0;
+
+			for(int i = start; i < end; i++) {
+				if(lineflag[i]) continue;
+				if((rows[i] & bit) != 0L) {
+					count++;
+					if((rows[i + 1] & bit) == 0L) {
+						blocks += count;
+						count = 0;
+					}
+				}
+			}
+		}
+
+		return blocks;
+	}
+
+	/**
+	 * Check for a T-Spin spot (3 of the 4 corners are filled or out of range)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param big true if Big
+	 * @return true if this is a T-Spin spot
+	 */
+	public boolean isTSpinSpot(int x, int y, boolean big) {
+		int a = big ? 1 : 0;
+		int b = big ? 4 : 2;
+		int count = 0;
+
+		if(!getBlockEmptyF(x + a, y + a)) count++;
+		if(!getBlockEmptyF(x + b, y + a)) count++;
+		if(!getBlockEmptyF(x + a, y + b)) count++;
+		if(!getBlockEmptyF(x + b, y + b)) count++;
+
+		return count >= 3;
+	}
+
+	/**
+	 * Check if a cell collides with a piece block (same rules as {@link Piece#checkCollision(int, int, int, Field)})
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return true if the cell is a wall or occupied
+	 */
+	public boolean isSolid(int x, int y) {
+		if((x < 0) || (x >= width) || (y >= height)) return true;
+		if(y < 0) {
+			if(ceiling) return true;
+			if(-y - 1 >= hidden_height) return false;
+		}
+		return ((rows[y + hidden_height] >>> x) & 1L) != 0L;
+	}
+
+	/*
+	 * Summary string
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		for(int i = 0; i < rows.length; i++) {
+			for(int j = 0; j < width; j++) {
+				sb.append(((rows[i] >>> j) & 1L) != 0L ? '#' : '.');
+			}
+			sb.append('\n');
+		}
+
+		return sb.toString();
+	}
+}
@@ -245,7 +245,8 @@ public class Piece implements Serializable {
 	}
 
 	/**
-	 * Blockピースの dataを他のPieceからコピー
+	 * Blockピースの dataを他のPieceからコピー<br>
+	 * The arrays and Block objects are reused when the number of blocks does not change.
 	 * @param p Copy source
 	 */
 	public void copy(Piece p) {
@@ -256,12 +257,16 @@ public class Piece implements Serializable {
 		connectBlocks = p.connectBlocks;
 
 		int maxBlock = p.getMaxBlock();
-		dataX = new int[DIRECTION_COUNT][maxBlock];
-		dataY = new int[DIRECTION_COUNT][maxBlock];
-		block = new Block[maxBlock];
-		for(int i = 0; i < maxBlock; i++) block[i] = new Block(p.block[i]);
-		dataOffsetX = new int[DIRECTION_COUNT];
-		dataOffsetY = new int[DIRECTION_COUNT];
+		if((block == null) || (block.length != maxBlock)) {
+			dataX = new int[DIRECTION_COUNT][maxBlock];
+			dataY = new int[DIRECTION_COUNT][maxBlock];
+			block = new Block[maxBlock];
+			for(int i = 0; i < maxBlock; i++) block[i] = new Block(p.block[i]);
+			dataOffsetX = new int[DIRECTION_COUNT];
+			dataOffsetY = new int[DIRECTION_COUNT];
+		} else {
+			for(int i = 0; i < maxBlock; i++) block[i].copy(p.block[i]);
+		}
 
 		for(int i = 0; i < DIRECTION_COUNT; i++) {
 			for(int j = 0; j < maxBlock; j++) {
@@ -884,6 +889,125 @@ public class Piece implements Serializable {
 		return getBottom(x, y, direction, fld);
 	}
 
+	/**
+	 * fieldにピースを置く (FieldBitboard用）
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld FieldBitboard
+	 * @return 1つ以上Blockをfield枠内に置けたらtrue, そうでないならfalse
+	 */
+	public boolean placeToField(int x, int y, int rt, FieldBitboard fld) {
+		int size = 1;
+		if(big == true) size = 2;
+
+		boolean placed = false;
+
+		for(int i = 0; i < getMaxBlock(); i++) {
+			int x2 = x + dataX[rt][i] * size;
+			int y2 = y + dataY[rt][i] * size;
+
+			for(int k = 0; k < size; k++) {
+				for(int l = 0; l < size; l++) {
+					fld.setBlock(x2 + k, y2 + l, true);
+					if(y2 + l >= 0) placed = true;
+				}
+			}
+		}
+
+		return placed;
+	}
+
+	/**
+	 * fieldにピースを置く (FieldBitboard用）
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param fld FieldBitboard
+	 * @return 1つ以上Blockをfield枠内に置けたらtrue, そうでないならfalse
+	 */
+	public boolean placeToField(int x, int y, FieldBitboard fld) {
+		return placeToField(x, y, direction, fld);
+	}
+
+	/**
+	 * ピースの当たり判定 (FieldBitboard用）
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param fld FieldBitboard
+	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+	 */
+	public boolean checkCollision(int x, int y, FieldBitboard fld) {
+		return checkCollision(x, y, direction, fld);
+	}
+
+	/**
+	 * ピースの当たり判定 (FieldBitboard用）
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld FieldBitboard
+	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+	 */
+	public boolean checkCollision(int x, int y, int rt, FieldBitboard fld) {
+		int size = 1;
+		if(big == true) size = 2;
+
+		for(int i = 0; i < getMaxBlock(); i++) {
+			int x2 = x + dataX[rt][i] * size;
+			int y2 = y + dataY[rt][i] * size;
+
+			for(int k = 0; k < size; k++) {
+				for(int l = 0; l < size; l++) {
+					if(fld.isSolid(x2 + k, y2 + l)) return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * ピースをそのまま落とした場合のY-coordinateを取得 (FieldBitboard用）<br>
+	 * Each block scans its own column once instead of re-testing the whole piece per row.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld FieldBitboard
+	 * @return ピースをそのまま落とした場合のY-coordinate
+	 */
+	public int getBottom(int x, int y, int rt, FieldBitboard fld) {
+		int size = 1;
+		if(big == true) size = 2;
+
+		int drop = Integer.MAX_VALUE;
+
+		for(int i = 0; i < getMaxBlock(); i++) {
+			int x2 = x + dataX[rt][i] * size;
+			int y2 = y + dataY[rt][i] * size;
+
+			for(int k = 0; k < size; k++) {
+				for(int l = 0; l < size; l++) {
+					int d = 0;
+					while((d < drop) && !fld.isSolid(x2 + k, y2 + l + d)) d++;
+					drop = Math.min(drop, d);
+				}
+			}
+		}
+
+		return y + drop - 1;
+	}
+
+	/**
+	 * ピースをそのまま落とした場合のY-coordinateを取得 (FieldBitboard用）
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param fld FieldBitboard
+	 * @return ピースをそのまま落とした場合のY-coordinate
+	 */
+	public int getBottom(int x, int y, FieldBitboard fld) {
+		return getBottom(x, y, direction, fld);
+	}
+
 	/**
 	 * ピースの幅を取得
 	 * @return ピースの幅
@@ -1030,6 +1154,34 @@ public class Piece implements Serializable {
 		return x;
 	}
 
+	/**
+	 * 現在位置からどこまで左に移動できるかを判定 (FieldBitboard用）
+	 * @param nowX 現在X位置
+	 * @param nowY 現在Y位置
+	 * @param rt ピースのDirection
+	 * @param fld FieldBitboard
+	 * @return 移動可能なもっとも左の位置
+	 */
+	public int getMostMovableLeft(int nowX, int nowY, int rt, FieldBitboard fld) {
+		int x = nowX;
+		while(!checkCollision(x - 1, nowY, rt, fld)) x--;
+		return x;
+	}
+
+	/**
+	 * 現在位置からどこまで右に移動できるかを判定 (FieldBitboard用）
+	 * @param nowX 現在X位置
+	 * @param nowY 現在Y位置
+	 * @param rt ピースのDirection
+	 * @param fld FieldBitboard
+	 * @return 移動可能なもっとも右の位置
+	 */
+	public int getMostMovableRight(int nowX, int nowY, int rt, FieldBitboard fld) {
+		int x = nowX;
+		while(!checkCollision(x + 1, nowY, rt, fld)) x++;
+		return x;
+	}
+
 	/**
 	 * rotation buttonを押したあとのピースのDirectionを取得
 	 * @param move rotationDirection (-1:左 1:右 2:180度）
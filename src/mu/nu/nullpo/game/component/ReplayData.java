@@ -29,7 +29,7 @@
 package mu.nu.nullpo.game.component;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import mu.nu.nullpo.util.CustomProperties;
 
@@ -40,11 +40,14 @@ public class ReplayData implements Serializable {
 	/** Serial version ID */
 	private static final long serialVersionUID = 737226985994393117L;
 
-	/** Button input dataの default の長さ */
-	public static final int DEFAULT_ARRAYLIST_SIZE = 60 * 60 * 10;
+	/** Button input dataの default の長さ (the array grows when it's full) */
+	public static final int DEFAULT_ARRAY_SIZE = 60 * 60;
 
-	/** Button input data */
-	public ArrayList<Integer> inputDataArray;
+	/** Button input data (one entry per frame) */
+	protected int[] inputData;
+
+	/** Number of frames in inputData */
+	protected int length;
 
 	/**
 	 * Default constructor
@@ -65,10 +68,8 @@ public class ReplayData implements Serializable {
 	 * Reset to defaults
 	 */
 	public void reset() {
-		if(inputDataArray == null)
-			inputDataArray = new ArrayList<Integer>(DEFAULT_ARRAYLIST_SIZE);
-		else
-			inputDataArray.clear();
+		if(inputData == null) inputData = new int[DEFAULT_ARRAY_SIZE];
+		length = 0;
 	}
 
 	/**
@@ -76,11 +77,16 @@ public class ReplayData implements Serializable {
 	 * @param r Copy source
 	 */
 	public void copy(ReplayData r) {
-		reset();
+		inputData = Arrays.copyOf(r.inputData, Math.max(r.length, DEFAULT_ARRAY_SIZE));
+		length = r.length;
+	}
 
-		for(int i = 0; i < r.inputDataArray.size(); i++) {
-			inputDataArray.add(i, r.inputDataArray.get(i));
-		}
+	/**
+	 * Get the number of recorded frames
+	 * @return Number of frames
+	 */
+	public int getLength() {
+		return length;
 	}
 
 	/**
@@ -89,11 +95,24 @@ public class ReplayData implements Serializable {
 	 * @param frame  frame  (経過 time）
 	 */
 	public void setInputData(int input, int frame) {
-		if((frame < 0) || (frame >= inputDataArray.size())) {
-			inputDataArray.add(input);
+		if((frame < 0) || (frame >= length)) {
+			addInputData(input, 1);
 		} else {
-			inputDataArray.set(frame, input);
+			inputData[frame] = input;
+		}
+	}
+
+	/**
+	 * Add the same button input to the end for some frames
+	 * @param input  button input状況のビット flag
+	 * @param count Number of frames
+	 */
+	public void addInputData(int input, int count) {
+		if(length + count > inputData.length) {
+			inputData = Arrays.copyOf(inputData, Math.max(inputData.length * 2, length + count));
 		}
+		Arrays.fill(inputData, length, length + count, input);
+		length += count;
 	}
 
 	/**
@@ -102,10 +121,10 @@ public class ReplayData implements Serializable {
 	 * @return  button input状況のビット flag
 	 */
 	public int getInputData(int frame) {
-		if((frame < 0) || (frame >= inputDataArray.size())) {
+		if((frame < 0) || (frame >= length)) {
 			return 0;
 		}
-		return inputDataArray.get(frame);
+		return inputData[frame];
 	}
 
 	/**
@@ -116,7 +135,7 @@ public class ReplayData implements Serializable {
 	 */
 	public void writeProperty(CustomProperties p, int id, int maxFrame) {
 		int max = maxFrame;
-		if((maxFrame < 0) || (maxFrame > inputDataArray.size())) max = inputDataArray.size();
+		if((maxFrame < 0) || (maxFrame > length)) max = length;
 
 		for(int i = 0; i < max; i++) {
 			int input = getInputData(i);
@@ -36,10 +36,12 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 
 import mu.nu.nullpo.game.component.Block;
+import mu.nu.nullpo.game.play.FrameProfiler;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ReplayFile;
 
 /**
  * Drawing and event handling EventReceiver
@@ -1160,6 +1162,32 @@ public class EventReceiver {
 	 */
 	public void renderInput(GameEngine engine, int playerID) {}
 
+	/**
+	 * It will be called at the end of each frame if the frame profiler is enabled. (For rendering)<br>
+	 * Draws the average and maximum time of each part of the last frames over the field.
+	 * A part is yellow if it took more than a quarter of a frame (1/240 second) at least once, and red if it took more than a frame.
+	 * @param engine GameEngine
+	 * @param playerID Player ID
+	 */
+	public void renderProfiler(GameEngine engine, int playerID) {
+		FrameProfiler prof = engine.profiler;
+		if(prof == null) return;
+
+		int x = getFieldDisplayPositionX(engine, playerID);
+		int y = getFieldDisplayPositionY(engine, playerID);
+		drawDirectFont(engine, playerID, x, y, "US     AVG   MAX", COLOR_BLUE, 0.5f);
+		for(int i = 0; i < FrameProfiler.NUM_PHASES; i++) {
+			long max = prof.getLastMax(i);
+			int color = COLOR_WHITE;
+			if(max > 1000000000L / 60) color = COLOR_RED;
+			else if(max > 1000000000L / 240) color = COLOR_YELLOW;
+			String name = FrameProfiler.PHASE_NAMES[i];
+			if(name.length() > 6) name = name.substring(0, 6);
+			drawDirectFont(engine, playerID, x, y + (i + 1) * 8,
+					String.format("%-6s%5d%6d", name, prof.getLastAverage(i) / 1000, max / 1000), color, 0.5f);
+		}
+	}
+
 	/**
 	 * It will be called when a block is cleared.
 	 * @param engine GameEngine
@@ -1244,9 +1272,7 @@ public class EventReceiver {
 				}
 			}
 
-			FileOutputStream out = new FileOutputStream(filename);
-			prop.store(new FileOutputStream(filename), "NullpoMino Replay");
-			out.close();
+			ReplayFile.save(filename, prop);
 			log.info("Saved replay file: " + filename);
 		} catch(IOException e) {
 			log.error("Couldn't save replay file to " + filename, e);
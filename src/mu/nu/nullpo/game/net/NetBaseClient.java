@@ -29,8 +29,9 @@
 package mu.nu.nullpo.game.net;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.LinkedList;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -74,8 +75,8 @@ public class NetBaseClient extends Thread {
 	/** IP address */
 	protected String ip;
 
-	/** 前回の不完全パケット */
-	protected StringBuilder notCompletePacketBuffer;
+	/** 受信バッファ (不完全パケットを含む) */
+	protected NetPacketBuffer packetBuffer;
 
 	/** メッセージ受け取りインターフェース */
 	protected LinkedList<NetMessageListener> listeners = new LinkedList<NetMessageListener>();
@@ -140,34 +141,16 @@ public class NetBaseClient extends Thread {
 			startPingTask();
 
 			// メッセージ受信
-			byte[] buf = new byte[BUF_SIZE];
-			int size;
+			ReadableByteChannel in = Channels.newChannel(socket.getInputStream());
+			packetBuffer = new NetPacketBuffer(BUF_SIZE);
 
-			while( (threadRunning) && ((size = socket.getInputStream().read(buf)) > 0) ) {
-				String message = new String(buf, 0, size, "UTF-8");
-				//log.debug(message);
-
-				// 受信したメッセージに応じていろいろ処理をする
-				StringBuilder packetBuffer = new StringBuilder();
-				if(notCompletePacketBuffer != null) packetBuffer.append(notCompletePacketBuffer);
-				packetBuffer.append(message);
-
-				int index;
-				while((index = packetBuffer.indexOf("\n")) != -1) {
-					String msgNow = packetBuffer.substring(0, index);
+			while( (threadRunning) && (packetBuffer.read(in) > 0) ) {
+				// 受信したメッセージに応じていろいろ処理をする (不完全パケットはバッファに残る)
+				String msgNow;
+				while((msgNow = packetBuffer.nextPacket()) != null) {
 					processPacket(msgNow);
-					packetBuffer = packetBuffer.replace(0, index+1, "");
-				}
-
-				// 不完全パケットがある場合
-				if(packetBuffer.length() > 0) {
-					notCompletePacketBuffer = packetBuffer;
-				} else {
-					notCompletePacketBuffer = null;
 				}
 			}
-		} catch (UnsupportedEncodingException e) {
-			throw new Error("UTF-8 Not Supported", e);
 		} catch (Exception e) {
 			log.info("Socket disconnected", e);
 			exDisconnectReason = e;
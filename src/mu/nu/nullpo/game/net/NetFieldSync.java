@@ -0,0 +1,308 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.net;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+
+import mu.nu.nullpo.game.component.Block;
+import mu.nu.nullpo.game.component.Field;
+import biz.source_code.base64Coder.Base64Coder;
+
+/**
+ * Field delta sync for netplay.<br>
+ * Instead of the whole field as text, only the rows changed since the last message are sent.
+ * Each row is a bitmask of the occupied cells followed by the colors (and attributes) of those cells.
+ * A full snapshot is sent for the first message, when the field format changes,
+ * when the players in the room change and every {@link #FULL_SNAPSHOT_INTERVAL} messages.
+ * Because the connection is TCP, a receiver that got the previous message has the same field as the sender,
+ * so there's no explicit acknowledge; a receiver that missed a message just waits for the next full snapshot.<br>
+ * Message format:
+ * <code>game\tfielddelta\t[VERSION]\t[SKIN]\t[HIGHEST WALL Y]\t[SEQUENCE]\t[BASE64 PAYLOAD]</code><br>
+ * One instance is used for either sending or receiving the field of one player.
+ */
+public class NetFieldSync {
+	/** Protocol version (0 means the client only knows the text field messages) */
+	public static final int VERSION = 1;
+
+	/** A full snapshot is sent at least once in this many messages */
+	public static final int FULL_SNAPSHOT_INTERVAL = 60;
+
+	/** Payload flag: Full snapshot */
+	protected static final int FLAG_FULL = 1;
+
+	/** Payload flag: Block attributes are included */
+	protected static final int FLAG_ATTRIBUTE = 2;
+
+	/** Sequence number of the last sent/applied message (-1 if none) */
+	protected int seq = -1;
+
+	/** true if the next message has to be a full snapshot */
+	protected boolean forceFull = true;
+
+	/** Number of messages sent since the last full snapshot */
+	protected int sinceFull;
+
+	/** Block colors of the last sent field, row 0 is y=-1 */
+	protected int[][] lastColor;
+
+	/** Block attributes of the last sent field, row 0 is y=-1 */
+	protected int[][] lastAttribute;
+
+	/** Whether the last sent field included attributes */
+	protected boolean lastWithAttribute;
+
+	/** Highest wall Y of the last sent field */
+	protected int lastHighestWallY;
+
+	/** UIDs of the players who received the last full snapshot */
+	protected HashSet<Integer> knownReceivers = new HashSet<Integer>();
+
+	/**
+	 * Forget the previous field. The next message is a full snapshot (sender) or is only accepted if it's a full snapshot (receiver).
+	 */
+	public void reset() {
+		forceFull = true;
+		lastColor = null;
+		lastAttribute = null;
+		knownReceivers.clear();
+	}
+
+	/**
+	 * Forget a receiver who left the room (or logged out), so a full snapshot is sent if it comes back
+	 * before the receivers are compared again
+	 * @param uid UID
+	 */
+	public void removeReceiver(int uid) {
+		knownReceivers.remove(uid);
+	}
+
+	/**
+	 * Create a field message
+	 * @param field Field
+	 * @param skin Block skin
+	 * @param highestWallY Highest wall Y (ignored by the receiver if withAttribute is true)
+	 * @param withAttribute true to include block attributes
+	 * @param receivers UIDs of the players who will receive this message
+	 * @return Message (with '\n')
+	 */
+	public String createMessage(Field field, int skin, int highestWallY, boolean withAttribute, Collection<Integer> receivers) {
+		int width = field.getWidth();
+		int rows = field.getHeight() + 1;
+
+		boolean full = forceFull || (lastColor == null) || (lastColor.length != rows) || (lastColor[0].length != width) ||
+		               (lastWithAttribute != withAttribute) || (lastHighestWallY != highestWallY) ||
+		               (sinceFull >= FULL_SNAPSHOT_INTERVAL - 1) || !knownReceivers.equals(new HashSet<Integer>(receivers));
+
+		if(full) {
+			lastColor = new int[rows][width];
+			lastAttribute = new int[rows][width];
+			lastWithAttribute = withAttribute;
+			lastHighestWallY = highestWallY;
+			knownReceivers.clear();
+			knownReceivers.addAll(receivers);
+			forceFull = false;
+			sinceFull = 0;
+		} else {
+			sinceFull++;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write((full ? FLAG_FULL : 0) | (withAttribute ? FLAG_ATTRIBUTE : 0));
+		writeVarInt(out, width);
+		writeVarInt(out, rows);
+
+		int[] color = new int[width];
+		int[] attr = new int[width];
+		byte[] mask = new byte[(width + 7) / 8];
+
+		for(int r = 0; r < rows; r++) {
+			boolean changed = false;
+			for(int x = 0; x < width; x++) {
+				Block blk = field.getBlock(x, r - 1);
+				color[x] = (blk != null) ? blk.color : Block.BLOCK_COLOR_NONE;
+				attr[x] = (withAttribute && (blk != null)) ? blk.attribute : 0;
+				if((color[x] != lastColor[r][x]) || (attr[x] != lastAttribute[r][x])) changed = true;
+			}
+			// A full snapshot starts from an empty field, so empty rows are skipped too
+			if(!changed) continue;
+
+			writeVarInt(out, r);
+			for(int i = 0; i < mask.length; i++) mask[i] = 0;
+			for(int x = 0; x < width; x++) {
+				if(isOccupied(color[x], attr[x], withAttribute)) mask[x >> 3] |= (1 << (x & 7));
+			}
+			out.write(mask, 0, mask.length);
+			for(int x = 0; x < width; x++) {
+				if(isOccupied(color[x], attr[x], withAttribute)) {
+					writeVarInt(out, color[x] + 1);
+					if(withAttribute) writeVarInt(out, attr[x]);
+				}
+			}
+
+			System.arraycopy(color, 0, lastColor[r], 0, width);
+			System.arraycopy(attr, 0, lastAttribute[r], 0, width);
+		}
+
+		seq++;
+		return "game\tfielddelta\t" + VERSION + "\t" + skin + "\t" + highestWallY + "\t" + seq + "\t" +
+		       new String(Base64Coder.encode(out.toByteArray())) + "\n";
+	}
+
+	/**
+	 * Apply a received field message
+	 * @param field Field
+	 * @param message Message (after the server added the UID and seat: message[4] is the version)
+	 * @return true if the field was updated; false if the message is ignored (version mismatch, missed message or wrong field size)
+	 */
+	public boolean applyMessage(Field field, String[] message) {
+		if(message.length < 9) return false;
+
+		try {
+			if(Integer.parseInt(message[4]) != VERSION) return false;
+			int skin = Integer.parseInt(message[5]);
+			int highestWallY = Integer.parseInt(message[6]);
+			int msgSeq = Integer.parseInt(message[7]);
+			byte[] data = Base64Coder.decode(message[8]);
+
+			int[] pos = new int[] {0};
+			int flags = data[pos[0]++];
+			boolean full = (flags & FLAG_FULL) != 0;
+			boolean withAttribute = (flags & FLAG_ATTRIBUTE) != 0;
+			int width = readVarInt(data, pos);
+			int rows = readVarInt(data, pos);
+
+			if(!full && (forceFull || (msgSeq != seq + 1))) return false;
+			if((width != field.getWidth()) || (rows != field.getHeight() + 1)) return false;
+
+			if(full) {
+				for(int r = 0; r < rows; r++) setRow(field, r - 1, null, null, skin, highestWallY, withAttribute);
+			}
+
+			int[] color = new int[width];
+			int[] attr = new int[width];
+			int maskLength = (width + 7) / 8;
+
+			while(pos[0] < data.length) {
+				int r = readVarInt(data, pos);
+				int maskStart = pos[0];
+				pos[0] += maskLength;
+				for(int x = 0; x < width; x++) {
+					if((data[maskStart + (x >> 3)] & (1 << (x & 7))) != 0) {
+						color[x] = readVarInt(data, pos) - 1;
+						attr[x] = withAttribute ? readVarInt(data, pos) : 0;
+					} else {
+						color[x] = Block.BLOCK_COLOR_NONE;
+						attr[x] = 0;
+					}
+				}
+				setRow(field, r - 1, color, attr, skin, highestWallY, withAttribute);
+			}
+
+			seq = msgSeq;
+			forceFull = false;
+			return true;
+		} catch (RuntimeException e) {
+			// Broken message; wait for the next full snapshot
+			forceFull = true;
+			return false;
+		}
+	}
+
+	/**
+	 * Set the blocks of one row the same way as the text field messages do
+	 * @param field Field
+	 * @param y Y-coordinate
+	 * @param color Block colors (null for an empty row)
+	 * @param attr Block attributes (null for an empty row)
+	 * @param skin Block skin
+	 * @param highestWallY Highest wall Y
+	 * @param withAttribute true if attributes are included
+	 */
+	protected static void setRow(Field field, int y, int[] color, int[] attr, int skin, int highestWallY, boolean withAttribute) {
+		for(int x = 0; x < field.getWidth(); x++) {
+			Block blk = new Block();
+			blk.color = (color != null) ? color[x] : Block.BLOCK_COLOR_NONE;
+
+			blk.skin = skin;
+			blk.elapsedFrames = -1;
+			if(withAttribute) blk.attribute = (attr != null) ? attr[x] : 0;
+			blk.setAttribute(Block.BLOCK_ATTRIBUTE_VISIBLE, true);
+			blk.setAttribute(Block.BLOCK_ATTRIBUTE_OUTLINE, true);
+			if(!withAttribute && (y >= highestWallY)) {
+				blk.setAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE, true);
+				blk.setAttribute(Block.BLOCK_ATTRIBUTE_WALL, true);
+			}
+
+			field.setBlock(x, y, blk);
+		}
+	}
+
+	/**
+	 * Check if a cell has to be sent
+	 * @param color Block color
+	 * @param attr Block attribute
+	 * @param withAttribute true if attributes are included
+	 * @return true if the cell is not empty
+	 */
+	protected static boolean isOccupied(int color, int attr, boolean withAttribute) {
+		return (color != Block.BLOCK_COLOR_NONE) || (withAttribute && (attr != 0));
+	}
+
+	/**
+	 * Write a non-negative int in 7-bit groups
+	 * @param out Output
+	 * @param value Value
+	 */
+	protected static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Read an int written by {@link #writeVarInt(ByteArrayOutputStream, int)}
+	 * @param data Data
+	 * @param pos Read position (pos[0] is advanced)
+	 * @return Value
+	 */
+	protected static int readVarInt(byte[] data, int[] pos) {
+		int value = 0;
+		int shift = 0;
+		while(true) {
+			int b = data[pos[0]++] & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+			shift += 7;
+		}
+	}
+}
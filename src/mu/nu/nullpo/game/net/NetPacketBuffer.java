@@ -0,0 +1,193 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Receive buffer of one connection.<br>
+ * Received bytes are collected in a direct buffer and cut into packets at '\n'.
+ * Only complete packets are decoded, so a UTF-8 character split between two reads is decoded correctly,
+ * and each packet is scanned and decoded once no matter how many reads it took.
+ */
+public class NetPacketBuffer {
+	/** Default initial capacity */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/** Returned by read when the incomplete packet is larger than the maximum packet size */
+	public static final int PACKET_TOO_LARGE = -2;
+
+	/** Received bytes. The position is the end of the received data. */
+	protected ByteBuffer buffer;
+
+	/** Start of the first packet that is not returned yet */
+	protected int packetStart;
+
+	/** Bytes before this position are already scanned for '\n' */
+	protected int scanPos;
+
+	/** Maximum size of one packet in bytes (0=No limit) */
+	protected int maxPacketSize;
+
+	/** UTF-8 decoder */
+	protected CharsetDecoder decoder;
+
+	/** Decode buffer (reused) */
+	protected CharBuffer charBuffer;
+
+	/**
+	 * Constructor
+	 */
+	public NetPacketBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity Initial capacity (grows when a packet doesn't fit)
+	 */
+	public NetPacketBuffer(int capacity) {
+		this(capacity, 0);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity Initial capacity (grows when a packet doesn't fit)
+	 * @param maxPacketSize Maximum size of one packet in bytes (0=No limit)
+	 */
+	public NetPacketBuffer(int capacity, int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+		buffer = ByteBuffer.allocateDirect(capacity);
+		charBuffer = CharBuffer.allocate(capacity);
+		decoder = Charset.forName("UTF-8").newDecoder();
+		decoder.onMalformedInput(CodingErrorAction.REPLACE);
+		decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Read from a channel into this buffer
+	 * @param channel Channel
+	 * @return Number of bytes read (-1 at end-of-stream, PACKET_TOO_LARGE if the incomplete packet already fills maxPacketSize)
+	 * @throws IOException When the read fails
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		if(!buffer.hasRemaining()) {
+			// The incomplete packet fills the buffer
+			int newCapacity = buffer.capacity() * 2;
+			if(maxPacketSize > 0) {
+				if(buffer.capacity() >= maxPacketSize) return PACKET_TOO_LARGE;
+				newCapacity = Math.min(newCapacity, maxPacketSize);
+			}
+			ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+			buffer.flip();
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		}
+		return channel.read(buffer);
+	}
+
+	/**
+	 * Get the next complete packet.
+	 * When there's none, the incomplete packet is moved to the beginning of the buffer.
+	 * @return Packet without '\n' (null if there's no complete packet)
+	 */
+	public String nextPacket() {
+		int end = buffer.position();
+
+		for(int i = scanPos; i < end; i++) {
+			if(buffer.get(i) == '\n') {
+				String packet = decode(packetStart, i);
+				packetStart = i + 1;
+				scanPos = packetStart;
+				return packet;
+			}
+		}
+
+		// No more complete packets
+		if(packetStart > 0) {
+			buffer.limit(end);
+			buffer.position(packetStart);
+			buffer.compact();
+			end -= packetStart;
+			packetStart = 0;
+		}
+		scanPos = end;
+		return null;
+	}
+
+	/**
+	 * Decode a part of the buffer
+	 * @param start Start position
+	 * @param end End position (exclusive)
+	 * @return String
+	 */
+	protected String decode(int start, int end) {
+		int writePos = buffer.position();
+
+		// UTF-8 never gives more chars than bytes
+		if(charBuffer.capacity() < end - start) {
+			charBuffer = CharBuffer.allocate(Math.max(end - start, charBuffer.capacity() * 2));
+		}
+		charBuffer.clear();
+
+		buffer.limit(end);
+		buffer.position(start);
+		decoder.reset();
+		decoder.decode(buffer, charBuffer, true);
+		decoder.flush(charBuffer);
+
+		buffer.limit(buffer.capacity());
+		buffer.position(writePos);
+
+		charBuffer.flip();
+		return charBuffer.toString();
+	}
+
+	/**
+	 * @return Maximum size of one packet in bytes (0=No limit)
+	 */
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+
+	/**
+	 * Discard all data
+	 */
+	public void clear() {
+		buffer.clear();
+		packetStart = 0;
+		scanPos = 0;
+	}
+}
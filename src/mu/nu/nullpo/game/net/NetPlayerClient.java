@@ -29,7 +29,10 @@
 package mu.nu.nullpo.game.net;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 
 import mu.nu.nullpo.game.play.GameManager;
@@ -46,6 +49,9 @@ public class NetPlayerClient extends NetBaseClient {
 	/** Player情報 */
 	protected LinkedList<NetPlayerInfo> playerInfoList = new LinkedList<NetPlayerInfo>();
 
+	/** Copy of playerInfoList for other threads (replaced on the network thread whenever the list changes) */
+	protected volatile List<NetPlayerInfo> playerInfoListCopy = Collections.emptyList();
+
 	/** ルーム情報 */
 	protected LinkedList<NetRoomInfo> roomInfoList = new LinkedList<NetRoomInfo>();
 
@@ -139,7 +145,8 @@ public class NetPlayerClient extends NetBaseClient {
 			}
 
 			send("login\t" + GameManager.getVersionMajor() + "\t" + NetUtil.urlEncode(playerName) + "\t" + Locale.getDefault().getCountry() + "\t" +
-				 NetUtil.urlEncode(playerTeam) + "\t" + GameManager.getVersionMinor() + "\t" + GameManager.isDevBuild() + "\n");
+				 NetUtil.urlEncode(playerTeam) + "\t" + GameManager.getVersionMinor() + "\t" + GameManager.isDevBuild() + "\t" +
+				 NetFieldSync.VERSION + "\n");
 		}
 		// 人count更新
 		if(message[0].equals("observerupdate")) {
@@ -163,6 +170,7 @@ public class NetPlayerClient extends NetBaseClient {
 				NetPlayerInfo p = new NetPlayerInfo(message[2 + i]);
 				playerInfoList.add(p);
 			}
+			updatePlayerInfoListCopy();
 		}
 		// Player情報更新/新規Player
 		if(message[0].equals("playerupdate") || message[0].equals("playernew")) {
@@ -177,6 +185,7 @@ public class NetPlayerClient extends NetBaseClient {
 				int index = playerInfoList.indexOf(p2);
 				playerInfoList.set(index, p);
 			}
+			updatePlayerInfoListCopy();
 		}
 		// Player切断
 		if(message[0].equals("playerlogout")) {
@@ -187,6 +196,7 @@ public class NetPlayerClient extends NetBaseClient {
 
 			if(p2 != null) {
 				playerInfoList.remove(p2);
+				updatePlayerInfoListCopy();
 				p2.delete();
 			}
 		}
@@ -301,6 +311,21 @@ public class NetPlayerClient extends NetBaseClient {
 		return playerInfoList;
 	}
 
+	/**
+	 * Get the player list from a thread other than the network thread
+	 * @return Copy of the player list (never changes after it's returned)
+	 */
+	public List<NetPlayerInfo> getPlayerInfoListCopy() {
+		return playerInfoListCopy;
+	}
+
+	/**
+	 * Replace the copy of the player list (called on the network thread after playerInfoList is changed)
+	 */
+	protected void updatePlayerInfoListCopy() {
+		playerInfoListCopy = Collections.unmodifiableList(new ArrayList<NetPlayerInfo>(playerInfoList));
+	}
+
 	/**
 	 * @return ルーム情報のリスト
 	 */
@@ -104,6 +104,15 @@ public class NetPlayerInfo implements Serializable {
 	/** true if this player is using tripcode */
 	public boolean isTripUse = false;
 
+	/** Field delta sync protocol version of this player's client (0:Not supported) */
+	public int fieldSyncVersion = 0;
+
+	/** Uncompressed personal records of the last export */
+	protected transient String strPersonalBestCacheSource;
+
+	/** Compressed personal records of the last export */
+	protected transient String strPersonalBestCache;
+
 	/** Real host name (for internal use) */
 	public String strRealHost = "";
 
@@ -178,6 +187,7 @@ public class NetPlayerInfo implements Serializable {
 		playing = n.playing;
 		connected = n.connected;
 		isTripUse = n.isTripUse;
+		fieldSyncVersion = n.fieldSyncVersion;
 		strRealHost = n.strRealHost;
 		strRealIP = n.strRealIP;
 		channel = n.channel;
@@ -185,7 +195,7 @@ public class NetPlayerInfo implements Serializable {
 
 	/**
 	 * Import from String array
-	 * @param pdata String array (String[27])
+	 * @param pdata String array (String[28])
 	 */
 	public void importStringArray(String[] pdata) {
 		strName = NetUtil.urlDecode(pdata[0]);
@@ -217,6 +227,7 @@ public class NetPlayerInfo implements Serializable {
 		}
 		if(pdata.length > 25) playCountNow = Integer.parseInt(pdata[25]);
 		if(pdata.length > 26) winCountNow = Integer.parseInt(pdata[26]);
+		if(pdata.length > 27) fieldSyncVersion = Integer.parseInt(pdata[27]);
 	}
 
 	/**
@@ -229,10 +240,10 @@ public class NetPlayerInfo implements Serializable {
 
 	/**
 	 * Export to String array
-	 * @return String array (String[27])
+	 * @return String array (String[28])
 	 */
 	public String[] exportStringArray() {
-		String[] pdata = new String[27];
+		String[] pdata = new String[28];
 		pdata[0] = NetUtil.urlEncode(strName);
 		pdata[1] = NetUtil.urlEncode(strCountry);
 		pdata[2] = NetUtil.urlEncode(strHost);
@@ -257,12 +268,26 @@ public class NetPlayerInfo implements Serializable {
 		pdata[21] = Integer.toString(winCount[1]);
 		pdata[22] = Integer.toString(winCount[2]);
 		pdata[23] = Integer.toString(winCount[3]);
-		pdata[24] = NetUtil.compressString(spPersonalBest.exportString());
+		pdata[24] = exportCompressedPersonalBest();
 		pdata[25] = Integer.toString(playCountNow);
 		pdata[26] = Integer.toString(winCountNow);
+		pdata[27] = Integer.toString(fieldSyncVersion);
 		return pdata;
 	}
 
+	/**
+	 * Compress the personal records (only when they changed since the last export, as the player list sends every player)
+	 * @return Compressed personal records
+	 */
+	protected String exportCompressedPersonalBest() {
+		String strPersonalBest = spPersonalBest.exportString();
+		if(!strPersonalBest.equals(strPersonalBestCacheSource)) {
+			strPersonalBestCache = NetUtil.compressString(strPersonalBest);
+			strPersonalBestCacheSource = strPersonalBest;
+		}
+		return strPersonalBestCache;
+	}
+
 	/**
 	 * Export to String (Divided by ;)
 	 * @return String
@@ -0,0 +1,413 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.net;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Leaderboard list.<br>
+ * A List of entries sorted from the best, stored in a tree (treap) that knows the size of each subtree,
+ * so getting/adding/removing by index, inserting at the sorted place ({@link #addSorted(Object)})
+ * and finding the place of a player ({@link #indexOfKey(String)}) are O(log n).
+ * Entries are found by a key (usually the player name), one entry per key.
+ * @param <E> Entry type
+ */
+public abstract class NetRankingList<E> extends AbstractList<E> implements Serializable {
+	/** Serial version ID */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Tree node
+	 * @param <E> Entry type
+	 */
+	protected static class Node<E> implements Serializable {
+		/** Serial version ID */
+		private static final long serialVersionUID = 1L;
+
+		/** Entry */
+		E value;
+
+		/** Children and parent */
+		Node<E> left, right, parent;
+
+		/** Number of nodes in this subtree */
+		int size = 1;
+
+		/** Heap priority (random) */
+		int priority;
+	}
+
+	/** Root node */
+	protected Node<E> root;
+
+	/** Key to node */
+	protected HashMap<String, Node<E>> keyMap = new HashMap<String, Node<E>>();
+
+	/** Random seed for the priorities */
+	protected int seed = 0x2545F491;
+
+	/**
+	 * Get the key of an entry
+	 * @param e Entry
+	 * @return Key (usually the player name)
+	 */
+	protected abstract String getKey(E e);
+
+	/**
+	 * Compare 2 entries
+	 * @param e1 Entry 1
+	 * @param e2 Entry 2
+	 * @return true if e1 ranks higher than e2
+	 */
+	protected abstract boolean isBetter(E e1, E e2);
+
+	@Override
+	public int size() {
+		return (root == null) ? 0 : root.size;
+	}
+
+	@Override
+	public E get(int index) {
+		return nodeAt(index).value;
+	}
+
+	@Override
+	public E set(int index, E e) {
+		Node<E> n = nodeAt(index);
+		E old = n.value;
+		unmapKey(n);
+		n.value = e;
+		keyMap.put(getKey(e), n);
+		return old;
+	}
+
+	@Override
+	public void add(int index, E e) {
+		if((index < 0) || (index > size())) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		insertAt(index, e);
+	}
+
+	@Override
+	public E remove(int index) {
+		Node<E> n = nodeAt(index);
+		removeNode(n);
+		return n.value;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		for(Node<E> n = first(); n != null; n = successor(n)) {
+			if((o == null) ? (n.value == null) : o.equals(n.value)) {
+				removeNode(n);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		keyMap.clear();
+		modCount++;
+	}
+
+	/**
+	 * Remove the last (worst) entry
+	 * @return Removed entry
+	 */
+	public E removeLast() {
+		if(root == null) throw new NoSuchElementException();
+		return remove(size() - 1);
+	}
+
+	/**
+	 * Insert an entry at its sorted place (after the entries that are not worse than it)
+	 * @param e Entry
+	 * @return Index of the entry
+	 */
+	public int addSorted(E e) {
+		int index = 0;
+		Node<E> n = root;
+		while(n != null) {
+			if(isBetter(e, n.value)) {
+				n = n.left;
+			} else {
+				index += size(n.left) + 1;
+				n = n.right;
+			}
+		}
+		insertAt(index, e);
+		return index;
+	}
+
+	/**
+	 * Get the entry of a key
+	 * @param key Key
+	 * @return Entry (null if not found)
+	 */
+	public E getByKey(String key) {
+		Node<E> n = keyMap.get(key);
+		return (n == null) ? null : n.value;
+	}
+
+	/**
+	 * Get the index of a key
+	 * @param key Key
+	 * @return Index (-1 if not found)
+	 */
+	public int indexOfKey(String key) {
+		Node<E> n = keyMap.get(key);
+		return (n == null) ? -1 : indexOfNode(n);
+	}
+
+	/**
+	 * Remove the entry of a key
+	 * @param key Key
+	 * @return true if removed
+	 */
+	public boolean removeByKey(String key) {
+		Node<E> n = keyMap.get(key);
+		if(n == null) return false;
+		removeNode(n);
+		return true;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			Node<E> next = first();
+			Node<E> lastReturned;
+			int expectedModCount = modCount;
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public E next() {
+				if(modCount != expectedModCount) throw new ConcurrentModificationException();
+				if(next == null) throw new NoSuchElementException();
+				lastReturned = next;
+				next = successor(next);
+				return lastReturned.value;
+			}
+
+			public void remove() {
+				if(lastReturned == null) throw new IllegalStateException();
+				if(modCount != expectedModCount) throw new ConcurrentModificationException();
+				removeNode(lastReturned);
+				lastReturned = null;
+				expectedModCount = modCount;
+			}
+		};
+	}
+
+	/**
+	 * Size of a subtree
+	 * @param n Node (can be null)
+	 * @return Size
+	 */
+	protected static int size(Node<?> n) {
+		return (n == null) ? 0 : n.size;
+	}
+
+	/**
+	 * Get the node at an index
+	 * @param index Index
+	 * @return Node
+	 */
+	protected Node<E> nodeAt(int index) {
+		if((index < 0) || (index >= size())) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		Node<E> n = root;
+		while(true) {
+			int leftSize = size(n.left);
+			if(index < leftSize) {
+				n = n.left;
+			} else if(index == leftSize) {
+				return n;
+			} else {
+				index -= leftSize + 1;
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Get the index of a node
+	 * @param n Node
+	 * @return Index
+	 */
+	protected int indexOfNode(Node<E> n) {
+		int index = size(n.left);
+		while(n.parent != null) {
+			if(n == n.parent.right) index += size(n.parent.left) + 1;
+			n = n.parent;
+		}
+		return index;
+	}
+
+	/**
+	 * Get the first node
+	 * @return First node (null if empty)
+	 */
+	protected Node<E> first() {
+		Node<E> n = root;
+		if(n != null) while(n.left != null) n = n.left;
+		return n;
+	}
+
+	/**
+	 * Get the next node
+	 * @param n Node
+	 * @return Next node (null if n is the last)
+	 */
+	protected Node<E> successor(Node<E> n) {
+		if(n.right != null) {
+			n = n.right;
+			while(n.left != null) n = n.left;
+			return n;
+		}
+		while((n.parent != null) && (n == n.parent.right)) n = n.parent;
+		return n.parent;
+	}
+
+	/**
+	 * Insert a node
+	 * @param index Index
+	 * @param e Entry
+	 */
+	protected void insertAt(int index, E e) {
+		Node<E> n = new Node<E>();
+		n.value = e;
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		n.priority = seed;
+
+		if(root == null) {
+			root = n;
+		} else {
+			Node<E> p = root;
+			while(true) {
+				p.size++;
+				int leftSize = size(p.left);
+				if(index <= leftSize) {
+					if(p.left == null) {
+						p.left = n;
+						break;
+					}
+					p = p.left;
+				} else {
+					index -= leftSize + 1;
+					if(p.right == null) {
+						p.right = n;
+						break;
+					}
+					p = p.right;
+				}
+			}
+			n.parent = p;
+			while((n.parent != null) && (n.priority > n.parent.priority)) rotateUp(n);
+		}
+
+		// An older entry of the same key stays in the list, but can't be found by the key anymore
+		keyMap.put(getKey(e), n);
+		modCount++;
+	}
+
+	/**
+	 * Remove a node
+	 * @param n Node
+	 */
+	protected void removeNode(Node<E> n) {
+		// Rotate down to a leaf
+		while((n.left != null) || (n.right != null)) {
+			Node<E> child;
+			if(n.left == null) child = n.right;
+			else if(n.right == null) child = n.left;
+			else child = (n.left.priority > n.right.priority) ? n.left : n.right;
+			rotateUp(child);
+		}
+
+		Node<E> p = n.parent;
+		if(p == null) {
+			root = null;
+		} else {
+			if(p.left == n) p.left = null;
+			else p.right = null;
+			for(Node<E> a = p; a != null; a = a.parent) a.size--;
+		}
+		n.parent = null;
+
+		unmapKey(n);
+		modCount++;
+	}
+
+	/**
+	 * Remove a node from keyMap (if the key still points to it)
+	 * @param n Node
+	 */
+	protected void unmapKey(Node<E> n) {
+		String key = getKey(n.value);
+		if(keyMap.get(key) == n) keyMap.remove(key);
+	}
+
+	/**
+	 * Rotate a node above its parent
+	 * @param n Node
+	 */
+	protected void rotateUp(Node<E> n) {
+		Node<E> p = n.parent;
+		Node<E> g = p.parent;
+
+		if(n == p.left) {
+			p.left = n.right;
+			if(n.right != null) n.right.parent = p;
+			n.right = p;
+		} else {
+			p.right = n.left;
+			if(n.left != null) n.left.parent = p;
+			n.left = p;
+		}
+		p.parent = n;
+		n.parent = g;
+
+		if(g == null) root = n;
+		else if(g.left == p) g.left = n;
+		else g.right = n;
+
+		p.size = size(p.left) + size(p.right) + 1;
+		n.size = size(n.left) + size(n.right) + 1;
+	}
+}
@@ -132,8 +132,7 @@ public class NetSPPersonalBest implements Serializable {
 
 		for(int i = 0; i < listRecord.size(); i++) {
 			NetSPRecord record = listRecord.get(i);
-			String strRecordCompressed = NetUtil.compressString(record.exportString());
-			prop.setProperty(strKey + i, strRecordCompressed);
+			prop.setProperty(strKey + i, record.exportCompressedString());
 		}
 	}
 
@@ -151,6 +150,7 @@ public class NetSPPersonalBest implements Serializable {
 			if(strRecordCompressed != null) {
 				String strRecord = NetUtil.decompressString(strRecordCompressed);
 				NetSPRecord record = new NetSPRecord(strRecord);
+				record.strCompressedCache = strRecordCompressed;
 				listRecord.add(record);
 			}
 		}
@@ -164,7 +164,7 @@ public class NetSPPersonalBest implements Serializable {
 		String strResult = "";
 		for(int i = 0; i < listRecord.size(); i++) {
 			if(i > 0) strResult += ";";
-			strResult += NetUtil.compressString(listRecord.get(i).exportString());
+			strResult += listRecord.get(i).exportCompressedString();
 		}
 		return strResult;
 	}
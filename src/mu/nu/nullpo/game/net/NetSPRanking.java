@@ -30,8 +30,8 @@ public class NetSPRanking implements Serializable {
 	/** Max number of records (-1:Unlimited) */
 	public int maxRecords;
 
-	/** Records */
-	public LinkedList<NetSPRecord> listRecord;
+	/** Records (sorted from the best) */
+	public NetRankingList<NetSPRecord> listRecord;
 
 	/**
 	 * Default Constructor
@@ -77,7 +77,7 @@ public class NetSPRanking implements Serializable {
 		style = 0;
 		rankingType = 0;
 		maxRecords = 100;
-		listRecord = new LinkedList<NetSPRecord>();
+		listRecord = new RecordList();
 	}
 
 	/**
@@ -91,7 +91,7 @@ public class NetSPRanking implements Serializable {
 		style = s.style;
 		rankingType = s.rankingType;
 		maxRecords = s.maxRecords;
-		listRecord = new LinkedList<NetSPRecord>();
+		listRecord = new RecordList();
 		for(int i = 0; i < s.listRecord.size(); i++) {
 			listRecord.add(new NetSPRecord(s.listRecord.get(i)));
 		}
@@ -103,8 +103,7 @@ public class NetSPRanking implements Serializable {
 	 * @return NetSPRecord (null if not found)
 	 */
 	public NetSPRecord getRecord(String strPlayerName) {
-		int index = indexOf(strPlayerName);
-		return (index == -1) ? null : listRecord.get(index);
+		return listRecord.getByKey(strPlayerName);
 	}
 
 	/**
@@ -122,13 +121,7 @@ public class NetSPRanking implements Serializable {
 	 * @return Index (-1 if not found)
 	 */
 	public int indexOf(String strPlayerName) {
-		for(int i = 0; i < listRecord.size(); i++) {
-			NetSPRecord r = listRecord.get(i);
-			if(r.strPlayerName.equals(strPlayerName)) {
-				return i;
-			}
-		}
-		return -1;
+		return listRecord.indexOfKey(strPlayerName);
 	}
 
 	/**
@@ -146,19 +139,7 @@ public class NetSPRanking implements Serializable {
 	 * @return Number of records removed (0 if not found)
 	 */
 	public int removeRecord(String strPlayerName) {
-		int count = 0;
-
-		LinkedList<NetSPRecord> list = new LinkedList<NetSPRecord>(listRecord);
-		for(int i = 0; i < list.size(); i++) {
-			NetSPRecord r = list.get(i);
-
-			if(r.strPlayerName.equals(strPlayerName)) {
-				listRecord.remove(i);
-				count++;
-			}
-		}
-
-		return count;
+		return listRecord.removeByKey(strPlayerName) ? 1 : 0;
 	}
 
 	/**
@@ -192,23 +173,8 @@ public class NetSPRanking implements Serializable {
 		// Remove older records
 		removeRecord(r1.strPlayerName);
 
-		// Insert new record
-		LinkedList<NetSPRecord> list = new LinkedList<NetSPRecord>(listRecord);
-		int rank = -1;
-
-		for(int i = 0; i < list.size(); i++) {
-			if(r1.compare(rankingType, list.get(i))) {
-				listRecord.add(i, r1);
-				rank = i;
-				break;
-			}
-		}
-
-		// Couldn't rank in? Add to last.
-		if(rank == -1) {
-			listRecord.add(r1);
-			rank = listRecord.size() - 1;
-		}
+		// Insert new record (before the first record that is worse than it)
+		int rank = listRecord.addSorted(r1);
 
 		// Remove anything after maxRecords
 		while(listRecord.size() >= maxRecords) listRecord.removeLast();
@@ -227,8 +193,7 @@ public class NetSPRanking implements Serializable {
 
 		for(int i = 0; i < listRecord.size(); i++) {
 			NetSPRecord record = listRecord.get(i);
-			String strRecordCompressed = NetUtil.compressString(record.exportString());
-			prop.setProperty(strKey + i, strRecordCompressed);
+			prop.setProperty(strKey + i, record.exportCompressedString());
 		}
 	}
 
@@ -247,6 +212,7 @@ public class NetSPRanking implements Serializable {
 			if(strRecordCompressed != null) {
 				String strRecord = NetUtil.decompressString(strRecordCompressed);
 				NetSPRecord record = new NetSPRecord(strRecord);
+				record.strCompressedCache = strRecordCompressed;
 				listRecord.add(record);
 			}
 		}
@@ -267,4 +233,22 @@ public class NetSPRanking implements Serializable {
 		}
 		return acc;
 	}
+
+	/**
+	 * Records sorted by the ranking type of this leaderboard, found by the player name
+	 */
+	protected class RecordList extends NetRankingList<NetSPRecord> {
+		/** Serial version ID */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected String getKey(NetSPRecord r) {
+			return r.strPlayerName;
+		}
+
+		@Override
+		protected boolean isBetter(NetSPRecord r1, NetSPRecord r2) {
+			return r1.compare(rankingType, r2);
+		}
+	}
 }
@@ -50,6 +50,9 @@ public class NetSPRecord implements Serializable {
 	/** Game Style ID */
 	public int style;
 
+	/** Result of exportCompressedString (null if not exported yet) */
+	protected transient String strCompressedCache;
+
 	/**
 	 * Compare 2 records
 	 * @param type Ranking Type
@@ -172,6 +175,7 @@ public class NetSPRecord implements Serializable {
 	 * Initialization
 	 */
 	public void reset() {
+		strCompressedCache = null;
 		strPlayerName = "";
 		strModeName = "";
 		strRuleName = "";
@@ -188,6 +192,7 @@ public class NetSPRecord implements Serializable {
 	 * @param s Source
 	 */
 	public void copy(NetSPRecord s) {
+		strCompressedCache = s.strCompressedCache;
 		strPlayerName = s.strPlayerName;
 		strModeName = s.strModeName;
 		strRuleName = s.strRuleName;
@@ -289,11 +294,23 @@ public class NetSPRecord implements Serializable {
 		return result;
 	}
 
+	/**
+	 * Export to a compressed String.
+	 * The result is kept, because records are not changed after they are registered to a leaderboard
+	 * and they are saved again every time the leaderboard changes.
+	 * @return String (Compressed)
+	 */
+	public String exportCompressedString() {
+		if(strCompressedCache == null) strCompressedCache = NetUtil.compressString(exportString());
+		return strCompressedCache;
+	}
+
 	/**
 	 * Import from a String Array
 	 * @param s String Array (String[9])
 	 */
 	public void importStringArray(String[] s) {
+		strCompressedCache = null;
 		strPlayerName = NetUtil.urlDecode(s[0]);
 		strModeName = NetUtil.urlDecode(s[1]);
 		strRuleName = NetUtil.urlDecode(s[2]);
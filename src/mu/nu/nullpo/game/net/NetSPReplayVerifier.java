@@ -0,0 +1,328 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.net;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.component.Statistics;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.tool.batch.BatchSimulator;
+import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ModeManager;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Checks singleplayer leaderboard records by playing their replays again without a screen.<br>
+ * Records are queued by {@link #submit(NetSPRecord, Listener)} and played by a fixed number of worker threads
+ * (a headless GameManager of {@link BatchSimulator} for each record).
+ * A record is accepted only if the statistics at the end of its replay are the same as the ones sent by the client.
+ * When the queue is full the record is refused at once, so a flood of records can't use more CPU or memory than configured.
+ */
+public class NetSPReplayVerifier {
+	/** Log */
+	static Logger log = Logger.getLogger(NetSPReplayVerifier.class);
+
+	/** Result: the replay matches the record */
+	public static final int RESULT_OK = 0;
+
+	/** Result: the replay doesn't match the record */
+	public static final int RESULT_MISMATCH = 1;
+
+	/** Result: the replay couldn't be played (unknown mode, broken data...) */
+	public static final int RESULT_ERROR = 2;
+
+	/** Result: the queue was full */
+	public static final int RESULT_REFUSED = 3;
+
+	/** Default number of records waiting in the queue */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	/** Default frame limit of a replay (2 hours) */
+	public static final int DEFAULT_MAX_FRAMES = 60 * 60 * 60 * 2;
+
+	/** Default interval of the status log in milliseconds */
+	public static final long DEFAULT_LOG_INTERVAL = 10 * 60 * 1000;
+
+	/**
+	 * Receives the result of a record (called on a worker thread)
+	 */
+	public interface Listener {
+		/**
+		 * Called when a record is checked
+		 * @param record The record
+		 * @param result RESULT_OK, RESULT_MISMATCH or RESULT_ERROR
+		 */
+		void verified(NetSPRecord record, int result);
+	}
+
+	/** Mode list */
+	protected ModeManager modeManager;
+
+	/** Creates and plays the replay games */
+	protected BatchSimulator simulator;
+
+	/** Worker threads and the queue */
+	protected ThreadPoolExecutor executor;
+
+	/** Number of worker threads */
+	protected int threads;
+
+	/** Maximum number of records waiting in the queue */
+	protected int queueSize;
+
+	/** Frame limit of a replay */
+	protected int maxFrames = DEFAULT_MAX_FRAMES;
+
+	/** Interval of the status log in milliseconds (0 to disable) */
+	protected long logInterval = DEFAULT_LOG_INTERVAL;
+
+	/** Time of the last status log */
+	protected long lastLogTime;
+
+	/** Start time (System.nanoTime()) */
+	protected long startTime;
+
+	/** Number of records of each result (index is RESULT_*) */
+	protected long[] resultCount = new long[4];
+
+	/** Total number of frames played */
+	protected long totalFrames;
+
+	/** Total time spent playing replays in nanoseconds */
+	protected long totalPlayNanos;
+
+	/** Total and maximum time from submit to result in nanoseconds */
+	protected long totalLatencyNanos, maxLatencyNanos;
+
+	/**
+	 * Constructor
+	 * @param modeManager Mode list
+	 * @param threads Number of worker threads
+	 * @param queueSize Maximum number of records waiting in the queue
+	 */
+	public NetSPReplayVerifier(ModeManager modeManager, int threads, int queueSize) {
+		this.modeManager = modeManager;
+		this.simulator = new BatchSimulator(modeManager, new RuleOptions());
+		this.threads = Math.max(1, threads);
+		this.queueSize = Math.max(1, queueSize);
+
+		executor = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(this.queueSize), new ThreadFactory() {
+			int count = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Replay verifier " + (count++));
+				t.setDaemon(true);
+				// Below the I/O and lobby threads, so a busy verifier doesn't lag the games
+				t.setPriority(Thread.NORM_PRIORITY - 1);
+				return t;
+			}
+		});
+
+		startTime = System.nanoTime();
+		lastLogTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Set the frame limit of a replay (a replay that doesn't end within it fails)
+	 * @param maxFrames Frame limit
+	 */
+	public void setMaxFrames(int maxFrames) {
+		this.maxFrames = maxFrames;
+	}
+
+	/**
+	 * Set the interval of the status log
+	 * @param logInterval Interval in milliseconds (0 to disable)
+	 */
+	public void setLogInterval(long logInterval) {
+		this.logInterval = logInterval;
+	}
+
+	/**
+	 * Queue a record
+	 * @param record The record (mode and rule name must be set; not changed by the verifier)
+	 * @param listener Receives the result on a worker thread
+	 * @return false if the queue is full (the listener is not called)
+	 */
+	public boolean submit(final NetSPRecord record, final Listener listener) {
+		final long submitTime = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					int result = verify(record);
+					long latency = System.nanoTime() - submitTime;
+					synchronized(NetSPReplayVerifier.this) {
+						totalLatencyNanos += latency;
+						maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+					}
+					try {
+						listener.verified(record, result);
+					} catch (Throwable e) {
+						log.error("Replay verifier listener failed", e);
+					}
+					logStatusIfNeeded();
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			synchronized(this) {
+				resultCount[RESULT_REFUSED]++;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Play the replay of a record and compare the statistics (on the calling thread)
+	 * @param record The record
+	 * @return RESULT_OK, RESULT_MISMATCH or RESULT_ERROR
+	 */
+	public int verify(NetSPRecord record) {
+		long start = System.nanoTime();
+		int frames = 0;
+		int result;
+
+		try {
+			CustomProperties replayProp = record.getReplayProp();
+			String modeName = replayProp.getProperty("name.mode", "");
+			String ruleName = replayProp.getProperty("0.ruleopt.strRuleName", "");
+
+			if(!modeName.equals(record.strModeName)) {
+				log.info("Replay of " + record.strPlayerName + " is " + modeName + ", not " + record.strModeName);
+				result = RESULT_MISMATCH;
+			} else if(!record.strRuleName.equals("any") && !ruleName.equals(record.strRuleName)) {
+				log.info("Replay of " + record.strPlayerName + " uses " + ruleName + ", not " + record.strRuleName);
+				result = RESULT_MISMATCH;
+			} else {
+				GameManager gameManager = simulator.createReplayGame(replayProp);
+				try {
+					frames = BatchSimulator.playGame(gameManager, maxFrames);
+					Statistics stats = gameManager.engine[0].statistics;
+
+					if(frames >= maxFrames) {
+						log.info("Replay of " + record.strPlayerName + " (" + modeName + ") didn't end in " + maxFrames + " frames");
+						result = RESULT_ERROR;
+					} else if(!isSameStatistics(stats, record.stats)) {
+						log.info("Replay of " + record.strPlayerName + " (" + modeName + ") doesn't match: score " +
+								stats.score + "/" + record.stats.score + " lines " + stats.lines + "/" + record.stats.lines +
+								" time " + stats.time + "/" + record.stats.time);
+						result = RESULT_MISMATCH;
+					} else {
+						result = RESULT_OK;
+					}
+				} finally {
+					gameManager.shutdown();
+				}
+			}
+		} catch (Throwable e) {
+			log.info("Replay of " + record.strPlayerName + " (" + record.strModeName + ") couldn't be played", e);
+			result = RESULT_ERROR;
+		}
+
+		long elapsed = System.nanoTime() - start;
+		synchronized(this) {
+			resultCount[result]++;
+			totalFrames += frames;
+			totalPlayNanos += elapsed;
+		}
+		return result;
+	}
+
+	/**
+	 * Compare the statistics that the leaderboards use
+	 * @param s1 Statistics 1
+	 * @param s2 Statistics 2 (can be null)
+	 * @return true if they are the same
+	 */
+	public static boolean isSameStatistics(Statistics s1, Statistics s2) {
+		return (s2 != null) && (s1.score == s2.score) && (s1.lines == s2.lines) && (s1.time == s2.time) &&
+		       (s1.level == s2.level) && (s1.totalPieceLocked == s2.totalPieceLocked) && (s1.maxCombo == s2.maxCombo) &&
+		       (s1.maxChain == s2.maxChain) && (s1.rollclear == s2.rollclear);
+	}
+
+	/**
+	 * Get the number of records of a result
+	 * @param result RESULT_*
+	 * @return Number of records
+	 */
+	public synchronized long getResultCount(int result) {
+		return resultCount[result];
+	}
+
+	/**
+	 * Get the number of records waiting in the queue
+	 * @return Number of records
+	 */
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Get the status (counts, queue and throughput)
+	 * @return Status string
+	 */
+	public synchronized String getStatus() {
+		long checked = resultCount[RESULT_OK] + resultCount[RESULT_MISMATCH] + resultCount[RESULT_ERROR];
+		double sec = (System.nanoTime() - startTime) / 1e9;
+		double playSec = totalPlayNanos / 1e9;
+		return String.format("Replay verifier: %d checked (%d ok, %d mismatch, %d error), %d refused, queue %d/%d, " +
+				"%.2f replays/s, %.0f frames/s per thread, latency avg %.0f ms max %.0f ms",
+				checked, resultCount[RESULT_OK], resultCount[RESULT_MISMATCH], resultCount[RESULT_ERROR],
+				resultCount[RESULT_REFUSED], getQueueLength(), queueSize,
+				(sec > 0) ? checked / sec : 0.0, (playSec > 0) ? totalFrames / playSec : 0.0,
+				(checked > 0) ? totalLatencyNanos / 1e6 / checked : 0.0, maxLatencyNanos / 1e6);
+	}
+
+	/**
+	 * Write the status to the log if the log interval has passed
+	 */
+	protected void logStatusIfNeeded() {
+		if(logInterval <= 0) return;
+		synchronized(this) {
+			long now = System.currentTimeMillis();
+			if(now - lastLogTime < logInterval) return;
+			lastLogTime = now;
+		}
+		log.info(getStatus());
+	}
+
+	/**
+	 * Stop the worker threads (the records in the queue are dropped)
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		log.info(getStatus());
+	}
+}
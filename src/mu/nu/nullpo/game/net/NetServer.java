@@ -30,7 +30,6 @@ package mu.nu.nullpo.game.net;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -38,22 +37,33 @@ import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
-import java.nio.channels.SelectableChannel;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.ConcurrentModificationException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.Adler32;
 
 import mu.nu.nullpo.game.component.RuleOptions;
@@ -61,6 +71,9 @@ import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.JournaledProperties;
+import mu.nu.nullpo.util.ModeManager;
+import mu.nu.nullpo.util.StartupTimer;
 import net.clarenceho.crypto.RC4;
 
 import org.apache.log4j.Logger;
@@ -72,6 +85,13 @@ import biz.source_code.base64Coder.Base64Coder;
 /**
  * NullpoMino NetServer<br>
  * The code is based on <a href="http://rox-xmlrpc.sourceforge.net/niotut/">James Greenfield's The Rox Java NIO Tutorial</a>
+ * <p>
+ * Threads: The main thread only accepts connections. Each connection is handed to one of the I/O selector threads,
+ * which read and write it and split the received data into packets.
+ * Packets are processed on the lobby thread, one at a time and with exclusive access to the server state,
+ * except for game relay packets (ROOM_RELAY_COMMANDS) which only read the state and run on the executor of the sender's room.
+ * Packets of one connection are processed in the order they arrive, and relay packets of one room never run at the same time.
+ * Files are written on the disk thread.
  */
 public class NetServer {
 	/** Log */
@@ -80,9 +100,15 @@ public class NetServer {
 	/** Default port number */
 	public static final int DEFAULT_PORT = 9200;
 
-	/** Read buffer size */
+	/** Commands that are only relayed to the other players of the sender's room */
+	public static final Set<String> ROOM_RELAY_COMMANDS = new HashSet<String>(Arrays.asList("game", "gstat", "gstat1p"));
+
+	/** Initial size of the receive buffer of each connection */
 	public static final int BUF_SIZE = 8192;
 
+	/** Default maximum size of one received packet (bytes) */
+	public static final int DEFAULT_MAX_PACKET_SIZE = 4 * 1024 * 1024;
+
 	/** Rule data send buffer size */
 	public static final int RULE_BUF_SIZE = 512;
 
@@ -116,17 +142,17 @@ public class NetServer {
 	/** Server Rated presets file */
 	private static CustomProperties propPresets;
 
-	/** Properties of player data list (mainly for rating) */
-	private static CustomProperties propPlayerData;
+	/** Properties of player data list (mainly for rating, saved by its own writer thread) */
+	private static JournaledProperties propPlayerData;
 
-	/** Properties of multiplayer leaderboard */
-	private static CustomProperties propMPRanking;
+	/** Properties of multiplayer leaderboard (saved by its own writer thread) */
+	private static JournaledProperties propMPRanking;
 
-	/** Properties of single player all-time leaderboard */
-	private static CustomProperties propSPRankingAlltime;
+	/** Properties of single player all-time leaderboard (saved by its own writer thread) */
+	private static JournaledProperties propSPRankingAlltime;
 
-	/** Properties of single player daily leaderboard */
-	private static CustomProperties propSPRankingDaily;
+	/** Properties of single player daily leaderboard (saved by its own writer thread) */
+	private static JournaledProperties propSPRankingDaily;
 
 	/** Properties of single player personal best */
 	private static CustomProperties propSPPersonalBest;
@@ -173,6 +199,15 @@ public class NetServer {
 	/** Max entry of room chat history */
 	private static int maxRoomChatHistory;
 
+	/** Maximum size of one received packet (bytes, 0=No limit) */
+	private static int maxPacketSize;
+
+	/** Number of I/O selector threads */
+	private static int numSelectorThreads;
+
+	/** Number of worker threads of the room executors */
+	private static int numRoomWorkerThreads;
+
 	/** Rated room info presets (compressed NetRoomInfo Strings) */
 	private static LinkedList<String> ratedInfoList;
 
@@ -183,7 +218,7 @@ public class NetServer {
 	private static LinkedList<Integer>[] ruleSettingIDList;
 
 	/** Multiplayer leaderboard list. */
-	private static LinkedList<NetPlayerInfo>[] mpRankingList;
+	private static MPRankingList[] mpRankingList;
 
 	/** Multiplayer mode list */
 	private static LinkedList<String>[] mpModeList;
@@ -209,22 +244,39 @@ public class NetServer {
 	/** Lobby chat message history */
 	private static LinkedList<NetChatMessage> lobbyChatList = new LinkedList<NetChatMessage>();
 
-	/** List of SocketChannel */
-	private LinkedList<SocketChannel> channelList = new LinkedList<SocketChannel>();
+	/** Set of SocketChannel (in the order of connection) */
+	private LinkedHashSet<SocketChannel> channelSet = new LinkedHashSet<SocketChannel>();
 
 	/** Last communication time */
-	private Map<SocketChannel, Long> lastCommTimeMap = new HashMap<SocketChannel, Long>();
+	private Map<SocketChannel, Long> lastCommTimeMap = new ConcurrentHashMap<SocketChannel, Long>();
 
-	/** Incomplete packet buffer */
-	private Map<SocketChannel, StringBuilder> notCompletePacketMap = new HashMap<SocketChannel, StringBuilder>();
+	/** Receive buffer (holds the incomplete packet) */
+	private Map<SocketChannel, NetPacketBuffer> packetBufferMap = new ConcurrentHashMap<SocketChannel, NetPacketBuffer>();
 
 	/** Player info */
 	private Map<SocketChannel, NetPlayerInfo> playerInfoMap = new HashMap<SocketChannel, NetPlayerInfo>();
 
+	/** Player info by UID */
+	private Map<Integer, NetPlayerInfo> playerInfoByUIDMap = new HashMap<Integer, NetPlayerInfo>();
+
+	/** Player info by name */
+	private Map<String, NetPlayerInfo> playerInfoByNameMap = new HashMap<String, NetPlayerInfo>();
+
+	/** SocketChannel by player UID */
+	private Map<Integer, SocketChannel> channelByUIDMap = new HashMap<Integer, SocketChannel>();
+
+	/** Room ID of each logged in SocketChannel (-1:Lobby), read by the I/O threads without stateLock */
+	private Map<SocketChannel, Integer> roomIDByChannelMap = new ConcurrentHashMap<SocketChannel, Integer>();
+
+	/** Players in each room (key -1 is the lobby), in the order of entering */
+	private Map<Integer, LinkedHashSet<NetPlayerInfo>> roomMemberMap = new HashMap<Integer, LinkedHashSet<NetPlayerInfo>>();
 
 	/** Room info list */
 	private LinkedList<NetRoomInfo> roomInfoList = new LinkedList<NetRoomInfo>();
 
+	/** Room info by room ID */
+	private Map<Integer, NetRoomInfo> roomInfoMap = new HashMap<Integer, NetRoomInfo>();
+
 	/** Observer list */
 	private LinkedList<SocketChannel> observerList = new LinkedList<SocketChannel>();
 
@@ -241,7 +293,7 @@ public class NetServer {
 	private Random rand = new Random();
 
 	/** true if shutdown is requested by the admin */
-	private boolean shutdownRequested = false;
+	private volatile boolean shutdownRequested = false;
 
 	/** The port to listen on */
 	private int port;
@@ -249,17 +301,41 @@ public class NetServer {
 	/** The channel on which we'll accept connections */
 	private ServerSocketChannel serverChannel;
 
-	/** The selector we'll be monitoring */
+	/** The selector of the accepting thread */
 	private Selector selector;
 
-	/** The buffer into which we'll read data when it's available */
-	private ByteBuffer readBuffer;
+	/** I/O selector threads */
+	private SelectorThread[] selectorThreads;
 
-	/** A list of ChangeRequest instances */
-	private LinkedList<ChangeRequest> pendingChanges = new LinkedList<ChangeRequest>();
+	/** Index of the I/O selector thread that gets the next connection */
+	private int nextSelectorThread = 0;
+
+	/** Maps a SocketChannel to its I/O selector thread */
+	private Map<SocketChannel, SelectorThread> selectorThreadMap = new ConcurrentHashMap<SocketChannel, SelectorThread>();
 
 	/** Maps a SocketChannel to a list of ByteBuffer instances */
-	private HashMap<SocketChannel, List<ByteBuffer>> pendingData = new HashMap<SocketChannel, List<ByteBuffer>>();
+	private Map<SocketChannel, List<ByteBuffer>> pendingData = new ConcurrentHashMap<SocketChannel, List<ByteBuffer>>();
+
+	/** Maps a SocketChannel to the queue of its packets that are not processed yet */
+	private Map<SocketChannel, ClientQueue> clientQueueMap = new ConcurrentHashMap<SocketChannel, ClientQueue>();
+
+	/** Server state lock. Lobby tasks hold the write lock, room relay tasks hold the read lock. */
+	private ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+	/** Lobby thread (logins, room changes, rankings, admin commands...) */
+	private ExecutorService lobbyExecutor;
+
+	/** Worker threads shared by the room executors */
+	private ExecutorService roomWorkerPool;
+
+	/** Executor of each room (Room ID to executor) */
+	private Map<Integer, SerialExecutor> roomExecutorMap = new ConcurrentHashMap<Integer, SerialExecutor>();
+
+	/** Disk thread (ranking, player data, ban list... file writes) */
+	private static ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+	/** Plays the replays of singleplayer records before they are ranked (null if disabled) */
+	private NetSPReplayVerifier spReplayVerifier;
 
 	/**
 	 * Load rated-game room presets from the server config
@@ -413,9 +489,9 @@ public class NetServer {
 
 		// Load leaderboard
 		log.info("Loading Multiplayer Ranking...");
-		mpRankingList = new LinkedList[GameEngine.MAX_GAMESTYLE];
+		mpRankingList = new MPRankingList[GameEngine.MAX_GAMESTYLE];
 		for(int i = 0; i < GameEngine.MAX_GAMESTYLE; i++) {
-			mpRankingList[i] = new LinkedList<NetPlayerInfo>();
+			mpRankingList[i] = new MPRankingList(i);
 		}
 
 		for(int style = 0; style < GameEngine.MAX_GAMESTYLE; style++) {
@@ -452,13 +528,7 @@ public class NetServer {
 	 */
 	private static int mpRankingIndexOf(int style, String name) {
 		if(name == null) return -1;
-		for(int i = 0; i < mpRankingList[style].size(); i++) {
-			NetPlayerInfo p2 = (NetPlayerInfo)mpRankingList[style].get(i);
-			if(name.equals(p2.strName)) {
-				return i;
-			}
-		}
-		return -1;
+		return mpRankingList[style].indexOfKey(name);
 	}
 
 	/**
@@ -469,27 +539,10 @@ public class NetServer {
 	 */
 	private static int mpRankingUpdate(int style, NetPlayerInfo p) {
 		// Remove existing record
-		int prevRecord = mpRankingIndexOf(style, p);
-		if(prevRecord != -1) mpRankingList[style].remove(prevRecord);
-
-		// Insert new record
-		int place = -1;
-		boolean rankin = false;
-		for(int i = 0; i < mpRankingList[style].size(); i++) {
-			NetPlayerInfo p2 = (NetPlayerInfo)mpRankingList[style].get(i);
-			if(p.rating[style] > p2.rating[style]) {
-				mpRankingList[style].add(i, p);
-				place = i;
-				rankin = true;
-				break;
-			}
-		}
+		mpRankingList[style].removeByKey(p.strName);
 
-		// Couldn't rank in? Add to last.
-		if(!rankin) {
-			mpRankingList[style].addLast(p);
-			place = mpRankingList[style].size() - 1;
-		}
+		// Insert new record (before the first player with a lower rating)
+		int place = mpRankingList[style].addSorted(p);
 
 		// Remove anything after maxMPRanking
 		while(mpRankingList[style].size() >= maxMPRanking) mpRankingList[style].removeLast();
@@ -499,7 +552,7 @@ public class NetServer {
 	}
 
 	/**
-	 * Write player data properties (propPlayerData) to a file
+	 * Write multiplayer leaderboard to propMPRanking. Changed entries are saved by its writer thread.
 	 */
 	private static void writeMPRankingToFile() {
 		for(int style = 0; style < GameEngine.MAX_GAMESTYLE; style++) {
@@ -515,14 +568,6 @@ public class NetServer {
 				propMPRanking.setProperty(style + ".mpranking.winCount." + i, p.winCount[style]);
 			}
 		}
-
-		try {
-			FileOutputStream out = new FileOutputStream("config/setting/netserver_mpranking.cfg");
-			propMPRanking.store(out, "NullpoMino NetServer Multiplayer Leaderboard");
-			out.close();
-		} catch (IOException e) {
-			log.error("Failed to write multiplayer ranking data", e);
-		}
 	}
 
 	/**
@@ -706,32 +751,50 @@ public class NetServer {
 	}
 
 	/**
-	 * Write single player ranking to a file
+	 * Write all single player rankings to the properties. Changed entries are saved by their writer threads.
 	 */
 	private static void writeSPRankingToFile() {
 		// All-time
 		for(NetSPRanking r: spRankingListAlltime) {
 			r.writeProperty(propSPRankingAlltime);
 		}
-		try {
-			FileOutputStream out = new FileOutputStream("config/setting/netserver_spranking.cfg");
-			propSPRankingAlltime.store(out, "NullpoMino NetServer Single Player All-time Leaderboard");
-			out.close();
-		} catch (IOException e) {
-			log.error("Failed to write single player all-time ranking data", e);
-		}
 
 		// Daily
 		for(NetSPRanking r: spRankingListDaily) {
 			r.writeProperty(propSPRankingDaily);
 		}
+	}
+
+	/**
+	 * Write a single player ranking to the properties. Changed entries are saved by the writer thread.
+	 * @param ranking NetSPRanking (null to do nothing)
+	 * @param isDaily <code>true</code> if the ranking is a daily ranking
+	 */
+	private static void writeSPRankingToFile(NetSPRanking ranking, boolean isDaily) {
+		if(ranking != null) ranking.writeProperty(isDaily ? propSPRankingDaily : propSPRankingAlltime);
+	}
+
+	/**
+	 * Load the mode list and start the replay verifier of singleplayer records
+	 */
+	private void loadSPReplayVerifier() {
+		ModeManager modeManager = new ModeManager();
+		modeManager.loadIndex(ModeManager.DEFAULT_INDEX_FILE);
 		try {
-			FileOutputStream out = new FileOutputStream("config/setting/netserver_spranking_daily.cfg");
-			propSPRankingDaily.store(out, "NullpoMino NetServer Single Player Daily Leaderboard");
-			out.close();
+			BufferedReader txtMode = new BufferedReader(new FileReader("config/list/mode.lst"));
+			modeManager.loadGameModes(txtMode);
+			txtMode.close();
 		} catch (IOException e) {
-			log.error("Failed to write single player daily ranking data", e);
+			log.error("Mode list load failed, replays are not verified", e);
+			return;
 		}
+
+		int threads = propServer.getProperty("netserver.spVerifyThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+		int queueSize = propServer.getProperty("netserver.spVerifyQueueSize", NetSPReplayVerifier.DEFAULT_QUEUE_SIZE);
+		spReplayVerifier = new NetSPReplayVerifier(modeManager, threads, queueSize);
+		spReplayVerifier.setMaxFrames(propServer.getProperty("netserver.spVerifyMaxFrames", NetSPReplayVerifier.DEFAULT_MAX_FRAMES));
+		spReplayVerifier.setLogInterval(propServer.getProperty("netserver.spVerifyLogInterval", NetSPReplayVerifier.DEFAULT_LOG_INTERVAL));
+		log.info("Replay verifier: " + threads + " thread(s), queue size " + queueSize);
 	}
 
 	/**
@@ -758,7 +821,7 @@ public class NetServer {
 	}
 
 	/**
-	 * Set player data to propPlayerData
+	 * Set player data to propPlayerData. Changed entries are saved by its writer thread.
 	 * @param pInfo NetPlayerInfo
 	 */
 	private static void setPlayerDataToProperty(NetPlayerInfo pInfo) {
@@ -774,16 +837,34 @@ public class NetServer {
 	}
 
 	/**
-	 * Write player data properties (propPlayerData) to a file
+	 * Write lines to a file on the disk thread
+	 * @param lines Lines (can be changed as soon as this method returns)
+	 * @param filename Filename
+	 * @param successMsg Log message (debug level) when the write succeeds
+	 * @param errorMsg Log message when the write fails
 	 */
-	private static void writePlayerDataToFile() {
-		try {
-			FileOutputStream out = new FileOutputStream("config/setting/netserver_playerdata.cfg");
-			propPlayerData.store(out, "NullpoMino NetServer PlayerData");
-			out.close();
-		} catch (IOException e) {
-			log.error("Failed to write player data", e);
-		}
+	private static void writeLinesLater(List<String> lines, final String filename, final String successMsg, final String errorMsg) {
+		final List<String> linesCopy = new ArrayList<String>(lines);
+
+		diskExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					FileWriter outFile = new FileWriter(filename);
+					PrintWriter out = new PrintWriter(outFile);
+
+					for(String str: linesCopy) {
+						out.println(str);
+					}
+
+					out.flush();
+					out.close();
+
+					if(successMsg != null) log.debug(successMsg);
+				} catch (Exception e) {
+					log.error(errorMsg, e);
+				}
+			}
+		});
 	}
 
 	/**
@@ -814,21 +895,11 @@ public class NetServer {
 	 * Write ban list to a file
 	 */
 	private static void saveBanList() {
-		try {
-			FileWriter outFile = new FileWriter("config/setting/netserver_banlist.cfg");
-			PrintWriter out = new PrintWriter(outFile);
-
-			for(NetServerBan ban: banList) {
-				out.println(ban.exportString());
-			}
-
-			out.flush();
-			out.close();
-
-			log.info("Ban list saved");
-		} catch (Exception e) {
-			log.error("Failed to save ban list", e);
+		List<String> lines = new ArrayList<String>();
+		for(NetServerBan ban: banList) {
+			lines.add(ban.exportString());
 		}
+		writeLinesLater(lines, "config/setting/netserver_banlist.cfg", "Ban list saved", "Failed to save ban list");
 	}
 
 	/**
@@ -862,23 +933,13 @@ public class NetServer {
 	 * Save lobby chat history file
 	 */
 	private static void saveLobbyChatHistory() {
-		try {
-			FileWriter outFile = new FileWriter("config/setting/netserver_lobbychat.cfg");
-			PrintWriter out = new PrintWriter(outFile);
-
-			while(lobbyChatList.size() > maxLobbyChatHistory) lobbyChatList.removeFirst();
-
-			for(NetChatMessage chat: lobbyChatList) {
-				out.println(chat.exportString());
-			}
-
-			out.flush();
-			out.close();
+		while(lobbyChatList.size() > maxLobbyChatHistory) lobbyChatList.removeFirst();
 
-			log.debug("Lobby chat history saved");
-		} catch (Exception e) {
-			log.error("Failed to save lobby chat history file", e);
+		List<String> lines = new ArrayList<String>();
+		for(NetChatMessage chat: lobbyChatList) {
+			lines.add(chat.exportString());
 		}
+		writeLinesLater(lines, "config/setting/netserver_lobbychat.cfg", "Lobby chat history saved", "Failed to save lobby chat history file");
 	}
 
 	/**
@@ -924,6 +985,7 @@ public class NetServer {
 	 * @param args optional command-line arguments (0: server port  1: netserver.cfg path)
 	 */
 	public static void main(String[] args) {
+		StartupTimer.start();
 		// Init log system (should be first!)
 		PropertyConfigurator.configure("config/etc/log_server.cfg");
 
@@ -979,36 +1041,22 @@ public class NetServer {
 	private void init(int port) {
 		this.port = port;
 
-		// Load player data file
-		propPlayerData = new CustomProperties();
-		try {
-			FileInputStream in = new FileInputStream("config/setting/netserver_playerdata.cfg");
-			propPlayerData.load(in);
-			in.close();
-		} catch (IOException e) {}
+		// Load player data file (and the changes in its journal)
+		propPlayerData = new JournaledProperties("config/setting/netserver_playerdata.cfg", "NullpoMino NetServer PlayerData");
+		propPlayerData.open();
 
 		// Load multiplayer leaderboard file
-		propMPRanking = new CustomProperties();
-		try {
-			FileInputStream in = new FileInputStream("config/setting/netserver_mpranking.cfg");
-			propMPRanking.load(in);
-			in.close();
-		} catch (IOException e) {}
+		propMPRanking = new JournaledProperties("config/setting/netserver_mpranking.cfg", "NullpoMino NetServer Multiplayer Leaderboard");
+		propMPRanking.open();
 
 		// Load single player leaderboard file
-		propSPRankingAlltime = new CustomProperties();
-		try {
-			FileInputStream in = new FileInputStream("config/setting/netserver_spranking.cfg");
-			propSPRankingAlltime.load(in);
-			in.close();
-		} catch (IOException e) {}
+		propSPRankingAlltime = new JournaledProperties("config/setting/netserver_spranking.cfg",
+				"NullpoMino NetServer Single Player All-time Leaderboard");
+		propSPRankingAlltime.open();
 
-		propSPRankingDaily = new CustomProperties();
-		try {
-			FileInputStream in = new FileInputStream("config/setting/netserver_spranking_daily.cfg");
-			propSPRankingDaily.load(in);
-			in.close();
-		} catch (IOException e) {}
+		propSPRankingDaily = new JournaledProperties("config/setting/netserver_spranking_daily.cfg",
+				"NullpoMino NetServer Single Player Daily Leaderboard");
+		propSPRankingDaily.open();
 
 		// Load single player personal best
 		propSPPersonalBest = new CustomProperties();
@@ -1034,6 +1082,14 @@ public class NetServer {
 		spMinGameRate = propServer.getProperty("netserver.spMinGameRate", DEFAULT_MIN_GAMERATE);
 		maxLobbyChatHistory = propServer.getProperty("netserver.maxLobbyChatHistory", DEFAULT_MAX_LOBBYCHAT_HISTORY);
 		maxRoomChatHistory = propServer.getProperty("netserver.maxRoomChatHistory", DEFAULT_MAX_ROOMCHAT_HISTORY);
+		maxPacketSize = Math.max(0, propServer.getProperty("netserver.maxPacketSize", DEFAULT_MAX_PACKET_SIZE));
+		numSelectorThreads = Math.max(1, propServer.getProperty("netserver.selectorThreads", Runtime.getRuntime().availableProcessors()));
+		numRoomWorkerThreads = Math.max(1, propServer.getProperty("netserver.roomWorkerThreads", Runtime.getRuntime().availableProcessors()));
+
+		// Replay verification of singleplayer records
+		if(propServer.getProperty("netserver.spVerifyReplay", false)) {
+			loadSPReplayVerifier();
+		}
 
 		// Load rules for rated game
 		loadRuleList();
@@ -1043,12 +1099,23 @@ public class NetServer {
 
 		// Load multiplayer leaderboard
 		loadMPRankingList();
-		propMPRanking.clear();	// Clear all entries in order to reduce file size
+		synchronized(propMPRanking) {
+			// Rewrite all entries in order to reduce file size (the file is written after this block)
+			propMPRanking.clear();
+			writeMPRankingToFile();
+		}
 
 		// Load single player leaderboard
 		loadSPRankingList();
-		propSPRankingAlltime.clear();	// Clear all entries in order to reduce file size
-		propSPRankingDaily.clear();
+		synchronized(propSPRankingAlltime) {
+			synchronized(propSPRankingDaily) {
+				propSPRankingAlltime.clear();
+				propSPRankingDaily.clear();
+				if(spDailyLastUpdate != null)
+					propSPRankingDaily.setProperty("daily.lastupdate", GeneralUtil.exportCalendarString(spDailyLastUpdate));
+				writeSPRankingToFile();
+			}
+		}
 
 		// Load ban list
 		loadBanList();
@@ -1079,97 +1146,52 @@ public class NetServer {
 		serverChannel.register(socketSelector, SelectionKey.OP_ACCEPT);
 
 		log.info("Listening on port " + this.port + "...");
+		StartupTimer.finish("accepting connections");
 
 		return socketSelector;
 	}
 
 	/**
-	 * Server mainloop
+	 * Server mainloop (accepts new connections; everything else is done by the other threads)
 	 */
 	public void run() {
 		// Startup
 		try {
 			this.selector = initSelector();
+
+			selectorThreads = new SelectorThread[numSelectorThreads];
+			for(int i = 0; i < selectorThreads.length; i++) {
+				selectorThreads[i] = new SelectorThread(i);
+			}
 		} catch (IOException e) {
 			log.fatal("Failed to startup the server", e);
 			return;
 		}
 
+		lobbyExecutor = Executors.newSingleThreadExecutor();
+		roomWorkerPool = Executors.newFixedThreadPool(numRoomWorkerThreads);
+		for(SelectorThread t: selectorThreads) t.start();
+
+		log.info(numSelectorThreads + " I/O thread(s), " + numRoomWorkerThreads + " room worker thread(s)");
+
 		// Mainloop
 		while(!shutdownRequested) {
 			try {
-				try {
-					// Process any pending changes
-					synchronized (this.pendingChanges) {
-						Iterator<ChangeRequest> changes = this.pendingChanges.iterator();
-						while (changes.hasNext()) {
-							ChangeRequest change = (ChangeRequest) changes.next();
-							SelectionKey key = change.socket.keyFor(this.selector);
-
-							if(key.isValid()) {
-								switch (change.type) {
-								case ChangeRequest.DISCONNECT:
-									// Delayed disconnect
-									List<ByteBuffer> queue = this.pendingData.get(change.socket);
-									if((queue == null) || queue.isEmpty()) {
-										try {
-											changes.remove();
-											logout(key);
-										} catch (ConcurrentModificationException e) {
-											log.debug("ConcurrentModificationException on delayed disconnect", e);
-										}
-									}
-									break;
-								case ChangeRequest.CHANGEOPS:
-									// interestOps Change
-									key.interestOps(change.ops);
-									changes.remove();
-									break;
-								}
-							} else {
-								changes.remove();
-							}
-						}
-						//this.pendingChanges.clear();
-					}
-
-					// Wait for an event one of the registered channels
-					this.selector.select();
-
-					// Iterate over the set of keys for which events are available
-					Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
-					while (selectedKeys.hasNext()) {
-						SelectionKey key = (SelectionKey) selectedKeys.next();
-						selectedKeys.remove();
+				// Wait for a new connection
+				this.selector.select();
 
-						if (!key.isValid()) {
-							continue;
-						}
+				Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key = (SelectionKey) selectedKeys.next();
+					selectedKeys.remove();
 
+					if(key.isValid() && key.isAcceptable()) {
 						try {
-							// Check what event is available and deal with it
-							if (key.isAcceptable()) {
-								doAccept(key);
-							} else if (key.isReadable()) {
-								doRead(key);
-							} else if (key.isWritable()) {
-								doWrite(key);
-							}
-						} catch (NetServerDisconnectRequestedException e) {
-							// Intended Disconnect
-							log.debug("Socket disconnected by NetServerDisconnectRequestedException");
-							logout(key);
+							doAccept(key);
 						} catch (IOException e) {
-							// Disconnect when something bad happens
-							log.info("Socket disconnected by IOException", e);
-							logout(key);
-						} catch (Exception e) {
-							log.warn("Socket disconnected by Non-IOException", e);
-							logout(key);
+							log.info("Failed to accept a connection", e);
 						}
 					}
-				} catch (ConcurrentModificationException e) {
-					log.debug("ConcurrentModificationException on server mainloop", e);
 				}
 			} catch (IOException e) {
 				log.fatal("IOException on server mainloop", e);
@@ -1178,11 +1200,26 @@ public class NetServer {
 			}
 		}
 
+		// Stop the other threads, but finish the pending file writes
+		for(SelectorThread t: selectorThreads) t.selector.wakeup();
+		if(spReplayVerifier != null) spReplayVerifier.shutdown();
+		lobbyExecutor.shutdown();
+		roomWorkerPool.shutdown();
+		diskExecutor.shutdown();
+		try {
+			lobbyExecutor.awaitTermination(60, TimeUnit.SECONDS);
+			diskExecutor.awaitTermination(60, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {}
+		propPlayerData.close();
+		propMPRanking.close();
+		propSPRankingAlltime.close();
+		propSPRankingDaily.close();
+
 		log.warn("Server Shutdown!");
 	}
 
 	/**
-	 * Accept a new client
+	 * Accept a new client and hand it to an I/O thread
 	 * @param key SelectionKey
 	 * @throws IOException When something bad happens
 	 */
@@ -1191,15 +1228,38 @@ public class NetServer {
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
 
 		// Accept the connection and make it non-blocking
-		SocketChannel socketChannel = serverSocketChannel.accept();
+		final SocketChannel socketChannel = serverSocketChannel.accept();
+		if(socketChannel == null) return;
 		socketChannel.configureBlocking(false);
 
-		// Register the new SocketChannel with our Selector, indicating
-		// we'd like to be notified when there's data waiting to be read
-		socketChannel.register(this.selector, SelectionKey.OP_READ);
+		// Pick the I/O thread (round-robin)
+		SelectorThread selectorThread = selectorThreads[nextSelectorThread];
+		nextSelectorThread = (nextSelectorThread + 1) % selectorThreads.length;
+
+		ClientQueue clientQueue = new ClientQueue(socketChannel);
+		selectorThreadMap.put(socketChannel, selectorThread);
+		pendingData.put(socketChannel, new ArrayList<ByteBuffer>());
+		packetBufferMap.put(socketChannel, new NetPacketBuffer(BUF_SIZE, maxPacketSize));
+		clientQueueMap.put(socketChannel, clientQueue);
 
+		// Register before anything is sent, so the I/O thread knows the channel when the first write request comes
+		selectorThread.addChannel(socketChannel);
+
+		// Welcome the client on the lobby thread, before any of its packets
+		clientQueue.addTask(new Runnable() {
+			public void run() {
+				clientAccepted(socketChannel);
+			}
+		});
+	}
+
+	/**
+	 * Add a new client to the list and send the welcome message (or the ban message)
+	 * @param socketChannel SocketChannel
+	 */
+	private void clientAccepted(SocketChannel socketChannel) {
 		// Add to list
-		channelList.add(socketChannel);
+		channelSet.add(socketChannel);
 		lastCommTimeMap.put(socketChannel, System.currentTimeMillis());
 		adminSendClientList();
 
@@ -1211,9 +1271,7 @@ public class NetServer {
 			String strStart = GeneralUtil.exportCalendarString(ban.startDate);
 			String strExpire = (endDate == null) ? "" : GeneralUtil.exportCalendarString(endDate);
 			send(socketChannel, "banned\t" + strStart + "\t" + strExpire + "\n");
-			synchronized (this.pendingChanges) {
-			  this.pendingChanges.add(new ChangeRequest(socketChannel, ChangeRequest.DISCONNECT, 0));
-			}
+			disconnectLater(socketChannel);
 		} else {
 			// Send welcome message
 			log.debug("Accept:" + getHostName(socketChannel));
@@ -1231,55 +1289,28 @@ public class NetServer {
 	private void doRead(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 
-		// Clear out our read buffer so it's ready for new data
-		if(this.readBuffer == null) {
-			this.readBuffer = ByteBuffer.allocate(BUF_SIZE);
-		} else {
-			this.readBuffer.clear();
-		}
+		NetPacketBuffer packetBuffer = packetBufferMap.get(socketChannel);
+		if(packetBuffer == null) return;	// Already logged out
 
-		// Attempt to read off the channel
-		int numRead;
-		try {
-			numRead = socketChannel.read(this.readBuffer);
-		} catch (IOException e) {
-			// The remote forcibly closed the connection, cancel
-			// the selection key and close the channel.
-			throw e;
-		}
+		// Attempt to read off the channel, after the incomplete packet
+		int numRead = packetBuffer.read(socketChannel);
 
 		if (numRead == -1) {
 			// Remote entity shut the socket down cleanly. Do the
 			// same from our end and cancel the channel.
 			throw new NetServerDisconnectRequestedException("Connection is closed (numBytesRead is -1)");
 		}
-
-		// Process the packet
-		readBuffer.flip();
-
-		byte[] bytes = new byte[readBuffer.limit()];
-		readBuffer.get(bytes);
-
-		String message = NetUtil.bytesToString(bytes);
-
-		// Previous incomplete packet buffer (null if none are present)
-		StringBuilder notCompletePacketBuffer = notCompletePacketMap.remove(socketChannel);
-
-		// The new packet buffer
-		StringBuilder packetBuffer = new StringBuilder();
-		if(notCompletePacketBuffer != null) packetBuffer.append(notCompletePacketBuffer);
-		packetBuffer.append(message);
-
-		int index;
-		while((index = packetBuffer.indexOf("\n")) != -1) {
-			String msgNow = packetBuffer.substring(0, index);
-			processPacket(socketChannel, msgNow);
-			packetBuffer = packetBuffer.replace(0, index+1, "");
+		if (numRead == NetPacketBuffer.PACKET_TOO_LARGE) {
+			// No '\n' within maxPacketSize bytes
+			log.warn(getHostFull(socketChannel) + " sent a packet larger than " + packetBuffer.getMaxPacketSize() + " bytes, disconnecting");
+			throw new NetServerDisconnectRequestedException("Packet too large");
 		}
 
-		// Place new incomplete packet buffer
-		if(packetBuffer.length() > 0) {
-			notCompletePacketMap.put(socketChannel, packetBuffer);
+		// Process the complete packets
+		ClientQueue clientQueue = clientQueueMap.get(socketChannel);
+		String msgNow;
+		while((msgNow = packetBuffer.nextPacket()) != null) {
+			if(clientQueue != null) clientQueue.addPacket(msgNow);
 		}
 	}
 
@@ -1291,18 +1322,21 @@ public class NetServer {
 	private void doWrite(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 
-		synchronized (this.pendingData) {
-			List<ByteBuffer> queue = (List<ByteBuffer>) this.pendingData.get(socketChannel);
+		List<ByteBuffer> queue = this.pendingData.get(socketChannel);
+		if(queue == null) {
+			key.interestOps(SelectionKey.OP_READ);
+			return;
+		}
+
+		synchronized (queue) {
+			if (!queue.isEmpty()) {
+				// Write as much as the socket's buffer takes, all queued messages in one call
+				ByteBuffer[] bufs = queue.toArray(new ByteBuffer[queue.size()]);
+				socketChannel.write(bufs);
 
-			// Write until there's not more data ...
-			while (!queue.isEmpty()) {
-				ByteBuffer buf = (ByteBuffer) queue.get(0);
-				socketChannel.write(buf);
-				if (buf.remaining() > 0) {
-					// ... or the socket's buffer fills up
-					break;
-				}
-				queue.remove(0);
+				int written = 0;
+				while ((written < bufs.length) && !bufs[written].hasRemaining()) written++;
+				queue.subList(0, written).clear();
 			}
 
 			if (queue.isEmpty()) {
@@ -1315,15 +1349,29 @@ public class NetServer {
 	}
 
 	/**
-	 * Logout
-	 * @param key SelectionKey
+	 * Logout on the lobby thread, after the packets that are being processed
+	 * (the client's other packets that are not processed yet are dropped)
+	 * @param channel SocketChannel
 	 */
-	private void logout(SelectionKey key) {
-		key.cancel();
+	private void requestLogout(final SocketChannel channel) {
+		ClientQueue clientQueue = clientQueueMap.get(channel);
+		if(clientQueue == null) return;
 
-		SelectableChannel ch = key.channel();
-		if(ch instanceof SocketChannel) {
-			logout((SocketChannel)ch);
+		clientQueue.close(new Runnable() {
+			public void run() {
+				logout(channel);
+			}
+		});
+	}
+
+	/**
+	 * Disconnect after all pending data is sent
+	 * @param client SocketChannel
+	 */
+	private void disconnectLater(SocketChannel client) {
+		SelectorThread selectorThread = selectorThreadMap.get(client);
+		if(selectorThread != null) {
+			selectorThread.addChange(new ChangeRequest(client, ChangeRequest.DISCONNECT, 0));
 		}
 	}
 
@@ -1333,56 +1381,51 @@ public class NetServer {
 	 */
 	private void logout(SocketChannel channel) {
 		if(channel == null) return;
+		if(!channel.isOpen() && !channelSet.contains(channel)) return;	// Already logged out
 
 		String remoteAddr = getHostFull(channel);
 		log.info("Logout: " + remoteAddr);
 
-		try {
-			channel.register(selector, 0);
-		} catch (CancelledKeyException e) {
-			// CancelledKeyException. This is normal
-		} catch (Exception e) {
-			log.debug("Exception throwed on logout (channel.register)", e);
-		}
 		try {
 			channel.finishConnect();
 		} catch (Exception e) {
 			log.debug("Exception throwed on logout (channel.finishConnect)", e);
 		}
 		try {
+			// This also cancels the key of the I/O thread
 			channel.close();
 		} catch (Exception e) {
 			log.debug("Exception throwed on logout (channel.close)", e);
 		}
 
 		try {
-			channelList.remove(channel);
+			channelSet.remove(channel);
 			lastCommTimeMap.remove(channel);
-			notCompletePacketMap.remove(channel);
-
-			List<ByteBuffer> queue = (List<ByteBuffer>) this.pendingData.get(channel);
-			if(queue != null) queue.clear();
+			packetBufferMap.remove(channel);
+			selectorThreadMap.remove(channel);
+			clientQueueMap.remove(channel);
+			pendingData.remove(channel);
+			roomIDByChannelMap.remove(channel);
 
 			NetPlayerInfo pInfo = playerInfoMap.remove(channel);
 			if(pInfo != null) {
 				log.info(pInfo.strName + " has logged out");
+				playerInfoByUIDMap.remove(pInfo.uid);
+				playerInfoByNameMap.remove(pInfo.strName);
+				channelByUIDMap.remove(pInfo.uid);
+				removePlayerFromRoomMembers(pInfo);
 
 				playerDead(pInfo);
 				pInfo.connected = false;
 				pInfo.ready = false;
 
-				LinkedList<NetRoomInfo> deleteList = new LinkedList<NetRoomInfo>();	// Room delete check list
-
-				for(NetRoomInfo roomInfo: roomInfoList) {
-					if(roomInfo.playerList.contains(pInfo)) {
-						roomInfo.playerList.remove(pInfo);
-						roomInfo.playerQueue.remove(pInfo);
-						roomInfo.exitSeat(pInfo);
-						deleteList.add(roomInfo);
-					}
-				}
+				// A player can only be in the room of pInfo.roomID
+				NetRoomInfo roomInfo = getRoomInfo(pInfo.roomID);
+				if((roomInfo != null) && roomInfo.playerList.contains(pInfo)) {
+					roomInfo.playerList.remove(pInfo);
+					roomInfo.playerQueue.remove(pInfo);
+					roomInfo.exitSeat(pInfo);
 
-				for(NetRoomInfo roomInfo: deleteList) {
 					if(!deleteRoom(roomInfo)) {
 						joinAllQueuePlayers(roomInfo);
 
@@ -1414,30 +1457,37 @@ public class NetServer {
 			log.warn("Exception throwed on logout", e);
 		}
 
-		if(channelList.isEmpty()) {
+		if(channelSet.isEmpty()) {
 			cleanup();
 		} else if(playerInfoMap.isEmpty()) {
 			roomInfoList.clear();
+			roomInfoMap.clear();
+			roomMemberMap.clear();
+			roomExecutorMap.clear();
 		}
 	}
 
 	/**
-	 * Cleanup (after all clients are disconnected)
+	 * Cleanup (after all clients are disconnected)<br>
+	 * The I/O maps (pendingData, packetBufferMap...) are left alone
+	 * because a client that was just accepted may already be in them.
 	 */
 	private void cleanup() {
 		log.info("Cleanup");
 
-		channelList.clear();
+		channelSet.clear();
 		lastCommTimeMap.clear();
-		notCompletePacketMap.clear();
 		observerList.clear();
 		adminList.clear();
 		playerInfoMap.clear();
+		playerInfoByUIDMap.clear();
+		playerInfoByNameMap.clear();
+		channelByUIDMap.clear();
+		roomIDByChannelMap.clear();
+		roomMemberMap.clear();
 		roomInfoList.clear();
-		synchronized (this.pendingData) {
-		  this.pendingData.clear();
-		}
-		if(this.readBuffer != null) this.readBuffer.clear();
+		roomInfoMap.clear();
+		roomExecutorMap.clear();
 
 		System.gc();
 	}
@@ -1450,7 +1500,7 @@ public class NetServer {
 	private int killTimeoutConnections(long timeout) {
 		if(timeout <= 0) return 0;
 
-		LinkedList<SocketChannel> clients = new LinkedList<SocketChannel>(channelList);
+		LinkedList<SocketChannel> clients = new LinkedList<SocketChannel>(channelSet);
 		int killCount = 0;
 
 		for(SocketChannel client: clients) {
@@ -1478,23 +1528,27 @@ public class NetServer {
 	 * @param bytes Message to send (byte[])
 	 */
 	public void send(SocketChannel client, byte[] bytes) {
-		synchronized (this.pendingChanges) {
-			// Indicate we want the interest ops set changed
-			this.pendingChanges.add(new ChangeRequest(client, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
+		send(client, ByteBuffer.wrap(bytes));
+	}
 
-			// And queue the data we want written
-			synchronized (this.pendingData) {
-				List<ByteBuffer> queue = (List<ByteBuffer>) this.pendingData.get(client);
-				if (queue == null) {
-					queue = new ArrayList<ByteBuffer>();
-					this.pendingData.put(client, queue);
-				}
-				queue.add(ByteBuffer.wrap(bytes));
-			}
+	/**
+	 * Send a message. The buffer itself is not changed (the client gets its own view of the content),
+	 * so one encoded buffer can be sent to many clients.
+	 * @param client SocketChannel
+	 * @param buf Message to send (ByteBuffer)
+	 */
+	public void send(SocketChannel client, ByteBuffer buf) {
+		SelectorThread selectorThread = selectorThreadMap.get(client);
+		List<ByteBuffer> queue = this.pendingData.get(client);
+		if((selectorThread == null) || (queue == null)) return;	// Already logged out
+
+		// Queue the data we want written
+		synchronized (queue) {
+			queue.add(buf.duplicate());
 		}
 
-		// Finally, wake up our selecting thread so it can make the required changes
-		this.selector.wakeup();
+		// Indicate we want the interest ops set changed (this also wakes up the I/O thread)
+		selectorThread.addChange(new ChangeRequest(client, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
 	}
 
 	/**
@@ -1533,13 +1587,11 @@ public class NetServer {
 	 * @param msg Message to send (String)
 	 */
 	public void broadcast(String msg) {
-		synchronized(channelList) {
-			for(SocketChannel ch: channelList) {
-				NetPlayerInfo p = playerInfoMap.get(ch);
+		ByteBuffer buf = encodeShared(msg);
 
-				if(p != null) {
-					send(ch, msg);
-				}
+		for(SocketChannel ch: channelSet) {
+			if(playerInfoMap.containsKey(ch)) {
+				send(ch, buf);
 			}
 		}
 	}
@@ -1550,13 +1602,12 @@ public class NetServer {
 	 * @param roomID Room ID (-1:Lobby)
 	 */
 	public void broadcast(String msg, int roomID) {
-		synchronized(channelList) {
-			for(SocketChannel ch: channelList) {
-				NetPlayerInfo p = playerInfoMap.get(ch);
+		ByteBuffer buf = encodeShared(msg);
 
-				if((p != null) && (roomID == p.roomID)) {
-					send(ch, msg);
-				}
+		for(NetPlayerInfo p: getRoomMembers(roomID)) {
+			SocketChannel ch = channelByUIDMap.get(p.uid);
+			if(ch != null) {
+				send(ch, buf);
 			}
 		}
 	}
@@ -1568,13 +1619,12 @@ public class NetServer {
 	 * @param pInfo The player to avoid sending message
 	 */
 	public void broadcast(String msg, int roomID, NetPlayerInfo pInfo) {
-		synchronized(channelList) {
-			for(SocketChannel ch: channelList) {
-				NetPlayerInfo p = playerInfoMap.get(ch);
+		ByteBuffer buf = encodeShared(msg);
 
-				if((p != null) && (p.uid != pInfo.uid) && (roomID == p.roomID)) {
-					send(ch, msg);
-				}
+		for(NetPlayerInfo p: getRoomMembers(roomID)) {
+			SocketChannel ch = channelByUIDMap.get(p.uid);
+			if((ch != null) && (p.uid != pInfo.uid)) {
+				send(ch, buf);
 			}
 		}
 	}
@@ -1584,8 +1634,10 @@ public class NetServer {
 	 * @param msg Message to send (String)
 	 */
 	public void broadcastObserver(String msg) {
+		ByteBuffer buf = encodeShared(msg);
+
 		for(SocketChannel ch: observerList) {
-			send(ch, msg);
+			send(ch, buf);
 		}
 	}
 
@@ -1604,27 +1656,72 @@ public class NetServer {
 	 * @param msg Message to send (String)
 	 */
 	public void broadcastAdmin(String msg) {
+		ByteBuffer buf = encodeShared(msg);
+
 		for(SocketChannel ch: adminList) {
-			send(ch, msg);
+			send(ch, buf);
 		}
 	}
 
+	/**
+	 * Encode a message once for sending it to many clients
+	 * @param msg Message (String)
+	 * @return Read-only buffer of the message
+	 */
+	private static ByteBuffer encodeShared(String msg) {
+		return ByteBuffer.wrap(NetUtil.stringToBytes(msg)).asReadOnlyBuffer();
+	}
+
 	/**
 	 * Get SocketChannel from NetPlayerInfo
 	 * @param pInfo Player
 	 * @return SocketChannel (null if not found)
 	 */
 	public SocketChannel getSocketChannelByPlayer(NetPlayerInfo pInfo) {
-		synchronized(channelList) {
-			for(SocketChannel ch: channelList) {
-				NetPlayerInfo p = playerInfoMap.get(ch);
+		return channelByUIDMap.get(pInfo.uid);
+	}
 
-				if((p != null) && (p.uid == pInfo.uid)) {
-					return ch;
-				}
-			}
+	/**
+	 * Get the players in a room
+	 * @param roomID Room ID (-1:Lobby)
+	 * @return Players (empty if nobody)
+	 */
+	private Collection<NetPlayerInfo> getRoomMembers(int roomID) {
+		Collection<NetPlayerInfo> members = roomMemberMap.get(roomID);
+		if(members == null) return Collections.emptyList();
+		return members;
+	}
+
+	/**
+	 * Move a player to another room (or the lobby) and update roomMemberMap
+	 * @param pInfo The player
+	 * @param roomID Room ID (-1:Lobby)
+	 */
+	private void setPlayerRoom(NetPlayerInfo pInfo, int roomID) {
+		removePlayerFromRoomMembers(pInfo);
+		pInfo.roomID = roomID;
+
+		SocketChannel ch = getSocketChannelByPlayer(pInfo);
+		if(ch != null) roomIDByChannelMap.put(ch, roomID);
+
+		LinkedHashSet<NetPlayerInfo> members = roomMemberMap.get(roomID);
+		if(members == null) {
+			members = new LinkedHashSet<NetPlayerInfo>();
+			roomMemberMap.put(roomID, members);
+		}
+		members.add(pInfo);
+	}
+
+	/**
+	 * Remove a player from roomMemberMap
+	 * @param pInfo The player
+	 */
+	private void removePlayerFromRoomMembers(NetPlayerInfo pInfo) {
+		LinkedHashSet<NetPlayerInfo> members = roomMemberMap.get(pInfo.roomID);
+		if(members != null) {
+			members.remove(pInfo);
+			if(members.isEmpty()) roomMemberMap.remove(pInfo.roomID);
 		}
-		return null;
 	}
 
 	/**
@@ -1637,12 +1734,13 @@ public class NetServer {
 	 */
 	public SocketChannel findPlayerByMsg(String msg) {
 		// Added to support temporary private messaging code, but might be useful even so?
-		synchronized(channelList) {
+		synchronized(channelSet) {
 			int maxLen = 0, len = 0;
 			String player;
 			SocketChannel chMatch = null;
-			for(SocketChannel ch: channelList) {
-				NetPlayerInfo p = playerInfoMap.get(ch);
+			for(Map.Entry<SocketChannel, NetPlayerInfo> entry: playerInfoMap.entrySet()) {
+				SocketChannel ch = entry.getKey();
+				NetPlayerInfo p = entry.getValue();
 				len = p.strName.length();
 				player = p.strName;
 				if(p.isTripUse) {
@@ -1720,9 +1818,7 @@ public class NetServer {
 			if(serverVer != clientVer) {
 				send(client, "observerloginfail\tDIFFERENT_VERSION\t" + serverVer + "\n");
 				//logout(client);
-				synchronized (this.pendingChanges) {
-				  this.pendingChanges.add(new ChangeRequest(client, ChangeRequest.DISCONNECT, 0));
-				}
+				disconnectLater(client);
 				return;
 			}
 
@@ -1731,9 +1827,7 @@ public class NetServer {
 			boolean clientBuildType = Boolean.parseBoolean(message[3]);
 			if(serverBuildType != clientBuildType) {
 				send(client, "observerloginfail\tDIFFERENT_BUILD\t" + serverBuildType + "\n");
-				synchronized (this.pendingChanges) {
-					this.pendingChanges.add(new ChangeRequest(client, ChangeRequest.DISCONNECT, 0));
-				}
+				disconnectLater(client);
 				return;
 			}
 
@@ -1751,7 +1845,7 @@ public class NetServer {
 		}
 		// Player login
 		if(message[0].equals("login")) {
-			//login\t[MAJOR VERSION]\t[NAME]\t[COUNTRY]\t[TEAM]\t[MINOR VERSION]\t[DEV BUILD]
+			//login\t[MAJOR VERSION]\t[NAME]\t[COUNTRY]\t[TEAM]\t[MINOR VERSION]\t[DEV BUILD]\t[FIELD SYNC VERSION]
 
 			// Ignore it if already logged in
 			if(observerList.contains(client)) return;
@@ -1764,9 +1858,7 @@ public class NetServer {
 			if(serverVer != clientVer) {
 				send(client, "loginfail\tDIFFERENT_VERSION\t" + serverVer + "\n");
 				//logout(client);
-				synchronized (this.pendingChanges) {
-				  this.pendingChanges.add(new ChangeRequest(client, ChangeRequest.DISCONNECT, 0));
-				}
+				disconnectLater(client);
 				return;
 			}
 
@@ -1775,9 +1867,7 @@ public class NetServer {
 			boolean clientBuildType = Boolean.parseBoolean(message[6]);
 			if(serverBuildType != clientBuildType) {
 				send(client, "observerloginfail\tDIFFERENT_BUILD\t" + GameManager.getBuildTypeString() + "\n");
-				synchronized (this.pendingChanges) {
-					this.pendingChanges.add(new ChangeRequest(client, ChangeRequest.DISCONNECT, 0));
-				}
+				disconnectLater(client);
 				return;
 			}
 
@@ -1829,6 +1919,7 @@ public class NetServer {
 			pInfo.strName = name;
 			if(message.length > 3) pInfo.strCountry = message[3];
 			if(message.length > 4) pInfo.strTeam = NetUtil.urlDecode(message[4]);
+			if(message.length > 7) pInfo.fieldSyncVersion = Integer.parseInt(message[7]);
 			pInfo.uid = playerCount;
 			pInfo.connected = true;
 			pInfo.isTripUse = isTripUse;
@@ -1864,6 +1955,10 @@ public class NetServer {
 
 			// Success
 			playerInfoMap.put(client, pInfo);
+			playerInfoByUIDMap.put(pInfo.uid, pInfo);
+			playerInfoByNameMap.put(pInfo.strName, pInfo);
+			channelByUIDMap.put(pInfo.uid, client);
+			setPlayerRoom(pInfo, -1);
 			playerCount++;
 			send(client, "loginsuccess\t" + NetUtil.urlEncode(pInfo.strName) + "\t" + pInfo.uid + "\n");
 			log.info(pInfo.strName + " has logged in (Host:" + getHostName(client) + " Team:" + pInfo.strTeam + ")");
@@ -2109,8 +2204,9 @@ public class NetServer {
 				if(roomCount == -1) roomCount = 0;
 
 				roomInfoList.add(roomInfo);
+				roomInfoMap.put(roomInfo.roomID, roomInfo);
 
-				pInfo.roomID = roomInfo.roomID;
+				setPlayerRoom(pInfo, roomInfo.roomID);
 				pInfo.resetPlayState();
 				pInfo.playCountNow = 0;
 				pInfo.winCountNow = 0;
@@ -2181,8 +2277,9 @@ public class NetServer {
 				if(roomCount == -1) roomCount = 0;
 
 				roomInfoList.add(roomInfo);
+				roomInfoMap.put(roomInfo.roomID, roomInfo);
 
-				pInfo.roomID = roomInfo.roomID;
+				setPlayerRoom(pInfo, roomInfo.roomID);
 				pInfo.resetPlayState();
 				pInfo.playCountNow = 0;
 				pInfo.winCountNow = 0;
@@ -2233,8 +2330,9 @@ public class NetServer {
 				if(roomCount == -1) roomCount = 0;
 
 				roomInfoList.add(roomInfo);
+				roomInfoMap.put(roomInfo.roomID, roomInfo);
 
-				pInfo.roomID = roomInfo.roomID;
+				setPlayerRoom(pInfo, roomInfo.roomID);
 				pInfo.resetPlayState();
 				pInfo.playCountNow = 0;
 				pInfo.winCountNow = 0;
@@ -2283,7 +2381,7 @@ public class NetServer {
 							}
 						}
 					}
-					pInfo.roomID = -1;
+					setPlayerRoom(pInfo, -1);
 					pInfo.seatID = -1;
 					pInfo.queueID = -1;
 					pInfo.resetPlayState();
@@ -2314,7 +2412,7 @@ public class NetServer {
 							}
 						}
 					}
-					pInfo.roomID = newRoom.roomID;
+					setPlayerRoom(pInfo, newRoom.roomID);
 					pInfo.resetPlayState();
 					pInfo.playCountNow = 0;
 					pInfo.winCountNow = 0;
@@ -2539,14 +2637,13 @@ public class NetServer {
 				NetRoomInfo roomInfo = getRoomInfo(pInfo.roomID);
 
 				if(!roomInfo.singleplayer) {
-					String msg = "gstat\t" + pInfo.uid + "\t" + pInfo.seatID + "\t" + NetUtil.urlEncode(pInfo.strName) + "\t";
-					for(int i = 1; i < message.length; i++) {
-						msg += message[i];
-						if(i < message.length - 1) msg += "\t";
-					}
-					msg += "\n";
+					StringBuilder msg = new StringBuilder(fullMessage.length() + 64);
+					msg.append("gstat\t").append(pInfo.uid).append('\t').append(pInfo.seatID).append('\t');
+					msg.append(NetUtil.urlEncode(pInfo.strName)).append('\t');
+					appendFields(msg, message, 1);
+					msg.append('\n');
 
-					broadcast(msg, roomInfo.roomID);
+					broadcast(msg.toString(), roomInfo.roomID);
 				}
 			}
 		}
@@ -2584,38 +2681,10 @@ public class NetServer {
 						record.style = roomInfo.style;
 						record.strTimeStamp = GeneralUtil.exportCalendarString();
 
-						float gamerate = record.stats.gamerate * 100f;
-
-						boolean isDailyWiped = updateSPDailyRanking();
-						int rank = -1;
-						int rankDaily = -1;
-
-						NetSPRanking ranking = getSPRanking(rule, record.strModeName, record.gameType);
-						NetSPRanking rankingDaily = getSPRanking(rule, record.strModeName, record.gameType, true);
-						if(ranking == null) log.warn("All-time ranking not found:" + record.strModeName);
-						if(rankingDaily == null) log.warn("Daily ranking not found:" + record.strModeName);
-
-						if((ranking != null || rankingDaily != null) && (gamerate >= spMinGameRate)) {
-							if(ranking != null)
-								rank = ranking.registerRecord(record);
-							if(rankingDaily != null)
-								rankDaily = rankingDaily.registerRecord(record);
-
-							if((rank!= -1) || (rankDaily != -1) || (isDailyWiped)) writeSPRankingToFile();
-
-							boolean isPB = false;
-							if(ranking != null) {
-								isPB = pInfo.spPersonalBest.registerRecord(ranking.rankingType, record);
-								if(isPB) {
-									setPlayerDataToProperty(pInfo);
-									writePlayerDataToFile();
-								}
-							}
-
-							log.info("Name:" + pInfo.strName + " Mode:" + record.strModeName + " AllTime:" + rank + " Daily:" + rankDaily);
-							broadcast("spsendok\t" + rank + "\t" + isPB + "\t" + rankDaily + "\n", pInfo.roomID);
+						if(spReplayVerifier == null) {
+							registerSPRecord(pInfo, record, pInfo.roomID);
 						} else {
-							broadcast("spsendok\t-1\tfalse\t-1\n", pInfo.roomID);
+							verifySPRecord(client, pInfo, record, pInfo.roomID);
 						}
 					} else {
 						send(client, "spsendng\n");
@@ -2755,13 +2824,11 @@ public class NetServer {
 					int seat = roomInfo.getPlayerSeatNumber(pInfo);
 
 					if(seat != -1) {
-						String msg = "game\t" + pInfo.uid + "\t" + seat + "\t";
-						for(int i = 1; i < message.length; i++) {
-							msg += message[i];
-							if(i < message.length - 1) msg += "\t";
-						}
-						msg += "\n";
-						broadcast(msg, roomInfo.roomID, pInfo);
+						StringBuilder msg = new StringBuilder(fullMessage.length() + 32);
+						msg.append("game\t").append(pInfo.uid).append('\t').append(seat).append('\t');
+						appendFields(msg, message, 1);
+						msg.append('\n');
+						broadcast(msg.toString(), roomInfo.roomID, pInfo);
 					}
 				}
 			}
@@ -2917,7 +2984,6 @@ public class NetServer {
 			String strName = message[1];
 			NetPlayerInfo pInfo = searchPlayerByName(strName);
 
-			boolean playerDataChange = false;
 			boolean mpRankingDataChange = false;
 			boolean spRankingDataChange = false;
 
@@ -2926,11 +2992,9 @@ public class NetServer {
 					propPlayerData.setProperty("p.rating." + i + "." + strName, ratingDefault);
 					propPlayerData.setProperty("p.playCount." + i + "." + strName, 0);
 					propPlayerData.setProperty("p.winCount." + i + "." + strName, 0);
-					playerDataChange = true;
 				}
 				if(propPlayerData.getProperty("sppersonal." + strName + ".numRecords") != null) {
 					propPlayerData.setProperty("sppersonal." + strName + ".numRecords", 0);
-					playerDataChange = true;
 				}
 
 				if(pInfo != null) {
@@ -2947,16 +3011,12 @@ public class NetServer {
 				}
 
 				for(NetSPRanking ranking: spRankingListAlltime) {
-					NetSPRecord record = ranking.getRecord(strName);
-					if(record != null) {
-						ranking.listRecord.remove(record);
+					if(ranking.removeRecord(strName) > 0) {
 						spRankingDataChange = true;
 					}
 				}
 				for(NetSPRanking ranking: spRankingListDaily) {
-					NetSPRecord record = ranking.getRecord(strName);
-					if(record != null) {
-						ranking.listRecord.remove(record);
+					if(ranking.removeRecord(strName) > 0) {
 						spRankingDataChange = true;
 					}
 				}
@@ -2964,7 +3024,6 @@ public class NetServer {
 
 			sendAdminResult(client, "playerdelete\t" + strName);
 
-			if(playerDataChange) writePlayerDataToFile();
 			if(mpRankingDataChange) writeMPRankingToFile();
 			if(spRankingDataChange) writeSPRankingToFile();
 		}
@@ -2986,7 +3045,7 @@ public class NetServer {
 		if(message[0].equals("shutdown")) {
 			log.warn("Shutdown requested by the admin (" + getHostFull(client) + ")");
 			shutdownRequested = true;
-			this.selector.wakeup();
+			this.selector.wakeup();	// Stops the accepting thread, which stops the others
 		}
 		// Announce
 		if(message[0].equals("announce")) {
@@ -2995,6 +3054,116 @@ public class NetServer {
 		}
 	}
 
+	/**
+	 * Register a singleplayer record to the leaderboards and send the result to the room
+	 * @param pInfo The player
+	 * @param record The record
+	 * @param roomID Room ID of the game
+	 */
+	private void registerSPRecord(NetPlayerInfo pInfo, NetSPRecord record, int roomID) {
+		float gamerate = record.stats.gamerate * 100f;
+
+		boolean isDailyWiped = updateSPDailyRanking();
+		int rank = -1;
+		int rankDaily = -1;
+
+		NetSPRanking ranking = getSPRanking(record.strRuleName, record.strModeName, record.gameType);
+		NetSPRanking rankingDaily = getSPRanking(record.strRuleName, record.strModeName, record.gameType, true);
+		if(ranking == null) log.warn("All-time ranking not found:" + record.strModeName);
+		if(rankingDaily == null) log.warn("Daily ranking not found:" + record.strModeName);
+
+		if((ranking != null || rankingDaily != null) && (gamerate >= spMinGameRate)) {
+			if(ranking != null)
+				rank = ranking.registerRecord(record);
+			if(rankingDaily != null)
+				rankDaily = rankingDaily.registerRecord(record);
+
+			if(isDailyWiped) {
+				writeSPRankingToFile();
+			} else {
+				// Only the changed leaderboards
+				if(rank != -1) writeSPRankingToFile(ranking, false);
+				if(rankDaily != -1) writeSPRankingToFile(rankingDaily, true);
+			}
+
+			boolean isPB = false;
+			if(ranking != null) {
+				isPB = pInfo.spPersonalBest.registerRecord(ranking.rankingType, record);
+				if(isPB) {
+					setPlayerDataToProperty(pInfo);
+				}
+			}
+
+			log.info("Name:" + pInfo.strName + " Mode:" + record.strModeName + " AllTime:" + rank + " Daily:" + rankDaily);
+			broadcast("spsendok\t" + rank + "\t" + isPB + "\t" + rankDaily + "\n", roomID);
+		} else {
+			broadcast("spsendok\t-1\tfalse\t-1\n", roomID);
+		}
+	}
+
+	/**
+	 * Queue a singleplayer record to the replay verifier. The record is registered on the lobby thread
+	 * after its replay is played, or it's not ranked if the replay doesn't match (or the queue is full).
+	 * @param client The player's client
+	 * @param pInfo The player
+	 * @param record The record
+	 * @param roomID Room ID of the game
+	 */
+	private void verifySPRecord(final SocketChannel client, final NetPlayerInfo pInfo, NetSPRecord record, final int roomID) {
+		// Records that can't be ranked anyway are not played
+		if(record.stats.gamerate * 100f < spMinGameRate) {
+			broadcast("spsendok\t-1\tfalse\t-1\n", roomID);
+			return;
+		}
+
+		boolean queued = spReplayVerifier.submit(record, new NetSPReplayVerifier.Listener() {
+			public void verified(final NetSPRecord record, final int result) {
+				runOnLobbyThread(client, new Runnable() {
+					public void run() {
+						if(result == NetSPReplayVerifier.RESULT_OK) {
+							registerSPRecord(pInfo, record, roomID);
+						} else {
+							log.info("Name:" + pInfo.strName + " Mode:" + record.strModeName + " Replay verification failed (" + result + ")");
+							broadcast("spsendok\t-1\tfalse\t-1\n", roomID);
+						}
+					}
+				});
+			}
+		});
+
+		if(!queued) {
+			log.warn("Replay verifier queue is full, the record of " + pInfo.strName + " is not ranked");
+			broadcast("spsendok\t-1\tfalse\t-1\n", roomID);
+		}
+	}
+
+	/**
+	 * Run a task on the lobby thread (with the write lock of the server state) from another thread.
+	 * The task runs after the client's packets that are already received, or by itself if the client is gone.
+	 * @param client The client
+	 * @param task Task
+	 */
+	private void runOnLobbyThread(SocketChannel client, final Runnable task) {
+		ClientQueue clientQueue = clientQueueMap.get(client);
+		if(clientQueue != null) {
+			clientQueue.addTask(task);
+			return;
+		}
+
+		lobbyExecutor.execute(new Runnable() {
+			public void run() {
+				stateLock.writeLock().lock();
+				try {
+					task.run();
+				} catch (Throwable e) {
+					log.fatal("Non-IOException throwed on lobby thread", e);
+				} finally {
+					stateLock.writeLock().unlock();
+				}
+			}
+		});
+	}
+
 	/**
 	 * Send admin command result
 	 * @param client The admin
@@ -3024,9 +3193,12 @@ public class NetServer {
 	 * @param client The admin. If null, it will broadcast to all admins.
 	 */
 	private void adminSendClientList(SocketChannel client) {
+		// Nobody to send (this is called for every connect/disconnect, and can take a DNS lookup per client)
+		if((client == null) && adminList.isEmpty()) return;
+
 		String strMsg = "clientlist";
 
-		for(SocketChannel ch: channelList) {
+		for(SocketChannel ch: channelSet) {
 			String strIP = getHostAddress(ch);
 			String strHost = getHostName(ch);
 			NetPlayerInfo pInfo = playerInfoMap.get(ch);
@@ -3058,14 +3230,7 @@ public class NetServer {
 	 */
 	private NetRoomInfo getRoomInfo(int roomID) {
 		if(roomID == -1) return null;
-
-		for(NetRoomInfo roomInfo: roomInfoList) {
-			if(roomID == roomInfo.roomID) {
-				return roomInfo;
-			}
-		}
-
-		return null;
+		return roomInfoMap.get(roomID);
 	}
 
 	/**
@@ -3073,15 +3238,15 @@ public class NetServer {
 	 * @param client Client to send
 	 */
 	private void sendRoomList(SocketChannel client) {
-		String msg = "roomlist\t" + roomInfoList.size();
+		StringBuilder msg = new StringBuilder("roomlist\t").append(roomInfoList.size());
 
 		for(NetRoomInfo roomInfo: roomInfoList) {
-			msg += "\t";
-			msg += roomInfo.exportString();
+			msg.append("\t");
+			msg.append(roomInfo.exportString());
 		}
 
-		msg += "\n";
-		send(client, msg);
+		msg.append("\n");
+		send(client, msg.toString());
 	}
 
 	/**
@@ -3094,6 +3259,8 @@ public class NetServer {
 			log.info("RoomDelete ID:" + roomInfo.roomID + " Title:" + roomInfo.strName);
 			broadcastRoomInfoUpdate(roomInfo, "roomdelete");
 			roomInfoList.remove(roomInfo);
+			roomInfoMap.remove(roomInfo.roomID);
+			roomExecutorMap.remove(roomInfo.roomID);
 			roomInfo.delete();
 			return true;
 		}
@@ -3262,11 +3429,6 @@ public class NetServer {
 					}
 				}
 
-				/*
-				if(roomInfo.rated) {
-					writePlayerDataToFile();
-				}
-				*/
 			} else if((winner != null) && !roomInfo.singleplayer) {
 				// Winner is a player
 				roomInfo.playerSeatDead.addFirst(winner);
@@ -3306,7 +3468,6 @@ public class NetServer {
 							p.rating[style] + "\t" + change + "\n";
 						broadcast(msgRatingChange, winner.roomID);
 					}
-					writePlayerDataToFile();
 
 					// Leaderboard update
 					for(int i = 0; i < n; i++) {
@@ -3366,19 +3527,19 @@ public class NetServer {
 	 * @param client Client to send
 	 */
 	private void sendPlayerList(SocketChannel client) {
-		String msg = "playerlist\t" + playerInfoMap.size();
+		StringBuilder msg = new StringBuilder("playerlist\t").append(playerInfoMap.size());
 
-		for(SocketChannel ch: channelList) {
+		for(SocketChannel ch: channelSet) {
 			NetPlayerInfo pInfo = playerInfoMap.get(ch);
 
 			if(pInfo != null) {
-				msg += "\t";
-				msg += pInfo.exportString();
+				msg.append("\t");
+				msg.append(pInfo.exportString());
 			}
 		}
 
-		msg += "\n";
-		send(client, msg);
+		msg.append("\n");
+		send(client, msg.toString());
 	}
 
 	/**
@@ -3407,13 +3568,7 @@ public class NetServer {
 	 * @return NetPlayerInfo (null if not found)
 	 */
 	private NetPlayerInfo searchPlayerByName(String name) {
-		for(SocketChannel ch: channelList) {
-			NetPlayerInfo pInfo = playerInfoMap.get(ch);
-			if((pInfo != null) && (pInfo.strName.equals(name))) {
-				return pInfo;
-			}
-		}
-		return null;
+		return playerInfoByNameMap.get(name);
 	}
 
 	/**
@@ -3422,13 +3577,7 @@ public class NetServer {
 	 * @return NetPlayerInfo (null if not found)
 	 */
 	private NetPlayerInfo searchPlayerByUID(int uid) {
-		for(SocketChannel ch: channelList) {
-			NetPlayerInfo pInfo = playerInfoMap.get(ch);
-			if((pInfo != null) && (pInfo.uid == uid)) {
-				return pInfo;
-			}
-		}
-		return null;
+		return playerInfoByUIDMap.get(uid);
 	}
 
 	/**
@@ -3501,7 +3650,7 @@ public class NetServer {
 	private int ban(String strIP, int banLength) {
 		LinkedList<SocketChannel> banChannels = new LinkedList<SocketChannel>();
 
-		for(SocketChannel ch: channelList) {
+		for(SocketChannel ch: channelSet) {
 			String ip = getHostAddress(ch);
 			if(ip.equals(strIP)) {
 				banChannels.add(ch);
@@ -3563,7 +3712,8 @@ public class NetServer {
 			ban = i.next();
 			if (ban.addr.equals(remoteAddr)) {
 				if (ban.isExpired()) {
-					i.remove();
+					// Room relay packets only hold the read lock, so they leave the cleanup to the lobby thread
+					if(stateLock.isWriteLockedByCurrentThread()) i.remove();
 				} else {
 					return ban;
 				}
@@ -3684,13 +3834,365 @@ public class NetServer {
 		status = status.replaceAll("\\$clients", Integer.toString(observerList.size() + playerInfoMap.size()));
 		status = status.replaceAll("\\$rooms", Integer.toString(roomInfoList.size()));
 
-		try {
-			FileWriter outFile = new FileWriter(propServer.getProperty("netserver.statusfilename", "status.txt"));
-			PrintWriter out = new PrintWriter(outFile);
-			out.println(status);
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		writeLinesLater(Arrays.asList(status), propServer.getProperty("netserver.statusfilename", "status.txt"), null,
+				"Failed to write server status file");
+	}
+
+	/**
+	 * Append fields of a packet, separated by tabs
+	 * @param sb Destination
+	 * @param message Fields
+	 * @param start First field to append
+	 */
+	private static void appendFields(StringBuilder sb, String[] message, int start) {
+		for(int i = start; i < message.length; i++) {
+			if(i > start) sb.append('\t');
+			sb.append(message[i]);
+		}
+	}
+
+	/**
+	 * Get the room executor that should process a packet
+	 * @param client The SocketChannel who sent this packet
+	 * @param fullMessage The string of packet
+	 * @return Executor of the sender's room, or null if the packet must be processed on the lobby thread
+	 */
+	private Executor getRoomExecutor(SocketChannel client, String fullMessage) {
+		int index = fullMessage.indexOf('\t');
+		String command = (index == -1) ? fullMessage : fullMessage.substring(0, index);
+		if(!ROOM_RELAY_COMMANDS.contains(command)) return null;
+
+		// Called on the I/O threads, so the room is looked up without waiting for stateLock
+		Integer roomID = roomIDByChannelMap.get(client);
+		if((roomID == null) || (roomID == -1)) return null;
+
+		synchronized (roomExecutorMap) {
+			SerialExecutor executor = roomExecutorMap.get(roomID);
+			if(executor == null) {
+				executor = new SerialExecutor(roomWorkerPool);
+				roomExecutorMap.put(roomID, executor);
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * I/O selector thread. Reads and writes the connections handed to it by the accepting thread.
+	 */
+	private class SelectorThread extends Thread {
+		/** The selector we'll be monitoring */
+		private Selector selector;
+
+		/** New connections to register */
+		private LinkedList<SocketChannel> newChannels = new LinkedList<SocketChannel>();
+
+		/** A list of ChangeRequest instances */
+		private LinkedList<ChangeRequest> pendingChanges = new LinkedList<ChangeRequest>();
+
+		/**
+		 * Constructor
+		 * @param id Thread number
+		 * @throws IOException When the selector can't be created
+		 */
+		public SelectorThread(int id) throws IOException {
+			super("NetServer-IO-" + id);
+			selector = SelectorProvider.provider().openSelector();
+		}
+
+		/**
+		 * Add a new connection
+		 * @param socketChannel SocketChannel
+		 */
+		public void addChannel(SocketChannel socketChannel) {
+			synchronized (newChannels) {
+				newChannels.add(socketChannel);
+			}
+			selector.wakeup();
+		}
+
+		/**
+		 * Add a change request
+		 * @param change ChangeRequest
+		 */
+		public void addChange(ChangeRequest change) {
+			synchronized (pendingChanges) {
+				pendingChanges.add(change);
+			}
+			selector.wakeup();
+		}
+
+		/*
+		 * I/O loop
+		 */
+		@Override
+		public void run() {
+			while(!shutdownRequested) {
+				try {
+					// Register new connections, indicating we'd like to be notified when there's data waiting to be read
+					synchronized (newChannels) {
+						for(SocketChannel socketChannel: newChannels) {
+							try {
+								socketChannel.register(selector, SelectionKey.OP_READ);
+							} catch (ClosedChannelException e) {
+								log.debug("Connection closed before registration", e);
+							}
+						}
+						newChannels.clear();
+					}
+
+					// Process any pending changes
+					synchronized (pendingChanges) {
+						Iterator<ChangeRequest> changes = pendingChanges.iterator();
+						while (changes.hasNext()) {
+							ChangeRequest change = changes.next();
+							SelectionKey key = change.socket.keyFor(selector);
+
+							if((key != null) && key.isValid()) {
+								switch (change.type) {
+								case ChangeRequest.DISCONNECT:
+									// Delayed disconnect
+									List<ByteBuffer> queue = pendingData.get(change.socket);
+									if((queue == null) || queue.isEmpty()) {
+										changes.remove();
+										key.cancel();
+										requestLogout(change.socket);
+									}
+									break;
+								case ChangeRequest.CHANGEOPS:
+									// interestOps Change
+									key.interestOps(change.ops);
+									changes.remove();
+									break;
+								}
+							} else {
+								changes.remove();
+							}
+						}
+					}
+
+					// Wait for an event one of the registered channels
+					selector.select();
+
+					// Iterate over the set of keys for which events are available
+					Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+					while (selectedKeys.hasNext()) {
+						SelectionKey key = selectedKeys.next();
+						selectedKeys.remove();
+
+						if (!key.isValid()) {
+							continue;
+						}
+
+						try {
+							// Check what event is available and deal with it
+							if (key.isReadable()) {
+								doRead(key);
+							} else if (key.isWritable()) {
+								doWrite(key);
+							}
+						} catch (NetServerDisconnectRequestedException e) {
+							// Intended Disconnect
+							log.debug("Socket disconnected by NetServerDisconnectRequestedException");
+							key.cancel();
+							requestLogout((SocketChannel)key.channel());
+						} catch (IOException e) {
+							// Disconnect when something bad happens
+							log.info("Socket disconnected by IOException", e);
+							key.cancel();
+							requestLogout((SocketChannel)key.channel());
+						} catch (CancelledKeyException e) {
+							// Closed by the lobby thread while we were using it. This is normal
+							log.debug("CancelledKeyException on I/O thread", e);
+						}
+					}
+				} catch (IOException e) {
+					log.fatal("IOException on I/O thread", e);
+				} catch (Throwable e) {
+					log.fatal("Non-IOException throwed on I/O thread", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Packets and lobby tasks of one client, processed one at a time in the order they were added.
+	 * Each one goes to the lobby thread, or to the room executor if it's a room relay packet.
+	 */
+	private class ClientQueue {
+		/** The client */
+		private SocketChannel client;
+
+		/** Packets (String) and lobby tasks (Runnable) that are not processed yet */
+		private LinkedList<Object> items = new LinkedList<Object>();
+
+		/** true while an item is being processed */
+		private boolean running = false;
+
+		/** true after a logout is requested (the remaining packets are dropped) */
+		private boolean closing = false;
+
+		/**
+		 * Constructor
+		 * @param client The client
+		 */
+		public ClientQueue(SocketChannel client) {
+			this.client = client;
+		}
+
+		/**
+		 * Add a received packet
+		 * @param packet The string of packet
+		 */
+		public void addPacket(String packet) {
+			add(packet);
+		}
+
+		/**
+		 * Add a task for the lobby thread
+		 * @param task Task
+		 */
+		public void addTask(Runnable task) {
+			add(task);
+		}
+
+		/**
+		 * Drop the remaining packets and add a logout task (only the first call does anything)
+		 * @param logoutTask Logout task
+		 */
+		public void close(Runnable logoutTask) {
+			synchronized (this) {
+				if(closing) return;
+				closing = true;
+			}
+			add(logoutTask);
+		}
+
+		/**
+		 * Add an item and start processing if nothing is being processed
+		 * @param item Packet or task
+		 */
+		private void add(Object item) {
+			synchronized (this) {
+				items.add(item);
+				if(running) return;
+				running = true;
+			}
+			processNext();
+		}
+
+		/**
+		 * Hand the next item to its executor
+		 */
+		private void processNext() {
+			final Object item;
+			synchronized (this) {
+				while(!items.isEmpty() && (items.getFirst() instanceof String) && (closing || !client.isOpen())) {
+					items.removeFirst();
+				}
+				if(items.isEmpty()) {
+					running = false;
+					return;
+				}
+				item = items.removeFirst();
+			}
+
+			Executor roomExecutor = (item instanceof String) ? getRoomExecutor(client, (String)item) : null;
+			final boolean isRelay = (roomExecutor != null);
+
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						if(isRelay) stateLock.readLock().lock();
+						else stateLock.writeLock().lock();
+
+						try {
+							if(item instanceof String) {
+								processPacketAndCatch((String)item);
+							} else {
+								((Runnable)item).run();
+							}
+						} finally {
+							if(isRelay) stateLock.readLock().unlock();
+							else stateLock.writeLock().unlock();
+						}
+					} catch (Throwable e) {
+						log.fatal("Non-IOException throwed on worker thread", e);
+					} finally {
+						processNext();
+					}
+				}
+			};
+
+			if(isRelay) roomExecutor.execute(task);
+			else lobbyExecutor.execute(task);
+		}
+
+		/**
+		 * Process a packet, and logout if it fails
+		 * @param packet The string of packet
+		 */
+		private void processPacketAndCatch(String packet) {
+			try {
+				processPacket(client, packet);
+			} catch (NetServerDisconnectRequestedException e) {
+				// Intended Disconnect
+				log.debug("Socket disconnected by NetServerDisconnectRequestedException");
+				requestLogout(client);
+			} catch (IOException e) {
+				// Disconnect when something bad happens
+				log.info("Socket disconnected by IOException", e);
+				requestLogout(client);
+			} catch (Exception e) {
+				log.warn("Socket disconnected by Non-IOException", e);
+				requestLogout(client);
+			}
+		}
+	}
+
+	/**
+	 * Runs its tasks one at a time, in order, on a shared thread pool
+	 */
+	private static class SerialExecutor implements Executor {
+		/** Tasks that are not started yet */
+		private LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+		/** The thread pool */
+		private Executor executor;
+
+		/** The running task (null if none) */
+		private Runnable active;
+
+		/**
+		 * Constructor
+		 * @param executor The thread pool
+		 */
+		public SerialExecutor(Executor executor) {
+			this.executor = executor;
+		}
+
+		/*
+		 * Add a task
+		 */
+		public synchronized void execute(final Runnable r) {
+			tasks.add(new Runnable() {
+				public void run() {
+					try {
+						r.run();
+					} finally {
+						scheduleNext();
+					}
+				}
+			});
+			if(active == null) scheduleNext();
+		}
+
+		/**
+		 * Start the next task
+		 */
+		protected synchronized void scheduleNext() {
+			if((active = tasks.poll()) != null) {
+				executor.execute(active);
+			}
 		}
 	}
 
@@ -3713,4 +4215,33 @@ public class NetServer {
 			this.ops = ops;
 		}
 	}
+
+	/**
+	 * Multiplayer leaderboard of one game style (sorted by rating, one entry per player name)
+	 */
+	private static class MPRankingList extends NetRankingList<NetPlayerInfo> {
+		/** Serial version ID */
+		private static final long serialVersionUID = 1L;
+
+		/** Game style */
+		private int style;
+
+		/**
+		 * Constructor
+		 * @param style Game style
+		 */
+		public MPRankingList(int style) {
+			this.style = style;
+		}
+
+		@Override
+		protected String getKey(NetPlayerInfo p) {
+			return p.strName;
+		}
+
+		@Override
+		protected boolean isBetter(NetPlayerInfo p1, NetPlayerInfo p2) {
+			return p1.rating[style] > p2.rating[style];
+		}
+	}
 }
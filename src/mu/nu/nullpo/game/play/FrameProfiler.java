@@ -0,0 +1,279 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.play;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Time spent in each part of a frame of one GameEngine.<br>
+ * {@link GameEngine#update()} and {@link GameEngine#render()} measure their parts with System.nanoTime()
+ * only when {@link GameEngine#profiler} is set, so a disabled profiler costs one null check per part.
+ * The time of each part in each frame goes to a histogram with power-of-2 buckets
+ * (bucket i counts the frames that took 2^(i-1) to 2^i - 1 nanoseconds), so percentiles are accurate to a factor of 2.
+ * The averages and maximums of the last {@link #WINDOW_FRAMES} frames are kept for the in-game overlay.
+ */
+public class FrameProfiler {
+	/** Part: Input and AI (replay input, setControl, AI onFirst and onLast) */
+	public static final int PHASE_AI = 0;
+
+	/** Part: Mode and EventReceiver onFirst and onLast */
+	public static final int PHASE_MODE = 1;
+
+	/** Part: statMove loop (with the onMove callbacks) */
+	public static final int PHASE_MOVE = 2;
+
+	/** Part: statLineClear (with the line clear callbacks) */
+	public static final int PHASE_LINECLEAR = 3;
+
+	/** Part: Other states (ARE, lock flash, ready, settings...) */
+	public static final int PHASE_STAT = 4;
+
+	/** Part: fieldUpdate and the statistics */
+	public static final int PHASE_FIELD = 5;
+
+	/** Part: Whole GameEngine.update() */
+	public static final int PHASE_UPDATE = 6;
+
+	/** Part: Whole GameEngine.render() (Mode and EventReceiver render callbacks) */
+	public static final int PHASE_RENDER = 7;
+
+	/** Number of parts */
+	public static final int NUM_PHASES = 8;
+
+	/** Names of the parts */
+	public static final String[] PHASE_NAMES = {"AI", "MODE", "MOVE", "LINECLEAR", "STAT", "FIELD", "UPDATE", "RENDER"};
+
+	/** Number of histogram buckets (the last one counts everything above 2^30 ns, about 1 second) */
+	public static final int NUM_BUCKETS = 32;
+
+	/** File the front ends append the profiles to when a game ends */
+	public static final String DEFAULT_FILENAME = "log/profile.txt";
+
+	/** Number of frames of the overlay window */
+	public static final int WINDOW_FRAMES = 60;
+
+	/** Histograms [part][bucket] */
+	protected long[][] histogram = new long[NUM_PHASES][NUM_BUCKETS];
+
+	/** Number of frames in which each part ran */
+	protected long[] count = new long[NUM_PHASES];
+
+	/** Total time of each part */
+	protected long[] total = new long[NUM_PHASES];
+
+	/** Maximum time of each part in one frame */
+	protected long[] max = new long[NUM_PHASES];
+
+	/** Time of each part in the current frame */
+	protected long[] frameTime = new long[NUM_PHASES];
+
+	/** Total and maximum time of each part in the current window */
+	protected long[] windowTotal = new long[NUM_PHASES], windowMax = new long[NUM_PHASES];
+
+	/** Averages and maximums of the last complete window */
+	protected long[] lastAverage = new long[NUM_PHASES], lastMax = new long[NUM_PHASES];
+
+	/** Number of frames in the current window */
+	protected int windowFrames;
+
+	/**
+	 * Add the time since a timestamp to a part of the current frame
+	 * @param phase Part
+	 * @param start Timestamp (System.nanoTime())
+	 * @return Current time (the start of the next part)
+	 */
+	public long lap(int phase, long start) {
+		long now = System.nanoTime();
+		frameTime[phase] += now - start;
+		return now;
+	}
+
+	/**
+	 * Finish a frame of GameEngine.update(): the parts that ran in it are added to the histograms
+	 * @param start Timestamp of the start of the frame (System.nanoTime())
+	 */
+	public void endUpdate(long start) {
+		frameTime[PHASE_UPDATE] = System.nanoTime() - start;
+		for(int i = 0; i < NUM_PHASES; i++) {
+			if((i != PHASE_RENDER) && (frameTime[i] > 0)) {
+				add(i, frameTime[i]);
+				frameTime[i] = 0;
+			}
+		}
+
+		windowFrames++;
+		if(windowFrames >= WINDOW_FRAMES) {
+			for(int i = 0; i < NUM_PHASES; i++) {
+				lastAverage[i] = windowTotal[i] / windowFrames;
+				lastMax[i] = windowMax[i];
+				windowTotal[i] = 0;
+				windowMax[i] = 0;
+			}
+			windowFrames = 0;
+		}
+	}
+
+	/**
+	 * Finish a frame of GameEngine.render()
+	 * @param start Timestamp of the start of the rendering (System.nanoTime())
+	 */
+	public void endRender(long start) {
+		add(PHASE_RENDER, System.nanoTime() - start);
+	}
+
+	/**
+	 * Add the time of a part in one frame
+	 * @param phase Part
+	 * @param nanos Time in nanoseconds
+	 */
+	public void add(int phase, long nanos) {
+		histogram[phase][Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))]++;
+		count[phase]++;
+		total[phase] += nanos;
+		if(nanos > max[phase]) max[phase] = nanos;
+		windowTotal[phase] += nanos;
+		if(nanos > windowMax[phase]) windowMax[phase] = nanos;
+	}
+
+	/**
+	 * Add all frames of another profiler
+	 * @param p Source
+	 */
+	public void add(FrameProfiler p) {
+		for(int i = 0; i < NUM_PHASES; i++) {
+			for(int j = 0; j < NUM_BUCKETS; j++) histogram[i][j] += p.histogram[i][j];
+			count[i] += p.count[i];
+			total[i] += p.total[i];
+			max[i] = Math.max(max[i], p.max[i]);
+		}
+	}
+
+	/**
+	 * Remove all frames
+	 */
+	public void reset() {
+		for(int i = 0; i < NUM_PHASES; i++) {
+			Arrays.fill(histogram[i], 0);
+			count[i] = 0;
+			total[i] = 0;
+			max[i] = 0;
+			frameTime[i] = 0;
+			windowTotal[i] = 0;
+			windowMax[i] = 0;
+			lastAverage[i] = 0;
+			lastMax[i] = 0;
+		}
+		windowFrames = 0;
+	}
+
+	/**
+	 * Get the number of frames in which a part ran
+	 * @param phase Part
+	 * @return Number of frames
+	 */
+	public long getCount(int phase) {
+		return count[phase];
+	}
+
+	/**
+	 * Get the average time of a part
+	 * @param phase Part
+	 * @return Average time in nanoseconds (0 if it never ran)
+	 */
+	public long getAverage(int phase) {
+		return (count[phase] == 0) ? 0 : total[phase] / count[phase];
+	}
+
+	/**
+	 * Get the maximum time of a part
+	 * @param phase Part
+	 * @return Maximum time in nanoseconds
+	 */
+	public long getMax(int phase) {
+		return max[phase];
+	}
+
+	/**
+	 * Get a percentile of a part from its histogram
+	 * @param phase Part
+	 * @param p Percentile (0.0-1.0)
+	 * @return Upper bound of the bucket of the percentile in nanoseconds (0 if it never ran)
+	 */
+	public long getPercentile(int phase, double p) {
+		long target = (long)Math.ceil(count[phase] * p);
+		long n = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			n += histogram[phase][i];
+			if((n >= target) && (n > 0)) return Math.min(max[phase], (1L << i) - 1);
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the average time of a part in the last {@link #WINDOW_FRAMES} frames
+	 * @param phase Part
+	 * @return Average time in nanoseconds (per update frame)
+	 */
+	public long getLastAverage(int phase) {
+		return lastAverage[phase];
+	}
+
+	/**
+	 * Get the maximum time of a part in the last {@link #WINDOW_FRAMES} frames
+	 * @param phase Part
+	 * @return Maximum time in nanoseconds
+	 */
+	public long getLastMax(int phase) {
+		return lastMax[phase];
+	}
+
+	/**
+	 * Write the summary and the histograms
+	 * @param out Output
+	 * @param title Title line
+	 */
+	public void write(PrintWriter out, String title) {
+		out.println(title);
+		out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s", "part", "frames", "avg us", "p50 us", "p99 us", "max us", "total ms"));
+		for(int i = 0; i < NUM_PHASES; i++) {
+			out.println(String.format("%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f", PHASE_NAMES[i], count[i],
+					getAverage(i) / 1e3, getPercentile(i, 0.5) / 1e3, getPercentile(i, 0.99) / 1e3, max[i] / 1e3, total[i] / 1e6));
+		}
+		out.println("histogram (frames per bucket; bucket i is below 2^i ns)");
+		for(int i = 0; i < NUM_PHASES; i++) {
+			StringBuilder sb = new StringBuilder(String.format("%-10s", PHASE_NAMES[i]));
+			for(int j = 0; j < NUM_BUCKETS; j++) {
+				if(histogram[i][j] > 0) sb.append(' ').append(j).append(':').append(histogram[i][j]);
+			}
+			out.println(sb);
+		}
+		out.println();
+	}
+}
@@ -42,6 +42,8 @@ import mu.nu.nullpo.game.component.RuleOptions;
 import mu.nu.nullpo.game.component.SpeedParam;
 import mu.nu.nullpo.game.component.Statistics;
 import mu.nu.nullpo.game.component.WallkickResult;
+import mu.nu.nullpo.game.subsystem.ai.AIFieldSnapshot;
+import mu.nu.nullpo.game.subsystem.ai.AIThinkScheduler;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
 import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
 import mu.nu.nullpo.util.GeneralUtil;
@@ -207,12 +209,30 @@ public class GameEngine {
 	/** Show internal state of AI */
 	public boolean aiShowState;
 
+	/** Number of threads used by AIs that support parallel search (1 or less: single-threaded) */
+	public int aiSearchThreads;
+
+	/** Number of entries in the AI evaluation cache (0: disabled) */
+	public int aiTranspositionTableSize;
+
+	/** Number of NEXT piece IDs copied to the AI snapshot (AIs that look further ahead than the NEXT display raise it) */
+	public int aiSnapshotNextIDs;
+
+	/** Latest field snapshot for the AI thread (null until the first publishAISnapshot()) */
+	protected volatile AIFieldSnapshot aiSnapshot;
+
+	/** Previous field snapshot, reused by the next publishAISnapshot() when no AI is reading it */
+	protected AIFieldSnapshot aiSnapshotBack;
+
 	/** AI Hint piece (copy of current or hold) */
 	public Piece aiHintPiece;
 
 	/** True if AI Hint is ready */
 	public boolean aiHintReady;
 
+	/** Time spent in each part of the frames (null if not measured) */
+	public FrameProfiler profiler;
+
 	/** Current main game status */
 	public Status stat;
 
@@ -273,15 +293,21 @@ public class GameEngine {
 	/** Allow/Disallow certain piece */
 	public boolean[] nextPieceEnable;
 
-	/** Preferred size of next piece array. Might be ignored by certain Randomizer. (Default:1400) */
+	/** Preferred size of next piece array, used when the pieces are not streamed. (Default:1400) */
 	public int nextPieceArraySize;
 
-	/** Array of next piece IDs */
+	/** Array of next piece IDs (null when the pieces come from nextPieceQueue) */
 	public int[] nextPieceArrayID;
 
-	/** Array of next piece Objects */
+	/** Array of next piece Objects (null when the pieces come from nextPieceQueue) */
 	public Piece[] nextPieceArrayObject;
 
+	/** true to make the next pieces on demand with nextPieceQueue instead of the arrays (false when playing old replays) */
+	public boolean nextPieceStreaming;
+
+	/** Endless next piece sequence (null if nextPieceArrayID is used) */
+	public NextPieceQueue nextPieceQueue;
+
 	/** Number of pieces put (Used by next piece sequence) */
 	public int nextPieceCount;
 
@@ -715,6 +741,8 @@ public class GameEngine {
 			randSeed = tempRand.nextLong();
 			log.debug("Player + " + playerID + "Random seed :" + Long.toString(randSeed, 16));
 			random = new Random(randSeed);
+
+			nextPieceStreaming = true;
 		} else {
 			versionMajor = owner.replayProp.getProperty("version.core.major", 0f);
 			versionMinor = owner.replayProp.getProperty("version.core.minor", 0);
@@ -727,6 +755,9 @@ public class GameEngine {
 			randSeed = Long.parseLong(tempRand, 16);
 			random = new Random(randSeed);
 
+			// Old replays used a fixed-size array that repeats itself
+			nextPieceStreaming = owner.replayProp.getProperty(playerID + ".replay.nextPieceStreaming", false);
+
 			owRotateButtonDefaultRight = owner.replayProp.getProperty(playerID + ".tuning.owRotateButtonDefaultRight", -1);
 			owSkin = owner.replayProp.getProperty(playerID + ".tuning.owSkin", -1);
 			owMinDAS = owner.replayProp.getProperty(playerID + ".tuning.owMinDAS", -1);
@@ -769,6 +800,7 @@ public class GameEngine {
 		for(int i = 0; i < Piece.PIECE_STANDARD_COUNT; i++) nextPieceEnable[i] = true;
 		nextPieceArrayID = null;
 		nextPieceArrayObject = null;
+		nextPieceQueue = null;
 		nextPieceCount = 0;
 
 		holdPieceObject = null;
@@ -942,10 +974,12 @@ public class GameEngine {
 		//log.debug("GameEngine shutdown() playerID:" + playerID);
 
 		if(ai != null) ai.shutdown(this, playerID);
+		AIThinkScheduler.cancelShared(this);
 		owner = null;
 		ruleopt = null;
 		wallkick = null;
 		randomizer = null;
+		nextPieceQueue = null;
 		field = null;
 		ctrl = null;
 		statistics = null;
@@ -975,7 +1009,10 @@ public class GameEngine {
 	 * @return NEXTピースのID
 	 */
 	public int getNextID(int c) {
-		if(nextPieceArrayID == null) return Piece.PIECE_NONE;
+		if(nextPieceArrayID == null) {
+			if(nextPieceQueue != null) return nextPieceQueue.getID(c);
+			return Piece.PIECE_NONE;
+		}
 		int c2 = c;
 		while(c2 >= nextPieceArrayID.length) c2 = c2 - nextPieceArrayID.length;
 		return nextPieceArrayID[c2];
@@ -987,7 +1024,10 @@ public class GameEngine {
 	 * @return NEXTピースのオブジェクト
 	 */
 	public Piece getNextObject(int c) {
-		if(nextPieceArrayObject == null) return null;
+		if(nextPieceArrayObject == null) {
+			if(nextPieceQueue != null) return nextPieceQueue.getObject(c);
+			return null;
+		}
 		int c2 = c;
 		while(c2 >= nextPieceArrayObject.length) c2 = c2 - nextPieceArrayObject.length;
 		return nextPieceArrayObject[c2];
@@ -1409,6 +1449,36 @@ public class GameEngine {
 		return true;
 	}
 
+	/**
+	 * Copy the field and pieces for the AI search (called on the game thread).
+	 * Two snapshots are reused in turns; a new one is made only when an AI is still reading the older one.
+	 * @return The published snapshot
+	 */
+	public AIFieldSnapshot publishAISnapshot() {
+		AIFieldSnapshot s = aiSnapshotBack;
+		if((s == null) || s.isInUse()) s = new AIFieldSnapshot();
+		s.copy(this);
+		aiSnapshotBack = aiSnapshot;
+		aiSnapshot = s;
+		return s;
+	}
+
+	/**
+	 * Get the latest field snapshot for the AI search (any thread).
+	 * The snapshot is not changed until {@link AIFieldSnapshot#release()} is called.
+	 * @return Snapshot (null if nothing is published yet)
+	 */
+	public AIFieldSnapshot acquireAISnapshot() {
+		while(true) {
+			AIFieldSnapshot s = aiSnapshot;
+			if(s == null) return null;
+			s.acquire();
+			// The game thread may have started filling it again before acquire()
+			if(s == aiSnapshot) return s;
+			s.release();
+		}
+	}
+
 	/**
 	 * ピースが出現するX-coordinateを取得
 	 * @param fld field
@@ -1616,6 +1686,7 @@ public class GameEngine {
 		owner.replayProp.setProperty("version.core.dev", versionIsDevBuild);
 
 		owner.replayProp.setProperty(playerID + ".replay.randSeed", Long.toString(randSeed, 16));
+		owner.replayProp.setProperty(playerID + ".replay.nextPieceStreaming", nextPieceStreaming);
 
 		replayData.writeProperty(owner.replayProp, playerID, replayTimer);
 		statistics.writeProperty(owner.replayProp, playerID);
@@ -1691,6 +1762,10 @@ public class GameEngine {
 	 * ゲーム stateの更新
 	 */
 	public void update() {
+		FrameProfiler prof = profiler;
+		long frameStart = 0, t = 0;
+		if(prof != null) frameStart = t = System.nanoTime();
+
 		if(gameActive) {
 			// リプレイ関連の処理
 			if(!owner.replayMode || owner.replayRerecord) {
@@ -1732,12 +1807,22 @@ public class GameEngine {
 
 		//  button input timeの更新
 		ctrl.updateButtonTime();
+		if(prof != null) t = prof.lap(FrameProfiler.PHASE_AI, t);
 
 		// 最初の処理
 		if(owner.mode != null) owner.mode.onFirst(this, playerID);
 		owner.receiver.onFirst(this, playerID);
+		if(prof != null) t = prof.lap(FrameProfiler.PHASE_MODE, t);
 		if((ai != null) && (!owner.replayMode || owner.replayRerecord)) ai.onFirst(this, playerID);
 
+		// The part is picked before the state handler, which may change the state
+		int statPhase = FrameProfiler.PHASE_STAT;
+		if(prof != null) {
+			t = prof.lap(FrameProfiler.PHASE_AI, t);
+			if(stat == Status.MOVE) statPhase = FrameProfiler.PHASE_MOVE;
+			else if(stat == Status.LINECLEAR) statPhase = FrameProfiler.PHASE_LINECLEAR;
+		}
+
 		// 各ステータスの処理
 		if(!lagStop) {
 			switch(stat) {
@@ -1788,21 +1873,27 @@ public class GameEngine {
 				break;
 			}
 		}
+		if(prof != null) t = prof.lap(statPhase, t);
 
 		// fieldのBlock stateや統計情報を更新
 		fieldUpdate();
 		if((ending == 0) || (staffrollEnableStatistics)) statistics.update();
+		if(prof != null) t = prof.lap(FrameProfiler.PHASE_FIELD, t);
 
 		// 最後の処理
 		if(owner.mode != null) owner.mode.onLast(this, playerID);
 		owner.receiver.onLast(this, playerID);
+		if(prof != null) t = prof.lap(FrameProfiler.PHASE_MODE, t);
 		if((ai != null) && (!owner.replayMode || owner.replayRerecord)) ai.onLast(this, playerID);
+		if(prof != null) prof.lap(FrameProfiler.PHASE_AI, t);
 
 		// Timer増加
 		if(gameActive && timerActive) {
 			statistics.time++;
 		}
 
+		if(prof != null) prof.endUpdate(frameStart);
+
 		/*
 		if(startTime > 0 && endTime == 0) {
 			statistics.gamerate = (float)(replayTimer / (0.00000006*(System.nanoTime() - startTime)));
@@ -1815,6 +1906,9 @@ public class GameEngine {
 	 *  (各Mode や event 処理クラスの event を呼び出すだけで, それ以外にGameEngine自身は何もしません）
 	 */
 	public void render() {
+		FrameProfiler prof = profiler;
+		long renderStart = (prof != null) ? System.nanoTime() : 0;
+
 		// 最初の処理
 		owner.receiver.renderFirst(this, playerID);
 		if(owner.mode != null) owner.mode.renderFirst(this, playerID);
@@ -1894,6 +1988,11 @@ public class GameEngine {
 		// 最後の処理
 		if(owner.mode != null) owner.mode.renderLast(this, playerID);
 		owner.receiver.renderLast(this, playerID);
+
+		if(prof != null) {
+			prof.endRender(renderStart);
+			owner.receiver.renderProfiler(this, playerID);
+		}
 	}
 
 	/**
@@ -1931,7 +2030,7 @@ public class GameEngine {
 			createFieldIfNeeded();
 
 			// NEXTピース作成
-			if(nextPieceArrayID == null) {
+			if((nextPieceArrayID == null) && (nextPieceQueue == null)) {
 				// 出現可能なピースが1つもない場合は全て出現できるようにする
 				boolean allDisable = true;
 				for(int i = 0; i < nextPieceEnable.length; i++) {
@@ -1950,13 +2049,20 @@ public class GameEngine {
 				} else {
 					randomizer.setState(nextPieceEnable, randSeed);
 				}
-				nextPieceArrayID = new int[nextPieceArraySize];
-				for (int i = 0; i < nextPieceArraySize; i++) {
-					nextPieceArrayID[i] = randomizer.next();
+				if(nextPieceStreaming) {
+					// Pieces are made when needed
+					if(randomBlockColor && ((blockColors.length < numColors) || (numColors < 1)))
+						numColors = blockColors.length;
+					nextPieceQueue = new NextPieceQueue(this, randomizer, ~randSeed);
+				} else {
+					nextPieceArrayID = new int[nextPieceArraySize];
+					for (int i = 0; i < nextPieceArraySize; i++) {
+						nextPieceArrayID[i] = randomizer.next();
+					}
 				}
 			}
 			// NEXTピースのオブジェクトを作成
-			if(nextPieceArrayObject == null) {
+			if((nextPieceArrayObject == null) && (nextPieceArrayID != null)) {
 				nextPieceArrayObject = new Piece[nextPieceArrayID.length];
 
 				for(int i = 0; i < nextPieceArrayObject.length; i++) {
@@ -28,11 +28,17 @@
 */
 package mu.nu.nullpo.game.play;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
 import mu.nu.nullpo.game.component.BGMStatus;
 import mu.nu.nullpo.game.component.BackgroundStatus;
 import mu.nu.nullpo.game.event.EventReceiver;
+import mu.nu.nullpo.game.subsystem.ai.AIThinkScheduler;
 import mu.nu.nullpo.game.subsystem.mode.GameMode;
 import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.GeneralUtil;
 
 import org.apache.log4j.Logger;
 
@@ -302,6 +308,45 @@ public class GameManager {
 		}
 	}
 
+	/**
+	 * Turn the frame profiler of every engine on or off (after init)
+	 * @param enable true to measure the time of each part of the frames
+	 */
+	public void setProfilerEnabled(boolean enable) {
+		for(int i = 0; i < engine.length; i++) {
+			engine[i].profiler = enable ? new FrameProfiler() : null;
+		}
+	}
+
+	/**
+	 * Append the frame profiles of the engines to a file
+	 * @param filename Filename
+	 */
+	public void writeProfile(String filename) {
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(filename, true));
+			String strMode = (mode != null) ? mode.getName() : "NONE";
+			boolean written = false;
+			for(int i = 0; i < engine.length; i++) {
+				FrameProfiler prof = engine[i].profiler;
+				if((prof == null) || (prof.getCount(FrameProfiler.PHASE_UPDATE) == 0)) continue;
+
+				String strAI = (engine[i].ai != null) ? engine[i].ai.getName() : "NONE";
+				prof.write(out, GeneralUtil.exportCalendarString() + " " + strMode + " Player:" + (i + 1) + " AI:" + strAI);
+				written = true;
+			}
+			// Threaded AIs share the worker threads of the scheduler
+			String strScheduler = AIThinkScheduler.getSharedStatus();
+			if(written && (strScheduler != null)) {
+				out.println(strScheduler);
+				out.println();
+			}
+			out.close();
+		} catch (IOException e) {
+			log.warn("Failed to write " + filename, e);
+		}
+	}
+
 	/**
 	 * Replay save routine
 	 */
@@ -0,0 +1,311 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.play;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import mu.nu.nullpo.game.event.EventReceiver;
+import mu.nu.nullpo.game.subsystem.ai.AIFieldSnapshot;
+import mu.nu.nullpo.game.subsystem.ai.DummyAI;
+
+/**
+ * Copy of the state of a game in memory (checkpoint).<br>
+ * {@link #take(Object, Class...)} walks the objects reachable from a GameManager (engines, fields, pieces, NEXT queue,
+ * randomizers, statistics, the mode...) by reflection and keeps the values of their fields.
+ * {@link #restore()} writes the values back to the same objects, so the references that the front end keeps stay valid,
+ * and the objects created after the checkpoint are dropped. A checkpoint can be restored any number of times.<br>
+ * Arrays are copied, collections and maps keep their contents, and java.util.Random is kept serialized.
+ * The EventReceiver, AIs and their field snapshots, properties, threads, other JDK objects and the classes given to take()
+ * are shared and not copied.
+ */
+public class GameSnapshot {
+	/** Non-static fields of each class */
+	protected static final HashMap<Class<?>, Field[]> fieldCache = new HashMap<Class<?>, Field[]>();
+
+	/** Object to its saved state (field values, a copy of the array, contents of the collection or map, or a serialized Random) */
+	protected IdentityHashMap<Object, Object> values = new IdentityHashMap<Object, Object>();
+
+	/** Classes that are not copied */
+	protected Class<?>[] sharedClasses;
+
+	/**
+	 * Take a checkpoint
+	 * @param root GameManager (or any object)
+	 * @param sharedClasses Classes that are not copied (for example data that doesn't change during a replay)
+	 * @return GameSnapshot
+	 */
+	public static GameSnapshot take(Object root, Class<?>... sharedClasses) {
+		GameSnapshot s = new GameSnapshot();
+		s.sharedClasses = sharedClasses;
+		s.save(root);
+		return s;
+	}
+
+	/**
+	 * Get the number of saved objects
+	 * @return Number of saved objects
+	 */
+	public int getObjectCount() {
+		return values.size();
+	}
+
+	/**
+	 * Save the objects reachable from root
+	 * @param root Root object
+	 */
+	protected void save(Object root) {
+		ArrayDeque<Object> stack = new ArrayDeque<Object>();
+		push(stack, root);
+
+		while(!stack.isEmpty()) {
+			Object o = stack.pop();
+			if(values.containsKey(o)) continue;
+			Class<?> c = o.getClass();
+
+			if(c.isArray()) {
+				int length = Array.getLength(o);
+				Object copy = Array.newInstance(c.getComponentType(), length);
+				System.arraycopy(o, 0, copy, 0, length);
+				values.put(o, copy);
+				if(!c.getComponentType().isPrimitive()) {
+					for(Object e: (Object[])copy) push(stack, e);
+				}
+			} else if(o instanceof Random) {
+				values.put(o, serialize(o));
+			} else if(o instanceof Collection<?>) {
+				Object[] contents = ((Collection<?>)o).toArray();
+				values.put(o, contents);
+				for(Object e: contents) push(stack, e);
+			} else if(o instanceof Map<?, ?>) {
+				Map<?, ?> map = (Map<?, ?>)o;
+				Object[] contents = new Object[map.size() * 2];
+				int i = 0;
+				for(Map.Entry<?, ?> e: map.entrySet()) {
+					contents[i++] = e.getKey();
+					contents[i++] = e.getValue();
+				}
+				values.put(o, contents);
+				for(Object e: contents) push(stack, e);
+			} else {
+				Field[] fields = getFields(c);
+				Object[] fieldValues = new Object[fields.length];
+				try {
+					for(int i = 0; i < fields.length; i++) {
+						fieldValues[i] = fields[i].get(o);
+						if(!fields[i].getType().isPrimitive()) push(stack, fieldValues[i]);
+					}
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+				values.put(o, fieldValues);
+			}
+		}
+	}
+
+	/**
+	 * Add an object to the stack if it has to be saved
+	 * @param stack Stack
+	 * @param o Object
+	 */
+	protected void push(ArrayDeque<Object> stack, Object o) {
+		if((o != null) && !values.containsKey(o) && !isShared(o)) stack.push(o);
+	}
+
+	/**
+	 * Check if an object is not copied
+	 * @param o Object
+	 * @return true if the object is immutable or shared
+	 */
+	protected boolean isShared(Object o) {
+		if((o instanceof String) || (o instanceof Integer) || (o instanceof Long) || (o instanceof Boolean) ||
+		   (o instanceof Float) || (o instanceof Double) || (o instanceof Short) || (o instanceof Byte) ||
+		   (o instanceof Character) || (o instanceof Enum<?>) || (o instanceof Class<?>))
+		{
+			return true;
+		}
+		if((o instanceof EventReceiver) || (o instanceof DummyAI) || (o instanceof AIFieldSnapshot) || (o instanceof Thread) ||
+		   (o instanceof Properties))
+		{
+			return true;
+		}
+		for(Class<?> c: sharedClasses) {
+			if(c.isInstance(o)) return true;
+		}
+
+		Class<?> c = o.getClass();
+		if(c.isArray() || (o instanceof Random) || (o instanceof Collection<?>) || (o instanceof Map<?, ?>)) return false;
+		// Other objects of the JDK, or classes based on them (windows etc.)
+		for(; c != Object.class; c = c.getSuperclass()) {
+			if(isSystemClass(c)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a class is a part of the JDK
+	 * @param c Class
+	 * @return true if the class is a part of the JDK
+	 */
+	protected static boolean isSystemClass(Class<?> c) {
+		String name = c.getName();
+		return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("jdk.");
+	}
+
+	/**
+	 * Get the non-static fields of a class and its superclasses
+	 * @param c Class
+	 * @return Fields
+	 */
+	protected static Field[] getFields(Class<?> c) {
+		synchronized(fieldCache) {
+			Field[] fields = fieldCache.get(c);
+			if(fields == null) {
+				ArrayList<Field> list = new ArrayList<Field>();
+				for(Class<?> k = c; k != Object.class; k = k.getSuperclass()) {
+					for(Field f: k.getDeclaredFields()) {
+						if(Modifier.isStatic(f.getModifiers())) continue;
+						f.setAccessible(true);
+						list.add(f);
+					}
+				}
+				fields = list.toArray(new Field[list.size()]);
+				fieldCache.put(c, fields);
+			}
+			return fields;
+		}
+	}
+
+	/**
+	 * Write the saved state back to the objects
+	 */
+	@SuppressWarnings("unchecked")
+	public void restore() {
+		// A Random is replaced by a new copy
+		IdentityHashMap<Object, Object> replaced = new IdentityHashMap<Object, Object>();
+		for(Map.Entry<Object, Object> entry: values.entrySet()) {
+			if(entry.getKey() instanceof Random) replaced.put(entry.getKey(), deserialize((byte[])entry.getValue()));
+		}
+
+		for(Map.Entry<Object, Object> entry: values.entrySet()) {
+			Object o = entry.getKey();
+			Object v = entry.getValue();
+			Class<?> c = o.getClass();
+
+			if(c.isArray()) {
+				if(c.getComponentType().isPrimitive()) {
+					System.arraycopy(v, 0, o, 0, Array.getLength(v));
+				} else {
+					Object[] src = (Object[])v;
+					Object[] dest = (Object[])o;
+					for(int i = 0; i < src.length; i++) dest[i] = resolve(src[i], replaced);
+				}
+			} else if(o instanceof Random) {
+				continue;
+			} else if(o instanceof Collection<?>) {
+				Collection<Object> collection = (Collection<Object>)o;
+				collection.clear();
+				for(Object e: (Object[])v) collection.add(resolve(e, replaced));
+			} else if(o instanceof Map<?, ?>) {
+				Map<Object, Object> map = (Map<Object, Object>)o;
+				Object[] contents = (Object[])v;
+				map.clear();
+				for(int i = 0; i < contents.length; i += 2) map.put(resolve(contents[i], replaced), resolve(contents[i + 1], replaced));
+			} else {
+				Field[] fields = getFields(c);
+				Object[] fieldValues = (Object[])v;
+				try {
+					for(int i = 0; i < fields.length; i++) fields[i].set(o, resolve(fieldValues[i], replaced));
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the object to write back
+	 * @param o Saved reference
+	 * @param replaced Objects that are replaced by new copies
+	 * @return Object
+	 */
+	protected static Object resolve(Object o, IdentityHashMap<Object, Object> replaced) {
+		Object r = replaced.get(o);
+		return (r != null) ? r : o;
+	}
+
+	/**
+	 * Serialize an object
+	 * @param o Object
+	 * @return Serialized data
+	 */
+	protected static byte[] serialize(Object o) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ObjectOutputStream oout = new ObjectOutputStream(out);
+			oout.writeObject(o);
+			oout.close();
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Deserialize an object
+	 * @param data Serialized data
+	 * @return Object
+	 */
+	protected static Object deserialize(byte[] data) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+			Object o = in.readObject();
+			in.close();
+			return o;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
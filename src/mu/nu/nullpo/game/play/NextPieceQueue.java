@@ -0,0 +1,213 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.play;
+
+import java.util.Random;
+
+import mu.nu.nullpo.game.component.Block;
+import mu.nu.nullpo.game.component.Piece;
+import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
+
+/**
+ * Next piece sequence that never ends.<br>
+ * Piece IDs are taken from the Randomizer only when somebody asks for them,
+ * and Piece objects are made only for the pieces that are asked for (the NEXT display, hold, AI lookahead).
+ * Both are kept in a ring buffer that grows when a caller looks further ahead than it can hold,
+ * and forgets the pieces a little behind the current one ({@link GameEngine#nextPieceCount}).<br>
+ * The result doesn't depend on when or how far ahead the pieces are asked for:
+ * IDs come from the Randomizer in order, and the objects are made in order with a Random of their own
+ * (random direction and random block colors), using the settings of the engine when this queue was made.
+ * Asking for a piece can generate pieces and grow the buffer, so the accessors are synchronized:
+ * threaded AIs look ahead from their own threads while the game thread takes the pieces.
+ */
+public class NextPieceQueue {
+	/** Number of pieces before GameEngine.nextPieceCount that are kept */
+	public static final int HISTORY_SIZE = 16;
+
+	/** Initial size of the ring buffer (power of 2) */
+	protected static final int INITIAL_CAPACITY = 32;
+
+	/** Owner */
+	protected GameEngine engine;
+
+	/** Piece ID generator */
+	protected Randomizer randomizer;
+
+	/** Random for the piece objects */
+	protected Random random;
+
+	/** Piece IDs (ring buffer) */
+	protected int[] ids;
+
+	/** Piece objects (ring buffer, same index as ids) */
+	protected Piece[] objects;
+
+	/** Index of the oldest kept piece */
+	protected int start;
+
+	/** Index after the last generated piece ID */
+	protected int end;
+
+	/** Index after the last made piece object */
+	protected int objectEnd;
+
+	/** Default direction of each piece */
+	protected int[] pieceDefaultDirection;
+
+	/** Color of each piece */
+	protected int[] pieceColor;
+
+	/** Skin */
+	protected int skin;
+
+	/** Connect blocks */
+	protected boolean connectBlocks;
+
+	/** Bone blocks */
+	protected boolean bone;
+
+	/** Random block colors (null if not used) */
+	protected int[] blockColors;
+
+	/** Number of colors in blockColors to use */
+	protected int numColors;
+
+	/**
+	 * Constructor
+	 * @param engine Owner (its current piece settings are used for every piece)
+	 * @param randomizer Piece ID generator (already seeded)
+	 * @param seed Seed of the Random for the piece objects
+	 */
+	public NextPieceQueue(GameEngine engine, Randomizer randomizer, long seed) {
+		this.engine = engine;
+		this.randomizer = randomizer;
+		this.random = new Random(seed);
+
+		ids = new int[INITIAL_CAPACITY];
+		objects = new Piece[INITIAL_CAPACITY];
+
+		pieceDefaultDirection = engine.ruleopt.pieceDefaultDirection;
+		pieceColor = engine.ruleopt.pieceColor;
+		skin = engine.getSkin();
+		connectBlocks = engine.connectBlocks;
+		bone = engine.bone;
+		if(engine.randomBlockColor) {
+			blockColors = engine.blockColors;
+			numColors = engine.numColors;
+		}
+	}
+
+	/**
+	 * Get a piece ID
+	 * @param index Index in the sequence (same as GameEngine.nextPieceCount)
+	 * @return Piece ID (Piece.PIECE_NONE if the piece is already forgotten)
+	 */
+	public synchronized int getID(int index) {
+		if(index < start) return Piece.PIECE_NONE;
+		fill(index);
+		return ids[index & (ids.length - 1)];
+	}
+
+	/**
+	 * Get a piece object. It's the same object every time, so changes to it (e.g. bone blocks) are kept.
+	 * @param index Index in the sequence (same as GameEngine.nextPieceCount)
+	 * @return Piece object (null if the piece is already forgotten)
+	 */
+	public synchronized Piece getObject(int index) {
+		if(index < start) return null;
+		fill(index);
+		while(objectEnd <= index) createObject();
+		return objects[index & (ids.length - 1)];
+	}
+
+	/**
+	 * Generate piece IDs up to an index
+	 * @param index Index
+	 */
+	protected synchronized void fill(int index) {
+		while(end <= index) {
+			if(end - start == ids.length) {
+				if(start < engine.nextPieceCount - HISTORY_SIZE) {
+					// Forget the oldest piece, but make its object first so the Random is used in the same order
+					if(objectEnd == start) createObject();
+					objects[start & (ids.length - 1)] = null;
+					start++;
+				} else {
+					grow();
+				}
+			}
+			ids[end & (ids.length - 1)] = randomizer.next();
+			end++;
+		}
+	}
+
+	/**
+	 * Double the size of the ring buffer
+	 */
+	protected void grow() {
+		int[] newIDs = new int[ids.length * 2];
+		Piece[] newObjects = new Piece[ids.length * 2];
+		for(int i = start; i < end; i++) {
+			newIDs[i & (newIDs.length - 1)] = ids[i & (ids.length - 1)];
+			newObjects[i & (newIDs.length - 1)] = objects[i & (ids.length - 1)];
+		}
+		ids = newIDs;
+		objects = newObjects;
+	}
+
+	/**
+	 * Make the next piece object
+	 */
+	protected void createObject() {
+		int id = ids[objectEnd & (ids.length - 1)];
+		Piece piece = new Piece(id);
+
+		piece.direction = pieceDefaultDirection[id];
+		if(piece.direction >= Piece.DIRECTION_COUNT) {
+			piece.direction = random.nextInt(Piece.DIRECTION_COUNT);
+		}
+		piece.connectBlocks = connectBlocks;
+		piece.setColor(pieceColor[id]);
+		piece.setSkin(skin);
+		piece.updateConnectData();
+		piece.setAttribute(Block.BLOCK_ATTRIBUTE_VISIBLE, true);
+		piece.setAttribute(Block.BLOCK_ATTRIBUTE_BONE, bone);
+
+		if(blockColors != null) {
+			int size = piece.getMaxBlock();
+			int[] colors = new int[size];
+			for(int j = 0; j < size; j++) colors[j] = blockColors[random.nextInt(numColors)];
+			piece.setColor(colors);
+			piece.updateConnectData();
+		}
+
+		objects[objectEnd & (ids.length - 1)] = piece;
+		objectEnd++;
+	}
+}
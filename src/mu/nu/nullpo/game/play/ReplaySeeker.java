@@ -0,0 +1,203 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.play;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import mu.nu.nullpo.game.component.ReplayData;
+
+/**
+ * Replay playback with fast forward and seek.<br>
+ * {@link #update()} runs one frame (GameManager.updateAll()) and takes a checkpoint ({@link GameSnapshot}) every
+ * {@link #getCheckpointInterval()} frames. {@link #fastForward(int)} runs frames without rendering and sound effects
+ * as fast as possible, and {@link #seek(int)} goes to any frame by restoring the nearest checkpoint before it
+ * and running the frames after the checkpoint.
+ * The replay inputs don't change during playback and the frame profilers keep measuring across seeks,
+ * so neither is copied to the checkpoints.
+ */
+public class ReplaySeeker {
+	/** Default frames between checkpoints (10 seconds) */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 60 * 10;
+
+	/** Checkpoint */
+	protected static class Checkpoint {
+		/** State of the game */
+		GameSnapshot snapshot;
+
+		/** true if the game was started */
+		boolean started;
+	}
+
+	/** GameManager (in replay mode, initialized) */
+	protected GameManager gameManager;
+
+	/** Frames between checkpoints */
+	protected int checkpointInterval;
+
+	/** Current frame (number of updateAll() calls) */
+	protected int frame;
+
+	/** true after the game is started (the end of the game is when it's not active anymore) */
+	protected boolean started;
+
+	/** Checkpoints by frame */
+	protected TreeMap<Integer, Checkpoint> checkpoints = new TreeMap<Integer, Checkpoint>();
+
+	/**
+	 * Constructor
+	 * @param gameManager GameManager (in replay mode, after the engines are initialized)
+	 */
+	public ReplaySeeker(GameManager gameManager) {
+		this(gameManager, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * @param gameManager GameManager (in replay mode, after the engines are initialized)
+	 * @param checkpointInterval Frames between checkpoints
+	 */
+	public ReplaySeeker(GameManager gameManager, int checkpointInterval) {
+		this.gameManager = gameManager;
+		this.checkpointInterval = checkpointInterval;
+		saveCheckpoint();
+	}
+
+	/**
+	 * Get the current frame
+	 * @return Number of frames from the start of the replay
+	 */
+	public int getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Get the frames between checkpoints
+	 * @return Frames between checkpoints
+	 */
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Get the number of checkpoints
+	 * @return Number of checkpoints
+	 */
+	public int getCheckpointCount() {
+		return checkpoints.size();
+	}
+
+	/**
+	 * Check if the replay is at its end
+	 * @return true if the game is over (or quit)
+	 */
+	public boolean isFinished() {
+		return gameManager.getQuitFlag() || (started && !gameManager.isGameActive());
+	}
+
+	/**
+	 * Run one frame
+	 */
+	public void update() {
+		if(((frame % checkpointInterval) == 0) && !checkpoints.containsKey(frame)) saveCheckpoint();
+
+		gameManager.updateAll();
+		frame++;
+		if(gameManager.isGameActive()) started = true;
+	}
+
+	/**
+	 * Run frames without sound effects until the end of the replay
+	 * @param frames Maximum number of frames
+	 * @return Number of frames run
+	 */
+	public int fastForward(int frames) {
+		boolean[] se = muteSE();
+		int count = 0;
+		while((count < frames) && !isFinished()) {
+			update();
+			count++;
+		}
+		restoreSE(se);
+		return count;
+	}
+
+	/**
+	 * Go to a frame. The nearest checkpoint before the frame is restored if the frame is behind the current frame
+	 * or after a later checkpoint, and the frames after it are run without sound effects.
+	 * @param target Frame (stops at the end of the replay)
+	 * @return New current frame
+	 */
+	public int seek(int target) {
+		if(target < 0) target = 0;
+		boolean[] se = muteSE();
+
+		Map.Entry<Integer, Checkpoint> entry = checkpoints.floorEntry(target);
+		if((entry != null) && ((target < frame) || (entry.getKey() > frame))) {
+			entry.getValue().snapshot.restore();
+			frame = entry.getKey();
+			started = entry.getValue().started;
+		}
+		while((frame < target) && !isFinished()) update();
+
+		restoreSE(se);
+		return frame;
+	}
+
+	/**
+	 * Take a checkpoint of the current frame
+	 */
+	protected void saveCheckpoint() {
+		Checkpoint c = new Checkpoint();
+		c.snapshot = GameSnapshot.take(gameManager, ReplayData.class, FrameProfiler.class);
+		c.started = started;
+		checkpoints.put(frame, c);
+	}
+
+	/**
+	 * Turn off the sound effects of all engines
+	 * @return Previous settings
+	 */
+	protected boolean[] muteSE() {
+		boolean[] se = new boolean[gameManager.engine.length];
+		for(int i = 0; i < se.length; i++) {
+			se[i] = gameManager.engine[i].enableSE;
+			gameManager.engine[i].enableSE = false;
+		}
+		return se;
+	}
+
+	/**
+	 * Set the sound effects back (also after a checkpoint that was taken without them is restored)
+	 * @param se Previous settings
+	 */
+	protected void restoreSE(boolean[] se) {
+		for(int i = 0; i < se.length; i++) gameManager.engine[i].enableSE = se[i];
+	}
+}
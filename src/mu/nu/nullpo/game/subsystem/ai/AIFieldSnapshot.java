@@ -0,0 +1,188 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.ai;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.play.GameEngine;
+
+/**
+ * Copy of the parts of a GameEngine that the AI search reads (field, current, hold and NEXT pieces).<br>
+ * The engine fills one on the game thread ({@link GameEngine#publishAISnapshot()}) and the AI thread searches against it,
+ * so the search never sees a field or piece that the game thread is changing at the same time.
+ * A published snapshot is never changed while an AI holds it ({@link GameEngine#acquireAISnapshot()} until {@link #release()}).
+ * The fields must not be modified by the AI.
+ */
+public class AIFieldSnapshot {
+	/** Number of NEXT pieces copied in addition to the displayed ones */
+	public static final int EXTRA_NEXT = 2;
+
+	/** Field (null if the engine has no field yet) */
+	public Field field;
+
+	/** Current piece (null if none) */
+	public Piece nowPiece;
+
+	/** Position of the current piece */
+	public int nowPieceX, nowPieceY;
+
+	/** Number of upward wallkicks used by the current piece */
+	public int nowUpwardWallkickCount;
+
+	/** Gravity and its denominator (speed.gravity and speed.denominator) */
+	public int gravity, denominator;
+
+	/** Hold piece (null if none) */
+	public Piece holdPiece;
+
+	/** true if hold can be used */
+	public boolean holdOK;
+
+	/** NEXT pieces, from engine.nextPieceCount (null entries after the end of the queue) */
+	public Piece[] next = new Piece[0];
+
+	/** NEXT piece IDs, from engine.nextPieceCount (as many as next, or engine.aiSnapshotNextIDs if it's more) */
+	public int[] nextIDs = new int[0];
+
+	/** Game status */
+	public GameEngine.Status stat;
+
+	/** Time when this snapshot was taken (System.nanoTime()) */
+	public long time;
+
+	/** Number of AIs that are reading this snapshot */
+	protected final AtomicInteger readers = new AtomicInteger();
+
+	/** Spare Piece objects, so that the pieces can be reused when this snapshot is filled again */
+	protected Piece nowPieceBuffer, holdPieceBuffer;
+
+	/** Spare Piece objects of the NEXT pieces */
+	protected Piece[] nextBuffer = new Piece[0];
+
+	/**
+	 * Copy the current state of an engine (called on the game thread)
+	 * @param engine GameEngine
+	 */
+	public void copy(GameEngine engine) {
+		if(engine.field == null) {
+			field = null;
+		} else {
+			if(field == null) field = new Field(engine.field);
+			else field.copy(engine.field);
+		}
+
+		nowPieceBuffer = copyPiece(engine.nowPieceObject, nowPieceBuffer);
+		nowPiece = (engine.nowPieceObject != null) ? nowPieceBuffer : null;
+		nowPieceX = engine.nowPieceX;
+		nowPieceY = engine.nowPieceY;
+		nowUpwardWallkickCount = engine.nowUpwardWallkickCount;
+		if(engine.speed != null) {
+			gravity = engine.speed.gravity;
+			denominator = engine.speed.denominator;
+		}
+
+		holdPieceBuffer = copyPiece(engine.holdPieceObject, holdPieceBuffer);
+		holdPiece = (engine.holdPieceObject != null) ? holdPieceBuffer : null;
+		holdOK = engine.isHoldOK();
+
+		int count = ((engine.ruleopt != null) ? Math.max(engine.ruleopt.nextDisplay, 0) : 0) + EXTRA_NEXT;
+		if(nextBuffer.length != count) {
+			Piece[] newBuffer = new Piece[count];
+			System.arraycopy(nextBuffer, 0, newBuffer, 0, Math.min(count, nextBuffer.length));
+			nextBuffer = newBuffer;
+			next = new Piece[count];
+		}
+		for(int i = 0; i < count; i++) {
+			Piece p = engine.getNextObject(engine.nextPieceCount + i);
+			nextBuffer[i] = copyPiece(p, nextBuffer[i]);
+			next[i] = (p != null) ? nextBuffer[i] : null;
+		}
+
+		int idCount = Math.max(count, engine.aiSnapshotNextIDs);
+		if(nextIDs.length != idCount) nextIDs = new int[idCount];
+		for(int i = 0; i < idCount; i++) nextIDs[i] = engine.getNextID(engine.nextPieceCount + i);
+
+		stat = engine.stat;
+		time = System.nanoTime();
+	}
+
+	/**
+	 * Get a NEXT piece
+	 * @param i Position from the next piece (0 is the piece after the current one)
+	 * @return Piece (null if not copied)
+	 */
+	public Piece getNext(int i) {
+		return ((i >= 0) && (i < next.length)) ? next[i] : null;
+	}
+
+	/**
+	 * Get a NEXT piece ID
+	 * @param i Position from the next piece (0 is the piece after the current one)
+	 * @return Piece ID (Piece.PIECE_NONE if not copied)
+	 */
+	public int getNextID(int i) {
+		return ((i >= 0) && (i < nextIDs.length)) ? nextIDs[i] : Piece.PIECE_NONE;
+	}
+
+	/**
+	 * Start reading this snapshot
+	 */
+	public void acquire() {
+		readers.incrementAndGet();
+	}
+
+	/**
+	 * Stop reading this snapshot (the engine may fill it again after this)
+	 */
+	public void release() {
+		readers.decrementAndGet();
+	}
+
+	/**
+	 * @return true if an AI is reading this snapshot
+	 */
+	public boolean isInUse() {
+		return readers.get() != 0;
+	}
+
+	/**
+	 * Copy a piece into a spare Piece object
+	 * @param src Source (can be null)
+	 * @param buffer Spare Piece object (can be null)
+	 * @return buffer, or a new Piece if it was null (null if src is null and buffer is null)
+	 */
+	protected static Piece copyPiece(Piece src, Piece buffer) {
+		if(src == null) return buffer;
+		if(buffer == null) return new Piece(src);
+		buffer.copy(src);
+		return buffer;
+	}
+}
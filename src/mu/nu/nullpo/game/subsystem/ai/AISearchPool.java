@@ -0,0 +1,63 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.ai;
+
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
+
+/**
+ * ForkJoinPools shared by every AI player that searches in parallel.<br>
+ * One pool is created for each requested size and kept for the lifetime of the VM;
+ * the worker threads are daemon threads and sleep when there is nothing to do.
+ */
+public class AISearchPool {
+	/** Log */
+	static Logger log = Logger.getLogger(AISearchPool.class);
+
+	/** Pools by parallelism */
+	protected static HashMap<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+	/**
+	 * Get the shared pool for a number of threads
+	 * @param threads Number of threads (limited to the number of available processors)
+	 * @return ForkJoinPool
+	 */
+	public static synchronized ForkJoinPool getPool(int threads) {
+		int parallelism = Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors()));
+		ForkJoinPool pool = pools.get(parallelism);
+		if(pool == null) {
+			log.info("Creating AI search pool (" + parallelism + " threads)");
+			pool = new ForkJoinPool(parallelism);
+			pools.put(parallelism, pool);
+		}
+		return pool;
+	}
+}
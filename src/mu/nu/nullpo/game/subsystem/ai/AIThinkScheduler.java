@@ -0,0 +1,362 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import mu.nu.nullpo.game.play.GameEngine;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the think routines of threaded AI players on a few shared worker threads.<br>
+ * Each AI player registers one {@link Task} (bound to its GameEngine) and calls {@link Task#request()}
+ * when it wants to think, usually in newPiece. A task never runs on 2 threads at once;
+ * requests made while it is waiting or running are merged into one more run.
+ * The next run starts no earlier than the think delay after the end of the previous one,
+ * so the delay costs a timer instead of a sleeping thread.
+ */
+public class AIThinkScheduler {
+	/** Log */
+	static Logger log = Logger.getLogger(AIThinkScheduler.class);
+
+	/** Seconds an idle worker thread is kept */
+	public static final int KEEP_ALIVE_SECONDS = 60;
+
+	/** Scheduler shared by every AI player */
+	protected static AIThinkScheduler shared;
+
+	/** Worker threads and the timer */
+	protected ScheduledThreadPoolExecutor executor;
+
+	/** Number of worker threads */
+	protected int threads;
+
+	/** Registered tasks */
+	protected List<Task> tasks = new ArrayList<Task>();
+
+	/** Number of tasks waiting for a worker (including the ones waiting for their think delay) */
+	protected int queueLength;
+
+	/** Maximum of queueLength */
+	protected int maxQueueLength;
+
+	/** Number of finished runs */
+	protected long runCount;
+
+	/** Total time of the runs in nanoseconds */
+	protected long totalRunNanos;
+
+	/** Total and maximum time from the planned start to the actual start of a run in nanoseconds */
+	protected long totalWaitNanos, maxWaitNanos;
+
+	/**
+	 * Get the scheduler shared by every AI player (one worker thread for each processor)
+	 * @return Shared scheduler
+	 */
+	public static synchronized AIThinkScheduler getShared() {
+		if(shared == null) {
+			shared = new AIThinkScheduler(Runtime.getRuntime().availableProcessors());
+			log.info("Creating AI think scheduler (" + shared.threads + " threads)");
+		}
+		return shared;
+	}
+
+	/**
+	 * Cancel every task of a GameEngine on the shared scheduler (if it was created)
+	 * @param engine GameEngine
+	 */
+	public static void cancelShared(GameEngine engine) {
+		AIThinkScheduler scheduler;
+		synchronized(AIThinkScheduler.class) {
+			scheduler = shared;
+		}
+		if(scheduler != null) scheduler.cancel(engine);
+	}
+
+	/**
+	 * Get the status of the shared scheduler
+	 * @return Status (null if it was not created)
+	 */
+	public static String getSharedStatus() {
+		AIThinkScheduler scheduler;
+		synchronized(AIThinkScheduler.class) {
+			scheduler = shared;
+		}
+		return (scheduler != null) ? scheduler.getStatus() : null;
+	}
+
+	/**
+	 * Constructor
+	 * @param threads Number of worker threads
+	 */
+	public AIThinkScheduler(int threads) {
+		this.threads = Math.max(1, threads);
+		executor = new ScheduledThreadPoolExecutor(this.threads, new ThreadFactory() {
+			int count;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AI think " + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Register a think routine
+	 * @param engine The GameEngine that owns the AI player
+	 * @param think Think routine
+	 * @param thinkDelay Minimum time between the end of a run and the start of the next one in milliseconds
+	 * @return Task
+	 */
+	public synchronized Task register(GameEngine engine, Runnable think, int thinkDelay) {
+		Task task = new Task(engine, think, thinkDelay);
+		tasks.add(task);
+		return task;
+	}
+
+	/**
+	 * Cancel every task of a GameEngine
+	 * @param engine GameEngine
+	 * @return Number of canceled tasks
+	 */
+	public int cancel(GameEngine engine) {
+		List<Task> list = new ArrayList<Task>();
+		synchronized(this) {
+			for(Task task: tasks) {
+				if(task.engine == engine) list.add(task);
+			}
+		}
+		for(Task task: list) task.cancel();
+		return list.size();
+	}
+
+	/**
+	 * Get the number of registered tasks
+	 * @return Number of tasks
+	 */
+	public synchronized int getTaskCount() {
+		return tasks.size();
+	}
+
+	/**
+	 * Get the number of tasks waiting for a worker
+	 * @return Queue length
+	 */
+	public synchronized int getQueueLength() {
+		return queueLength;
+	}
+
+	/**
+	 * Get the number of tasks that are running now
+	 * @return Number of running tasks
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Get the status for the log
+	 * @return Status
+	 */
+	public synchronized String getStatus() {
+		return String.format("AI think scheduler: %d threads, %d tasks, %d running, queue %d (max %d), " +
+				"%d runs avg %.2f ms, wait avg %.2f ms max %.2f ms",
+				threads, tasks.size(), executor.getActiveCount(), queueLength, maxQueueLength,
+				runCount, (runCount > 0) ? totalRunNanos / 1e6 / runCount : 0.0,
+				(runCount > 0) ? totalWaitNanos / 1e6 / runCount : 0.0, maxWaitNanos / 1e6);
+	}
+
+	/**
+	 * Think routine of one AI player
+	 */
+	public class Task implements Runnable {
+		/** The GameEngine that owns the AI player */
+		protected GameEngine engine;
+
+		/** Think routine */
+		protected Runnable think;
+
+		/** Minimum time between the end of a run and the start of the next one in nanoseconds */
+		protected long thinkDelayNanos;
+
+		/** true if another run is requested */
+		protected boolean requested;
+
+		/** true while the think routine is running */
+		protected boolean running;
+
+		/** true after cancel() */
+		protected boolean canceled;
+
+		/** Scheduled run (null if none) */
+		protected ScheduledFuture<?> future;
+
+		/** Planned start time of the scheduled run (System.nanoTime()) */
+		protected long plannedTime;
+
+		/** End time of the last run (System.nanoTime()) */
+		protected long lastEndTime;
+
+		/**
+		 * Constructor
+		 * @param engine The GameEngine that owns the AI player
+		 * @param think Think routine
+		 * @param thinkDelay Minimum time between the end of a run and the start of the next one in milliseconds
+		 */
+		protected Task(GameEngine engine, Runnable think, int thinkDelay) {
+			this.engine = engine;
+			this.think = think;
+			this.thinkDelayNanos = Math.max(0, thinkDelay) * 1000000L;
+			this.lastEndTime = System.nanoTime() - thinkDelayNanos;
+		}
+
+		/**
+		 * Request a run of the think routine.
+		 * Does nothing if a run is already waiting, and runs once more after the current one if it is running.
+		 */
+		public synchronized void request() {
+			if(canceled) return;
+			requested = true;
+			if(!running && (future == null)) schedule();
+		}
+
+		/**
+		 * Cancel this task. A run that is waiting is dropped; a running one is finished but not repeated.
+		 */
+		public void cancel() {
+			synchronized(this) {
+				if(canceled) return;
+				canceled = true;
+				requested = false;
+				if((future != null) && future.cancel(false)) {
+					future = null;
+					dequeued(0);
+				}
+			}
+			synchronized(AIThinkScheduler.this) {
+				tasks.remove(this);
+			}
+		}
+
+		/**
+		 * @return The GameEngine that owns the AI player
+		 */
+		public GameEngine getEngine() {
+			return engine;
+		}
+
+		/**
+		 * @return true if a run is requested and not started yet
+		 */
+		public synchronized boolean isRequested() {
+			return requested;
+		}
+
+		/**
+		 * @return true while the think routine is running
+		 */
+		public synchronized boolean isRunning() {
+			return running;
+		}
+
+		/**
+		 * @return true after cancel()
+		 */
+		public synchronized boolean isCanceled() {
+			return canceled;
+		}
+
+		/**
+		 * Schedule the next run (called while holding the lock of this task)
+		 */
+		protected void schedule() {
+			long now = System.nanoTime();
+			long delay = Math.max(0, lastEndTime + thinkDelayNanos - now);
+			plannedTime = now + delay;
+			synchronized(AIThinkScheduler.this) {
+				queueLength++;
+				if(queueLength > maxQueueLength) maxQueueLength = queueLength;
+			}
+			future = executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Update the counters when the scheduled run is started or canceled
+		 * @param waitNanos Time from the planned start to the actual start (0 if canceled)
+		 */
+		protected void dequeued(long waitNanos) {
+			synchronized(AIThinkScheduler.this) {
+				queueLength--;
+				totalWaitNanos += waitNanos;
+				if(waitNanos > maxWaitNanos) maxWaitNanos = waitNanos;
+			}
+		}
+
+		/*
+		 * Run the think routine on a worker thread
+		 */
+		public void run() {
+			long start = System.nanoTime();
+			synchronized(this) {
+				if(future == null) return;	// Canceled
+				future = null;
+				dequeued(Math.max(0, start - plannedTime));
+				if(canceled || !requested) return;
+				requested = false;
+				running = true;
+			}
+
+			try {
+				think.run();
+			} catch (Throwable e) {
+				log.debug("Think routine of player " + engine.playerID + " failed", e);
+			}
+
+			long end = System.nanoTime();
+			synchronized(AIThinkScheduler.this) {
+				runCount++;
+				totalRunNanos += end - start;
+			}
+			synchronized(this) {
+				running = false;
+				lastEndTime = end;
+				if(requested && !canceled) schedule();
+			}
+		}
+	}
+}
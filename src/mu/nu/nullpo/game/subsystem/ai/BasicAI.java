@@ -65,9 +65,6 @@ public class BasicAI extends DummyAI implements Runnable {
 	/** The GameManager that owns this AI */
 	public GameManager gManager;
 
-	/** When true,スレッドにThink routineの実行を指示 */
-	public boolean thinkRequest;
-
 	/** true when thread is executing the think routine. */
 	public boolean thinking;
 
@@ -77,9 +74,6 @@ public class BasicAI extends DummyAI implements Runnable {
 	/** When true,スレッド動作中 */
 	public volatile boolean threadRunning;
 
-	/** Thread for executing the think routine */
-	public Thread thread;
-
 	/*
 	 * AIのName
 	 */
@@ -96,18 +90,15 @@ public class BasicAI extends DummyAI implements Runnable {
 		delay = 0;
 		gEngine = engine;
 		gManager = engine.owner;
-		thinkRequest = false;
 		thinking = false;
-		threadRunning = false;
 
-		if( ((thread == null) || !thread.isAlive()) && (engine.aiUseThread) ) {
-			thread = new Thread(this, "AI_" + playerID);
-			thread.setDaemon(true);
-			thread.start();
+		if((thinkTask == null) && (engine.aiUseThread)) {
 			thinkDelay = engine.aiThinkDelay;
 			thinkCurrentPieceNo = 0;
 			thinkLastPieceNo = 0;
+			startThinkTask(engine, this);
 		}
+		threadRunning = (thinkTask != null);
 	}
 
 	/*
@@ -115,11 +106,8 @@ public class BasicAI extends DummyAI implements Runnable {
 	 */
 	@Override
 	public void shutdown(GameEngine engine, int playerID) {
-		if((thread != null) && (thread.isAlive())) {
-			thread.interrupt();
-			threadRunning = false;
-			thread = null;
-		}
+		stopThinkTask();
+		threadRunning = false;
 	}
 
 	/*
@@ -130,8 +118,8 @@ public class BasicAI extends DummyAI implements Runnable {
 		if(!engine.aiUseThread) {
 			thinkBestPosition(engine, playerID);
 		} else {
-			thinkRequest = true;
 			thinkCurrentPieceNo++;
+			requestThink();
 		}
 	}
 
@@ -194,7 +182,7 @@ public class BasicAI extends DummyAI implements Runnable {
 				if( ((bestX < minX - 1) || (bestX > maxX + 1) || (bestY < nowY)) && (rt == bestRt) ) {
 					// 到達不能なので再度思考する
 					//thinkBestPosition(engine, playerID);
-					thinkRequest = true;
+					requestThink();
 					//thinkCurrentPieceNo++;
 					//System.out.println("rethink c:" + thinkCurrentPieceNo + " l:" + thinkLastPieceNo);
 				} else {
@@ -251,6 +239,21 @@ public class BasicAI extends DummyAI implements Runnable {
 	 * @param playerID Player ID
 	 */
 	public void thinkBestPosition(GameEngine engine, int playerID) {
+		AIFieldSnapshot snap = acquireSnapshot(engine);
+		if(snap == null) return;
+		try {
+			search(engine, snap);
+		} finally {
+			snap.release();
+		}
+	}
+
+	/**
+	 * Search for the best choice against a snapshot of the field and pieces
+	 * @param engine The GameEngine that owns this AI
+	 * @param snap Field and pieces to search against
+	 */
+	protected void search(GameEngine engine, AIFieldSnapshot snap) {
 		bestHold = false;
 		bestX = 0;
 		bestY = 0;
@@ -261,26 +264,26 @@ public class BasicAI extends DummyAI implements Runnable {
 		bestPts = 0;
 		forceHold = false;
 
-		Piece pieceNow = engine.nowPieceObject;
-		int nowX = engine.nowPieceX;
-		int nowY = engine.nowPieceY;
-		boolean holdOK = engine.isHoldOK();
+		Piece pieceNow = snap.nowPiece;
+		int nowX = snap.nowPieceX;
+		int nowY = snap.nowPieceY;
+		boolean holdOK = snap.holdOK;
 		boolean holdEmpty = false;
-		Piece pieceHold = engine.holdPieceObject;
-		Piece pieceNext = engine.getNextObject(engine.nextPieceCount);
+		Piece pieceHold = snap.holdPiece;
+		Piece pieceNext = snap.getNext(0);
 		if(pieceHold == null) {
 			holdEmpty = true;
 		}
-		Field fld = new Field(engine.field);
+		Field fld = new Field(snap.field);
 
 		for(int depth = 0; depth < getMaxThinkDepth(); depth++) {
 			for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
 				// 今のピース
-				int minX = pieceNow.getMostMovableLeft(nowX, nowY, rt, engine.field);
-				int maxX = pieceNow.getMostMovableRight(nowX, nowY, rt, engine.field);
+				int minX = pieceNow.getMostMovableLeft(nowX, nowY, rt, snap.field);
+				int maxX = pieceNow.getMostMovableRight(nowX, nowY, rt, snap.field);
 
 				for(int x = minX; x <= maxX; x++) {
-					fld.copy(engine.field);
+					fld.copy(snap.field);
 					int y = pieceNow.getBottom(x, nowY, rt, fld);
 
 					if(!pieceNow.checkCollision(x, y, rt, fld)) {
@@ -300,7 +303,7 @@ public class BasicAI extends DummyAI implements Runnable {
 
 						if((depth > 0) || (bestPts <= 10) || (pieceNow.id == Piece.PIECE_T)) {
 							// 左ずらし
-							fld.copy(engine.field);
+							fld.copy(snap.field);
 							if(!pieceNow.checkCollision(x - 1, y, rt, fld) && pieceNow.checkCollision(x - 1, y - 1, rt, fld)) {
 								pts = thinkMain(engine, x - 1, y, rt, -1, fld, pieceNow, pieceNext, pieceHold, depth);
 
@@ -317,7 +320,7 @@ public class BasicAI extends DummyAI implements Runnable {
 							}
 
 							// 右ずらし
-							fld.copy(engine.field);
+							fld.copy(snap.field);
 							if(!pieceNow.checkCollision(x + 1, y, rt, fld) && pieceNow.checkCollision(x + 1, y - 1, rt, fld)) {
 								pts = thinkMain(engine, x + 1, y, rt, -1, fld, pieceNow, pieceNext, pieceHold, depth);
 
@@ -338,14 +341,14 @@ public class BasicAI extends DummyAI implements Runnable {
 								int rot = pieceNow.getRotateDirection(-1, rt);
 								int newX = x;
 								int newY = y;
-								fld.copy(engine.field);
+								fld.copy(snap.field);
 								pts = 0;
 
 								if(!pieceNow.checkCollision(x, y, rot, fld)) {
 									pts = thinkMain(engine, x, y, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth);
 								} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
 									boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-														  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
+														  (snap.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
 									WallkickResult kick = engine.wallkick.executeWallkick(x, y, -1, rt, rot,
 														  allowUpward, pieceNow, fld, null);
 
@@ -373,14 +376,14 @@ public class BasicAI extends DummyAI implements Runnable {
 								int rot = pieceNow.getRotateDirection(1, rt);
 								int newX = x;
 								int newY = y;
-								fld.copy(engine.field);
+								fld.copy(snap.field);
 								pts = 0;
 
 								if(!pieceNow.checkCollision(x, y, rot, fld)) {
 									pts = thinkMain(engine, x, y, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth);
 								} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
 									boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-														  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
+														  (snap.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
 									WallkickResult kick = engine.wallkick.executeWallkick(x, y, 1, rt, rot,
 														  allowUpward, pieceNow, fld, null);
 
@@ -408,14 +411,14 @@ public class BasicAI extends DummyAI implements Runnable {
 								int rot = pieceNow.getRotateDirection(2, rt);
 								int newX = x;
 								int newY = y;
-								fld.copy(engine.field);
+								fld.copy(snap.field);
 								pts = 0;
 
 								if(!pieceNow.checkCollision(x, y, rot, fld)) {
 									pts = thinkMain(engine, x, y, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth);
 								} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
 									boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-														  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
+														  (snap.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
 									WallkickResult kick = engine.wallkick.executeWallkick(x, y, 2, rt, rot,
 														  allowUpward, pieceNow, fld, null);
 
@@ -442,22 +445,22 @@ public class BasicAI extends DummyAI implements Runnable {
 				}
 
 				if(pieceHold == null) {
-					pieceHold = engine.getNextObject(engine.nextPieceCount);
+					pieceHold = snap.getNext(0);
 				}
 				// ホールドピース
 				if((holdOK == true) && (pieceHold != null) && (depth == 0)) {
-					int spawnX = engine.getSpawnPosX(engine.field, pieceHold);
+					int spawnX = engine.getSpawnPosX(snap.field, pieceHold);
 					int spawnY = engine.getSpawnPosY(pieceHold);
-					int minHoldX = pieceHold.getMostMovableLeft(spawnX, spawnY, rt, engine.field);
-					int maxHoldX = pieceHold.getMostMovableRight(spawnX, spawnY, rt, engine.field);
+					int minHoldX = pieceHold.getMostMovableLeft(spawnX, spawnY, rt, snap.field);
+					int maxHoldX = pieceHold.getMostMovableRight(spawnX, spawnY, rt, snap.field);
 
 					for(int x = minHoldX; x <= maxHoldX; x++) {
-						fld.copy(engine.field);
+						fld.copy(snap.field);
 						int y = pieceHold.getBottom(x, spawnY, rt, fld);
 
 						if(!pieceHold.checkCollision(x, y, rt, fld)) {
-							Piece pieceNext2 = engine.getNextObject(engine.nextPieceCount);
-							if(holdEmpty) pieceNext2 = engine.getNextObject(engine.nextPieceCount + 1);
+							Piece pieceNext2 = snap.getNext(0);
+							if(holdEmpty) pieceNext2 = snap.getNext(1);
 
 							int pts = thinkMain(engine, x, y, rt, -1, fld, pieceHold, pieceNext2, null, depth);
 
@@ -639,34 +642,15 @@ public class BasicAI extends DummyAI implements Runnable {
 	}
 
 	/*
-	 * スレッドの処理
+	 * スレッドの処理 (run by AIThinkScheduler for each request)
 	 */
 	public void run() {
-		log.info("BasicAI: Thread start");
-		threadRunning = true;
-
-		while(threadRunning) {
-			if(thinkRequest) {
-				thinkRequest = false;
-				thinking = true;
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID);
-				} catch (Throwable e) {
-					log.debug("BasicAI: thinkBestPosition Failed", e);
-				}
-				thinking = false;
-			}
-
-			if(thinkDelay > 0) {
-				try {
-					Thread.sleep(thinkDelay);
-				} catch (InterruptedException e) {
-					break;
-				}
-			}
+		thinking = true;
+		try {
+			thinkBestPosition(gEngine, gEngine.playerID);
+		} catch (Throwable e) {
+			log.debug("BasicAI: thinkBestPosition Failed", e);
 		}
-
-		threadRunning = false;
-		log.info("BasicAI: Thread end");
+		thinking = false;
 	}
 }
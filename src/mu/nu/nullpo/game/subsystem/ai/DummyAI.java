@@ -59,6 +59,9 @@ public class DummyAI implements AIPlayer {
 	/** Did the thinking thread finish successfully? */
 	public boolean thinkComplete;
 
+	/** Think routine on the shared scheduler (null if the AI doesn't use a thread) */
+	public volatile AIThinkScheduler.Task thinkTask;
+
 	public String getName() {
 		return "DummyAI";
 	}
@@ -86,4 +89,47 @@ public class DummyAI implements AIPlayer {
 
 	public void renderHint(GameEngine engine, int playerID) {
 	}
+
+	/**
+	 * Register the think routine on the shared scheduler (only if the engine allows a thread)
+	 * @param engine The GameEngine that owns this AI
+	 * @param think Think routine
+	 */
+	protected void startThinkTask(GameEngine engine, Runnable think) {
+		stopThinkTask();
+		if(engine.aiUseThread) thinkTask = AIThinkScheduler.getShared().register(engine, think, engine.aiThinkDelay);
+	}
+
+	/**
+	 * Cancel the think routine
+	 */
+	protected void stopThinkTask() {
+		AIThinkScheduler.Task task = thinkTask;
+		thinkTask = null;
+		if(task != null) task.cancel();
+	}
+
+	/**
+	 * Ask the scheduler to run the think routine (does nothing without a thread).
+	 * The field and pieces are published first, so the think routine searches the state of this frame.
+	 */
+	protected void requestThink() {
+		AIThinkScheduler.Task task = thinkTask;
+		if(task != null) {
+			task.getEngine().publishAISnapshot();
+			task.request();
+		}
+	}
+
+	/**
+	 * Get the field and pieces to search against.
+	 * Without a thread the search runs on the game thread, so the current state is published first.
+	 * Call {@link AIFieldSnapshot#release()} when the search is done.
+	 * @param engine The GameEngine that owns this AI
+	 * @return Snapshot (null if nothing is published yet)
+	 */
+	protected AIFieldSnapshot acquireSnapshot(GameEngine engine) {
+		if(thinkTask == null) engine.publishAISnapshot();
+		return engine.acquireAISnapshot();
+	}
 }
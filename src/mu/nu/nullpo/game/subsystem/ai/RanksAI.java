@@ -31,8 +31,9 @@ package mu.nu.nullpo.game.subsystem.ai;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import mu.nu.nullpo.game.component.Controller;
 import mu.nu.nullpo.game.component.Field;
@@ -41,6 +42,7 @@ import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.tool.airankstool.Ranks;
 import mu.nu.nullpo.tool.airankstool.AIRanksConstants;
+import mu.nu.nullpo.tool.airankstool.RanksFile;
 import mu.nu.nullpo.util.CustomProperties;
 
 import org.apache.log4j.Logger;
@@ -76,8 +78,6 @@ public class RanksAI extends DummyAI implements Runnable {
 
 	public GameManager gManager;
 
-	public boolean thinkRequest;
-
 	public boolean thinking;
 
 	public int thinkDelay;
@@ -88,8 +88,6 @@ public class RanksAI extends DummyAI implements Runnable {
 
 	public volatile boolean threadRunning;
 
-	public Thread thread;
-
 	private Ranks ranks;
 	private boolean skipNextFrame;
 
@@ -107,6 +105,13 @@ public class RanksAI extends DummyAI implements Runnable {
 	private boolean allowHold;
 	private int speedLimit;
 
+	/** Number of threads used to score the moves of the current piece (1 or less: single-threaded) */
+	public int searchThreads;
+	/** Moves of the current piece, in the order they are tried */
+	private RootMove[] rootMoves;
+	/** Number of valid entries in rootMoves */
+	private int rootMoveCount;
+
 	public class Score{
 
 		public float rankStacking;
@@ -190,7 +195,6 @@ public class RanksAI extends DummyAI implements Runnable {
 	public void initRanks(){
 		delay = 0;
 
-		thinkRequest = false;
 		thinking = false;
 		threadRunning = false;
 		CustomProperties propRanksAI = new CustomProperties();
@@ -211,26 +215,16 @@ public class RanksAI extends DummyAI implements Runnable {
 			if (file!=null && file.trim().length()>0){
 			 inputFile=AIRanksConstants.RANKSAI_DIR+currentRanksFile;
 			}
-			FileInputStream fis = null;
-			ObjectInputStream in = null;
-
 			if (inputFile.trim().length() == 0)
 				ranks=new Ranks(4,9);
 			else {
+				// Shared by all RanksAI players (mapped read-only if the file is in the flat format)
 				try {
-					fis = new FileInputStream(inputFile);
-					in = new ObjectInputStream(fis);
-					ranks = (Ranks)in.readObject();
-					in.close();
-
+					ranks = RanksFile.getShared(inputFile);
 				} catch (FileNotFoundException e) {
 					ranks=new Ranks(4,9);
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (ClassNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					log.error("Failed to load " + inputFile, e);
 				}
 			}
 		}
@@ -246,27 +240,25 @@ public class RanksAI extends DummyAI implements Runnable {
 
 		// Inits the ranks
 		initRanks();
+		// The search looks at MAX_PREVIEWS next pieces, plus one more when it uses hold
+		engine.aiSnapshotNextIDs = Math.max(engine.aiSnapshotNextIDs, MAX_PREVIEWS + 1);
 
-		//Starts the thread
-		if( ((thread == null) || !thread.isAlive()) && (engine.aiUseThread) ) {
-			thread = new Thread(this, "AI_" + playerID);
-			thread.setDaemon(true);
-			thread.start();
+		//Registers the think routine
+		if((thinkTask == null) && (engine.aiUseThread)) {
 			thinkDelay = engine.aiThinkDelay;
 			thinkCurrentPieceNo = 0;
 			thinkLastPieceNo = 0;
+			startThinkTask(engine, this);
 		}
+		threadRunning = (thinkTask != null);
 
 	}
 
 	@Override
 	public void shutdown(GameEngine engine, int playerID) {
 		ranks=null;
-		if((thread != null) && (thread.isAlive())) {
-			thread.interrupt();
-			threadRunning = false;
-			thread = null;
-		}
+		stopThinkTask();
+		threadRunning = false;
 	}
 
 	@Override
@@ -274,8 +266,8 @@ public class RanksAI extends DummyAI implements Runnable {
 		if(!engine.aiUseThread) {
 			thinkBestPosition(engine, playerID);
 		} else {
-			thinkRequest = true;
 			thinkCurrentPieceNo++;
+			requestThink();
 		}
 	}
 
@@ -333,7 +325,7 @@ public class RanksAI extends DummyAI implements Runnable {
 
 						if( ((bestX < minX - 1) || (bestX > maxX + 1) || (bestY < nowY)) && (rt == bestRt)  ){
 
-							thinkRequest = true;
+							requestThink();
 
 						} else {
 
@@ -453,37 +445,56 @@ public class RanksAI extends DummyAI implements Runnable {
 	 * @param playerID Player ID
 	 */
 	 public void thinkBestPosition(GameEngine engine, int playerID) {
+		 AIFieldSnapshot snap = acquireSnapshot(engine);
+		 if (snap == null) return;
+		 try {
+			 search(engine, snap);
+		 } finally {
+			 snap.release();
+		 }
+	 }
+
+	 /**
+	  * Think the best position on a snapshot of the engine (field, pieces and NEXT IDs copied on the game thread)
+	  * @param engine GameEngine (only its settings are read)
+	  * @param snap Snapshot
+	  */
+	 protected void search(GameEngine engine, AIFieldSnapshot snap) {
+		 Field fld = snap.field;
+		 if ((fld == null) || (snap.nowPiece == null)) return;
 
 		 // Current line of the current piece
-		 int nowY = engine.nowPieceY;
+		 int nowY = snap.nowPieceY;
 
 		 // Currently considered piece
-		 Piece pieceNow=engine.nowPieceObject;
+		 Piece pieceNow=snap.nowPiece;
 
 		 // Initialization of the heights array
 		 for (int i=0;i<ranks.getStackWidth();i++){
-			 heights[i]=engine.field.getHeight()-engine.field.getHighestBlockY(i);
+			 heights[i]=fld.getHeight()-fld.getHighestBlockY(i);
 
 		 }
 
 		 // Initialization of the pieces array (contains the current piece and the next pieces)
-		 int [] pieces= new int [engine.nextPieceArraySize];
+		 // The search looks at MAX_PREVIEWS next pieces, plus one more when it uses hold
+		 int [] pieces= new int [MAX_PREVIEWS+2];
 		 pieces[0]=pieceNow.id;
 		 for (int i=1;i<pieces.length;i++){
-			 pieces[i]=engine.getNextObject(engine.nextPieceCount+i-1).id;
+			 pieces[i]=snap.getNextID(i-1);
 		 }
 
 		 int [] holdPiece=new int[1];
-		 if (engine.holdPieceObject==null){
+		 if (snap.holdPiece==null){
 			 holdPiece[0]=-1;
 		 }
 		 else {
-			 holdPiece[0]=engine.holdPieceObject.id;
+			 holdPiece[0]=snap.holdPiece.id;
 		 }
 
-		 boolean holdOK=engine.isHoldOK();
+		 boolean holdOK=snap.holdOK;
 
 		 allowHold&=engine.ruleopt.holdEnable;
+		 searchThreads=engine.aiSearchThreads;
 		 
 
 		 // Call the main method (that actually does the work, on the heights and pieces
@@ -493,7 +504,7 @@ public class RanksAI extends DummyAI implements Runnable {
 		 bestX-=(pieceNow.dataOffsetX[bestRt]+Ranks.PIECES_LEFTMOSTS[pieceNow.id][bestRt]);
 		 bestXSub=bestX;
 
-		 bestY = pieceNow.getBottom(bestX, nowY, bestRt, engine.field);
+		 bestY = pieceNow.getBottom(bestX, nowY, bestRt, fld);
 		 bestYSub=bestY;
 		 bestYSub=bestY;
 
@@ -503,7 +514,7 @@ public class RanksAI extends DummyAI implements Runnable {
 			 threadRunning=false;
 		 	 //bestHold=true;
 		 thinkLastPieceNo++;
-		 log.debug("nowX : "+engine.nowPieceX+" X:" + bestX + " Y:" + bestY + " R:" + bestRt + " H:" + bestHold + " Pts:" + bestScore);
+		 log.debug("nowX : "+snap.nowPieceX+" X:" + bestX + " Y:" + bestY + " R:" + bestRt + " H:" + bestHold + " Pts:" + bestScore);
 
 	 }
 
@@ -577,6 +588,10 @@ public class RanksAI extends DummyAI implements Runnable {
 
 		 //If we don't have to score a 4-Line, consider other moves.
 		 else {
+			 // thinkMain doesn't modify the pieces and hold arrays, so the moves without hold can share the arrays as they are now
+			 int [] holdPieceNoHold=holdPiece.clone();
+			 rootMoveCount=0;
+
 			 // Try using hold or not
 			 for (int useHold=0;useHold<((holdOK&&allowHold)?2:1);useHold++){
 				 if (useHold==1){
@@ -598,6 +613,9 @@ public class RanksAI extends DummyAI implements Runnable {
 						 pieceNow=piecesCopy[0];
 					 }
 				 }
+				 int [] movePieces=(useHold==1)?piecesCopy:pieces;
+				 int [] moveHoldPiece=(useHold==1)?holdPiece:holdPieceNoHold;
+
 				 // try all possible rotations{
 				 for(int rt = 0; rt < Ranks.PIECES_NUM_ROTATIONS[pieceNow]; rt++) {
 
@@ -605,51 +623,65 @@ public class RanksAI extends DummyAI implements Runnable {
 					 int minX=0;
 					 int maxX=ranks.getStackWidth()-Ranks.PIECES_WIDTHS[pieceNow][rt];
 					 for(int x = minX; x <= maxX; x++) {
-
-						 // Run thinkmain on that move to get its score
-						 score = thinkMain( x,  rt,  heights, piecesCopy, holdPiece, (useHold==1)?false:true, numPreviews);
-						 log.debug("MAIN  id="+pieceNow+" posX="+x+" rt="+rt+" hold :"+useHold+" score:"+score);
-
-						 //If the score is better than the previous best score, change it, and record the chosen move for further application by setControl
-						 if(score.compareTo(bestScore)>0) {
-							 log.debug("MAIN new best piece !");
-							 if (pieceNow==Piece.PIECE_I){
-								 bestScore.iPieceUsedInTheStack=true;
-							 }
-							 bestHold = (useHold==1);
-							 bestX = x;
-							 bestRt = rt;
-							 bestXSub = x;
-							 bestRtSub = -1;
-							 bestScore=score;
-						 }
-
+						 addRootMove(useHold==1, x, rt, pieceNow, false, movePieces, moveHoldPiece);
 					 }
 
 					 // If we can score a 4-Line, try it
 					 if (pieceNow==Piece.PIECE_I && ((rt==1)||(rt==3)) && currentHeightMin>=4){
+						 addRootMove(useHold==1, maxX+1, rt, pieceNow, true, movePieces, moveHoldPiece);
+					 }
 
-						 // What are the consequences of scoring a 4-Line ?
-						 score = thinkMain( maxX+1,  rt,  heights, piecesCopy, holdPiece,(useHold==1)?false:true, numPreviews);
-						 log.debug("MAIN (4 Lines) id="+pieceNow+" posX="+(maxX+1)+" rt="+rt+" hold :"+useHold+" score:"+score);
+				 }
+		 	}
 
-						 //If the score is better than the previous best score, change it, and record the chosen move for further application by setControl
-						 if(score.compareTo(bestScore)>0) {
-							 log.debug("MAIN (4 Lines) new best piece !");
+			 // Run thinkmain on every move to get its score
+			 if ((searchThreads>1) && (rootMoveCount>1)){
+				 ForkJoinPool pool=AISearchPool.getPool(searchThreads);
+				 pool.invoke(new ThinkTask(0, rootMoveCount, heights, numPreviews));
+			 }
+			 else {
+				 for (int i=0;i<rootMoveCount;i++)
+					 scoreRootMove(rootMoves[i], heights, numPreviews);
+			 }
 
-							 bestHold = (useHold==1);
-							 bestX = maxX+1;
-							 bestRt = rt;
-							 bestXSub = maxX+1;
-							 bestRtSub = -1;
-							 bestScore=score;
-						 }
+			 // Keep the best move. The moves are compared in the order they were generated, so the result doesn't depend on the number of threads.
+			 for (int i=0;i<rootMoveCount;i++){
+				 RootMove move=rootMoves[i];
+				 score=move.score;
+
+				 if (move.fourLines){
+					 log.debug("MAIN (4 Lines) id="+move.piece+" posX="+move.x+" rt="+move.rt+" hold :"+move.hold+" score:"+score);
 
+					 //If the score is better than the previous best score, change it, and record the chosen move for further application by setControl
+					 if(score.compareTo(bestScore)>0) {
+						 log.debug("MAIN (4 Lines) new best piece !");
 
+						 bestHold = move.hold;
+						 bestX = move.x;
+						 bestRt = move.rt;
+						 bestXSub = move.x;
+						 bestRtSub = -1;
+						 bestScore=score;
 					 }
+				 }
+				 else {
+					 log.debug("MAIN  id="+move.piece+" posX="+move.x+" rt="+move.rt+" hold :"+move.hold+" score:"+score);
 
+					 //If the score is better than the previous best score, change it, and record the chosen move for further application by setControl
+					 if(score.compareTo(bestScore)>0) {
+						 log.debug("MAIN new best piece !");
+						 if (move.piece==Piece.PIECE_I){
+							 bestScore.iPieceUsedInTheStack=true;
+						 }
+						 bestHold = move.hold;
+						 bestX = move.x;
+						 bestRt = move.rt;
+						 bestXSub = move.x;
+						 bestRtSub = -1;
+						 bestScore=score;
+					 }
 				 }
-		 	}
+			 }
 		 }
 
 		 if (numPreviews>0)
@@ -657,6 +689,49 @@ public class RanksAI extends DummyAI implements Runnable {
 
 	 }
 
+	 /**
+	  * Add a move of the current piece to rootMoves, reusing the entries of previous calls
+	  * @param hold true if the move uses hold
+	  * @param x Column where the piece has to be put
+	  * @param rt Rotation of the piece
+	  * @param piece Piece ID
+	  * @param fourLines true if the move scores a 4-Line in the rightmost column
+	  * @param pieces Array containing the current piece and the next pieces for this move
+	  * @param holdPiece Hold piece for this move
+	 */
+	 private void addRootMove(boolean hold, int x, int rt, int piece, boolean fourLines, int[] pieces, int[] holdPiece) {
+		 if (rootMoves==null || rootMoveCount>=rootMoves.length){
+			 RootMove[] newMoves=new RootMove[(rootMoves==null)?64:rootMoves.length*2];
+			 if (rootMoves!=null)
+				 System.arraycopy(rootMoves, 0, newMoves, 0, rootMoves.length);
+			 rootMoves=newMoves;
+		 }
+		 RootMove move=rootMoves[rootMoveCount];
+		 if (move==null){
+			 move=new RootMove();
+			 rootMoves[rootMoveCount]=move;
+		 }
+		 move.hold=hold;
+		 move.x=x;
+		 move.rt=rt;
+		 move.piece=piece;
+		 move.fourLines=fourLines;
+		 move.pieces=pieces;
+		 move.holdPiece=holdPiece;
+		 move.score=null;
+		 rootMoveCount++;
+	 }
+
+	 /**
+	  * Score a move of the current piece. Safe to call from several threads at once, as thinkMain only reads ranks.
+	  * @param move Move
+	  * @param heights Array containing the heights of the columns in the field
+	  * @param numPreviews Number of previews to consider in the thinking process
+	 */
+	 private void scoreRootMove(RootMove move, int[] heights, int numPreviews) {
+		 move.score=thinkMain(move.x, move.rt, heights, move.pieces, move.holdPiece, !move.hold, numPreviews);
+	 }
+
 /**
  * Recursive method that returns the score of a given move for a given field and given next pieces
  * @param x Column where the piece has to be put.
@@ -858,37 +933,77 @@ public class RanksAI extends DummyAI implements Runnable {
 	 }
 
 	 /*
-	  * Thread routine for this AI
+	  * Think routine for this AI (run by AIThinkScheduler for each request)
 	 */
 	 public void run() {
-		 log.info("RanksAI: Thread start");
-		 threadRunning = true;
-
-		 while(threadRunning) {
-			 if(thinkRequest) {
-				 thinkRequest = false;
-				 thinking = true;
-				 try {
-					 thinkBestPosition(gEngine, gEngine.playerID);
-
-				 } catch (Throwable e) {
-					 log.debug("RanksAI: thinkBestPosition Failed", e);
-				 }
-				 thinking = false;
-				 skipNextFrame=false;
-			 }
+		 thinking = true;
+		 try {
+			 thinkBestPosition(gEngine, gEngine.playerID);
 
-			 if(thinkDelay > 0) {
-				 try {
-					 Thread.sleep(thinkDelay);
-				 } catch (InterruptedException e) {
-					 break;
-				 }
-			 }
+		 } catch (Throwable e) {
+			 log.debug("RanksAI: thinkBestPosition Failed", e);
+		 }
+		 thinking = false;
+		 skipNextFrame=false;
+
+		 // Stopped by thinkBestPosition when the pieces can't fit anymore
+		 if(!threadRunning) {
+			 stopThinkTask();
+			 ranks=null;
+			 log.info("RanksAI: Think routine stopped");
 		 }
+	 }
+
+	 /**
+	  * A move of the current piece and its score
+	 */
+	 private static class RootMove {
+		 /** true if the move uses hold */
+		 public boolean hold;
+		 /** Column */
+		 public int x;
+		 /** Rotation */
+		 public int rt;
+		 /** Piece ID */
+		 public int piece;
+		 /** true if the move scores a 4-Line in the rightmost column */
+		 public boolean fourLines;
+		 /** Current piece and next pieces */
+		 public int[] pieces;
+		 /** Hold piece */
+		 public int[] holdPiece;
+		 /** Score (null until scored) */
+		 public Score score;
+	 }
 
-		 threadRunning = false;
-		 ranks=null;
-		 log.info("RanksAI: Thread end");
+	 /**
+	  * Fork-join task that scores a range of rootMoves, splitting it in half until one move is left
+	 */
+	 private class ThinkTask extends RecursiveAction {
+		 private static final long serialVersionUID = 1L;
+
+		 private int from;
+		 private int to;
+		 private int[] heights;
+		 private int numPreviews;
+
+		 public ThinkTask(int from, int to, int[] heights, int numPreviews) {
+			 this.from=from;
+			 this.to=to;
+			 this.heights=heights;
+			 this.numPreviews=numPreviews;
+		 }
+
+		 @Override
+		 protected void compute() {
+			 if (to-from<=1){
+				 for (int i=from;i<to;i++)
+					 scoreRootMove(rootMoves[i], heights, numPreviews);
+			 }
+			 else {
+				 int mid=(from+to)>>>1;
+				 invokeAll(new ThinkTask(from, mid, heights, numPreviews), new ThinkTask(mid, to, heights, numPreviews));
+			 }
+		 }
 	 }
 }
@@ -0,0 +1,156 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.ai;
+
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.FieldBitboard;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.util.AllocationCounter;
+
+/**
+ * Reusable scratch buffers for one AI search.<br>
+ * Everything here is allocated on the first search (or when the field size changes)
+ * and reused afterwards, so a search does not create garbage for every candidate move.
+ * An instance must only be used by one thread at a time.
+ */
+public class SearchArena {
+	/** Block-based copy of the engine field (spawn position, wallkicks) */
+	public Field field;
+
+	/** Occupancy of the engine field. Not modified during the search. */
+	public FieldBitboard fieldBase;
+
+	/** Working board with the journal enabled. Revert it with <code>fieldWork.undo(0)</code>. */
+	public FieldBitboard fieldWork;
+
+	/** Current piece with the rule offsets applied */
+	public Piece pieceNow;
+
+	/** Hold piece with the rule offsets applied */
+	public Piece pieceHold;
+
+	/** Column heights before and after a placement */
+	public int[] columnsBefore, columnsAfter;
+
+	/** Small per-node result buffers (e.g. valley counts) */
+	public int[] resultBefore, resultAfter;
+
+	/** Number of nodes evaluated by the last search */
+	public long nodes;
+
+	/** Number of evaluations taken from / missing in the transposition table during the last search */
+	public long cacheHits, cacheMisses;
+
+	/** Bytes allocated by the last search (-1 if unknown) */
+	public long allocatedBytes;
+
+	/** Allocation counter value at the start of the search */
+	protected long startBytes;
+
+	/**
+	 * Constructor
+	 */
+	public SearchArena() {
+		pieceNow = new Piece();
+		pieceHold = new Piece();
+		resultBefore = new int[8];
+		resultAfter = new int[8];
+		allocatedBytes = -1;
+	}
+
+	/**
+	 * Copy a field into the scratch buffers
+	 * @param src Source field
+	 */
+	public void snapshot(Field src) {
+		if(field == null) field = new Field(src);
+		else field.copy(src);
+
+		if(fieldBase == null) {
+			fieldBase = new FieldBitboard(field);
+			fieldWork = new FieldBitboard(fieldBase);
+		} else {
+			fieldBase.copy(field);
+			fieldWork.copy(fieldBase);
+		}
+		fieldWork.setJournalEnabled(true);
+
+		int width = field.getWidth();
+		if((columnsBefore == null) || (columnsBefore.length != width)) {
+			columnsBefore = new int[width];
+			columnsAfter = new int[width];
+		}
+	}
+
+	/**
+	 * Copy an occupancy board into the working board only
+	 * (for worker threads that share the Block-based snapshot of another arena)
+	 * @param base Source board
+	 */
+	public void snapshot(FieldBitboard base) {
+		if(fieldWork == null) fieldWork = new FieldBitboard(base);
+		else fieldWork.copy(base);
+		fieldWork.setJournalEnabled(true);
+		nodes = 0;
+		cacheHits = 0;
+		cacheMisses = 0;
+
+		int width = base.getWidth();
+		if((columnsBefore == null) || (columnsBefore.length != width)) {
+			columnsBefore = new int[width];
+			columnsAfter = new int[width];
+		}
+	}
+
+	/**
+	 * Start counting nodes and allocations
+	 */
+	public void begin() {
+		nodes = 0;
+		cacheHits = 0;
+		cacheMisses = 0;
+		startBytes = AllocationCounter.getAllocatedBytes();
+	}
+
+	/**
+	 * Stop counting allocations
+	 */
+	public void end() {
+		allocatedBytes = AllocationCounter.getAllocatedBytesSince(startBytes);
+	}
+
+	/**
+	 * Get the average number of bytes allocated per evaluated node by the last search
+	 * @return Bytes per node (-1 if unknown)
+	 */
+	public double getBytesPerNode() {
+		if((allocatedBytes < 0) || (nodes <= 0)) return -1;
+		return (double)allocatedBytes / nodes;
+	}
+}
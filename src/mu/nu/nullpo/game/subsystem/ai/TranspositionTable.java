@@ -0,0 +1,112 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.ai;
+
+import mu.nu.nullpo.game.component.FieldBitboard;
+
+/**
+ * Fixed-size cache of AI evaluation scores, keyed by a 64-bit hash
+ * (usually {@link FieldBitboard#getHash()} combined with a move code by {@link #key(long, long)}).<br>
+ * Each key has exactly one slot, and a new entry always replaces the old one, so the memory used
+ * never grows. The table can be shared by several search threads without locking:
+ * every slot stores the key XORed with the value, and a read whose key and value
+ * do not belong together (a torn or racing write) is treated as a miss.
+ */
+public class TranspositionTable {
+	/** Value returned by {@link #get(long)} when the key is not in the table */
+	public static final long NOT_FOUND = Long.MIN_VALUE;
+
+	/** Marks an occupied slot (bits above the 32-bit score) */
+	protected static final long VALID = 1L << 32;
+
+	/** Index mask (capacity - 1) */
+	protected int mask;
+
+	/** Slots: key ^ data at 2i, data at 2i + 1 */
+	protected long[] slots;
+
+	/**
+	 * Constructor
+	 * @param size Number of entries (rounded down to a power of two, at least 1)
+	 */
+	public TranspositionTable(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, size));
+		mask = capacity - 1;
+		slots = new long[capacity * 2];
+	}
+
+	/**
+	 * Get the number of entries the table can hold
+	 * @return Capacity
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Remove every entry
+	 */
+	public void clear() {
+		for(int i = 0; i < slots.length; i++) slots[i] = 0L;
+	}
+
+	/**
+	 * Look up a score
+	 * @param key Key
+	 * @return Score, or {@link #NOT_FOUND}
+	 */
+	public long get(long key) {
+		int i = ((int)key & mask) << 1;
+		long data = slots[i + 1];
+		if(((data & VALID) != 0L) && ((slots[i] ^ data) == key)) return (int)data;
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Store a score, replacing whatever was in its slot
+	 * @param key Key
+	 * @param value Score
+	 */
+	public void put(long key, int value) {
+		int i = ((int)key & mask) << 1;
+		long data = VALID | (value & 0xFFFFFFFFL);
+		slots[i] = key ^ data;
+		slots[i + 1] = data;
+	}
+
+	/**
+	 * Combine a field hash with a code describing what was evaluated on it
+	 * @param fieldHash Field hash
+	 * @param code Move code (piece, position, search options...)
+	 * @return Key
+	 */
+	public static long key(long fieldHash, long code) {
+		return fieldHash ^ FieldBitboard.mix(code ^ 0x632BE59BD9B4E019L);
+	}
+}
@@ -17,6 +17,7 @@ import mu.nu.nullpo.game.component.Piece;
 import mu.nu.nullpo.game.component.RuleOptions;
 import mu.nu.nullpo.game.component.Statistics;
 import mu.nu.nullpo.game.event.EventReceiver;
+import mu.nu.nullpo.game.net.NetFieldSync;
 import mu.nu.nullpo.game.net.NetPlayerClient;
 import mu.nu.nullpo.game.net.NetPlayerInfo;
 import mu.nu.nullpo.game.net.NetRoomInfo;
@@ -67,6 +68,12 @@ public class NetDummyMode extends AbstractMode implements NetLobbyListener {
 	/** NET: If true, NetDummyMode will always send attributes when sending the field (Declared in NetDummyMode) */
 	protected boolean netAlwaysSendFieldAttributes;
 
+	/** NET: Field delta sync of the field this player sends (Declared in NetDummyMode) */
+	protected NetFieldSync netFieldSyncSend;
+
+	/** NET: Field delta sync of the received fields, for each player (Declared in NetDummyMode) */
+	protected NetFieldSync[] netFieldSyncRecv;
+
 	/** NET: Player name (Declared in NetDummyMode) */
 	protected String netPlayerName;
 
@@ -232,6 +239,8 @@ public class NetDummyMode extends AbstractMode implements NetLobbyListener {
 		netIsPB = false;
 		netIsNetRankingDisplayMode = false;
 		netAlwaysSendFieldAttributes = false;
+		netGetFieldSyncSend().reset();
+		netGetFieldSyncRecv(playerID).reset();
 
 		if(netIsWatch) {
 			engine.isNextVisible = false;
@@ -490,11 +499,16 @@ public class NetDummyMode extends AbstractMode implements NetLobbyListener {
 		// When someone logout
 		if(message[0].equals("playerlogout")) {
 			NetPlayerInfo pInfo = new NetPlayerInfo(message[1]);
+			netOnReceiverLeave(pInfo.uid);
 
 			if((netCurrentRoomInfo != null) && (pInfo.roomID == netCurrentRoomInfo.roomID)) {
 				netUpdatePlayerExist();
 			}
 		}
+		// Someone leave here
+		if(message[0].equals("playerleave")) {
+			netOnReceiverLeave(Integer.parseInt(message[1]));
+		}
 		// Game started
 		if(message[0].equals("start")) {
 			log.debug("NET: Game started");
@@ -560,7 +574,7 @@ public class NetDummyMode extends AbstractMode implements NetLobbyListener {
 					netRecvOptions(engine, message);
 				}
 				// Field
-				if(message[3].equals("field") || message[3].equals("fieldattr")) {
+				if(message[3].equals("field") || message[3].equals("fieldattr") || message[3].equals("fielddelta")) {
 					netRecvField(engine, message);
 				}
 				// Stats
@@ -839,7 +853,20 @@ public class NetDummyMode extends AbstractMode implements NetLobbyListener {
 	 * @param engine GameEngine
 	 */
 	protected void netSendField(GameEngine engine) {
-		if(owner.receiver.isStickySkin(engine) || netAlwaysSendFieldAttributes) {
+		boolean withAttribute = owner.receiver.isStickySkin(engine) || netAlwaysSendFieldAttributes;
+
+		LinkedList<Integer> receivers = netGetFieldSyncReceivers();
+		if(receivers != null) {
+			// Send only the changed rows
+			String msg = netGetFieldSyncSend().createMessage(engine.field, engine.getSkin(),
+					engine.field.getHeightWithoutHurryupFloor(), withAttribute, receivers);
+			netLobby.netPlayerClient.send(msg);
+			return;
+		}
+		// Someone in the room can't read delta messages; the next delta message will be a full snapshot
+		netGetFieldSyncSend().reset();
+
+		if(withAttribute) {
 			// Send with attributes
 			String strSrcFieldData = engine.field.attrFieldToString();
 			int nocompSize = strSrcFieldData.length();
@@ -881,12 +908,79 @@ public class NetDummyMode extends AbstractMode implements NetLobbyListener {
 		}
 	}
 
+	/**
+	 * NET: Someone left the room or logged out; the field is sent again in full if the player comes back
+	 * @param uid UID
+	 */
+	protected void netOnReceiverLeave(int uid) {
+		if(netFieldSyncSend != null) netFieldSyncSend.removeReceiver(uid);
+	}
+
+	/**
+	 * NET: Get the UIDs of the other players in the current room, if all of them can receive field delta messages
+	 * @return UIDs of the other players (null if someone's client doesn't support the same field delta version)
+	 */
+	protected LinkedList<Integer> netGetFieldSyncReceivers() {
+		NetPlayerClient client = netLobby.netPlayerClient;
+		int roomID = client.getCurrentRoomID();
+		int myUID = client.getPlayerUID();
+
+		// The list is changed on the network thread, so read its copy
+		LinkedList<Integer> receivers = new LinkedList<Integer>();
+		for(NetPlayerInfo pInfo: client.getPlayerInfoListCopy()) {
+			if((pInfo != null) && (pInfo.roomID == roomID) && (pInfo.uid != myUID)) {
+				if(pInfo.fieldSyncVersion != NetFieldSync.VERSION) return null;
+				receivers.add(pInfo.uid);
+			}
+		}
+		return receivers;
+	}
+
+	/**
+	 * NET: Get the field delta sync state of the field this player sends
+	 * @return NetFieldSync
+	 */
+	protected NetFieldSync netGetFieldSyncSend() {
+		if(netFieldSyncSend == null) netFieldSyncSend = new NetFieldSync();
+		return netFieldSyncSend;
+	}
+
+	/**
+	 * NET: Get the field delta sync state of a received field
+	 * @param playerID Player ID
+	 * @return NetFieldSync
+	 */
+	protected NetFieldSync netGetFieldSyncRecv(int playerID) {
+		if((netFieldSyncRecv == null) || (netFieldSyncRecv.length <= playerID)) {
+			NetFieldSync[] newArray = new NetFieldSync[playerID + 1];
+			if(netFieldSyncRecv != null) System.arraycopy(netFieldSyncRecv, 0, newArray, 0, netFieldSyncRecv.length);
+			netFieldSyncRecv = newArray;
+		}
+		if(netFieldSyncRecv[playerID] == null) netFieldSyncRecv[playerID] = new NetFieldSync();
+		return netFieldSyncRecv[playerID];
+	}
+
 	/**
 	 * NET: Receive field message
 	 * @param engine GameEngine
 	 * @param message Message array
 	 */
 	protected void netRecvField(GameEngine engine, String[] message) {
+		if(message[3].equals("fielddelta")) {
+			// Changed rows only
+			if(message.length > 5) {
+				engine.nowPieceObject = null;
+				engine.holdDisable = false;
+				if(engine.stat == GameEngine.Status.SETTING) engine.stat = GameEngine.Status.MOVE;
+				netPlayerSkin = Integer.parseInt(message[5]);
+				if(!netGetFieldSyncRecv(engine.playerID).applyMessage(engine.field, message)) {
+					log.debug("Field delta ignored, waiting for the next full snapshot (player " + engine.playerID + ")");
+				}
+			}
+			return;
+		}
+		netGetFieldSyncRecv(engine.playerID).reset();
+
 		if(message[3].equals("fieldattr")) {
 			// With attributes
 			if(message.length > 4) {
@@ -1234,6 +1234,7 @@ public class NetDummyVSMode extends NetDummyMode {
 		// When someone logout
 		if(message[0].equals("playerlogout")) {
 			NetPlayerInfo pInfo = new NetPlayerInfo(message[1]);
+			netOnReceiverLeave(pInfo.uid);
 
 			if((pInfo.roomID == netCurrentRoomInfo.roomID) && (pInfo.seatID != -1)) {
 				netUpdatePlayerExist();
@@ -1276,6 +1277,7 @@ public class NetDummyVSMode extends NetDummyMode {
 		}
 		// Someone leave here
 		if(message[0].equals("playerleave")) {
+			netOnReceiverLeave(Integer.parseInt(message[1]));
 			netUpdatePlayerExist();
 
 			if(netvsNumPlayers < 2) {
@@ -1470,7 +1472,7 @@ public class NetDummyVSMode extends NetDummyMode {
 			}
 
 			// Field
-			if(message[3].equals("field") || message[3].equals("fieldattr")) {
+			if(message[3].equals("field") || message[3].equals("fieldattr") || message[3].equals("fielddelta")) {
 				netRecvField(engine, message);
 			}
 			// Stats
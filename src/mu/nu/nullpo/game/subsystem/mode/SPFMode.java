@@ -529,6 +529,8 @@ public class SPFMode extends AbstractMode {
 		engine.clearMode = GameEngine.ClearType.GEM_COLOR;
 		engine.garbageColorClear = true;
 		engine.lineGravityType = GameEngine.LineGravity.CASCADE;
+		// Diamonds are put in the piece array by index, so keep the fixed array
+		engine.nextPieceStreaming = false;
 		for(int i = 0; i < Piece.PIECE_COUNT; i++)
 			engine.nextPieceEnable[i] = (PIECE_ENABLE[i] == 1);
 		engine.blockColors = BLOCK_COLORS;
@@ -46,6 +46,7 @@ import mu.nu.nullpo.game.net.NetObserverClient;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.ModeManager;
+import mu.nu.nullpo.util.StartupTimer;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -251,6 +252,7 @@ public class NullpoMinoSDL {
 	 * @param args プログラムに渡された引count
 	 */
 	public static void main(String[] args) {
+		StartupTimer.start();
 		PropertyConfigurator.configure("config/etc/log_sdl.cfg");
 		log.info("NullpoMinoSDL Start");
 
@@ -310,8 +312,11 @@ public class NullpoMinoSDL {
 			in.close();
 		} catch(IOException e) {}
 
+		StartupTimer.mark("settings");
+
 		// Mode読み込み
 		modeManager = new ModeManager();
+		modeManager.loadIndex(ModeManager.DEFAULT_INDEX_FILE);
 		try {
 			BufferedReader txtMode = new BufferedReader(new FileReader("config/list/mode.lst"));
 			modeManager.loadGameModes(txtMode);
@@ -319,6 +324,7 @@ public class NullpoMinoSDL {
 		} catch (IOException e) {
 			log.error("Failed to load game mode list", e);
 		}
+		StartupTimer.mark("mode list");
 
 		// Set default rule selections
 		try {
@@ -81,6 +81,9 @@ public class StateConfigAISelectSDL extends BaseStateSDL {
 
 	protected boolean aiShowState = false;
 
+	/** Number of threads used by AIs that support parallel search */
+	protected int aiSearchThreads = 1;
+
 	/** Cursor position */
 	protected int cursor = 0;
 
@@ -110,6 +113,7 @@ public class StateConfigAISelectSDL extends BaseStateSDL {
 		aiShowHint = NullpoMinoSDL.propGlobal.getProperty(player + ".aiShowHint", false);
 		aiPrethink = NullpoMinoSDL.propGlobal.getProperty(player + ".aiPrethink", false);
 		aiShowState = NullpoMinoSDL.propGlobal.getProperty(player + ".aiShowState", false);
+		aiSearchThreads = NullpoMinoSDL.propGlobal.getProperty(player + ".aiSearchThreads", 1);
 
 		aiID = -1;
 		for(int i = 0; i < aiPathList.length; i++) {
@@ -193,6 +197,7 @@ public class StateConfigAISelectSDL extends BaseStateSDL {
 		NormalFontSDL.printFontGrid(2, 7, "AI SHOW HINT:" + GeneralUtil.getONorOFF(aiShowHint), (cursor == 4));
 		NormalFontSDL.printFontGrid(2, 8, "AI PRE-THINK:" + GeneralUtil.getONorOFF(aiPrethink), (cursor == 5));
 		NormalFontSDL.printFontGrid(2, 9, "AI SHOW INFO:" + GeneralUtil.getONorOFF(aiShowState), (cursor == 6));
+		NormalFontSDL.printFontGrid(2, 10, "AI SEARCH THREADS:" + aiSearchThreads, (cursor == 7));
 
 		NormalFontSDL.printFontGrid(1, 28, "A:OK B:CANCEL", NormalFontSDL.COLOR_GREEN);
 	}
@@ -205,12 +210,12 @@ public class StateConfigAISelectSDL extends BaseStateSDL {
 		// Cursor movement
 		if(GameKeySDL.gamekey[0].isMenuRepeatKey(GameKeySDL.BUTTON_UP)) {
 			cursor--;
-			if(cursor < 0) cursor = 6;
+			if(cursor < 0) cursor = 7;
 			ResourceHolderSDL.soundManager.play("cursor");
 		}
 		if(GameKeySDL.gamekey[0].isMenuRepeatKey(GameKeySDL.BUTTON_DOWN)) {
 			cursor++;
-			if(cursor > 6) cursor = 0;
+			if(cursor > 7) cursor = 0;
 			ResourceHolderSDL.soundManager.play("cursor");
 		}
 
@@ -250,6 +255,11 @@ public class StateConfigAISelectSDL extends BaseStateSDL {
 			case 6:
 				aiShowState = !aiShowState;
 				break;
+			case 7:
+				aiSearchThreads += change;
+				if(aiSearchThreads < 1) aiSearchThreads = 16;
+				if(aiSearchThreads > 16) aiSearchThreads = 1;
+				break;
 			}
 		}
 
@@ -265,6 +275,7 @@ public class StateConfigAISelectSDL extends BaseStateSDL {
 			NullpoMinoSDL.propGlobal.setProperty(player + ".aiShowHint",aiShowHint);
 			NullpoMinoSDL.propGlobal.setProperty(player + ".aiPrethink",aiPrethink);
 			NullpoMinoSDL.propGlobal.setProperty(player + ".aiShowState",aiShowState);
+			NullpoMinoSDL.propGlobal.setProperty(player + ".aiSearchThreads", aiSearchThreads);
 			NullpoMinoSDL.saveConfig();
 
 			NullpoMinoSDL.enterState(NullpoMinoSDL.STATE_CONFIG_MAINMENU);
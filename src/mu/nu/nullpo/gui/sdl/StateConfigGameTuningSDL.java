@@ -232,6 +232,8 @@ public class StateConfigGameTuningSDL extends BaseStateSDL {
 				gameManager.engine[i].aiShowHint = NullpoMinoSDL.propGlobal.getProperty(i + ".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = NullpoMinoSDL.propGlobal.getProperty(i + ".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSDL.propGlobal.getProperty(i + ".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSDL.propGlobal.getProperty(i + ".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSDL.propGlobal.getProperty(i + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSDL.propConfig.getProperty("option.showInput", false);
 
@@ -31,7 +31,9 @@ package mu.nu.nullpo.gui.sdl;
 import org.apache.log4j.Logger;
 
 import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.play.FrameProfiler;
 import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.play.ReplaySeeker;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
 import mu.nu.nullpo.game.subsystem.mode.GameMode;
 import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
@@ -51,6 +53,9 @@ public class StateInGameSDL extends BaseStateSDL {
 	/** Log */
 	static Logger log = Logger.getLogger(StateInGameSDL.class);
 
+	/** Frames to go forward or back by up/down during replays */
+	public static final int REPLAY_SEEK_FRAMES = 60 * 10;
+
 	/** Game main class */
 	protected GameManager gameManager;
 
@@ -66,6 +71,9 @@ public class StateInGameSDL extends BaseStateSDL {
 	/** Fast forward */
 	protected int fastforward = 0;
 
+	/** Replay seek (null if not playing a replay) */
+	protected ReplaySeeker replaySeeker;
+
 	/** Pause menu cursor position */
 	protected int cursor = 0;
 
@@ -104,6 +112,7 @@ public class StateInGameSDL extends BaseStateSDL {
 	 */
 	public void startNewGame(String strRulePath) {
 		gameManager = new GameManager(new RendererSDL());
+		replaySeeker = null;
 		pause = false;
 
 		try {
@@ -178,12 +187,15 @@ public class StateInGameSDL extends BaseStateSDL {
 				gameManager.engine[i].aiShowHint = NullpoMinoSDL.propGlobal.getProperty(i + ".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = NullpoMinoSDL.propGlobal.getProperty(i + ".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSDL.propGlobal.getProperty(i + ".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSDL.propGlobal.getProperty(i + ".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSDL.propGlobal.getProperty(i + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSDL.propConfig.getProperty("option.showInput", false);
 
 			// Called at initialization
 			gameManager.engine[i].init();
 		}
+		gameManager.setProfilerEnabled(NullpoMinoSDL.propConfig.getProperty("option.profiler", false));
 
 		updateTitleBarCaption();
 	}
@@ -245,13 +257,17 @@ public class StateInGameSDL extends BaseStateSDL {
 				gameManager.engine[i].aiShowHint = NullpoMinoSDL.propGlobal.getProperty(i + ".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = NullpoMinoSDL.propGlobal.getProperty(i + ".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSDL.propGlobal.getProperty(i + ".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSDL.propGlobal.getProperty(i + ".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSDL.propGlobal.getProperty(i + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSDL.propConfig.getProperty("option.showInput", false);
 
 			// Called at initialization
 			gameManager.engine[i].init();
 		}
+		gameManager.setProfilerEnabled(NullpoMinoSDL.propConfig.getProperty("option.profiler", false));
 
+		replaySeeker = new ReplaySeeker(gameManager);
 		updateTitleBarCaption();
 	}
 
@@ -282,6 +298,7 @@ public class StateInGameSDL extends BaseStateSDL {
 	 */
 	@Override
 	public void leave() throws SDLException {
+		gameManager.writeProfile(FrameProfiler.DEFAULT_FILENAME);
 		gameManager.shutdown();
 		gameManager = null;
 		NullpoMinoSDL.disableAutoInputUpdate = false;
@@ -313,6 +330,9 @@ public class StateInGameSDL extends BaseStateSDL {
 				// Fast forward
 				if(fastforward != 0)
 					NormalFontSDL.printFont(offsetX, offsetY + 376, "e" + (fastforward + 1), NormalFontSDL.COLOR_ORANGE);
+				// Replay position
+				if((replaySeeker != null) && !gameManager.replayRerecord)
+					NormalFontSDL.printFont(offsetX + 48, offsetY + 376, GeneralUtil.getTime(replaySeeker.getFrame()), NormalFontSDL.COLOR_ORANGE);
 				if(gameManager.replayShowInvisible)
 					NormalFontSDL.printFont(offsetX, offsetY + 392, "SHOW INVIS", NormalFontSDL.COLOR_ORANGE);
 			}
@@ -411,6 +431,7 @@ public class StateInGameSDL extends BaseStateSDL {
 					ResourceHolderSDL.bgmStop();
 					pause = false;
 					gameManager.reset();
+					if(replaySeeker != null) replaySeeker = new ReplaySeeker(gameManager);
 				} else if(cursor == 2) {
 					// 終了
 					ResourceHolderSDL.bgmStop();
@@ -468,6 +489,16 @@ public class StateInGameSDL extends BaseStateSDL {
 			fastforward = 0;
 		}
 
+		if((replaySeeker != null) && !replaySeeker.isFinished() && !gameManager.replayRerecord && !pause) {
+			// Replay seek (only until the end of the replay, the result screens use UP/DOWN to change pages)
+			if(GameKeySDL.gamekey[0].isMenuRepeatKey(GameKeySDL.BUTTON_UP)) {
+				replaySeeker.seek(replaySeeker.getFrame() + REPLAY_SEEK_FRAMES);
+			}
+			if(GameKeySDL.gamekey[0].isMenuRepeatKey(GameKeySDL.BUTTON_DOWN)) {
+				replaySeeker.seek(replaySeeker.getFrame() - REPLAY_SEEK_FRAMES);
+			}
+		}
+
 		if(gameManager != null) {
 			// BGM
 			if(ResourceHolderSDL.bgmPlaying != gameManager.bgmStatus.bgm) {
@@ -493,7 +524,10 @@ public class StateInGameSDL extends BaseStateSDL {
 					}
 				}
 
-				for(int i = 0; i <= fastforward; i++) gameManager.updateAll();
+				for(int i = 0; i <= fastforward; i++) {
+					if(replaySeeker != null) replaySeeker.update();
+					else gameManager.updateAll();
+				}
 			}
 		}
 
@@ -503,6 +537,7 @@ public class StateInGameSDL extends BaseStateSDL {
 				ResourceHolderSDL.bgmStop();
 				pause = false;
 				gameManager.reset();
+				if(replaySeeker != null) replaySeeker = new ReplaySeeker(gameManager);
 			}
 
 			// Return to title
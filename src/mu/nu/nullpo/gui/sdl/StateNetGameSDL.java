@@ -329,6 +329,8 @@ public class StateNetGameSDL extends BaseStateSDL implements NetLobbyListener {
 				gameManager.engine[0].aiShowHint = NullpoMinoSDL.propGlobal.getProperty(0 + ".aiShowHint", false);
 				gameManager.engine[0].aiPrethink = NullpoMinoSDL.propGlobal.getProperty(0 + ".aiPrethink", false);
 				gameManager.engine[0].aiShowState = NullpoMinoSDL.propGlobal.getProperty(0 + ".aiShowState", false);
+				gameManager.engine[0].aiSearchThreads = NullpoMinoSDL.propGlobal.getProperty(0 + ".aiSearchThreads", 1);
+				gameManager.engine[0].aiTranspositionTableSize = NullpoMinoSDL.propGlobal.getProperty(0 + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSDL.propConfig.getProperty("option.showInput", false);
 
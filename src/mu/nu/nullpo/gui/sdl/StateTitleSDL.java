@@ -30,6 +30,7 @@ package mu.nu.nullpo.gui.sdl;
 
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.gui.net.UpdateChecker;
+import mu.nu.nullpo.util.StartupTimer;
 import sdljava.SDLException;
 //import sdljava.event.MouseState;
 //import sdljava.event.SDLEvent;
@@ -61,6 +62,7 @@ public class StateTitleSDL extends DummyMenuChooseStateSDL {
 	 */
 	@Override
 	public void enter() throws SDLException {
+		StartupTimer.finish("the title screen");
 		// Update title bar
 		SDLVideo.wmSetCaption("NullpoMino version" + GameManager.getVersionString(), null);
 		// Observer start
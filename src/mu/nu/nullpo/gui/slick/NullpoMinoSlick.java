@@ -47,6 +47,7 @@ import mu.nu.nullpo.game.net.NetObserverClient;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.ModeManager;
+import mu.nu.nullpo.util.StartupTimer;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -226,6 +227,7 @@ public class NullpoMinoSlick extends StateBasedGame {
 	 * @param args プログラムに渡されたコマンドLines引count
 	 */
 	public static void main(String[] args) {
+		StartupTimer.start();
 		programArgs = args;
 
 		PropertyConfigurator.configure("config/etc/log_slick.cfg");
@@ -283,8 +285,11 @@ public class NullpoMinoSlick extends StateBasedGame {
 			in.close();
 		} catch(IOException e) {}
 
+		StartupTimer.mark("settings");
+
 		// Mode読み込み
 		modeManager = new ModeManager();
+		modeManager.loadIndex(ModeManager.DEFAULT_INDEX_FILE);
 		try {
 			BufferedReader txtMode = new BufferedReader(new FileReader("config/list/mode.lst"));
 			modeManager.loadGameModes(txtMode);
@@ -292,6 +297,7 @@ public class NullpoMinoSlick extends StateBasedGame {
 		} catch (IOException e) {
 			log.error("Mode list load failed", e);
 		}
+		StartupTimer.mark("mode list");
 
 		// Set default rule selections
 		try {
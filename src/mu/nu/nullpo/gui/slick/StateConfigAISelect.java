@@ -85,6 +85,9 @@ public class StateConfigAISelect extends BaseGameState {
 	
 	protected boolean aiShowState = false;
 
+	/** Number of threads used by AIs that support parallel search */
+	protected int aiSearchThreads = 1;
+
 	/** Cursor position */
 	protected int cursor = 0;
 
@@ -123,6 +126,7 @@ public class StateConfigAISelect extends BaseGameState {
 		aiShowHint = NullpoMinoSlick.propGlobal.getProperty(player+ ".aiShowHint", false);
 		aiPrethink = NullpoMinoSlick.propGlobal.getProperty(player+ ".aiPrethink", false);
 		aiShowState = NullpoMinoSlick.propGlobal.getProperty(player+ ".aiShowState", false);
+		aiSearchThreads = NullpoMinoSlick.propGlobal.getProperty(player + ".aiSearchThreads", 1);
 
 		aiID = -1;
 		for(int i = 0; i < aiPathList.length; i++) {
@@ -208,6 +212,7 @@ public class StateConfigAISelect extends BaseGameState {
 		NormalFontSlick.printFontGrid(2, 7, "AI SHOW HINT:" + GeneralUtil.getONorOFF(aiShowHint), (cursor == 4));
 		NormalFontSlick.printFontGrid(2, 8, "AI PRE-THINK:" + GeneralUtil.getONorOFF(aiPrethink), (cursor == 5));
 		NormalFontSlick.printFontGrid(2, 9, "AI SHOW INFO:" + GeneralUtil.getONorOFF(aiShowState), (cursor == 6));
+		NormalFontSlick.printFontGrid(2, 10, "AI SEARCH THREADS:" + aiSearchThreads, (cursor == 7));
 
 		NormalFontSlick.printFontGrid(1, 28, "A:OK B:CANCEL", NormalFontSlick.COLOR_GREEN);
 	}
@@ -223,12 +228,12 @@ public class StateConfigAISelect extends BaseGameState {
 		// Cursor movement
 		if(GameKeySlick.gamekey[0].isMenuRepeatKey(GameKeySlick.BUTTON_UP)) {
 			cursor--;
-			if(cursor < 0) cursor = 6;
+			if(cursor < 0) cursor = 7;
 			ResourceHolderSlick.soundManager.play("cursor");
 		}
 		if(GameKeySlick.gamekey[0].isMenuRepeatKey(GameKeySlick.BUTTON_DOWN)) {
 			cursor++;
-			if(cursor > 6) cursor = 0;
+			if(cursor > 7) cursor = 0;
 			ResourceHolderSlick.soundManager.play("cursor");
 		}
 
@@ -268,6 +273,11 @@ public class StateConfigAISelect extends BaseGameState {
 			case 6:
 				aiShowState = !aiShowState;
 				break;
+			case 7:
+				aiSearchThreads += change;
+				if(aiSearchThreads < 1) aiSearchThreads = 16;
+				if(aiSearchThreads > 16) aiSearchThreads = 1;
+				break;
 			}
 		}
 
@@ -283,6 +293,7 @@ public class StateConfigAISelect extends BaseGameState {
 			NullpoMinoSlick.propGlobal.setProperty(player + ".aiShowHint",aiShowHint);
 			NullpoMinoSlick.propGlobal.setProperty(player + ".aiPrethink",aiPrethink);
 			NullpoMinoSlick.propGlobal.setProperty(player + ".aiShowState",aiShowState);
+			NullpoMinoSlick.propGlobal.setProperty(player + ".aiSearchThreads", aiSearchThreads);
 			NullpoMinoSlick.saveConfig();
 
 			game.enterState(StateConfigMainMenu.ID);
@@ -245,6 +245,8 @@ public class StateConfigGameTuning extends BaseGameState {
 				gameManager.engine[i].aiShowHint = NullpoMinoSlick.propGlobal.getProperty(i + ".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = NullpoMinoSlick.propGlobal.getProperty(i + ".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSlick.propGlobal.getProperty(i + ".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSlick.propGlobal.getProperty(i + ".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSlick.propGlobal.getProperty(i + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false);
 
@@ -31,7 +31,9 @@ package mu.nu.nullpo.gui.slick;
 import org.apache.log4j.Logger;
 
 import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.play.FrameProfiler;
 import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.play.ReplaySeeker;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
 import mu.nu.nullpo.game.subsystem.mode.GameMode;
 import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
@@ -52,6 +54,9 @@ public class StateInGame extends BasicGameState {
 	/** This state's ID */
 	public static final int ID = 2;
 
+	/** Frames to go forward or back by up/down during replays */
+	public static final int REPLAY_SEEK_FRAMES = 60 * 10;
+
 	/** Game main class */
 	public GameManager gameManager = null;
 
@@ -73,6 +78,9 @@ public class StateInGame extends BasicGameState {
 	/** Fast forward */
 	protected int fastforward = 0;
 
+	/** Replay seek (null if not playing a replay) */
+	protected ReplaySeeker replaySeeker;
+
 	/** Pause menu cursor position */
 	protected int cursor = 0;
 
@@ -133,6 +141,7 @@ public class StateInGame extends BasicGameState {
 	 */
 	public void startNewGame(String strRulePath) {
 		gameManager = new GameManager(new RendererSlick());
+		replaySeeker = null;
 		pause = false;
 
 		gameManager.receiver.setGraphics(appContainer.getGraphics());
@@ -202,12 +211,15 @@ public class StateInGame extends BasicGameState {
 				gameManager.engine[i].aiShowHint = NullpoMinoSlick.propGlobal.getProperty(i + ".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = NullpoMinoSlick.propGlobal.getProperty(i + ".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSlick.propGlobal.getProperty(i + ".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSlick.propGlobal.getProperty(i + ".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSlick.propGlobal.getProperty(i + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false);
 
 			// Called at initialization
 			gameManager.engine[i].init();
 		}
+		gameManager.setProfilerEnabled(NullpoMinoSlick.propConfig.getProperty("option.profiler", false));
 
 		updateTitleBarCaption();
 	}
@@ -265,13 +277,17 @@ public class StateInGame extends BasicGameState {
 				gameManager.engine[i].aiShowHint = NullpoMinoSlick.propGlobal.getProperty(i + ".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = NullpoMinoSlick.propGlobal.getProperty(i + ".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSlick.propGlobal.getProperty(i + ".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSlick.propGlobal.getProperty(i + ".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSlick.propGlobal.getProperty(i + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false);
 
 			// Called at initialization
 			gameManager.engine[i].init();
 		}
+		gameManager.setProfilerEnabled(NullpoMinoSlick.propConfig.getProperty("option.profiler", false));
 
+		replaySeeker = new ReplaySeeker(gameManager);
 		updateTitleBarCaption();
 	}
 
@@ -301,6 +317,7 @@ public class StateInGame extends BasicGameState {
 	 * Shutdown routine
 	 */
 	public void shutdown() {
+		gameManager.writeProfile(FrameProfiler.DEFAULT_FILENAME);
 		gameManager.shutdown();
 		gameManager = null;
 		ResourceHolderSlick.bgmUnloadAll();
@@ -346,6 +363,9 @@ public class StateInGame extends BasicGameState {
 				// Fast forward
 				if(fastforward != 0)
 					NormalFontSlick.printFont(offsetX, offsetY + 376, "e" + (fastforward + 1), NormalFontSlick.COLOR_ORANGE);
+				// Replay position
+				if((replaySeeker != null) && !gameManager.replayRerecord)
+					NormalFontSlick.printFont(offsetX + 48, offsetY + 376, GeneralUtil.getTime(replaySeeker.getFrame()), NormalFontSlick.COLOR_ORANGE);
 				if(gameManager.replayShowInvisible)
 					NormalFontSlick.printFont(offsetX, offsetY + 392, "SHOW INVIS", NormalFontSlick.COLOR_ORANGE);
 			}
@@ -454,6 +474,7 @@ public class StateInGame extends BasicGameState {
 					ResourceHolderSlick.bgmStop();
 					pause = false;
 					gameManager.reset();
+					if(replaySeeker != null) replaySeeker = new ReplaySeeker(gameManager);
 				} else if(cursor == 2) {
 					// End
 					ResourceHolderSlick.bgmStop();
@@ -511,6 +532,16 @@ public class StateInGame extends BasicGameState {
 			fastforward = 0;
 		}
 
+		if((replaySeeker != null) && !replaySeeker.isFinished() && !gameManager.replayRerecord && !pause) {
+			// Replay seek (only until the end of the replay, the result screens use UP/DOWN to change pages)
+			if(GameKeySlick.gamekey[0].isMenuRepeatKey(GameKeySlick.BUTTON_UP)) {
+				replaySeeker.seek(replaySeeker.getFrame() + REPLAY_SEEK_FRAMES);
+			}
+			if(GameKeySlick.gamekey[0].isMenuRepeatKey(GameKeySlick.BUTTON_DOWN)) {
+				replaySeeker.seek(replaySeeker.getFrame() - REPLAY_SEEK_FRAMES);
+			}
+		}
+
 		if(gameManager != null) {
 			// BGM
 			if(ResourceHolderSlick.bgmPlaying != gameManager.bgmStatus.bgm) {
@@ -536,7 +567,10 @@ public class StateInGame extends BasicGameState {
 					}
 				}
 
-				for(int i = 0; i <= fastforward; i++) gameManager.updateAll();
+				for(int i = 0; i <= fastforward; i++) {
+					if(replaySeeker != null) replaySeeker.update();
+					else gameManager.updateAll();
+				}
 			}
 		}
 
@@ -546,6 +580,7 @@ public class StateInGame extends BasicGameState {
 				ResourceHolderSlick.bgmStop();
 				pause = false;
 				gameManager.reset();
+				if(replaySeeker != null) replaySeeker = new ReplaySeeker(gameManager);
 			}
 
 			// Return to title
@@ -371,6 +371,8 @@ public class StateNetGame extends BasicGameState implements NetLobbyListener {
 				gameManager.engine[0].aiShowHint = NullpoMinoSlick.propGlobal.getProperty(0 + ".aiShowHint", false);
 				gameManager.engine[0].aiPrethink = NullpoMinoSlick.propGlobal.getProperty(0 + ".aiPrethink", false);
 				gameManager.engine[0].aiShowState = NullpoMinoSlick.propGlobal.getProperty(0 + ".aiShowState", false);
+				gameManager.engine[0].aiSearchThreads = NullpoMinoSlick.propGlobal.getProperty(0 + ".aiSearchThreads", 1);
+				gameManager.engine[0].aiTranspositionTableSize = NullpoMinoSlick.propGlobal.getProperty(0 + ".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false);
 
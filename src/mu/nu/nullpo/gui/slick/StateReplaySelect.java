@@ -29,14 +29,13 @@
 package mu.nu.nullpo.gui.slick;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Arrays;
 
-import mu.nu.nullpo.game.component.Statistics;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ReplayFile;
+import mu.nu.nullpo.util.ReplayIndex;
 
 import org.apache.log4j.Logger;
 import org.newdawn.slick.GameContainer;
@@ -57,14 +56,20 @@ public class StateReplaySelect extends DummyMenuScrollState {
 	/** Log */
 	static Logger log = Logger.getLogger(StateReplaySelect.class);
 
-	/** Mode  name */
-	protected String[] modenameList;
+	/** Filter types (all replays, same mode, same mode and rule) */
+	public static final int FILTER_NONE = 0, FILTER_MODE = 1, FILTER_MODE_RULE = 2;
 
-	/** Rule name */
-	protected String[] rulenameList;
+	/** Index of the replay directory (kept while the game is running, so the replays are read only once) */
+	protected ReplayIndex replayIndex;
 
-	/** Scoreなどの情報 */
-	protected Statistics[] statsList;
+	/** Revision of replayIndex when the list was made */
+	protected int listRevision;
+
+	/** Current filter type */
+	protected int filter = FILTER_NONE;
+
+	/** Mode name and rule name of the filter */
+	protected String filterMode, filterRule;
 
 	public StateReplaySelect () {
 		pageHeight = PAGE_HEIGHT;
@@ -91,96 +96,85 @@ public class StateReplaySelect extends DummyMenuScrollState {
 	 */
 	@Override
 	public void enter(GameContainer container, StateBasedGame game) throws SlickException {
-		list = getReplayFileList();
-		
-		if (list != null)
-			maxCursor = list.length-1;
-		
-		setReplayRuleAndModeList();
+		File dir = new File(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay"));
+		if((replayIndex == null) || !replayIndex.getDirectory().equals(dir)) {
+			if(replayIndex != null) replayIndex.stop();
+			replayIndex = new ReplayIndex(dir);
+		}
+		replayIndex.update();
+		updateReplayList();
 	}
 
 	/**
-	 * リプレイファイル一覧を取得
-	 * @return リプレイファイルのFilenameの配列。ディレクトリがないならnull
+	 * Get the replay list from the index (with the current filter).
+	 * The cursor stays on the same replay if it's still in the list.
 	 */
-	protected String[] getReplayFileList() {
-		// Get file list
-		File dir = new File(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay"));
-
-		FilenameFilter filter = new FilenameFilter() {
-			public boolean accept(File dir1, String name) {
-				return name.endsWith(".rep");
-			}
-		};
+	protected void updateReplayList() {
+		String selected = ((list != null) && (cursor < list.length)) ? list[cursor] : null;
 
-		String[] list = dir.list(filter);
+		listRevision = replayIndex.getRevision();
+		if(filter == FILTER_NONE) list = replayIndex.getFilenames();
+		else list = replayIndex.getFilenames(filterMode, (filter == FILTER_MODE_RULE) ? filterRule : null);
+		maxCursor = (list != null) ? list.length - 1 : -1;
 
-		if(!System.getProperty("os.name").startsWith("Windows")) {
-			// Sort if not windows
-			Arrays.sort(list);
+		if((selected != null) && (list != null)) {
+			int index = Arrays.binarySearch(list, selected);
+			if(index >= 0) cursor = index;
 		}
-
-		return list;
+		if(cursor > maxCursor) cursor = Math.max(0, maxCursor);
 	}
 
-	/**
-	 * リプレイの詳細を設定
+	/*
+	 * Update the list when the index is changed
 	 */
-	protected void setReplayRuleAndModeList() {
-		if(list == null) return;
-
-		modenameList = new String[list.length];
-		rulenameList = new String[list.length];
-		statsList = new Statistics[list.length];
-
-		for(int i = 0; i < list.length; i++) {
-			CustomProperties prop = new CustomProperties();
-
-			try {
-				FileInputStream in = new FileInputStream(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[i]);
-				prop.load(in);
-				in.close();
-			} catch (IOException e) {
-				log.error("Failed to load replay file (" + list[i] + ")", e);
-			}
-
-			modenameList[i] = prop.getProperty("name.mode", "");
-			rulenameList[i] = prop.getProperty("name.rule", "");
-
-			statsList[i] = new Statistics();
-			statsList[i].readProperty(prop, 0);
-		}
+	@Override
+	protected void updateImpl(GameContainer container, StateBasedGame game, int delta) throws SlickException {
+		if((replayIndex != null) && (replayIndex.getRevision() != listRevision)) updateReplayList();
+		super.updateImpl(container, game, delta);
 	}
 
 	@Override
 	protected void onRenderSuccess (GameContainer container, StateBasedGame game, Graphics graphics)  {
 		String title = "SELECT REPLAY FILE";
 		title += " (" + (cursor + 1) + "/" + (list.length) + ")";
+		if(replayIndex.isBusy()) title += " LOADING";
 		NormalFontSlick.printFontGrid(1, 1, title, NormalFontSlick.COLOR_ORANGE);
 
-		NormalFontSlick.printFontGrid(1, 24, "MODE:" + modenameList[cursor] + " RULE:" + rulenameList[cursor], NormalFontSlick.COLOR_CYAN);
-		NormalFontSlick.printFontGrid(1, 25,
-									"SCORE:" + statsList[cursor].score + " LINE:" + statsList[cursor].lines
-									, NormalFontSlick.COLOR_CYAN);
-		NormalFontSlick.printFontGrid(1, 26,
-									"LEVEL:" + (statsList[cursor].level + statsList[cursor].levelDispAdd) +
-									" TIME:" + GeneralUtil.getTime(statsList[cursor].time)
-									, NormalFontSlick.COLOR_CYAN);
-		NormalFontSlick.printFontGrid(1, 27,
-									"GAME RATE:" + ( (statsList[cursor].gamerate == 0f) ? "UNKNOWN" : ((100*statsList[cursor].gamerate) + "%") )
-									, NormalFontSlick.COLOR_CYAN);
+		if(filter == FILTER_MODE) {
+			NormalFontSlick.printFontGrid(1, 2, "FILTER MODE:" + filterMode, NormalFontSlick.COLOR_GREEN);
+		} else if(filter == FILTER_MODE_RULE) {
+			NormalFontSlick.printFontGrid(1, 2, "FILTER MODE:" + filterMode + " RULE:" + filterRule, NormalFontSlick.COLOR_GREEN);
+		}
+
+		ReplayIndex.Entry e = replayIndex.getEntry(list[cursor]);
+		if(e == null) {
+			replayIndex.prioritize(list[cursor]);
+			NormalFontSlick.printFontGrid(1, 24, "LOADING...", NormalFontSlick.COLOR_CYAN);
+		} else {
+			NormalFontSlick.printFontGrid(1, 24, "MODE:" + e.modeName + " RULE:" + e.ruleName, NormalFontSlick.COLOR_CYAN);
+			NormalFontSlick.printFontGrid(1, 25,
+										"SCORE:" + e.stats.score + " LINE:" + e.stats.lines
+										, NormalFontSlick.COLOR_CYAN);
+			NormalFontSlick.printFontGrid(1, 26,
+										"LEVEL:" + (e.stats.level + e.stats.levelDispAdd) +
+										" TIME:" + GeneralUtil.getTime(e.stats.time)
+										, NormalFontSlick.COLOR_CYAN);
+			NormalFontSlick.printFontGrid(1, 27,
+										"GAME RATE:" + ( (e.stats.gamerate == 0f) ? "UNKNOWN" : ((100*e.stats.gamerate) + "%") )
+										, NormalFontSlick.COLOR_CYAN);
+		}
+
+		NormalFontSlick.printFontGrid(1, 28, "A:OK B:CANCEL D:FILTER", NormalFontSlick.COLOR_GREEN);
 	}
 
 	@Override
 	protected boolean onDecide(GameContainer container, StateBasedGame game, int delta) {
 		ResourceHolderSlick.soundManager.play("decide");
 
-		CustomProperties prop = new CustomProperties();
+		CustomProperties prop;
 
 		try {
-			FileInputStream in = new FileInputStream(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[cursor]);
-			prop.load(in);
-			in.close();
+			prop = ReplayFile.loadProperties(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[cursor]);
 		} catch (IOException e) {
 			log.error("Failed to load replay file from " + list[cursor], e);
 			return true;
@@ -192,6 +186,27 @@ public class StateReplaySelect extends DummyMenuScrollState {
 		return false;
 	}
 
+	/*
+	 * D button: Filter by the mode of the replay at the cursor, then by its mode and rule, then show all replays again
+	 */
+	@Override
+	protected boolean onPushButtonD(GameContainer container, StateBasedGame game, int delta) {
+		if(filter == FILTER_MODE_RULE) {
+			filter = FILTER_NONE;
+		} else {
+			if((list == null) || (list.length == 0)) return true;
+			ReplayIndex.Entry e = replayIndex.getEntry(list[cursor]);
+			if(e == null) return true;
+
+			filterMode = e.modeName;
+			filterRule = e.ruleName;
+			filter = (filter == FILTER_NONE) ? FILTER_MODE : FILTER_MODE_RULE;
+		}
+		ResourceHolderSlick.soundManager.play("change");
+		updateReplayList();
+		return true;
+	}
+
 	@Override
 	protected boolean onCancel(GameContainer container, StateBasedGame game, int delta) {
 		game.enterState(StateTitle.ID);
@@ -30,6 +30,7 @@ package mu.nu.nullpo.gui.slick;
 
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.gui.net.UpdateChecker;
+import mu.nu.nullpo.util.StartupTimer;
 
 import org.apache.log4j.Logger;
 import org.newdawn.slick.AppGameContainer;
@@ -84,6 +85,7 @@ public class StateTitle extends DummyMenuChooseState {
 	 */
 	@Override
 	public void enter(GameContainer container, StateBasedGame game) throws SlickException {
+		StartupTimer.finish("the title screen");
 		// Observer start
 		NullpoMinoSlick.startObserverClient();
 		// Call GC
@@ -95,6 +95,9 @@ public class AISelectFrame extends JFrame implements ActionListener {
 
 	protected boolean aiShowState = false;
 
+	/** Number of threads used by AIs that support parallel search */
+	protected int aiSearchThreads = 1;
+
 	/** AI一覧リストボックス */
 	protected JList listboxAI;
 
@@ -113,6 +116,9 @@ public class AISelectFrame extends JFrame implements ActionListener {
 
 	protected JCheckBox chkBoxAIShowState;
 
+	/** Text box for the number of search threads */
+	protected JTextField txtfldAISearchThreads;
+
 
 	/**
 	 * Constructor
@@ -154,6 +160,7 @@ public class AISelectFrame extends JFrame implements ActionListener {
 		aiShowHint = NullpoMinoSwing.propGlobal.getProperty(playerID + ".aiShowHint", false);
 		aiPrethink = NullpoMinoSwing.propGlobal.getProperty(playerID + ".aiPrethink", false);
 		aiShowState = NullpoMinoSwing.propGlobal.getProperty(playerID + ".aiShowState", false);
+		aiSearchThreads = NullpoMinoSwing.propGlobal.getProperty(playerID + ".aiSearchThreads", 1);
 
 		aiID = -1;
 		listboxAI.clearSelection();
@@ -171,6 +178,7 @@ public class AISelectFrame extends JFrame implements ActionListener {
 		chkBoxAIShowHint.setSelected(aiShowHint);
 		chkBoxAIPrethink.setSelected(aiPrethink);
 		chkBoxAIShowState.setSelected(aiShowState);
+		txtfldAISearchThreads.setText(String.valueOf(aiSearchThreads));
 	}
 
 	/**
@@ -300,6 +308,17 @@ public class AISelectFrame extends JFrame implements ActionListener {
 		chkBoxAIShowState.setMnemonic('S');
 		this.add(chkBoxAIShowState);
 
+		// Text box for the number of search threads
+		JPanel panelTxtfldAISearchThreads = new JPanel();
+		panelTxtfldAISearchThreads.setLayout(new BorderLayout());
+		panelTxtfldAISearchThreads.setAlignmentX(LEFT_ALIGNMENT);
+		this.add(panelTxtfldAISearchThreads);
+
+		panelTxtfldAISearchThreads.add(new JLabel(NullpoMinoSwing.getUIText("AISelect_LabelAISearchThreads")), BorderLayout.WEST);
+
+		txtfldAISearchThreads = new JTextField(20);
+		panelTxtfldAISearchThreads.add(txtfldAISearchThreads, BorderLayout.EAST);
+
 		//  button類
 		JPanel panelButtons = new JPanel();
 		panelButtons.setLayout(new BoxLayout(panelButtons, BoxLayout.X_AXIS));
@@ -345,6 +364,11 @@ public class AISelectFrame extends JFrame implements ActionListener {
 			} catch (NumberFormatException e2) {
 				aiThinkDelay = 0;
 			}
+			try {
+				aiSearchThreads = Math.max(1, Integer.parseInt(txtfldAISearchThreads.getText()));
+			} catch (NumberFormatException e2) {
+				aiSearchThreads = 1;
+			}
 			aiUseThread = chkboxAIUseThread.isSelected();
 			aiShowHint = chkBoxAIShowHint.isSelected();
 			aiPrethink = chkBoxAIPrethink.isSelected();
@@ -358,6 +382,7 @@ public class AISelectFrame extends JFrame implements ActionListener {
 			NullpoMinoSwing.propGlobal.setProperty(playerID + ".aiShowHint", aiShowHint);
 			NullpoMinoSwing.propGlobal.setProperty(playerID + ".aiPrethink", aiPrethink);
 			NullpoMinoSwing.propGlobal.setProperty(playerID + ".aiShowState", aiShowState);
+			NullpoMinoSwing.propGlobal.setProperty(playerID + ".aiSearchThreads", aiSearchThreads);
 			NullpoMinoSwing.saveConfig();
 
 			this.setVisible(false);
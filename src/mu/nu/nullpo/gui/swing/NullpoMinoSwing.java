@@ -86,6 +86,8 @@ import mu.nu.nullpo.gui.net.UpdateCheckerListener;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
 import mu.nu.nullpo.util.ModeManager;
+import mu.nu.nullpo.util.ReplayFile;
+import mu.nu.nullpo.util.StartupTimer;
 import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
 
 import org.apache.log4j.Logger;
@@ -193,6 +195,7 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 	 * @param args プログラムに渡されたコマンドLines引count
 	 */
 	public static void main(String[] args) {
+		StartupTimer.start();
 		programArgs = args;
 
 		PropertyConfigurator.configure("config/etc/log_swing.cfg");
@@ -209,8 +212,11 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 		propGlobal = new CustomProperties();
 		loadGlobalConfig();
 
+		StartupTimer.mark("settings");
+
 		// Mode読み込み
 		modeManager = new ModeManager();
+		modeManager.loadIndex(ModeManager.DEFAULT_INDEX_FILE);
 		try {
 			BufferedReader txtMode = new BufferedReader(new FileReader("config/list/mode.lst"));
 			modeManager.loadGameModes(txtMode);
@@ -219,6 +225,7 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 		} catch (IOException e) {
 			log.error("Mode list load failed", e);
 		}
+		StartupTimer.mark("mode list");
 
 		// 言語ファイル読み込み
 		propLangDefault = new CustomProperties();
@@ -469,6 +476,7 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 			this.setLocation(propConfig.getProperty("mainwindow.x", 0), propConfig.getProperty("mainwindow.y", 0));
 
 		setVisible(true);
+		StartupTimer.finish("the main window");
 
 		// 新Version check
 		if(propGlobal.getProperty("updatechecker.enable", true)) {
@@ -1025,6 +1033,8 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 				gameManager.engine[i].aiShowHint = propGlobal.getProperty(i+".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = propGlobal.getProperty(i+".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSwing.propGlobal.getProperty(i+".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSwing.propGlobal.getProperty(i+".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSwing.propGlobal.getProperty(i+".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSwing.propConfig.getProperty("option.showInput", false);
 
@@ -1039,12 +1049,10 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 	 */
 	public void startReplayGame(String filename) {
 		log.info("Loading Replay:" + filename);
-		CustomProperties prop = new CustomProperties();
+		CustomProperties prop;
 
 		try {
-			FileInputStream stream = new FileInputStream(filename);
-			prop.load(stream);
-			stream.close();
+			prop = ReplayFile.loadProperties(filename);
 		} catch (IOException e) {
 			log.error("Couldn't load replay file from " + filename, e);
 			return;
@@ -1096,6 +1104,8 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 				gameManager.engine[i].aiShowHint = propGlobal.getProperty(i+".aiShowHint", false);
 				gameManager.engine[i].aiPrethink = propGlobal.getProperty(i+".aiPrethink", false);
 				gameManager.engine[i].aiShowState = NullpoMinoSwing.propGlobal.getProperty(i+".aiShowState", false);
+				gameManager.engine[i].aiSearchThreads = NullpoMinoSwing.propGlobal.getProperty(i+".aiSearchThreads", 1);
+				gameManager.engine[i].aiTranspositionTableSize = NullpoMinoSwing.propGlobal.getProperty(i+".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSwing.propConfig.getProperty("option.showInput", false);
 
@@ -1200,6 +1210,8 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 				gameManager.engine[0].aiShowHint = NullpoMinoSwing.propGlobal.getProperty(0+".aiShowHint", false);
 				gameManager.engine[0].aiPrethink = NullpoMinoSwing.propGlobal.getProperty(0+".aiPrethink", false);
 				gameManager.engine[0].aiShowState = NullpoMinoSwing.propGlobal.getProperty(0+".aiShowState", false);
+				gameManager.engine[0].aiSearchThreads = NullpoMinoSwing.propGlobal.getProperty(0+".aiSearchThreads", 1);
+				gameManager.engine[0].aiTranspositionTableSize = NullpoMinoSwing.propGlobal.getProperty(0+".aiTranspositionTableSize", 65536);
 			}
 			gameManager.showInput = NullpoMinoSwing.propConfig.getProperty("option.showInput", false);
 
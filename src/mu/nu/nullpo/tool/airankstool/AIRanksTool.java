@@ -10,7 +10,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.Locale;
 
 import javax.swing.BorderFactory;
@@ -441,26 +440,17 @@ public class AIRanksTool extends JFrame implements ActionListener {
 				setEnabledBWButtons(false);
 				Ranks ranks = null;
 
-				FileInputStream fis = null;
-				ObjectInputStream in = null;
-
 				if (inputFile.trim().length() == 0)
 					ranks = new Ranks(4, 9);
 				else {
 					try {
-						fis = new FileInputStream(AIRanksConstants.RANKSAI_DIR+inputFile);
-						in = new ObjectInputStream(fis);
-						ranks = (Ranks) in.readObject();
-						in.close();
+						ranks = RanksFile.open(new File(AIRanksConstants.RANKSAI_DIR+inputFile));
 					} catch (FileNotFoundException e1) {
 						ranks = new Ranks(4, 9);
 					} catch (IOException e1) {
 						// TODO Auto-generated catch block
 						e1.printStackTrace();
 
-					} catch (ClassNotFoundException e1) {
-						// TODO Auto-generated catch block
-						e1.printStackTrace();
 					}
 
 				}
@@ -1,9 +1,8 @@
 package mu.nu.nullpo.tool.airankstool;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 public class AIRanksValue {
 
@@ -11,8 +10,6 @@ public class AIRanksValue {
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		FileInputStream fis = null;
-		ObjectInputStream in = null;
 		Ranks ranks;
 		String inputFile=AIRanksConstants.RANKSAI_DIR+"ranks20";
 
@@ -20,10 +17,7 @@ public class AIRanksValue {
 			ranks=new Ranks(4,9);
 		else {
 			try {
-				fis = new FileInputStream(inputFile);
-				in = new ObjectInputStream(fis);
-				ranks = (Ranks)in.readObject();
-				in.close();
+				ranks = RanksFile.open(new File(inputFile));
 				int [] surface1={	0, 1, 1, -1, -1, 1, -3, -2};
 				int [] surface2={ 	0, 1, 1, -1, -1, 4, -4, 2};
 				
@@ -37,9 +31,6 @@ public class AIRanksValue {
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
-			} catch (ClassNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
 		}
 	}
@@ -1,5 +1,7 @@
 package mu.nu.nullpo.tool.airankstool;
 import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 
 import mu.nu.nullpo.game.component.Piece;
@@ -98,6 +100,13 @@ public class Ranks implements Serializable{
 		{{1,1},{1,0},{0,1},{1,1}}      //L3
 	};
 private int  [] ranks;
+// Read-only ranks in a mapped file (see RanksFile), used when ranks is null
+private transient IntBuffer mappedRanks;
+// Read-only 16-bit ranks in a mapped file, used when ranks and mappedRanks are null
+private transient ShortBuffer quantizedRanks;
+
+/** Shift between a rank and its 16-bit quantized value */
+public static final int QUANTIZE_SHIFT=15;
 
 private int stackWidth;
 private int size;
@@ -112,7 +121,7 @@ public float getMaxError() {
 	return maxError;
 }
 
-private int completion;
+private volatile int completion;
 private int base;
 private int surfaceWidth;
 
@@ -123,9 +132,6 @@ public int getCompletionPercentage(){
 	return (int)completionPercentage;
 
 }
-public boolean completionPercentageIncrease(){
-	return (0==(completion % (size/100)) && completion!=0);
-}
 public float  getErrorPercentage(){
 	long  errorLong= error/completion;
 	  long maxErrorPossible=((long)Integer.MAX_VALUE-(long)Integer.MIN_VALUE);
@@ -162,6 +168,27 @@ public Ranks(int maxJump,int stackWidth){
 
 }
 
+/**
+ * Constructor of a table with the given ranks
+ * @param maxJump Max height difference of the surface
+ * @param stackWidth Stack width
+ * @param ranks Ranks (not copied; null if mappedRanks or quantizedRanks is given)
+ * @param mappedRanks Read-only ranks (can be null)
+ * @param quantizedRanks Read-only 16-bit ranks (can be null)
+ */
+Ranks(int maxJump,int stackWidth,int [] ranks,IntBuffer mappedRanks,ShortBuffer quantizedRanks){
+	this.maxJump=maxJump;
+	base=2*maxJump+1;
+	this.stackWidth=stackWidth;
+	surfaceWidth=stackWidth-1;
+	size=(int) Math.pow(base,surfaceWidth);
+	this.ranks=ranks;
+	this.mappedRanks=mappedRanks;
+	this.quantizedRanks=quantizedRanks;
+	rankMin=Integer.MAX_VALUE;
+	rankMax=0;
+}
+
 public Ranks(Ranks rankFrom){
 
 	this.ranksFrom=rankFrom;
@@ -199,7 +226,17 @@ public int getSize(){
 	return size;
 }
 public int getRankValue(int surface){
+	if (ranks!=null)
 		return ranks[surface];
+	if (mappedRanks!=null)
+		return mappedRanks.get(surface);
+	return (quantizedRanks.get(surface)&0xFFFF)<<QUANTIZE_SHIFT;
+}
+/**
+ * @return true if the ranks are in a mapped file and can't be changed
+ */
+public boolean isReadOnly(){
+	return ranks==null;
 }
 public int encode(int [] surface){
 	int surfaceNum=0;
@@ -217,20 +254,61 @@ private void setRankValue(int surface,int value){
 
 }
 
-public void setRank(int [] surface, int []surfaceDecodedWork){
-	int currentSurfaceNum=encode(surface);
-	setRankValue(currentSurfaceNum,getRank(surface,surfaceDecodedWork));
-	synchronized(this){
-		completion++;
-		int errorCurrent=Math.abs(ranks[currentSurfaceNum]-ranksFrom.getRankValue(currentSurfaceNum));
-	    if (errorCurrent==0)
-	    	errorCurrent=0;
-		if (errorCurrent>maxError)
-			maxError=errorCurrent;
-		error+=errorCurrent;
+/**
+ * Totals of a range of surfaces, kept by one worker and added to the Ranks when the range is done
+ */
+public static class Totals {
+	/** Number of surfaces */
+	public int completion;
+	/** Sum of the differences from the previous iteration */
+	public long error;
+	/** Largest difference from the previous iteration */
+	public int maxError;
+	/** Smallest and largest rank */
+	public int rankMin=Integer.MAX_VALUE;
+	public int rankMax;
+}
+
+/**
+ * Compute the ranks of a range of surfaces.
+ * Only ranks[sMin..sMax-1] is written, so ranges can be computed by several threads at the same time.
+ * @param sMin First surface
+ * @param sMax Surface after the last one
+ * @param surface Work array (surfaceWidth)
+ * @param surfaceDecodedWork Work array (surfaceWidth)
+ * @param totals Totals of the calling worker
+ */
+public void setRanks(int sMin, int sMax, int [] surface, int []surfaceDecodedWork, Totals totals){
+	decode(sMin,surface);
+	decode(sMin,surfaceDecodedWork);
+	for (int s=sMin;s<sMax;s++){
+		int rank=getRank(surface,surfaceDecodedWork,totals);
+		setRankValue(s,rank);
+		int errorCurrent=Math.abs(rank-ranksFrom.getRankValue(s));
+		if (errorCurrent>totals.maxError)
+			totals.maxError=errorCurrent;
+		totals.error+=errorCurrent;
+		totals.completion++;
+		nextSurface(surface,surfaceDecodedWork);
 	}
 }
 
+/**
+ * Add the totals of a finished range
+ * @param totals Totals of a worker
+ */
+public synchronized void addTotals(Totals totals){
+	completion+=totals.completion;
+	// Same wrap-around as adding each surface to the int
+	error+=(int)totals.error;
+	if (totals.maxError>maxError)
+		maxError=totals.maxError;
+	if (totals.rankMax>rankMax)
+		rankMax=totals.rankMax;
+	if (totals.rankMin<rankMin)
+		rankMin=totals.rankMin;
+}
+
 public void scaleRanks(){
 	/*int pas =(Integer.MAX_VALUE-rankMin)/4;
 	 int n1=0;
@@ -274,9 +352,7 @@ public void decode(int surfaceNum,int []surface ){
 
 }
 
-public void iterateSurface(int [] surface,int []surfaceDecodedWork){
-	setRank(surface,surfaceDecodedWork);
-
+private void nextSurface(int [] surface,int []surfaceDecodedWork){
 	int retenue=1;
 	for (int i=0;i<surfaceWidth;i++){
 		if (retenue==0)
@@ -296,7 +372,7 @@ public void iterateSurface(int [] surface,int []surfaceDecodedWork){
 	}
 
 }
-private int getRank(int [] surface,int [] surfaceDecodedWork){
+private int getRank(int [] surface,int [] surfaceDecodedWork,Totals totals){
 	long sum=0;
 
 	for (int p=0;p<Piece.PIECE_STANDARD_COUNT;p++){
@@ -306,13 +382,11 @@ private int getRank(int [] surface,int [] surfaceDecodedWork){
 	}
 	int result=0;
 	result=(int) (sum/Piece.PIECE_STANDARD_COUNT);
-	synchronized(this){
-	if (result>rankMax){
-		rankMax=result;
-	}
-	if (result<rankMin){
-		 rankMin=result;
+	if (result>totals.rankMax){
+		totals.rankMax=result;
 	}
+	if (result<totals.rankMin){
+		totals.rankMin=result;
 	}
 
 	if (result<0){
@@ -0,0 +1,275 @@
+package mu.nu.nullpo.tool.airankstool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Flat file format of ranks tables.<br>
+ * A 32 byte header (magic, version, maxJump, stackWidth, size, bits per rank) is followed by the ranks
+ * (big endian, 32-bit, or 16-bit quantized by {@link Ranks#QUANTIZE_SHIFT}).
+ * {@link #getShared(String)} maps a file read-only, so all RanksAI players of the VM use one copy
+ * (in the page cache) and nothing is read at startup.
+ * The files written by older versions (serialized Ranks objects) can still be read, and converted with {@link #main(String[])}.
+ */
+public class RanksFile {
+	static Logger log = Logger.getLogger(RanksFile.class);
+
+	/** First 4 bytes of a ranks file ("NRNK") */
+	public static final int MAGIC = 0x4E524E4B;
+
+	/** Current version of the format */
+	public static final int VERSION = 1;
+
+	/** Size of the header */
+	public static final int HEADER_SIZE = 32;
+
+	/** Tables mapped so far, by canonical path */
+	private static HashMap<String, Ranks> sharedRanks = new HashMap<String, Ranks>();
+
+	/**
+	 * Get the read-only table of a file, shared by every caller in the VM
+	 * @param filename File
+	 * @return Ranks (mapped, or read into the heap if it's an old serialized file)
+	 * @throws IOException When the file can't be read
+	 */
+	public static synchronized Ranks getShared(String filename) throws IOException {
+		File file = new File(filename);
+		String key = file.getCanonicalPath();
+		Ranks ranks = sharedRanks.get(key);
+		if (ranks == null) {
+			long start = System.nanoTime();
+			ranks = open(file);
+			log.info("Loaded " + filename + " in " + (System.nanoTime() - start) / 1000000 + " ms" +
+					(ranks.isReadOnly() ? " (mapped)" : ""));
+			sharedRanks.put(key, ranks);
+		}
+		return ranks;
+	}
+
+	/**
+	 * Open a table to read it (not shared)
+	 * @param file File
+	 * @return Ranks (mapped, or read into the heap if it's an old serialized file)
+	 * @throws IOException When the file can't be read
+	 */
+	public static Ranks open(File file) throws IOException {
+		return isFlatFile(file) ? map(file) : readSerialized(file);
+	}
+
+	/**
+	 * Read a table into the heap (either format), so it can be changed
+	 * @param file File
+	 * @return Ranks
+	 * @throws IOException When the file can't be read
+	 */
+	public static Ranks read(File file) throws IOException {
+		if (!isFlatFile(file))
+			return readSerialized(file);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try {
+			int [] header = readHeader(in, file);
+			int size = header[2];
+			int [] ranks = new int[size];
+			if (header[3] == 16) {
+				for (int i = 0; i < size; i++) ranks[i] = in.readUnsignedShort() << Ranks.QUANTIZE_SHIFT;
+			} else {
+				for (int i = 0; i < size; i++) ranks[i] = in.readInt();
+			}
+			return new Ranks(header[0], header[1], ranks, null, null);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Map a flat file read-only
+	 * @param file File
+	 * @return Read-only Ranks
+	 * @throws IOException When the file can't be read or is not a flat ranks file
+	 */
+	public static Ranks map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer headerBuf = ByteBuffer.allocate(HEADER_SIZE);
+			while (headerBuf.hasRemaining() && channel.read(headerBuf) >= 0) {}
+			headerBuf.flip();
+			int [] header = parseHeader(headerBuf, file);
+			long length = (long)header[2] * (header[3] / 8);
+			if (channel.size() < HEADER_SIZE + length)
+				throw new IOException(file + " is truncated");
+
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, length);
+			if (header[3] == 16)
+				return new Ranks(header[0], header[1], null, null, buf.asShortBuffer());
+			return new Ranks(header[0], header[1], null, buf.asIntBuffer(), null);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write a table in the flat format.<br>
+	 * The table is written to a temporary file in the same directory, which then replaces the file,
+	 * so a running game that mapped the old file keeps reading the old (unchanged) data.
+	 * @param ranks Ranks
+	 * @param file File
+	 * @param quantize true to write 16-bit ranks (half the size, the low bits of each rank are lost)
+	 * @throws IOException When the file can't be written
+	 */
+	public static void write(Ranks ranks, File file, boolean quantize) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		boolean done = false;
+		try {
+			writeData(ranks, tmpFile, quantize);
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			done = true;
+		} finally {
+			if (!done) tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Write a table in the flat format to a new file
+	 * @param ranks Ranks
+	 * @param file File
+	 * @param quantize true to write 16-bit ranks
+	 * @throws IOException When the file can't be written
+	 */
+	private static void writeData(Ranks ranks, File file, boolean quantize) throws IOException {
+		int size = ranks.getSize();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ranks.getMaxJump());
+			out.writeInt(ranks.getStackWidth());
+			out.writeInt(size);
+			out.writeInt(quantize ? 16 : 32);
+			out.writeInt(0);
+			out.writeInt(0);
+			for (int i = 0; i < size; i++) {
+				int rank = ranks.getRankValue(i);
+				if (quantize)
+					out.writeShort(Math.max(rank, 0) >>> Ranks.QUANTIZE_SHIFT);
+				else
+					out.writeInt(rank);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Check if a file is in the flat format
+	 * @param file File
+	 * @return true if the file starts with MAGIC
+	 * @throws IOException When the file can't be read
+	 */
+	public static boolean isFlatFile(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return (file.length() >= HEADER_SIZE) && (in.readInt() == MAGIC);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a serialized Ranks object (the format of older versions)
+	 * @param file File
+	 * @return Ranks
+	 * @throws IOException When the file can't be read
+	 */
+	public static Ranks readSerialized(File file) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try {
+			return (Ranks)in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(file + " is not a ranks file: " + e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read and check the header
+	 * @param in Input
+	 * @param file File (for the messages)
+	 * @return {maxJump, stackWidth, size, bits per rank}
+	 * @throws IOException When the header is wrong
+	 */
+	private static int [] readHeader(DataInputStream in, File file) throws IOException {
+		byte [] bytes = new byte[HEADER_SIZE];
+		in.readFully(bytes);
+		return parseHeader(ByteBuffer.wrap(bytes), file);
+	}
+
+	/**
+	 * Check the header
+	 * @param buf Header
+	 * @param file File (for the messages)
+	 * @return {maxJump, stackWidth, size, bits per rank}
+	 * @throws IOException When the header is wrong
+	 */
+	private static int [] parseHeader(ByteBuffer buf, File file) throws IOException {
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC)
+			throw new IOException(file + " is not a ranks file");
+		int version = buf.getInt();
+		if (version != VERSION)
+			throw new IOException(file + ": unsupported version " + version);
+		int maxJump = buf.getInt();
+		int stackWidth = buf.getInt();
+		int size = buf.getInt();
+		int bits = buf.getInt();
+		if (maxJump < 1 || stackWidth < 2 || (bits != 16 && bits != 32) ||
+				size != (int)Math.pow(2 * maxJump + 1, stackWidth - 1))
+			throw new IOException(file + ": wrong header");
+		return new int [] {maxJump, stackWidth, size, bits};
+	}
+
+	/**
+	 * Convert a ranks file (of either format) to the flat format
+	 * @param args Input file, output file, [-quantize]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: RanksFile <input file> <output file> [-quantize]");
+			System.exit(1);
+		}
+		boolean quantize = (args.length > 2) && args[2].equals("-quantize");
+		try {
+			Ranks ranks = read(new File(args[0]));
+			ranks.freeRanksFrom();
+			write(ranks, new File(args[1]), quantize);
+			System.out.println("Wrote " + args[1] + " (" + ranks.getSize() + " ranks, " + (quantize ? 16 : 32) + " bits)");
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
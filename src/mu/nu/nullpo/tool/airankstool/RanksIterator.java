@@ -7,13 +7,10 @@ import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -23,6 +20,8 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 
+import mu.nu.nullpo.game.subsystem.ai.AISearchPool;
+
 import org.jdesktop.swingworker.SwingWorker;
 
 public class RanksIterator extends JDialog implements PropertyChangeListener,ActionListener {
@@ -44,9 +43,9 @@ public class RanksIterator extends JDialog implements PropertyChangeListener,Act
 	 private OneIteration oneIteration;
 	  class OneIteration extends SwingWorker<Void, String>{
 		  private int totalParts;
-		  private RanksIteratorPart [] ranksIteratorPart;
-		  private boolean cancelled;
+		  private volatile boolean cancelled;
 		  private Ranks ranks;
+		  private int lastProgress;
 
 		  public OneIteration(int totalParts, Ranks ranks){
 			  this.ranks=ranks;
@@ -54,30 +53,27 @@ public class RanksIterator extends JDialog implements PropertyChangeListener,Act
 			  cancelled=false;
 
 		  }
+		  /**
+		   * Called by each finished part (not for each surface)
+		   */
 		  public void iterate(){
-
-
-	        	if (ranks.completionPercentageIncrease()){
-
-	        	  this.setProgress(ranks.getCompletionPercentage());
-	        	}
-	        }
+			  int progress=Math.min(ranks.getCompletionPercentage(),99);
+			  synchronized(this){
+				  if (progress<=lastProgress)
+					  return;
+				  lastProgress=progress;
+			  }
+			  this.setProgress(progress);
+		  }
+		  public boolean isTaskCancelled(){
+			  return cancelled;
+		  }
 		@Override
 		protected Void doInBackground() throws Exception {
-			ranksIteratorPart=new RanksIteratorPart[totalParts];
-
-     	   for (int i=0;i<totalParts;i++){
-        	   ranksIteratorPart[i]=new RanksIteratorPart(this,ranks,i,totalParts);	;
-        	   ranksIteratorPart[i].start();
-        	   }
-        	for (int i=0;i<totalParts;i++){
-        		try {
-					ranksIteratorPart[i].join();
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-        	}
+			// About 32 parts per thread, so the threads that finish early can take the remaining ones
+			int leafSize=ranks.getSize()/(totalParts*32);
+			ForkJoinPool pool=AISearchPool.getPool(totalParts);
+			pool.invoke(new RanksIteratorPart(this,ranks,0,ranks.getSize(),leafSize));
 
         	if (cancelled){
         		//System.out.println("cancelled !");
@@ -90,9 +86,6 @@ public class RanksIterator extends JDialog implements PropertyChangeListener,Act
 		}
 	    public void cancelTask(){
         	cancelled=true;
-        	for (int i=0;i<totalParts;i++){
-        		 ranksIteratorPart[i].interrupt();
-        	}
         }
 
 	  }
@@ -120,25 +113,16 @@ public class RanksIterator extends JDialog implements PropertyChangeListener,Act
         public Void doInBackground() {
         	progressLabel.setText(AIRanksTool.getUIText("Progress_Note_Load_File"));
 
-        	FileInputStream fis = null;
-        	ObjectInputStream in = null;
         	if (inputFile.trim().length() == 0)
         		ranksFrom=new Ranks(4,9);
         	else {
         		  try {
-        			fis = new FileInputStream(AIRanksConstants.RANKSAI_DIR+inputFile);
-        			   in = new ObjectInputStream(fis);
-        			   ranksFrom = (Ranks)in.readObject();
-        			   in.close();
-
+        			   ranksFrom = RanksFile.read(new File(AIRanksConstants.RANKSAI_DIR+inputFile));
         		} catch (FileNotFoundException e) {
         			ranksFrom=new Ranks(4,9);
         		} catch (IOException e) {
         			// TODO Auto-generated catch block
         			e.printStackTrace();
-        		} catch (ClassNotFoundException e) {
-        			// TODO Auto-generated catch block
-        			e.printStackTrace();
         		}
 
         	}
@@ -187,13 +171,8 @@ public class RanksIterator extends JDialog implements PropertyChangeListener,Act
            	if (!ranksAIDir.exists()){
            		ranksAIDir.mkdirs();
            	}
-               FileOutputStream fos=null;
-               ObjectOutputStream out=null;
-               fos=new FileOutputStream(AIRanksConstants.RANKSAI_DIR+ outputFile);
-               out = new ObjectOutputStream(fos);
                ranks.freeRanksFrom();
-               out.writeObject(ranks);
-               out.close();
+               RanksFile.write(ranks, new File(AIRanksConstants.RANKSAI_DIR+ outputFile), false);
 
            } catch(Exception e) {
                e.printStackTrace();
@@ -1,51 +1,61 @@
 package mu.nu.nullpo.tool.airankstool;
 
-import mu.nu.nullpo.tool.airankstool.RanksIterator.OneIteration;
-
-public class RanksIteratorPart extends Thread {
-
-private OneIteration oneIteration;
-private Ranks ranks;
-
-private int sMin;
-private int sMax;
-private int size;
-private int  [] surface;
-private int [] surfaceDecodedWork;
+import java.util.concurrent.RecursiveAction;
 
-	public RanksIteratorPart(OneIteration oneIteration, Ranks ranks, int i,
-			int totalParts) {
-
-      this.oneIteration=oneIteration;
-      this.ranks=ranks;
+import mu.nu.nullpo.tool.airankstool.RanksIterator.OneIteration;
 
-     size=this.ranks.getSize();
-		  sMin=i*size/totalParts;
-		 sMax=(i==totalParts-1)?size:(i+1)*size/totalParts;
-		surface=new int [this.ranks.getStackWidth()-1];
-		this.ranks.decode(sMin,surface);
-		 surfaceDecodedWork=new int [ranks.getStackWidth()-1];
-		 this.ranks.decode(sMin,surfaceDecodedWork);
-		 this.setPriority(MIN_PRIORITY);
+/**
+ * Computes a range of surfaces of one iteration on a ForkJoinPool.
+ * Large ranges are split in halves; each leaf works with its own surface arrays and totals,
+ * and adds the totals to the Ranks (and reports the progress) only once when it's done.
+ */
+public class RanksIteratorPart extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/** Surfaces computed between two checks of the cancel flag */
+	private static final int BLOCK_SIZE = 4096;
+
+	private OneIteration oneIteration;
+	private Ranks ranks;
+
+	private int sMin;
+	private int sMax;
+	private int leafSize;
+
+	/**
+	 * Constructor
+	 * @param oneIteration Iteration to report the progress to
+	 * @param ranks Ranks to compute
+	 * @param sMin First surface
+	 * @param sMax Surface after the last one
+	 * @param leafSize Ranges up to this size are not split
+	 */
+	public RanksIteratorPart(OneIteration oneIteration, Ranks ranks, int sMin, int sMax, int leafSize) {
+		this.oneIteration=oneIteration;
+		this.ranks=ranks;
+		this.sMin=sMin;
+		this.sMax=sMax;
+		this.leafSize=Math.max(1,leafSize);
 	}
 
 	@Override
-	public void run(){
-
-		for (int s=sMin;s<sMax;s++){
-			ranks.iterateSurface(surface,surfaceDecodedWork);
-
-		   synchronized(this){
-			 oneIteration.iterate();
-		  }
-		   if (Thread.interrupted()){
-
-			   ranks=null;
+	protected void compute() {
+		if (sMax-sMin>leafSize){
+			int sMid=sMin+(sMax-sMin)/2;
+			invokeAll(new RanksIteratorPart(oneIteration,ranks,sMin,sMid,leafSize),
+					new RanksIteratorPart(oneIteration,ranks,sMid,sMax,leafSize));
+			return;
+		}
+
+		int [] surface=new int [ranks.getStackWidth()-1];
+		int [] surfaceDecodedWork=new int [ranks.getStackWidth()-1];
+		Ranks.Totals totals=new Ranks.Totals();
+		for (int s=sMin;s<sMax;s+=BLOCK_SIZE){
+			if (oneIteration.isTaskCancelled())
 				break;
-
-		   }
-
-	    }
-
-   }
+			ranks.setRanks(s,Math.min(s+BLOCK_SIZE,sMax),surface,surfaceDecodedWork,totals);
+		}
+		ranks.addTotals(totals);
+		oneIteration.iterate();
+	}
 }
@@ -0,0 +1,460 @@
+package mu.nu.nullpo.tool.batch;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mu.nu.nullpo.game.component.Controller;
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.component.Statistics;
+import mu.nu.nullpo.game.play.FrameProfiler;
+import mu.nu.nullpo.game.play.GameEngine;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.subsystem.ai.DummyAI;
+import mu.nu.nullpo.game.subsystem.mode.GameMode;
+import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ModeManager;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs AI games without a screen, as fast as the CPU allows, and writes the statistics of every game.
+ * Each game gets its own GameManager, mode and AI instance, so games run in parallel on a thread pool.
+ * <p>
+ * Usage: BatchSimulator [options]<br>
+ * -seeds N : Number of seeds per AI and mode (default 10)<br>
+ * -seed N : First seed (default 0)<br>
+ * -ai A,B,.. : AI class names (default PoochyBot)<br>
+ * -mode A,B,.. : Mode names (default MARATHON)<br>
+ * -rule FILE : Rule file (default config/rule/Standard.rul)<br>
+ * -frames N : Frame limit per game (default 216000, one hour)<br>
+ * -threads N : Number of games run at once (default number of CPUs)<br>
+ * -out FILE : Output file, JSON if it ends in ".json", CSV otherwise (default CSV to stdout)<br>
+ * -profile FILE : Measure the parts of each frame and append the profile of each player (all games added together) to a file
+ */
+public class BatchSimulator {
+	/** Log */
+	static Logger log = Logger.getLogger(BatchSimulator.class);
+
+	/** Number of frames the A button is held in the settings screen (it is pressed every other frame) */
+	public static final int SETTING_PRESS_INTERVAL = 2;
+
+	/** CSV header (same order as GameResult.toCSV) */
+	public static final String CSV_HEADER =
+		"mode,ai,seed,player,status,timeout,frames,wallms,score,lines,level,time,pieces,pps,ppm,lpm," +
+		"single,double,triple,four,tspinzero,tspinsingle,tspindouble,tspintriple,b2bfour,b2btspin,hold,maxcombo,gamerate";
+
+	/**
+	 * Result of one player in one game
+	 */
+	public static class GameResult {
+		/** Mode name */
+		public String mode;
+		/** AI class name */
+		public String ai;
+		/** Seed */
+		public long seed;
+		/** Player number */
+		public int player;
+		/** Engine status when the game stopped */
+		public String status;
+		/** true if the game was stopped by the frame limit */
+		public boolean timeout;
+		/** Number of frames simulated */
+		public int frames;
+		/** Wall-clock time of the whole game in milliseconds */
+		public long wallMillis;
+		/** Statistics (copy) */
+		public Statistics stat;
+
+		/**
+		 * Export as a CSV row
+		 * @return CSV row
+		 */
+		public String toCSV() {
+			return String.format(Locale.US, "%s,%s,%d,%d,%s,%b,%d,%d,%d,%d,%d,%d,%d,%.4f,%.4f,%.4f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.4f",
+					mode, ai, seed, player, status, timeout, frames, wallMillis,
+					stat.score, stat.lines, stat.level, stat.time, stat.totalPieceLocked, stat.pps, stat.ppm, stat.lpm,
+					stat.totalSingle, stat.totalDouble, stat.totalTriple, stat.totalFour,
+					stat.totalTSpinZero + stat.totalTSpinZeroMini, stat.totalTSpinSingle + stat.totalTSpinSingleMini,
+					stat.totalTSpinDouble + stat.totalTSpinDoubleMini, stat.totalTSpinTriple,
+					stat.totalB2BFour, stat.totalB2BTSpin, stat.totalHoldUsed, stat.maxCombo, stat.gamerate);
+		}
+
+		/**
+		 * Export as a JSON object (one line)
+		 * @return JSON object
+		 */
+		public String toJSON() {
+			String[] keys = CSV_HEADER.split(",");
+			String[] values = toCSV().split(",");
+			StringBuilder sb = new StringBuilder("{");
+			for(int i = 0; i < keys.length; i++) {
+				if(i > 0) sb.append(',');
+				sb.append('"').append(keys[i]).append("\":");
+				// mode, ai and status are strings, everything else is a number or boolean
+				if((i == 0) || (i == 1) || (i == 4)) sb.append('"').append(values[i]).append('"');
+				else sb.append(values[i]);
+			}
+			return sb.append('}').toString();
+		}
+	}
+
+	/** Mode list */
+	protected ModeManager modeManager;
+
+	/** Rule */
+	protected RuleOptions ruleopt;
+
+	/** Frame limit per game */
+	public int maxFrames = 216000;
+
+	/** Number of games run at once */
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+	/** true to measure the parts of each frame (see getProfiles) */
+	public boolean profile;
+
+	/** Frame profiles of all games by player number */
+	protected List<FrameProfiler> profiles = new ArrayList<FrameProfiler>();
+
+	/**
+	 * Constructor
+	 * @param modeManager Mode list
+	 * @param ruleopt Rule
+	 */
+	public BatchSimulator(ModeManager modeManager, RuleOptions ruleopt) {
+		this.modeManager = modeManager;
+		this.ruleopt = ruleopt;
+	}
+
+	/**
+	 * Create a game that is ready to be played by playGame
+	 * @param modeName Mode name
+	 * @param aiName AI class name
+	 * @param seed Seed (player i uses seed + i)
+	 * @return GameManager
+	 * @throws Exception If the mode or AI can't be created
+	 */
+	public GameManager createGame(String modeName, String aiName, long seed) throws Exception {
+		GameMode modeBase = modeManager.getMode(modeName);
+		if(modeBase == null) throw new IllegalArgumentException("Couldn't find mode: " + modeName);
+
+		GameManager gameManager = new GameManager(new HeadlessEventReceiver());
+		gameManager.mode = modeBase.getClass().newInstance();
+		gameManager.init();
+
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			GameEngine engine = gameManager.engine[i];
+			setupEngine(engine, new RuleOptions(ruleopt));
+
+			DummyAI aiObj = GeneralUtil.loadAIPlayer(aiName);
+			if(aiObj == null) throw new IllegalArgumentException("Couldn't load AI: " + aiName);
+			engine.ai = aiObj;
+			engine.aiMoveDelay = 0;
+			engine.aiThinkDelay = 0;
+			engine.aiUseThread = false;
+			engine.aiShowHint = false;
+			engine.aiPrethink = false;
+			engine.aiShowState = false;
+			engine.aiSearchThreads = 1;
+			engine.aiTranspositionTableSize = 65536;
+
+			engine.init();
+
+			// Replace the seed picked by init() so that games can be reproduced
+			engine.randSeed = seed + i;
+			engine.random = new Random(engine.randSeed);
+		}
+
+		return gameManager;
+	}
+
+	/**
+	 * Create a game that plays back a replay (saved by GameManager.saveReplay)
+	 * @param replayProp Replay data
+	 * @return GameManager
+	 * @throws Exception If the mode can't be created
+	 */
+	public GameManager createReplayGame(CustomProperties replayProp) throws Exception {
+		String modeName = replayProp.getProperty("name.mode", "");
+		GameMode modeBase = modeManager.getMode(modeName);
+		if(modeBase == null) throw new IllegalArgumentException("Couldn't find mode: " + modeName);
+
+		GameManager gameManager = new GameManager(new HeadlessEventReceiver());
+		gameManager.replayMode = true;
+		gameManager.replayProp = replayProp;
+		gameManager.mode = modeBase.getClass().newInstance();
+		gameManager.init();
+
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			RuleOptions ruleReplay = new RuleOptions();
+			ruleReplay.readProperty(replayProp, i);
+			setupEngine(gameManager.engine[i], ruleReplay);
+			gameManager.engine[i].init();
+		}
+
+		return gameManager;
+	}
+
+	/**
+	 * Set rule, randomizer and wallkick of an engine
+	 * @param engine GameEngine
+	 * @param rule Rule (not shared with other engines)
+	 */
+	protected void setupEngine(GameEngine engine, RuleOptions rule) {
+		engine.ruleopt = rule;
+		if((rule.strRandomizer != null) && (rule.strRandomizer.length() > 0)) {
+			engine.randomizer = GeneralUtil.loadRandomizer(rule.strRandomizer);
+		}
+		if((rule.strWallkick != null) && (rule.strWallkick.length() > 0)) {
+			engine.wallkick = GeneralUtil.loadWallkick(rule.strWallkick);
+		}
+	}
+
+	/**
+	 * Run a game until it ends or the frame limit is reached.
+	 * The settings screen is confirmed with A; after that the AI (or the replay) plays.
+	 * @param gameManager GameManager
+	 * @param frameLimit Frame limit
+	 * @return Number of frames run
+	 */
+	public static int playGame(GameManager gameManager, int frameLimit) {
+		boolean started = false;
+		int frames = 0;
+		while(frames < frameLimit) {
+			for(int i = 0; i < gameManager.getPlayers(); i++) {
+				GameEngine engine = gameManager.engine[i];
+				if(engine.stat == GameEngine.Status.SETTING) {
+					engine.ctrl.setButtonState(Controller.BUTTON_A, (frames % SETTING_PRESS_INTERVAL) == 0);
+				} else if(!engine.gameActive) {
+					engine.ctrl.setButtonState(Controller.BUTTON_A, false);
+				}
+			}
+
+			gameManager.updateAll();
+			frames++;
+
+			if(gameManager.isGameActive()) {
+				started = true;
+			} else if(started || gameManager.getQuitFlag()) {
+				break;
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Play one game to the end (or to the frame limit)
+	 * @param modeName Mode name
+	 * @param aiName AI class name
+	 * @param seed Seed (player i uses seed + i)
+	 * @return Results of each player
+	 * @throws Exception If the mode or AI can't be created
+	 */
+	public List<GameResult> runGame(String modeName, String aiName, long seed) throws Exception {
+		long startTime = System.currentTimeMillis();
+
+		GameManager gameManager = createGame(modeName, aiName, seed);
+		if(profile) gameManager.setProfilerEnabled(true);
+		int frames = playGame(gameManager, maxFrames);
+		if(profile) addProfiles(gameManager);
+
+		List<GameResult> results = new ArrayList<GameResult>();
+		long wallMillis = System.currentTimeMillis() - startTime;
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			GameEngine engine = gameManager.engine[i];
+			GameResult r = new GameResult();
+			r.mode = modeName;
+			r.ai = aiName;
+			r.seed = seed;
+			r.player = i;
+			r.status = engine.stat.name();
+			r.timeout = (frames >= maxFrames);
+			r.frames = frames;
+			r.wallMillis = wallMillis;
+			r.stat = new Statistics(engine.statistics);
+			results.add(r);
+		}
+		gameManager.shutdown();
+
+		return results;
+	}
+
+	/**
+	 * Add the frame profiles of a finished game to the totals
+	 * @param gameManager GameManager
+	 */
+	protected void addProfiles(GameManager gameManager) {
+		synchronized(profiles) {
+			for(int i = 0; i < gameManager.getPlayers(); i++) {
+				if(profiles.size() <= i) profiles.add(new FrameProfiler());
+				profiles.get(i).add(gameManager.engine[i].profiler);
+			}
+		}
+	}
+
+	/**
+	 * Get the frame profiles of the games played so far (if profile is true)
+	 * @return Profiles by player number
+	 */
+	public List<FrameProfiler> getProfiles() {
+		synchronized(profiles) {
+			return new ArrayList<FrameProfiler>(profiles);
+		}
+	}
+
+	/**
+	 * Play every combination of seed, AI and mode on the thread pool
+	 * @param modeNames Mode names
+	 * @param aiNames AI class names
+	 * @param firstSeed First seed
+	 * @param seeds Number of seeds
+	 * @return Results in mode, AI, seed order
+	 * @throws Exception If a game fails
+	 */
+	public List<GameResult> runAll(String[] modeNames, String[] aiNames, long firstSeed, int seeds) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<List<GameResult>>> futures = new ArrayList<Future<List<GameResult>>>();
+
+		try {
+			for(final String modeName: modeNames) {
+				for(final String aiName: aiNames) {
+					for(int s = 0; s < seeds; s++) {
+						final long seed = firstSeed + s;
+						futures.add(pool.submit(new Callable<List<GameResult>>() {
+							public List<GameResult> call() throws Exception {
+								return runGame(modeName, aiName, seed);
+							}
+						}));
+					}
+				}
+			}
+
+			List<GameResult> results = new ArrayList<GameResult>();
+			for(Future<List<GameResult>> f: futures) {
+				results.addAll(f.get());
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Write results
+	 * @param out Output
+	 * @param results Results
+	 * @param json true for a JSON array, false for CSV
+	 */
+	public static void writeResults(PrintWriter out, List<GameResult> results, boolean json) {
+		if(json) {
+			out.println("[");
+			for(int i = 0; i < results.size(); i++) {
+				out.println(results.get(i).toJSON() + ((i < results.size() - 1) ? "," : ""));
+			}
+			out.println("]");
+		} else {
+			out.println(CSV_HEADER);
+			for(GameResult r: results) out.println(r.toCSV());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Main
+	 * @param args See the class description
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		int seeds = 10;
+		long firstSeed = 0;
+		String[] aiNames = {"net.tetrisconcept.poochy.nullpomino.ai.PoochyBot"};
+		String[] modeNames = {"MARATHON"};
+		String ruleFile = "config/rule/Standard.rul";
+		String outFile = null;
+		String profileFile = null;
+		int maxFrames = -1;
+		int threads = -1;
+
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String key = args[i];
+			String value = args[i + 1];
+			if(key.equals("-seeds")) seeds = Integer.parseInt(value);
+			else if(key.equals("-seed")) firstSeed = Long.parseLong(value);
+			else if(key.equals("-ai")) aiNames = value.split(",");
+			else if(key.equals("-mode")) modeNames = value.split(",");
+			else if(key.equals("-rule")) ruleFile = value;
+			else if(key.equals("-frames")) maxFrames = Integer.parseInt(value);
+			else if(key.equals("-threads")) threads = Integer.parseInt(value);
+			else if(key.equals("-out")) outFile = value;
+			else if(key.equals("-profile")) profileFile = value;
+			else log.warn("Unknown option: " + key);
+		}
+
+		ModeManager modeManager = new ModeManager();
+		try {
+			BufferedReader txtMode = new BufferedReader(new FileReader("config/list/mode.lst"));
+			modeManager.loadGameModes(txtMode);
+			txtMode.close();
+		} catch (IOException e) {
+			log.error("Mode list load failed", e);
+			return;
+		}
+
+		BatchSimulator sim = new BatchSimulator(modeManager, GeneralUtil.loadRule(ruleFile));
+		if(maxFrames > 0) sim.maxFrames = maxFrames;
+		if(threads > 0) sim.threads = threads;
+		sim.profile = (profileFile != null);
+
+		try {
+			long startTime = System.currentTimeMillis();
+			List<GameResult> results = sim.runAll(modeNames, aiNames, firstSeed, seeds);
+			long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+
+			PrintWriter out = (outFile != null) ? new PrintWriter(new FileWriter(outFile))
+			                                    : new PrintWriter(new OutputStreamWriter(System.out));
+			writeResults(out, results, (outFile != null) && outFile.toLowerCase().endsWith(".json"));
+			if(outFile != null) out.close();
+
+			long pieces = 0;
+			long frames = 0;
+			for(GameResult r: results) {
+				pieces += r.stat.totalPieceLocked;
+				if(r.player == 0) frames += r.frames;
+			}
+			int games = modeNames.length * aiNames.length * seeds;
+			System.err.println(String.format(Locale.US, "%d games, %d frames, %d pieces in %.1f s (%.1f games/min, %.0f pieces/s) on %d threads",
+					games, frames, pieces, elapsed / 1000.0, games * 60000.0 / elapsed, pieces * 1000.0 / elapsed, sim.threads));
+
+			if(profileFile != null) {
+				PrintWriter profileOut = new PrintWriter(new FileWriter(profileFile, true));
+				List<FrameProfiler> profiles = sim.getProfiles();
+				for(int i = 0; i < profiles.size(); i++) {
+					profiles.get(i).write(profileOut, GeneralUtil.exportCalendarString() + " " + Arrays.toString(modeNames) + " Player:" + (i + 1) +
+							" AI:" + Arrays.toString(aiNames) + " Games:" + games);
+				}
+				profileOut.close();
+			}
+		} catch (Exception e) {
+			log.error("Batch failed", e);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package mu.nu.nullpo.tool.batch;
+
+import mu.nu.nullpo.game.event.EventReceiver;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.util.CustomProperties;
+
+/**
+ * EventReceiver for games that run without a screen.
+ * Everything is a no-op, and the mode config is kept in memory so that
+ * simultaneous games neither read nor overwrite "config/setting/mode.cfg".
+ */
+public class HeadlessEventReceiver extends EventReceiver {
+	/** Mode config given to the game */
+	protected CustomProperties modeConfig;
+
+	/**
+	 * Constructor (starts from an empty mode config, i.e. the default settings of every mode)
+	 */
+	public HeadlessEventReceiver() {
+		this(null);
+	}
+
+	/**
+	 * Constructor
+	 * @param modeConfig Mode config (copied; null for an empty one)
+	 */
+	public HeadlessEventReceiver(CustomProperties modeConfig) {
+		this.modeConfig = new CustomProperties();
+		if(modeConfig != null) this.modeConfig.putAll(modeConfig);
+	}
+
+	/*
+	 * Returns a copy of the in-memory mode config
+	 */
+	@Override
+	public CustomProperties loadModeConfig() {
+		CustomProperties prop = new CustomProperties();
+		prop.putAll(modeConfig);
+		return prop;
+	}
+
+	/*
+	 * Mode configs and rankings are discarded
+	 */
+	@Override
+	public void saveModeConfig(CustomProperties modeConfig) {
+	}
+
+	/*
+	 * Nothing is written to disk
+	 */
+	@Override
+	public boolean saveProperties(String filename, CustomProperties prop) {
+		return false;
+	}
+
+	/*
+	 * Replays are not saved
+	 */
+	@Override
+	public void saveReplay(GameManager owner, CustomProperties prop, String foldername) {
+	}
+}
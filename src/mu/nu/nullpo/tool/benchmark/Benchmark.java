@@ -0,0 +1,108 @@
+package mu.nu.nullpo.tool.benchmark;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mu.nu.nullpo.util.CustomProperties;
+
+/**
+ * Base class of the benchmarks: time-boxed warm-up and measurement of a task,
+ * and saving/comparing results so that slowdowns show up before a change is merged.
+ */
+public abstract class Benchmark {
+	/** Number of seconds for each measurement */
+	protected double seconds;
+
+	/** Prevents the JIT from removing the measured loops */
+	protected long sink;
+
+	/** Prefix of the result names of the following measurements (e.g. the fixture) */
+	protected String group = "";
+
+	/** Results of this run (group + case name to operations per second) */
+	protected Map<String, Double> results = new LinkedHashMap<String, Double>();
+
+	/**
+	 * Constructor
+	 * @param seconds Number of seconds for each measurement
+	 */
+	public Benchmark(double seconds) {
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Run one measurement
+	 * @param name Case name
+	 * @param task Task
+	 * @return Operations per second
+	 */
+	protected double measure(String name, Runnable task) {
+		// Warm-up
+		long end = System.nanoTime() + (long)(seconds * 0.5e9);
+		while(System.nanoTime() < end) task.run();
+
+		long count = 0;
+		long start = System.nanoTime();
+		end = start + (long)(seconds * 1e9);
+		long now;
+		do {
+			task.run();
+			count++;
+			now = System.nanoTime();
+		} while(now < end);
+
+		double opsPerSec = count / ((now - start) / 1e9);
+		System.out.println(String.format("%-40s %14.1f ops/s", name, opsPerSec));
+		results.put(group + name.trim(), opsPerSec);
+		return opsPerSec;
+	}
+
+	/**
+	 * Run all measurements
+	 */
+	public abstract void run();
+
+	/**
+	 * Save the results of this run
+	 * @param filename Filename
+	 * @throws IOException If the file can't be written
+	 */
+	public void saveResults(String filename) throws IOException {
+		CustomProperties prop = new CustomProperties();
+		for(Map.Entry<String, Double> e: results.entrySet()) {
+			prop.setProperty(e.getKey(), e.getValue().toString());
+		}
+		FileOutputStream out = new FileOutputStream(filename);
+		prop.store(out, "NullpoMino Benchmark Results");
+		out.close();
+	}
+
+	/**
+	 * Compare the results of this run with saved ones and print the cases that got slower
+	 * @param filename Filename of saved results
+	 * @param tolerance Allowed slowdown (0.1 = 10%)
+	 * @return Number of cases that got slower than allowed
+	 * @throws IOException If the file can't be read
+	 */
+	public int compareResults(String filename, double tolerance) throws IOException {
+		CustomProperties prop = new CustomProperties();
+		FileInputStream in = new FileInputStream(filename);
+		prop.load(in);
+		in.close();
+
+		int regressions = 0;
+		for(Map.Entry<String, Double> e: results.entrySet()) {
+			String saved = prop.getProperty(e.getKey());
+			if(saved == null) continue;
+
+			double ratio = e.getValue() / Double.parseDouble(saved);
+			boolean slower = (ratio < 1.0 - tolerance);
+			if(slower) regressions++;
+			System.out.println(String.format("%-44s x%.2f%s", e.getKey(), ratio, slower ? "  REGRESSION" : ""));
+		}
+		return regressions;
+	}
+}
@@ -0,0 +1,487 @@
+package mu.nu.nullpo.tool.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.component.ReplayData;
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.component.WallkickResult;
+import mu.nu.nullpo.game.play.GameEngine;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.play.GameSnapshot;
+import mu.nu.nullpo.game.play.ReplaySeeker;
+import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
+import mu.nu.nullpo.tool.batch.BatchSimulator;
+import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ModeManager;
+import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
+import net.tetrisconcept.poochy.nullpomino.ai.PoochyBot;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Measures the engine hot paths on fixed fixtures: line clears, collision, every wallkick,
+ * color clears and cascade gravity, every randomizer, PoochyBot.thinkBestPosition
+ * and GameEngine.update() while playing back a recorded game (also with the frame profiler), and seeking in that replay.
+ * <p>
+ * Usage: EngineBenchmark [options]<br>
+ * -seconds N : Seconds per case (default 2)<br>
+ * -rule FILE : Rule file (default config/rule/Standard.rul)<br>
+ * -save FILE : Save the results<br>
+ * -compare FILE : Compare with saved results; exits with 1 if a case got slower than the tolerance<br>
+ * -tolerance N : Allowed slowdown in percent (default 10)
+ */
+public class EngineBenchmark extends Benchmark {
+	/** Fixtures with full lines (Field.stringToField format, bottom row first) */
+	public static final String[] LINE_FIXTURES = {
+		// Single
+		"1111111111" + "1111111110" + "0111111100",
+		// Four with garbage on top
+		"1111111111" + "1111111111" + "1111111111" + "1111111111" + "1101111110" + "1111011100" + "0110011000",
+		// Split clears
+		"1111111111" + "1011111110" + "1111111111" + "1111101111" + "1111111111" + "0111111100",
+	};
+
+	/** Color fixtures for the Avalanche/SPF path (6 wide, 2-8 = red to purple) */
+	public static final String[] COLOR_FIXTURES = {
+		// Two groups of four and a few singles
+		"222333" + "244553" + "644533" + "667878" + "677888",
+		// Tall field with chains
+		"223344" + "234455" + "334456" + "445567" + "556677" + "662277" + "773322" + "882233" + "224488" + "228866",
+	};
+
+	/** Cascade gravity fixtures: blocks left floating after a clear */
+	public static final String[] CASCADE_FIXTURES = {
+		"1111011111" + "0000000000" + "1101101110" + "0110110100",
+		"1111111110" + "0000000000" + "0000000000" + "1011111101" + "0000000000" + "1110011100" + "0111001110" + "0010000100",
+	};
+
+	/** Number of randomizer calls per operation */
+	public static final int RANDOMIZER_CALLS = 1000;
+
+	/** Mode of the recorded game */
+	public static final String REPLAY_MODE = "MARATHON";
+
+	/** Number of frames of the recorded game */
+	public static final int REPLAY_FRAMES = 3600;
+
+	/** Rule */
+	protected RuleOptions ruleopt;
+
+	/** Mode list */
+	protected ModeManager modeManager;
+
+	/**
+	 * Constructor
+	 * @param seconds Number of seconds for each measurement
+	 * @param ruleopt Rule
+	 * @param modeManager Mode list (used for the replay)
+	 */
+	public EngineBenchmark(double seconds, RuleOptions ruleopt, ModeManager modeManager) {
+		super(seconds);
+		this.ruleopt = ruleopt;
+		this.modeManager = modeManager;
+	}
+
+	/**
+	 * Create a field from a fixture string
+	 * @param width Field width
+	 * @param height Field height
+	 * @param str Fixture
+	 * @return Field
+	 */
+	public static Field createField(int width, int height, String str) {
+		Field fld = new Field(width, height, Field.DEFAULT_HIDDEN_HEIGHT);
+		fld.stringToField(str);
+		return fld;
+	}
+
+	/**
+	 * Load a list file (one class name per line)
+	 * @param filename Filename
+	 * @return Class names
+	 */
+	public static List<String> loadList(String filename) {
+		List<String> list = new ArrayList<String>();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(filename));
+			String str;
+			while((str = in.readLine()) != null) {
+				str = str.trim();
+				if((str.length() > 0) && !str.startsWith("#")) list.add(str);
+			}
+			in.close();
+		} catch (IOException e) {
+			System.out.println("Couldn't load " + filename);
+		}
+		return list;
+	}
+
+	/**
+	 * Get the class name without the package
+	 * @param name Class name
+	 * @return Simple name
+	 */
+	protected static String simpleName(String name) {
+		return name.substring(name.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * Field.checkLine, clearLine and downFloatingBlocks
+	 */
+	public void runLineClear() {
+		for(int f = 0; f < LINE_FIXTURES.length; f++) {
+			final Field fld = createField(Field.DEFAULT_WIDTH, Field.DEFAULT_HEIGHT, LINE_FIXTURES[f]);
+			final Field fldWork = new Field(fld);
+			group = "lines" + f + ".";
+			System.out.println("Line clear fixture " + f);
+
+			measure("  Field.checkLine+clearLine+down", new Runnable() {
+				public void run() {
+					fldWork.copy(fld);
+					sink += fldWork.checkLine();
+					sink += fldWork.clearLine();
+					sink += fldWork.downFloatingBlocks();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Piece.checkCollision and getBottom of all pieces, directions and columns
+	 */
+	public void runCollision() {
+		for(int f = 0; f < FieldBitboardBenchmark.FIXTURES.length; f++) {
+			final Field fld = FieldBitboardBenchmark.createField(f);
+			final Piece[] pieces = new Piece[Piece.PIECE_STANDARD_COUNT];
+			for(int i = 0; i < pieces.length; i++) pieces[i] = new Piece(i);
+			group = "shape" + f + ".";
+			System.out.println("Shape fixture " + f);
+
+			measure("  Piece.checkCollision+getBottom", new Runnable() {
+				public void run() {
+					for(Piece piece: pieces)
+						for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
+							for(int x = -2; x < fld.getWidth(); x++)
+								if(!piece.checkCollision(x, 0, rt, fld)) sink += piece.getBottom(x, 0, rt, fld);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Wallkick.executeWallkick of every wallkick in the list,
+	 * on every rotation that collides at a resting position of the fixtures
+	 */
+	public void runWallkick() {
+		// Collect rotations that need a kick: {fixture, piece, x, y, rtDir, rtOld, rtNew}
+		final Field[] fields = new Field[FieldBitboardBenchmark.FIXTURES.length];
+		final Piece[] pieces = new Piece[Piece.PIECE_STANDARD_COUNT];
+		for(int i = 0; i < pieces.length; i++) pieces[i] = new Piece(i);
+		final List<int[]> cases = new ArrayList<int[]>();
+
+		for(int f = 0; f < fields.length; f++) {
+			fields[f] = FieldBitboardBenchmark.createField(f);
+			for(int p = 0; p < pieces.length; p++) {
+				for(int rtOld = 0; rtOld < Piece.DIRECTION_COUNT; rtOld++) {
+					for(int x = -2; x < fields[f].getWidth(); x++) {
+						if(pieces[p].checkCollision(x, 0, rtOld, fields[f])) continue;
+						int y = pieces[p].getBottom(x, 0, rtOld, fields[f]);
+
+						for(int rtDir = -1; rtDir <= 2; rtDir++) {
+							if(rtDir == 0) continue;
+							int rtNew = (rtOld + rtDir + Piece.DIRECTION_COUNT) % Piece.DIRECTION_COUNT;
+							if(pieces[p].checkCollision(x, y, rtNew, fields[f])) {
+								cases.add(new int[] {f, p, x, y, rtDir, rtOld, rtNew});
+							}
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Wallkick (" + cases.size() + " colliding rotations)");
+		group = "wallkick.";
+
+		for(String name: loadList("config/list/wallkick.lst")) {
+			final Wallkick wallkick = GeneralUtil.loadWallkick(name);
+			if(wallkick == null) continue;
+
+			measure("  " + simpleName(name), new Runnable() {
+				public void run() {
+					for(int[] c: cases) {
+						WallkickResult r = wallkick.executeWallkick(c[2], c[3], c[4], c[5], c[6], true, pieces[c[1]], fields[c[0]], null);
+						if(r != null) sink += r.offsetX + r.offsetY;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Field.checkColor and clearColor (the Avalanche/SPF path), then cascade gravity until nothing falls
+	 */
+	public void runColor() {
+		for(int f = 0; f < COLOR_FIXTURES.length; f++) {
+			final Field fld = createField(6, 12, COLOR_FIXTURES[f]);
+			final Field fldWork = new Field(fld);
+			group = "color" + f + ".";
+			System.out.println("Color fixture " + f);
+
+			measure("  Field.checkColor", new Runnable() {
+				public void run() {
+					sink += fld.checkColor(4, false, true, false, true);
+				}
+			});
+			measure("  Field.clearColor+cascade", new Runnable() {
+				public void run() {
+					fldWork.copy(fld);
+					sink += fldWork.clearColor(4, true, false, true);
+					while(fldWork.doCascadeGravity(GameEngine.LineGravity.CASCADE)) sink++;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Field.doCascadeGravity until nothing falls
+	 */
+	public void runCascade() {
+		for(int f = 0; f < CASCADE_FIXTURES.length; f++) {
+			final Field fld = createField(Field.DEFAULT_WIDTH, Field.DEFAULT_HEIGHT, CASCADE_FIXTURES[f]);
+			final Field fldWork = new Field(fld);
+			group = "cascade" + f + ".";
+			System.out.println("Cascade fixture " + f);
+
+			measure("  Field.doCascadeGravity", new Runnable() {
+				public void run() {
+					fldWork.copy(fld);
+					while(fldWork.doCascadeGravity(GameEngine.LineGravity.CASCADE)) sink++;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Randomizer.next of every randomizer in the list
+	 */
+	public void runRandomizer() {
+		boolean[] pieceEnable = new boolean[Piece.PIECE_COUNT];
+		for(int i = 0; i < Piece.PIECE_STANDARD_COUNT; i++) pieceEnable[i] = true;
+
+		System.out.println("Randomizer (" + RANDOMIZER_CALLS + " calls per op)");
+		group = "randomizer.";
+
+		for(String name: loadList("config/list/randomizer.lst")) {
+			final Randomizer randomizer = GeneralUtil.loadRandomizer(name);
+			if(randomizer == null) continue;
+			try {
+				randomizer.setState(pieceEnable, 0L);
+				for(int i = 0; i < RANDOMIZER_CALLS; i++) randomizer.next();
+			} catch (Exception e) {
+				// e.g. FixedSequenceRandomizer without a sequence file, or a randomizer that fails after setState
+				System.out.println("  " + simpleName(name) + " skipped (" + e + ")");
+				continue;
+			}
+
+			measure("  " + simpleName(name), new Runnable() {
+				public void run() {
+					for(int i = 0; i < RANDOMIZER_CALLS; i++) sink += randomizer.next();
+				}
+			});
+		}
+	}
+
+	/**
+	 * PoochyBot.thinkBestPosition on the shape fixtures
+	 */
+	public void runPoochyBot() {
+		for(int f = 0; f < FieldBitboardBenchmark.FIXTURES.length; f++) {
+			final GameEngine engine = FieldBitboardBenchmark.createEngine(FieldBitboardBenchmark.createField(f), ruleopt);
+			final PoochyBot bot = new PoochyBot();
+			bot.init(engine, 0);
+			group = "shape" + f + ".";
+			System.out.println("Shape fixture " + f);
+
+			measure("  PoochyBot.thinkBestPosition", new Runnable() {
+				public void run() {
+					bot.thinkBestPosition(engine, 0);
+					sink += bot.bestPts;
+				}
+			});
+		}
+	}
+
+	/**
+	 * GameEngine.update for a recorded game (recorded once by PoochyBot with seed 0), and ReplaySeeker on the same replay
+	 */
+	public void runReplay() {
+		final BatchSimulator sim = new BatchSimulator(modeManager, ruleopt);
+		final CustomProperties replayProp;
+		final int frames;
+		final int replayTimer;
+		final int score;
+		try {
+			GameManager gameManager = sim.createGame(REPLAY_MODE, PoochyBot.class.getName(), 0L);
+			frames = BatchSimulator.playGame(gameManager, REPLAY_FRAMES);
+			replayTimer = gameManager.engine[0].replayTimer;
+			score = gameManager.engine[0].statistics.score;
+			gameManager.saveReplay();
+			replayProp = gameManager.replayProp;
+			gameManager.shutdown();
+		} catch (Exception e) {
+			System.out.println("Couldn't record the replay (" + e + ")");
+			return;
+		}
+
+		System.out.println("Replay (" + REPLAY_MODE + ", " + frames + " frames)");
+		group = "replay.";
+
+		double opsPerSec = measureReplay("  GameEngine.update", sim, replayProp, frames, replayTimer, score, false);
+		System.out.println(String.format("  %.0f frames/s", opsPerSec * frames));
+		opsPerSec = measureReplay("  GameEngine.update (profiler)", sim, replayProp, frames, replayTimer, score, true);
+		System.out.println(String.format("  %.0f frames/s", opsPerSec * frames));
+
+		// Seek to random frames (after the whole replay was run once, so every checkpoint exists)
+		final GameManager gameManager;
+		final ReplaySeeker seeker;
+		try {
+			CustomProperties prop = new CustomProperties();
+			prop.putAll(replayProp);
+			gameManager = sim.createReplayGame(prop);
+			seeker = new ReplaySeeker(gameManager);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		while((seeker.getFrame() < frames * 2) && (gameManager.engine[0].replayTimer < replayTimer)) seeker.update();
+		final int end = seeker.getFrame();
+		seeker.seek(end / 3);
+		seeker.seek(end);
+		if(gameManager.engine[0].statistics.score != score) {
+			System.out.println("  Seek desync (score " + gameManager.engine[0].statistics.score + ", recorded " + score + ")");
+		}
+
+		measure("  ReplaySeeker.seek", new Runnable() {
+			Random random = new Random(0);
+			public void run() {
+				sink += seeker.seek(random.nextInt(end + 1));
+			}
+		});
+		measure("  GameSnapshot.take+restore", new Runnable() {
+			public void run() {
+				GameSnapshot snapshot = GameSnapshot.take(gameManager, ReplayData.class);
+				snapshot.restore();
+				sink += snapshot.getObjectCount();
+			}
+		});
+		System.out.println(String.format("  %d checkpoints for %d frames", seeker.getCheckpointCount(), end));
+	}
+
+	/**
+	 * Measure the playback of a whole replay
+	 * @param name Name of the measurement
+	 * @param sim Creates the replay games
+	 * @param replayProp Replay
+	 * @param frames Number of frames of the recorded game
+	 * @param replayTimer replayTimer at the end of the recorded game
+	 * @param score Score at the end of the recorded game
+	 * @param profile true to turn on the frame profilers
+	 * @return Replays per second
+	 */
+	protected double measureReplay(String name, final BatchSimulator sim, final CustomProperties replayProp,
+			final int frames, final int replayTimer, final int score, final boolean profile) {
+		return measure(name, new Runnable() {
+			public void run() {
+				CustomProperties prop = new CustomProperties();
+				prop.putAll(replayProp);
+				try {
+					GameManager gameManager = sim.createReplayGame(prop);
+					if(profile) gameManager.setProfilerEnabled(true);
+					// The settings screen may take a different number of frames, so run until the recorded input ends
+					for(int i = 0; (i < frames * 2) && (gameManager.engine[0].replayTimer < replayTimer); i++) gameManager.updateAll();
+					if(gameManager.engine[0].statistics.score != score) {
+						System.out.println("  Replay desync (score " + gameManager.engine[0].statistics.score + ", recorded " + score + ")");
+					}
+					sink += gameManager.engine[0].statistics.score;
+					gameManager.shutdown();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Run all measurements
+	 */
+	@Override
+	public void run() {
+		runLineClear();
+		runCollision();
+		runWallkick();
+		runColor();
+		runCascade();
+		runRandomizer();
+		runPoochyBot();
+		runReplay();
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	/**
+	 * Main
+	 * @param args See the class description
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		double seconds = 2.0;
+		String ruleFile = "config/rule/Standard.rul";
+		String saveFile = null;
+		String compareFile = null;
+		double tolerance = 10;
+
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String key = args[i];
+			String value = args[i + 1];
+			if(key.equals("-seconds")) seconds = Double.parseDouble(value);
+			else if(key.equals("-rule")) ruleFile = value;
+			else if(key.equals("-save")) saveFile = value;
+			else if(key.equals("-compare")) compareFile = value;
+			else if(key.equals("-tolerance")) tolerance = Double.parseDouble(value);
+			else System.out.println("Unknown option: " + key);
+		}
+
+		ModeManager modeManager = new ModeManager();
+		try {
+			BufferedReader txtMode = new BufferedReader(new FileReader("config/list/mode.lst"));
+			modeManager.loadGameModes(txtMode);
+			txtMode.close();
+		} catch (IOException e) {
+			System.out.println("Couldn't load the mode list");
+		}
+
+		EngineBenchmark bench = new EngineBenchmark(seconds, GeneralUtil.loadRule(ruleFile), modeManager);
+		bench.run();
+
+		try {
+			if(saveFile != null) bench.saveResults(saveFile);
+			if(compareFile != null) {
+				int regressions = bench.compareResults(compareFile, tolerance / 100.0);
+				System.out.println(regressions + " regression(s)");
+				if(regressions > 0) System.exit(1);
+			}
+		} catch (IOException e) {
+			System.out.println("Couldn't access the results file (" + e + ")");
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package mu.nu.nullpo.tool.benchmark;
+
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.FieldBitboard;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.event.EventReceiver;
+import mu.nu.nullpo.game.play.GameEngine;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.subsystem.wallkick.StandardWallkick;
+import mu.nu.nullpo.util.GeneralUtil;
+import net.tetrisconcept.poochy.nullpomino.ai.PoochyBot;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Compares Field and FieldBitboard on the queries used by AI search,
+ * and measures PoochyBot.thinkBestPosition (speed and allocations after warm-up) on the same fixtures.
+ * Usage: FieldBitboardBenchmark [seconds per case] [rule file]
+ */
+public class FieldBitboardBenchmark extends Benchmark {
+	/** Fixtures in Field.stringToField format (bottom row first) */
+	public static final String[] FIXTURES = {
+		// Flat, almost empty
+		"1111111110" + "1111111100",
+		// Mid-game stack with a right-side well
+		"1111111110" + "1111111110" + "1101111110" + "1111111110" + "0111111100" + "0011111000" + "0001110000",
+		// Ragged stack with holes
+		"1110111111" + "1111101111" + "1011111110" + "1111111010" + "0111011110" + "0110011100" +
+		"0100011000" + "0100001000" + "0000001000",
+		// Tall and dangerous
+		"1111111110" + "1111111110" + "1111101110" + "1111111110" + "1011111110" + "1111111110" +
+		"1111111100" + "1111111100" + "1101111100" + "1111111000" + "1111110000" + "0111110000" +
+		"0111100000" + "0011100000" + "0001100000" + "0001000000",
+	};
+
+	/** Rule used for the thinkBestPosition measurement */
+	protected RuleOptions ruleopt;
+
+	/**
+	 * Constructor
+	 * @param seconds Number of seconds for each measurement
+	 * @param ruleopt Rule
+	 */
+	public FieldBitboardBenchmark(double seconds, RuleOptions ruleopt) {
+		super(seconds);
+		this.ruleopt = ruleopt;
+	}
+
+	/**
+	 * Create a fixture field
+	 * @param index Fixture index
+	 * @return Field
+	 */
+	public static Field createField(int index) {
+		Field fld = new Field(Field.DEFAULT_WIDTH, Field.DEFAULT_HEIGHT, Field.DEFAULT_HIDDEN_HEIGHT);
+		fld.stringToField(FIXTURES[index]);
+		return fld;
+	}
+
+	/**
+	 * Create a GameEngine with a fixture field and a T piece in the spawn position,
+	 * suitable for calling PoochyBot.thinkBestPosition without a game mode.
+	 * @param fld Field
+	 * @param ruleopt Rule
+	 * @return GameEngine
+	 */
+	public static GameEngine createEngine(Field fld, RuleOptions ruleopt) {
+		GameManager manager = new GameManager(new EventReceiver());
+		manager.init();
+		GameEngine engine = manager.engine[0];
+		engine.ruleopt = ruleopt;
+		engine.wallkick = new StandardWallkick();
+		engine.init();
+		engine.aiUseThread = false;
+		engine.field = fld;
+		engine.fieldWidth = fld.getWidth();
+		engine.fieldHeight = fld.getHeight();
+		engine.fieldHiddenHeight = fld.getHiddenHeight();
+
+		engine.nextPieceArrayID = new int[] {Piece.PIECE_T, Piece.PIECE_I, Piece.PIECE_S, Piece.PIECE_Z, Piece.PIECE_L, Piece.PIECE_J, Piece.PIECE_O};
+		engine.nextPieceArrayObject = new Piece[engine.nextPieceArrayID.length];
+		for(int i = 0; i < engine.nextPieceArrayID.length; i++) {
+			engine.nextPieceArrayObject[i] = new Piece(engine.nextPieceArrayID[i]);
+			engine.nextPieceArrayObject[i].direction = ruleopt.pieceDefaultDirection[engine.nextPieceArrayID[i]];
+			engine.nextPieceArrayObject[i].setColor(ruleopt.pieceColor[engine.nextPieceArrayID[i]]);
+		}
+		engine.nextPieceCount = 1;
+		engine.nowPieceObject = engine.getNextObjectCopy(0);
+		engine.nowPieceX = engine.getSpawnPosX(fld, engine.nowPieceObject);
+		engine.nowPieceY = engine.getSpawnPosY(engine.nowPieceObject);
+		engine.stat = GameEngine.Status.MOVE;
+
+		return engine;
+	}
+
+	/**
+	 * Run all measurements
+	 */
+	@Override
+	public void run() {
+		for(int f = 0; f < FIXTURES.length; f++) {
+			final Field fld = createField(f);
+			final FieldBitboard bits = new FieldBitboard(fld);
+			final Field fldWork = new Field(fld);
+			final FieldBitboard bitsWork = new FieldBitboard(bits);
+			final Piece piece = new Piece(Piece.PIECE_T);
+
+			System.out.println("Fixture " + f);
+			group = "fixture" + f + ".";
+
+			double a = measure("  Field collision+bottom", new Runnable() {
+				public void run() {
+					for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
+						for(int x = -1; x < fld.getWidth(); x++)
+							if(!piece.checkCollision(x, 0, rt, fld)) sink += piece.getBottom(x, 0, rt, fld);
+				}
+			});
+			double b = measure("  FieldBitboard collision+bottom", new Runnable() {
+				public void run() {
+					for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
+						for(int x = -1; x < bits.getWidth(); x++)
+							if(!piece.checkCollision(x, 0, rt, bits)) sink += piece.getBottom(x, 0, rt, bits);
+				}
+			});
+			System.out.println(String.format("  speedup x%.2f", b / a));
+
+			a = measure("  Field copy+place+checkLine+holes", new Runnable() {
+				public void run() {
+					fldWork.copy(fld);
+					piece.placeToField(4, piece.getBottom(4, 0, 0, fldWork), 0, fldWork);
+					sink += fldWork.checkLine() + fldWork.getHowManyHoles() + fldWork.getHighestBlockY();
+				}
+			});
+			b = measure("  FieldBitboard copy+place+checkLine+holes", new Runnable() {
+				public void run() {
+					bitsWork.copy(bits);
+					piece.placeToField(4, piece.getBottom(4, 0, 0, bitsWork), 0, bitsWork);
+					sink += bitsWork.checkLine() + bitsWork.getHowManyHoles() + bitsWork.getHighestBlockY();
+				}
+			});
+			System.out.println(String.format("  speedup x%.2f", b / a));
+
+			final GameEngine engine = createEngine(createField(f), ruleopt);
+			final PoochyBot bot = new PoochyBot();
+			bot.init(engine, 0);
+			measure("  PoochyBot.thinkBestPosition", new Runnable() {
+				public void run() {
+					bot.thinkBestPosition(engine, 0);
+					sink += bot.bestPts;
+				}
+			});
+			bot.thinkBestPosition(engine, 0);
+			System.out.println(String.format("  %d nodes, %d bytes allocated (%.1f bytes/node)",
+					bot.arena.nodes, bot.arena.allocatedBytes, bot.arena.getBytesPerNode()));
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	/**
+	 * Main
+	 * @param args [seconds per case] [rule file]
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 2.0;
+		RuleOptions ruleopt = (args.length > 1) ? GeneralUtil.loadRule(args[1]) : GeneralUtil.loadRule("config/rule/Standard.rul");
+
+		new FieldBitboardBenchmark(seconds, ruleopt).run();
+	}
+}
@@ -0,0 +1,306 @@
+package mu.nu.nullpo.tool.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import mu.nu.nullpo.game.net.NetFieldSync;
+import mu.nu.nullpo.game.net.NetPacketBuffer;
+import mu.nu.nullpo.game.net.NetRoomInfo;
+import mu.nu.nullpo.game.net.NetUtil;
+import mu.nu.nullpo.game.play.GameManager;
+
+/**
+ * Load test of a running NetServer.
+ * Many clients (all in one thread, non-blocking) log in, make rooms of a few players each,
+ * and then send room chat messages as fast as the server answers them.
+ * Prints how long the login and room phases took, and the round-trip times of the chat messages
+ * (the server looks up the player, the room and the room members for each of them).
+ * Usage: NetServerLoadTest [host] [port] [clients] [players per room] [seconds]
+ */
+public class NetServerLoadTest {
+	/** Client states */
+	protected static final int STATE_CONNECTED = 0, STATE_LOGGEDIN = 1, STATE_INROOM = 2;
+
+	/** One simulated client */
+	protected static class Client {
+		/** Connection */
+		SocketChannel channel;
+
+		/** Receive buffer */
+		NetPacketBuffer packetBuffer = new NetPacketBuffer(1024);
+
+		/** Player name */
+		String name;
+
+		/** UID (set after login) */
+		int uid = -1;
+
+		/** Room ID (set after roomcreatesuccess/roomjoinsuccess) */
+		int roomID = -1;
+
+		/** State */
+		int state = STATE_CONNECTED;
+
+		/** Send time of the chat message that is not echoed yet (0 if none) */
+		long chatSentTime;
+	}
+
+	/** Server address */
+	protected InetSocketAddress address;
+
+	/** Number of clients */
+	protected int numClients;
+
+	/** Players in each room */
+	protected int playersPerRoom;
+
+	/** Number of seconds of the chat phase */
+	protected double seconds;
+
+	/** Selector */
+	protected Selector selector;
+
+	/** Clients */
+	protected List<Client> clients = new ArrayList<Client>();
+
+	/** Chat round-trip times in microseconds */
+	protected int[] latencies = new int[1 << 16];
+
+	/** Number of entries in latencies */
+	protected int latencyCount;
+
+	/** Number of received packets */
+	protected long packetCount;
+
+	/** true while the chat phase is running */
+	protected boolean chatPhase;
+
+	/**
+	 * Constructor
+	 * @param address Server address
+	 * @param numClients Number of clients
+	 * @param playersPerRoom Players in each room
+	 * @param seconds Number of seconds of the chat phase
+	 */
+	public NetServerLoadTest(InetSocketAddress address, int numClients, int playersPerRoom, double seconds) {
+		this.address = address;
+		this.numClients = numClients;
+		this.playersPerRoom = playersPerRoom;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Run the test
+	 * @throws IOException When the connection fails
+	 */
+	public void run() throws IOException {
+		selector = Selector.open();
+
+		// Connect
+		long start = System.nanoTime();
+		for(int i = 0; i < numClients; i++) {
+			Client c = new Client();
+			c.name = "Load" + i;
+			c.channel = SocketChannel.open(address);
+			c.channel.configureBlocking(false);
+			c.channel.register(selector, SelectionKey.OP_READ, c);
+			clients.add(c);
+			pump(0);
+		}
+		printPhase("connect", start);
+
+		// Login
+		start = System.nanoTime();
+		for(Client c: clients) {
+			send(c, "login\t" + GameManager.getVersionMajor() + "\t" + c.name + "\t\t\t" + GameManager.getVersionMinor() + "\t" +
+				GameManager.isDevBuild() + "\t" + NetFieldSync.VERSION);
+		}
+		waitForState(STATE_LOGGEDIN, numClients);
+		printPhase("login", start);
+
+		// Rooms (the first client of each group creates it, and the others join)
+		start = System.nanoTime();
+		NetRoomInfo roomInfo = new NetRoomInfo();
+		roomInfo.maxPlayers = playersPerRoom;
+		String strRoomInfo = NetUtil.urlEncode(roomInfo.exportString());
+		int numHosts = 0;
+		for(int i = 0; i < numClients; i += playersPerRoom) {
+			send(clients.get(i), "roomcreate\tLoad" + i + "\t" + strRoomInfo + "\tMARATHON");
+			numHosts++;
+		}
+		waitForState(STATE_INROOM, numHosts);
+		for(int i = 0; i < numClients; i++) {
+			if(i % playersPerRoom != 0) {
+				send(clients.get(i), "roomjoin\t" + clients.get(i - i % playersPerRoom).roomID + "\tfalse");
+			}
+		}
+		waitForState(STATE_INROOM, numClients);
+		printPhase("rooms", start);
+
+		// Chat
+		chatPhase = true;
+		packetCount = 0;
+		start = System.nanoTime();
+		long end = start + (long)(seconds * 1e9);
+		while(System.nanoTime() < end) {
+			for(Client c: clients) {
+				if(c.chatSentTime == 0) {
+					c.chatSentTime = System.nanoTime();
+					send(c, "chat\t" + c.uid);
+				}
+			}
+			pump(10);
+		}
+		chatPhase = false;
+		printChatResult(start);
+
+		// Disconnect
+		for(Client c: clients) {
+			send(c, "disconnect");
+			c.channel.close();
+		}
+		selector.close();
+	}
+
+	/**
+	 * Wait until enough clients are in a state
+	 * @param state State
+	 * @param count Number of clients
+	 * @throws IOException When the connection fails
+	 */
+	protected void waitForState(int state, int count) throws IOException {
+		while(true) {
+			int n = 0;
+			for(Client c: clients) {
+				if(c.state >= state) n++;
+			}
+			if(n >= count) return;
+			pump(100);
+		}
+	}
+
+	/**
+	 * Receive and handle packets
+	 * @param timeout Selector timeout in milliseconds (0 to not wait)
+	 * @throws IOException When the connection fails
+	 */
+	protected void pump(long timeout) throws IOException {
+		if(timeout > 0) selector.select(timeout);
+		else selector.selectNow();
+
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while(it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+			Client c = (Client)key.attachment();
+			if(c.packetBuffer.read(c.channel) < 0) throw new IOException(c.name + " was disconnected");
+
+			String packet;
+			while((packet = c.packetBuffer.nextPacket()) != null) {
+				packetCount++;
+				processPacket(c, packet.split("\t"));
+			}
+		}
+	}
+
+	/**
+	 * Handle a packet
+	 * @param c Client
+	 * @param message Packet
+	 */
+	protected void processPacket(Client c, String[] message) {
+		if(message[0].equals("loginsuccess")) {
+			c.uid = Integer.parseInt(message[2]);
+			c.state = STATE_LOGGEDIN;
+		} else if(message[0].equals("loginfail")) {
+			throw new IllegalStateException(c.name + ": " + Arrays.toString(message));
+		} else if(message[0].equals("roomcreatesuccess") || message[0].equals("roomjoinsuccess")) {
+			c.roomID = Integer.parseInt(message[1]);
+			c.state = STATE_INROOM;
+		} else if(message[0].equals("roomjoinfail")) {
+			throw new IllegalStateException(c.name + ": " + Arrays.toString(message));
+		} else if(message[0].equals("chat") && chatPhase && (Integer.parseInt(message[1]) == c.uid) && (c.chatSentTime != 0)) {
+			// Own message came back
+			if(latencyCount >= latencies.length) latencies = Arrays.copyOf(latencies, latencies.length * 2);
+			latencies[latencyCount++] = (int)((System.nanoTime() - c.chatSentTime) / 1000);
+			c.chatSentTime = 0;
+		}
+	}
+
+	/**
+	 * Send a packet (blocks until all of it is written)
+	 * @param c Client
+	 * @param msg Packet without '\n'
+	 * @throws IOException When the connection fails
+	 */
+	protected void send(Client c, String msg) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(NetUtil.stringToBytes(msg + "\n"));
+		while(buf.hasRemaining()) {
+			if(c.channel.write(buf) == 0) pump(0);
+		}
+	}
+
+	/**
+	 * Print the time of a phase
+	 * @param name Phase name
+	 * @param start Start time (System.nanoTime())
+	 */
+	protected void printPhase(String name, long start) {
+		System.out.println(String.format("%-10s %10.1f ms", name, (System.nanoTime() - start) / 1e6));
+	}
+
+	/**
+	 * Print the chat round-trip times
+	 * @param start Start time of the chat phase (System.nanoTime())
+	 */
+	protected void printChatResult(long start) {
+		double sec = (System.nanoTime() - start) / 1e9;
+		int[] sorted = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(sorted);
+		System.out.println(String.format("chat       %10.1f msg/s (%d round-trips, %.0f packets/s received)",
+				latencyCount / sec, latencyCount, packetCount / sec));
+		if(latencyCount > 0) {
+			System.out.println(String.format("round-trip p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+					percentile(sorted, 0.5) / 1000.0, percentile(sorted, 0.9) / 1000.0,
+					percentile(sorted, 0.99) / 1000.0, sorted[sorted.length - 1] / 1000.0));
+		}
+	}
+
+	/**
+	 * Get a percentile of sorted values
+	 * @param sorted Sorted values (not empty)
+	 * @param p Percentile (0.0-1.0)
+	 * @return Value
+	 */
+	protected static int percentile(int[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int)(sorted.length * p))];
+	}
+
+	/**
+	 * Main
+	 * @param args [host] [port] [clients] [players per room] [seconds]
+	 */
+	public static void main(String[] args) {
+		String host = (args.length > 0) ? args[0] : "127.0.0.1";
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : 9200;
+		int numClients = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+		int playersPerRoom = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+		double seconds = (args.length > 4) ? Double.parseDouble(args[4]) : 10.0;
+
+		System.out.println("-- " + numClients + " clients, " + playersPerRoom + " players per room");
+		try {
+			new NetServerLoadTest(new InetSocketAddress(host, port), numClients, playersPerRoom, seconds).run();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package mu.nu.nullpo.tool.benchmark;
+
+import java.util.Random;
+
+import mu.nu.nullpo.game.component.Block;
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.play.GameEngine;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Measures the color clear and cascade gravity paths of the puzzle modes (Avalanche, SPF, Physician)
+ * on random fields of several sizes, including tall and wide custom fields.
+ * Usage: PuzzleFieldBenchmark [seconds per case]
+ */
+public class PuzzleFieldBenchmark extends Benchmark {
+	/** Field sizes to measure: {width, height} */
+	public static final int[][] SIZES = {{6, 12}, {6, 48}, {48, 12}, {32, 64}};
+
+	/** Size of the single color field that is cleared in one group */
+	public static final int[] LARGE_GROUP_SIZE = {64, 256};
+
+	/** Number of colors of the random fields */
+	public static final int NUM_COLORS = 4;
+
+	/**
+	 * Constructor
+	 * @param seconds Number of seconds for each measurement
+	 */
+	public PuzzleFieldBenchmark(double seconds) {
+		super(seconds);
+	}
+
+	/**
+	 * Create a random field: the lower 3/4 filled with colors and a few garbage blocks
+	 * @param width Field width
+	 * @param height Field height
+	 * @param seed Random seed
+	 * @return Field
+	 */
+	public static Field createRandomField(int width, int height, long seed) {
+		Random random = new Random(seed);
+		Field fld = new Field(width, height, Field.DEFAULT_HIDDEN_HEIGHT);
+		for(int y = height / 4; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				Block blk = fld.getBlock(x, y);
+				blk.setAttribute(Block.BLOCK_ATTRIBUTE_VISIBLE, true);
+				if(random.nextInt(10) == 0) {
+					blk.color = Block.BLOCK_COLOR_GRAY;
+					blk.setAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE, true);
+				} else {
+					blk.color = Block.BLOCK_COLOR_RED + random.nextInt(NUM_COLORS);
+				}
+			}
+		}
+		return fld;
+	}
+
+	/**
+	 * Create a field of linked groups (like SPF) floating above the floor
+	 * @param width Field width
+	 * @param height Field height
+	 * @param seed Random seed
+	 * @return Field
+	 */
+	public static Field createLinkedField(int width, int height, long seed) {
+		Field fld = createRandomField(width, height, seed);
+		fld.setBlockLinkByColor();
+		// Every other column of the bottom 2 rows is removed, so most groups fall
+		for(int y = height - 2; y < height; y++) {
+			for(int x = 0; x < width; x += 2) fld.setBlock(x, y, new Block());
+		}
+		return fld;
+	}
+
+	/**
+	 * Color clears and cascade gravity of each field size
+	 */
+	public void runSizes() {
+		for(int[] size: SIZES) {
+			final int width = size[0];
+			final int height = size[1];
+			final Field fld = createRandomField(width, height, 0);
+			final Field fldLinked = createLinkedField(width, height, 1);
+			final Field fldWork = new Field(fld);
+			group = width + "x" + height + ".";
+			System.out.println("Field " + width + "x" + height);
+
+			measure("  Field.checkColor", new Runnable() {
+				public void run() {
+					fldWork.copy(fld);
+					sink += fldWork.checkColor(4, true, true, false, true);
+				}
+			});
+			measure("  Field.clearColor+cascade", new Runnable() {
+				public void run() {
+					fldWork.copy(fld);
+					sink += fldWork.clearColor(4, true, false, true);
+					while(fldWork.doCascadeGravity(GameEngine.LineGravity.CASCADE)) sink++;
+				}
+			});
+			measure("  Field.doCascadeGravity (linked)", new Runnable() {
+				public void run() {
+					fldWork.copy(fldLinked);
+					while(fldWork.doCascadeGravity(GameEngine.LineGravity.CASCADE)) sink++;
+				}
+			});
+			measure("  Field.canCascade (linked)", new Runnable() {
+				public void run() {
+					if(fldLinked.canCascade()) sink++;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Clear of one group that covers the whole field
+	 */
+	public void runLargeGroup() {
+		final int width = LARGE_GROUP_SIZE[0];
+		final int height = LARGE_GROUP_SIZE[1];
+		final Field fld = new Field(width, height, Field.DEFAULT_HIDDEN_HEIGHT);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) fld.setBlockColor(x, y, Block.BLOCK_COLOR_BLUE);
+		}
+		final Field fldWork = new Field(fld);
+		group = "group" + width + "x" + height + ".";
+		System.out.println("One group " + width + "x" + height);
+
+		try {
+			fldWork.clearColor(4, true, false, true);
+		} catch (StackOverflowError e) {
+			System.out.println("  Field.clearColor skipped (" + e + ")");
+			return;
+		}
+		measure("  Field.clearColor", new Runnable() {
+			public void run() {
+				fldWork.copy(fld);
+				sink += fldWork.clearColor(4, true, false, true);
+			}
+		});
+	}
+
+	/*
+	 * Run all measurements
+	 */
+	@Override
+	public void run() {
+		runSizes();
+		runLargeGroup();
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	/**
+	 * Main
+	 * @param args [seconds per case]
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 2.0;
+		new PuzzleFieldBenchmark(seconds).run();
+	}
+}
@@ -0,0 +1,185 @@
+package mu.nu.nullpo.tool.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import mu.nu.nullpo.game.component.Statistics;
+import mu.nu.nullpo.game.net.NetSPRanking;
+import mu.nu.nullpo.game.net.NetSPRecord;
+import mu.nu.nullpo.game.net.NetUtil;
+import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.JournaledProperties;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Measures how long NetServer's "spsend" takes to save a new leaderboard record, for several leaderboard counts.
+ * "rewrite" is the old way (every record of every leaderboard compressed again and the whole file written),
+ * "journal" is the current way (only the changed leaderboard is written to a JournaledProperties).
+ * Every new record is the best one of its leaderboard, so every record is saved.
+ * Usage: RankingStoreBenchmark [seconds per case] [work directory]
+ */
+public class RankingStoreBenchmark extends Benchmark {
+	/** Leaderboard counts to measure */
+	public static final int[] RANKING_COUNTS = {10, 100, 1000};
+
+	/** Records in each leaderboard */
+	public static final int RECORDS_PER_RANKING = 20;
+
+	/** Size of the fake replay data of each record */
+	public static final int REPLAY_SIZE = 2000;
+
+	/** Directory of the journal files */
+	protected File workDir;
+
+	/** Random */
+	protected Random random = new Random(0);
+
+	/**
+	 * Constructor
+	 * @param seconds Number of seconds for each measurement
+	 * @param workDir Directory of the journal files
+	 */
+	public RankingStoreBenchmark(double seconds, File workDir) {
+		super(seconds);
+		this.workDir = workDir;
+	}
+
+	/**
+	 * Create a record
+	 * @param name Player name
+	 * @param score Score
+	 * @return NetSPRecord
+	 */
+	protected NetSPRecord createRecord(String name, int score) {
+		NetSPRecord record = new NetSPRecord();
+		record.strPlayerName = name;
+		record.strModeName = "MARATHON";
+		record.strRuleName = "STANDARD";
+		record.stats = new Statistics();
+		record.stats.score = score;
+		record.stats.lines = random.nextInt(200);
+		record.stats.time = random.nextInt(100000);
+
+		StringBuilder replay = new StringBuilder(REPLAY_SIZE);
+		while(replay.length() < REPLAY_SIZE) replay.append(Integer.toString(random.nextInt(), 36));
+		record.strReplayProp = NetUtil.compressString(replay.toString());
+		return record;
+	}
+
+	/**
+	 * Create leaderboards
+	 * @param count Number of leaderboards
+	 * @return Leaderboards
+	 */
+	protected NetSPRanking[] createRankings(int count) {
+		NetSPRanking[] rankings = new NetSPRanking[count];
+		for(int i = 0; i < count; i++) {
+			rankings[i] = new NetSPRanking("MARATHON", "STANDARD", i, 0, NetSPRecord.RANKINGTYPE_GENERIC_SCORE, RECORDS_PER_RANKING + 1);
+			for(int j = 0; j < RECORDS_PER_RANKING; j++) {
+				rankings[i].registerRecord(createRecord("P" + j, random.nextInt(1000000)));
+			}
+		}
+		return rankings;
+	}
+
+	@Override
+	public void run() {
+		for(int count: RANKING_COUNTS) {
+			group = count + ".";
+			System.out.println("-- " + count + " leaderboards, " + RECORDS_PER_RANKING + " records each");
+			runRewrite(count);
+			runJournal(count);
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	/**
+	 * Old way: compress every record and store the whole file
+	 * @param count Number of leaderboards
+	 */
+	protected void runRewrite(int count) {
+		final NetSPRanking[] rankings = createRankings(count);
+		final NetSPRecord[] newRecords = new NetSPRecord[64];
+		for(int i = 0; i < newRecords.length; i++) newRecords[i] = createRecord("New" + i, 0);
+
+		measure("spsend rewrite", new Runnable() {
+			int n;
+			public void run() {
+				NetSPRecord record = new NetSPRecord(newRecords[n & 63]);
+				record.stats.score = 1000000 + n++;
+				rankings[random.nextInt(rankings.length)].registerRecord(record);
+
+				CustomProperties prop = new CustomProperties();
+				for(NetSPRanking r: rankings) {
+					String strKey = "spranking." + r.strRuleName + "." + r.strModeName + "." + r.gameType + ".";
+					prop.setProperty(strKey + "numRecords", r.listRecord.size());
+					for(int i = 0; i < r.listRecord.size(); i++) {
+						prop.setProperty(strKey + i, NetUtil.compressString(r.listRecord.get(i).exportString()));
+					}
+				}
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					prop.store(out, null);
+					sink += out.size();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Current way: write only the changed leaderboard to a JournaledProperties
+	 * @param count Number of leaderboards
+	 */
+	protected void runJournal(int count) {
+		final NetSPRanking[] rankings = createRankings(count);
+		final NetSPRecord[] newRecords = new NetSPRecord[64];
+		for(int i = 0; i < newRecords.length; i++) newRecords[i] = createRecord("New" + i, 0);
+
+		File file = new File(workDir, "bench_spranking_" + count + ".cfg");
+		final JournaledProperties prop = new JournaledProperties(file.getPath(), "RankingStoreBenchmark");
+		prop.open();
+		for(NetSPRanking r: rankings) r.writeProperty(prop);
+		prop.flush();
+
+		measure("spsend journal", new Runnable() {
+			int n;
+			public void run() {
+				NetSPRecord record = new NetSPRecord(newRecords[n & 63]);
+				record.stats.score = 1000000 + n++;
+				NetSPRanking r = rankings[random.nextInt(rankings.length)];
+				if(r.registerRecord(record) != -1) r.writeProperty(prop);
+				sink += r.listRecord.size();
+			}
+		});
+
+		// Time until everything above is on the disk
+		long start = System.nanoTime();
+		prop.flush();
+		System.out.println(String.format("  flush after the run: %.1f ms", (System.nanoTime() - start) / 1e6));
+
+		prop.close();
+		file.delete();
+		new File(file.getPath() + ".journal").delete();
+	}
+
+	/**
+	 * Main
+	 * @param args [seconds per case] [work directory]
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 2.0;
+		File workDir = new File((args.length > 1) ? args[1] : System.getProperty("java.io.tmpdir"));
+
+		new RankingStoreBenchmark(seconds, workDir).run();
+	}
+}
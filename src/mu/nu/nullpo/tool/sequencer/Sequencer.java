@@ -69,6 +69,7 @@ import org.apache.log4j.PropertyConfigurator;
 
 import mu.nu.nullpo.game.component.Piece;
 import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ReplayFile;
 import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
 
 /**
@@ -358,13 +359,7 @@ public class Sequencer extends JFrame implements ActionListener {
 
 	public CustomProperties load(String filename) throws IOException {
 		log.info("Loading replay file from " + filename);
-		CustomProperties prop = new CustomProperties();
-
-		FileInputStream in = new FileInputStream(filename);
-		prop.load(in);
-		in.close();
-
-		return prop;
+		return ReplayFile.loadProperties(filename);
 	}
 
 	public void save(String filename) throws IOException {
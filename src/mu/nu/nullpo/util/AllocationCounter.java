@@ -0,0 +1,102 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Per-thread allocation counter.<br>
+ * Uses the HotSpot extension of ThreadMXBean; on VMs without it every method
+ * returns -1 and {@link #isSupported()} is false.
+ */
+public class AllocationCounter {
+	/** Log */
+	static Logger log = Logger.getLogger(AllocationCounter.class);
+
+	/** HotSpot ThreadMXBean (null if unavailable) */
+	protected static com.sun.management.ThreadMXBean threadBean;
+
+	/** Bytes allocated by one call to {@link #getAllocatedBytes()} itself */
+	protected static long overhead;
+
+	static {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+				if(b.isThreadAllocatedMemorySupported()) {
+					if(!b.isThreadAllocatedMemoryEnabled()) b.setThreadAllocatedMemoryEnabled(true);
+					threadBean = b;
+
+					// Measure the cost of the query so that it can be subtracted
+					long min = Long.MAX_VALUE;
+					for(int i = 0; i < 16; i++) {
+						long a = getAllocatedBytes();
+						long c = getAllocatedBytes();
+						min = Math.min(min, c - a);
+					}
+					overhead = min;
+				}
+			}
+		} catch (Throwable e) {
+			log.debug("Thread allocation counter is not available", e);
+			threadBean = null;
+		}
+	}
+
+	/**
+	 * Check if allocation counting is available on this VM
+	 * @return true if available
+	 */
+	public static boolean isSupported() {
+		return threadBean != null;
+	}
+
+	/**
+	 * Get the number of bytes allocated by the current thread so far.
+	 * Use the difference of two calls with {@link #getAllocatedBytesSince(long)}.
+	 * @return Number of bytes (-1 if unsupported)
+	 */
+	public static long getAllocatedBytes() {
+		if(threadBean == null) return -1;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Get the number of bytes allocated by the current thread since an earlier {@link #getAllocatedBytes()} call
+	 * @param start Value returned by {@link #getAllocatedBytes()}
+	 * @return Number of bytes (-1 if unsupported)
+	 */
+	public static long getAllocatedBytesSince(long start) {
+		if((threadBean == null) || (start < 0)) return -1;
+		return Math.max(0, getAllocatedBytes() - start - overhead);
+	}
+}
@@ -0,0 +1,405 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * CustomProperties that saves itself to a file in the background.<br>
+ * Every changed entry is appended to a journal file (<code>[filename].journal</code>) by a writer thread.
+ * Entries changed while the writer is busy are written together in the next batch (group commit),
+ * and the batch is synced to the disk before the next one starts.
+ * When the journal grows larger than the file (and {@link #setCompactSize(long)}), or after {@link #clear()},
+ * the whole set is written to the file again and the journal is started over.<br>
+ * The journal is in the same format as the properties file, so {@link #open()} just loads the file and then the journal.
+ * A batch that was only partly written (the server was killed while writing) is discarded.
+ */
+public class JournaledProperties extends CustomProperties {
+	/** Serial version */
+	private static final long serialVersionUID = 1L;
+
+	/** Log */
+	static Logger log = Logger.getLogger(JournaledProperties.class);
+
+	/** Last line of each journal batch */
+	protected static final String COMMIT_MARKER = "#commit";
+
+	/** First line of the journal / comment line of the file that tells which snapshot the journal belongs to */
+	protected static final String GENERATION_PREFIX = "#generation=";
+
+	/** Default minimum journal size that triggers a compaction */
+	public static final long DEFAULT_COMPACT_SIZE = 4 * 1024 * 1024;
+
+	/** Properties file */
+	protected File file;
+
+	/** Journal file */
+	protected File journalFile;
+
+	/** Comments of the properties file */
+	protected String comments;
+
+	/** The journal is compacted into the properties file when it's larger than this and the properties file */
+	protected long compactSize = DEFAULT_COMPACT_SIZE;
+
+	/** Size of the properties file */
+	protected long fileSize;
+
+	/** Changed entries that are not written yet */
+	protected CustomProperties pending = new CustomProperties();
+
+	/** Lock of pending, compactRequested, closed and the writer thread state */
+	protected final Object writeLock = new Object();
+
+	/** true if the whole set has to be written again */
+	protected boolean compactRequested;
+
+	/** true after close() */
+	protected boolean closed;
+
+	/** true while the writer is writing a batch */
+	protected boolean writing;
+
+	/** Generation of the current snapshot (increased at each compaction) */
+	protected long generation;
+
+	/** Journal output (null if the journal is not open) */
+	protected FileOutputStream journalOut;
+
+	/** Current size of the journal */
+	protected long journalSize;
+
+	/** Writer thread */
+	protected Thread writer;
+
+	/**
+	 * Constructor
+	 * @param filename Properties file
+	 * @param comments Comments of the properties file
+	 */
+	public JournaledProperties(String filename, String comments) {
+		this.file = new File(filename);
+		this.journalFile = new File(filename + ".journal");
+		this.comments = comments;
+	}
+
+	/**
+	 * Set the minimum journal size that triggers a compaction
+	 * @param size Size in bytes
+	 */
+	public void setCompactSize(long size) {
+		compactSize = size;
+	}
+
+	/**
+	 * Load the file and the journal, and start the writer thread
+	 */
+	public void open() {
+		super.clear();
+		generation = 0;
+
+		// Snapshot
+		if(file.exists()) {
+			try {
+				byte[] data = readFile(file);
+				load(new ByteArrayInputStream(data));
+				generation = readGeneration(data);
+				fileSize = data.length;
+			} catch (IOException e) {
+				log.warn("Failed to load " + file, e);
+			}
+		}
+
+		// Journal
+		boolean needCompact = false;
+		if(journalFile.exists()) {
+			try {
+				byte[] data = readFile(journalFile);
+				if(readGeneration(data) == generation) {
+					int length = committedLength(data);
+					load(new ByteArrayInputStream(data, 0, length));
+					if(length < data.length) log.warn("Discarded an incomplete batch at the end of " + journalFile);
+					log.debug("Recovered " + length + " bytes from " + journalFile);
+				} else {
+					log.info("Ignored an old journal " + journalFile);
+				}
+				needCompact = true;
+			} catch (IOException e) {
+				log.warn("Failed to load " + journalFile, e);
+			}
+		}
+
+		synchronized(writeLock) {
+			closed = false;
+			compactRequested = needCompact;
+		}
+		writer = new Thread(new Writer(), "Writer " + file.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Write the remaining entries and stop the writer thread
+	 */
+	public void close() {
+		synchronized(writeLock) {
+			closed = true;
+			writeLock.notifyAll();
+		}
+		if(writer != null) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {}
+			writer = null;
+		}
+	}
+
+	/**
+	 * Wait until all entries changed so far are written
+	 */
+	public void flush() {
+		synchronized(writeLock) {
+			while((writer != null) && writer.isAlive() && (writing || compactRequested || !pending.isEmpty())) {
+				try {
+					writeLock.wait(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set a property. The entry is journaled if the value is changed.
+	 */
+	@Override
+	public synchronized Object setProperty(String key, String value) {
+		Object old = super.setProperty(key, value);
+		if(!value.equals(old)) {
+			synchronized(writeLock) {
+				pending.put(key, value);
+				writeLock.notifyAll();
+			}
+		}
+		return old;
+	}
+
+	/**
+	 * Remove all entries. The whole set (with the entries added after this) is written again soon.
+	 */
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		synchronized(writeLock) {
+			pending.clear();
+			compactRequested = true;
+			writeLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Write a batch to the journal
+	 * @param batch Changed entries
+	 * @throws IOException When the write fails
+	 */
+	protected void appendJournal(CustomProperties batch) throws IOException {
+		if(journalOut == null) {
+			boolean isNew = !journalFile.exists() || (journalFile.length() == 0);
+			journalOut = new FileOutputStream(journalFile, true);
+			journalSize = journalFile.length();
+			if(isNew) {
+				byte[] header = (GENERATION_PREFIX + generation + "\n").getBytes("ISO-8859-1");
+				journalOut.write(header);
+				journalSize += header.length;
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		batch.store(out, null);
+		out.write((COMMIT_MARKER + "\n").getBytes("ISO-8859-1"));
+
+		journalOut.write(out.toByteArray());
+		journalOut.getChannel().force(false);
+		journalSize += out.size();
+	}
+
+	/**
+	 * Write the whole set to the properties file and start a new journal
+	 * @throws IOException When the write fails
+	 */
+	protected void compact() throws IOException {
+		CustomProperties snapshot = new CustomProperties();
+		synchronized(this) {
+			snapshot.putAll(this);
+			// Everything changed so far is in the snapshot
+			synchronized(writeLock) {
+				pending.clear();
+			}
+		}
+
+		// Write to a temporary file first, so there's always a complete file on the disk
+		File tmpFile = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmpFile);
+		snapshot.store(out, comments + "\n" + GENERATION_PREFIX.substring(1) + (generation + 1));
+		out.getChannel().force(false);
+		out.close();
+
+		fileSize = tmpFile.length();
+		if(!tmpFile.renameTo(file)) {
+			file.delete();
+			if(!tmpFile.renameTo(file)) throw new IOException("Failed to rename " + tmpFile + " to " + file);
+		}
+
+		// The journal of the old generation is ignored from now on
+		generation++;
+		if(journalOut != null) {
+			journalOut.close();
+			journalOut = null;
+		}
+		journalFile.delete();
+		journalSize = 0;
+	}
+
+	/**
+	 * Read a whole file
+	 * @param f File
+	 * @return Contents
+	 * @throws IOException When the read fails
+	 */
+	protected static byte[] readFile(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int)f.length());
+			byte[] buf = new byte[8192];
+			int len;
+			while((len = in.read(buf)) > 0) out.write(buf, 0, len);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Find the generation comment in the beginning of a file
+	 * @param data Contents of the file
+	 * @return Generation (0 if not found)
+	 * @throws IOException Never
+	 */
+	protected static long readGeneration(byte[] data) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), "ISO-8859-1"));
+		String str;
+		while(((str = in.readLine()) != null) && str.startsWith("#")) {
+			if(str.startsWith(GENERATION_PREFIX)) {
+				try {
+					return Long.parseLong(str.substring(GENERATION_PREFIX.length()).trim());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the length of the completely written batches of a journal
+	 * @param data Contents of the journal
+	 * @return Length up to the end of the last commit marker
+	 * @throws IOException Never
+	 */
+	protected static int committedLength(byte[] data) throws IOException {
+		String str = new String(data, "ISO-8859-1");
+		int index = str.lastIndexOf("\n" + COMMIT_MARKER + "\n");
+		return (index == -1) ? 0 : index + COMMIT_MARKER.length() + 2;
+	}
+
+	/**
+	 * Writer thread
+	 */
+	protected class Writer implements Runnable {
+		public void run() {
+			while(true) {
+				CustomProperties batch;
+				boolean doCompact;
+
+				synchronized(writeLock) {
+					while(!closed && !compactRequested && pending.isEmpty()) {
+						try {
+							writeLock.wait();
+						} catch (InterruptedException e) {}
+					}
+					if(closed && !compactRequested && pending.isEmpty()) break;
+
+					batch = pending;
+					pending = new CustomProperties();
+					doCompact = compactRequested || (journalSize >= Math.max(compactSize, fileSize));
+					compactRequested = false;
+					writing = true;
+				}
+
+				try {
+					if(doCompact) {
+						compact();
+					} else {
+						appendJournal(batch);
+					}
+				} catch (IOException e) {
+					log.error("Failed to write " + (doCompact ? file : journalFile), e);
+					// Try again with the whole set next time
+					synchronized(writeLock) {
+						compactRequested = true;
+					}
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e2) {}
+				}
+
+				synchronized(writeLock) {
+					writing = false;
+					writeLock.notifyAll();
+				}
+			}
+
+			if(journalOut != null) {
+				try {
+					journalOut.close();
+				} catch (IOException e) {}
+				journalOut = null;
+			}
+		}
+	}
+}
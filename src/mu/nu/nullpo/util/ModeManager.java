@@ -29,22 +29,74 @@
 package mu.nu.nullpo.util;
 
 import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import mu.nu.nullpo.game.subsystem.mode.GameMode;
 
+import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
 
 /**
- * Mode 管理クラス
+ * Mode 管理クラス<br>
+ * The name, number of players, game style and netplay flag of each mode are read from a mode index
+ * ({@link #loadIndex(String)}, made by {@link #saveIndex(String)}), and the GameMode object is created
+ * when the mode is used for the first time ({@link #getMode(int)}).
+ * Modes that are not in the index are created when the list is loaded.
  */
 public class ModeManager {
 	/** Log */
 	static Logger log = Logger.getLogger(ModeManager.class);
 
+	/** Default filename of the mode index */
+	public static final String DEFAULT_INDEX_FILE = "config/list/modeindex.lst";
+
+	/**
+	 * Mode entry
+	 */
+	protected static class ModeEntry {
+		/** Class name */
+		String className;
+
+		/** Mode name */
+		String name;
+
+		/** Number of players */
+		int players;
+
+		/** Game style */
+		int gameStyle;
+
+		/** true if netplay mode */
+		boolean netplay;
+
+		/** Mode object (null until it's used) */
+		GameMode mode;
+
+		/** true if the class couldn't be created */
+		boolean failed;
+
+		/**
+		 * Set the information from a mode object
+		 * @param m Mode object
+		 */
+		void setMode(GameMode m) {
+			mode = m;
+			name = m.getName();
+			players = m.getPlayers();
+			gameStyle = m.getGameStyle();
+			netplay = m.isNetplayMode();
+		}
+	}
+
 	/** Mode の動的配列 */
-	public ArrayList<GameMode> modelist = new ArrayList<GameMode>();
+	protected ArrayList<ModeEntry> modelist = new ArrayList<ModeEntry>();
+
+	/** Mode index (class name to the entry made from the index) */
+	protected HashMap<String, ModeEntry> index = new HashMap<String, ModeEntry>();
 
 	/**
 	 * Constructor
@@ -58,6 +110,7 @@ public class ModeManager {
 	 */
 	public ModeManager(ModeManager m) {
 		modelist.addAll(m.modelist);
+		index.putAll(m.index);
 	}
 
 	/**
@@ -77,9 +130,7 @@ public class ModeManager {
 		int count = 0;
 
 		for(int i = 0; i < modelist.size(); i++) {
-			GameMode mode = modelist.get(i);
-
-			if((mode != null) && (mode.isNetplayMode() == netplay))
+			if(modelist.get(i).netplay == netplay)
 				count++;
 		}
 
@@ -111,10 +162,10 @@ public class ModeManager {
 		int j = 0;
 
 		for(int i = 0; i < modelist.size(); i++) {
-			GameMode mode = modelist.get(i);
+			ModeEntry entry = modelist.get(i);
 
-			if((mode != null) && (mode.isNetplayMode() == netplay)) {
-				strings[j] = mode.getName();
+			if(entry.netplay == netplay) {
+				strings[j] = entry.name;
 				j++;
 			}
 		}
@@ -129,12 +180,51 @@ public class ModeManager {
 	 */
 	public String getName(int id) {
 		try {
-			return modelist.get(id).getName();
+			return modelist.get(id).name;
 		} catch(Exception e) {
 			return "*INVALID MODE*";
 		}
 	}
 
+	/**
+	 * Get the number of players of a mode (without creating the mode object)
+	 * @param id ModeID
+	 * @return Number of players (0 if id is invalid)
+	 */
+	public int getPlayers(int id) {
+		try {
+			return modelist.get(id).players;
+		} catch(Exception e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the game style of a mode (without creating the mode object)
+	 * @param id ModeID
+	 * @return Game style (0 if id is invalid)
+	 */
+	public int getGameStyle(int id) {
+		try {
+			return modelist.get(id).gameStyle;
+		} catch(Exception e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Check if a mode is a netplay mode (without creating the mode object)
+	 * @param id ModeID
+	 * @return true if netplay mode (false if id is invalid)
+	 */
+	public boolean isNetplayMode(int id) {
+		try {
+			return modelist.get(id).netplay;
+		} catch(Exception e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Mode  nameからIDを取得
 	 * @param name Mode name
@@ -144,7 +234,7 @@ public class ModeManager {
 		if(name == null) return -1;
 
 		for(int i = 0; i < modelist.size(); i++) {
-			if(name.compareTo(modelist.get(i).getName()) == 0) {
+			if(name.compareTo(modelist.get(i).name) == 0) {
 				return i;
 			}
 		}
@@ -153,16 +243,32 @@ public class ModeManager {
 	}
 
 	/**
-	 * Mode オブジェクトを取得
+	 * Mode オブジェクトを取得 (created when it's used for the first time)
 	 * @param id ModeID
-	 * @return Modeオブジェクト (idが不正ならnull）
+	 * @return Modeオブジェクト (idが不正か, the class couldn't be created ならnull）
 	 */
 	public GameMode getMode(int id) {
+		ModeEntry entry;
 		try {
-			return modelist.get(id);
+			entry = modelist.get(id);
 		} catch(Exception e) {
 			return null;
 		}
+
+		synchronized(entry) {
+			if((entry.mode == null) && !entry.failed) {
+				GameMode m = createMode(entry.className);
+				if(m == null) {
+					entry.failed = true;
+				} else {
+					if(!m.getName().equals(entry.name)) {
+						log.warn("Mode index is out of date: " + entry.className + " is " + m.getName() + ", not " + entry.name);
+					}
+					entry.mode = m;
+				}
+			}
+			return entry.mode;
+		}
 	}
 
 	/**
@@ -171,11 +277,117 @@ public class ModeManager {
 	 * @return Modeオブジェクト (見つからないならnull）
 	 */
 	public GameMode getMode(String name) {
+		return getMode(getIDbyName(name));
+	}
+
+	/**
+	 * Load the mode index. The modes loaded after this are created when they are used.
+	 * @param filename Filename of the mode index
+	 */
+	public void loadIndex(String filename) {
 		try {
-			return modelist.get(getIDbyName(name));
+			BufferedReader in = new BufferedReader(new FileReader(filename));
+			loadIndex(in);
+			in.close();
+		} catch (IOException e) {
+			log.info("Mode index " + filename + " not loaded; all modes are created at startup");
+		}
+	}
+
+	/**
+	 * Load the mode index.
+	 * Each line is "[class name] [players] [game style] [netplay] [mode name]" separated by tabs.
+	 * @param bf Mode index
+	 * @throws IOException When the read fails
+	 */
+	public void loadIndex(BufferedReader bf) throws IOException {
+		String str;
+		while((str = bf.readLine()) != null) {
+			if((str.length() == 0) || str.startsWith("#")) continue;
+
+			String[] data = str.split("\t", 5);
+			if(data.length < 5) {
+				log.warn("Invalid mode index line: " + str);
+				continue;
+			}
+
+			ModeEntry entry = new ModeEntry();
+			entry.className = data[0];
+			try {
+				entry.players = Integer.parseInt(data[1]);
+				entry.gameStyle = Integer.parseInt(data[2]);
+			} catch (NumberFormatException e) {
+				log.warn("Invalid mode index line: " + str);
+				continue;
+			}
+			entry.netplay = Boolean.parseBoolean(data[3]);
+			entry.name = data[4];
+			index.put(entry.className, entry);
+		}
+	}
+
+	/**
+	 * Save the mode index of all modes (all modes are created)
+	 * @param filename Filename
+	 * @throws IOException When the write fails
+	 */
+	public void saveIndex(String filename) throws IOException {
+		PrintWriter out = new PrintWriter(filename, "UTF-8");
+		out.println("# Mode index: [class name] [players] [game style] [netplay] [mode name], separated by tabs");
+		out.println("# Made by ModeManager.saveIndex; make it again when a mode is added or renamed");
+		for(int i = 0; i < modelist.size(); i++) {
+			ModeEntry entry = modelist.get(i);
+			GameMode m = getMode(i);
+			if(m == null) continue;
+			entry.setMode(m);
+			out.println(entry.className + "\t" + entry.players + "\t" + entry.gameStyle + "\t" + entry.netplay + "\t" + entry.name);
+		}
+		out.close();
+		if(out.checkError()) throw new IOException("Failed to write " + filename);
+	}
+
+	/**
+	 * Add a mode. It's created now if it's not in the index.
+	 * (A mode in the index is not checked until it's used, so getMode returns null if its class is missing.)
+	 * @param className Class name
+	 */
+	protected void addMode(String className) {
+		ModeEntry indexEntry = index.get(className);
+
+		if(indexEntry != null) {
+			ModeEntry entry = new ModeEntry();
+			entry.className = className;
+			entry.name = indexEntry.name;
+			entry.players = indexEntry.players;
+			entry.gameStyle = indexEntry.gameStyle;
+			entry.netplay = indexEntry.netplay;
+			modelist.add(entry);
+		} else {
+			GameMode m = createMode(className);
+			if(m != null) {
+				ModeEntry entry = new ModeEntry();
+				entry.className = className;
+				entry.setMode(m);
+				modelist.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Create a mode object
+	 * @param className Class name
+	 * @return Mode object (null if failed)
+	 */
+	protected static GameMode createMode(String className) {
+		try {
+			Class<?> modeClass = Class.forName(className);
+			return (GameMode) modeClass.newInstance();
+		} catch(ClassNotFoundException e) {
+			log.warn("Mode class " + className + " not found", e);
 		} catch(Exception e) {
-			return null;
+			log.warn("Mode class " + className + " load failed", e);
 		}
+		return null;
 	}
 
 	/**
@@ -190,18 +402,7 @@ public class ModeManager {
 			String name = prop.getProperty(String.valueOf(count), null);
 			if(name == null) return;
 
-			Class<?> modeClass;
-			GameMode modeObject;
-
-			try {
-				modeClass = Class.forName(name);
-				modeObject = (GameMode) modeClass.newInstance();
-				modelist.add(modeObject);
-			} catch(ClassNotFoundException e) {
-				log.warn("Mode class " + name + " not found", e);
-			} catch(Exception e) {
-				log.warn("Mode class " + name + " load failed", e);
-			}
+			addMode(name);
 
 			count++;
 		}
@@ -212,6 +413,9 @@ public class ModeManager {
 	 * @param bf テキストファイルを読み込んだBufferedReader
 	 */
 	public void loadGameModes(BufferedReader bf) {
+		long startTime = System.nanoTime();
+		int indexCount = 0;
+
 		while(true) {
 			// クラス名を読み込み
 			String name = null;
@@ -219,25 +423,41 @@ public class ModeManager {
 				name = bf.readLine();
 			} catch (IOException e) {
 				log.warn("IOException on readLine()", e);
-				return;
+				break;
 			}
-			if(name == null) return;
-			if(name.length() == 0) return;
+			if(name == null) break;
+			if(name.length() == 0) break;
 
 			if(!name.startsWith("#")) {
-				Class<?> modeClass;
-				GameMode modeObject;
-
-				try {
-					modeClass = Class.forName(name);
-					modeObject = (GameMode) modeClass.newInstance();
-					modelist.add(modeObject);
-				} catch(ClassNotFoundException e) {
-					log.warn("Mode class " + name + " not found", e);
-				} catch(Exception e) {
-					log.warn("Mode class " + name + " load failed", e);
-				}
+				int size = modelist.size();
+				addMode(name);
+				if((modelist.size() > size) && (modelist.get(size).mode == null)) indexCount++;
 			}
 		}
+
+		log.info(String.format("Loaded %d modes (%d from the index) in %.1f ms",
+				modelist.size(), indexCount, (System.nanoTime() - startTime) / 1e6));
+	}
+
+	/**
+	 * Make the mode index from a mode list
+	 * @param args [mode list] [mode index] (default config/list/mode.lst and config/list/modeindex.lst)
+	 */
+	public static void main(String[] args) {
+		String listFile = (args.length > 0) ? args[0] : "config/list/mode.lst";
+		String indexFile = (args.length > 1) ? args[1] : DEFAULT_INDEX_FILE;
+		BasicConfigurator.configure();
+
+		ModeManager modeManager = new ModeManager();
+		try {
+			BufferedReader txtMode = new BufferedReader(new FileReader(listFile));
+			modeManager.loadGameModes(txtMode);
+			txtMode.close();
+			modeManager.saveIndex(indexFile);
+			System.out.println("Saved " + modeManager.getSize() + " modes to " + indexFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
 	}
 }
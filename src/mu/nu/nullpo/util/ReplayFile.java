@@ -0,0 +1,390 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import mu.nu.nullpo.game.component.ReplayData;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+/**
+ * Replay file.<br>
+ * A replay is a set of properties (rule, seed, statistics, mode settings...) and the button inputs of each player.
+ * The game keeps the inputs in the properties too ("[player].r.[frame]" for each changed frame and "[player].r.max"),
+ * which is also how the old text replay files are stored.
+ * The binary format keeps the other properties in a compressed header and the inputs in a run-length encoded section of each player:
+ * <pre>
+ * int     MAGIC
+ * byte    FORMAT_VERSION
+ * int     Header size
+ * byte[]  Header (properties file without the inputs, deflated)
+ * byte    Number of players
+ * Each player:
+ *   varint  Player ID
+ *   varint  Number of frames
+ *   int     Size of the runs
+ *   varint  Frames, varint Input (one pair for each run of frames with the same input)
+ * </pre>
+ * The header comes first and the size of each section is known, so the header can be read without reading the inputs
+ * and the inputs of a player can be skipped. The inputs are decoded into the int array of ReplayData,
+ * where the input of any frame can be looked up directly.
+ */
+public class ReplayFile {
+	/** Log */
+	static Logger log = Logger.getLogger(ReplayFile.class);
+
+	/** First 4 bytes of a binary replay ("NPRP") */
+	public static final int MAGIC = 0x4E505250;
+
+	/** Version of the binary format */
+	public static final int FORMAT_VERSION = 1;
+
+	/** Comment of the header / text replay */
+	public static final String COMMENT = "NullpoMino Replay";
+
+	/** Properties except the inputs */
+	public CustomProperties prop;
+
+	/** Inputs of each player (index is the player ID, null if the player has no inputs) */
+	public ReplayData[] inputs;
+
+	/** Number of frames to save of each player */
+	public int[] maxFrames;
+
+	/**
+	 * Constructor
+	 */
+	public ReplayFile() {
+		prop = new CustomProperties();
+		inputs = new ReplayData[0];
+		maxFrames = new int[0];
+	}
+
+	/**
+	 * Split a replay in the properties form into the properties and the inputs
+	 * @param legacy Replay in the properties form (not changed)
+	 * @return ReplayFile
+	 */
+	public static ReplayFile fromProperties(CustomProperties legacy) {
+		ReplayFile r = new ReplayFile();
+		int numPlayers = 0;
+		for(String key: legacy.stringPropertyNames()) {
+			int id = getInputPlayerID(key);
+			if(id < 0) {
+				r.prop.setProperty(key, legacy.getProperty(key));
+			} else {
+				numPlayers = Math.max(numPlayers, id + 1);
+			}
+		}
+
+		r.inputs = new ReplayData[numPlayers];
+		r.maxFrames = new int[numPlayers];
+		for(int i = 0; i < numPlayers; i++) {
+			if(legacy.getProperty(i + ".r.max") != null) {
+				r.inputs[i] = new ReplayData();
+				r.inputs[i].readProperty(legacy, i);
+				r.maxFrames[i] = r.inputs[i].getLength();
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Get the player ID of an input key ("[player].r.[frame]" or "[player].r.max")
+	 * @param key Key
+	 * @return Player ID (-1 if the key is not an input key)
+	 */
+	protected static int getInputPlayerID(String key) {
+		int index = key.indexOf(".r.");
+		if((index <= 0) || (index > 3)) return -1;
+		for(int i = 0; i < index; i++) {
+			if(!Character.isDigit(key.charAt(i))) return -1;
+		}
+		return Integer.parseInt(key.substring(0, index));
+	}
+
+	/**
+	 * Get the replay in the properties form (the form used by GameManager and the text replay files)
+	 * @return Replay in the properties form
+	 */
+	public CustomProperties toProperties() {
+		CustomProperties p = new CustomProperties();
+		p.putAll(prop);
+		for(int i = 0; i < inputs.length; i++) {
+			if(inputs[i] != null) inputs[i].writeProperty(p, i, maxFrames[i]);
+		}
+		return p;
+	}
+
+	/**
+	 * Write in the binary format
+	 * @param out Output stream (not closed)
+	 * @throws IOException When the write fails
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(MAGIC);
+		dout.writeByte(FORMAT_VERSION);
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DeflaterOutputStream zout = new DeflaterOutputStream(header);
+		prop.store(zout, COMMENT);
+		zout.close();
+		dout.writeInt(header.size());
+		header.writeTo(dout);
+
+		int numPlayers = 0;
+		for(ReplayData r: inputs) if(r != null) numPlayers++;
+		dout.writeByte(numPlayers);
+
+		ByteArrayOutputStream runs = new ByteArrayOutputStream();
+		for(int i = 0; i < inputs.length; i++) {
+			if(inputs[i] == null) continue;
+
+			int max = maxFrames[i];
+			runs.reset();
+			int start = 0;
+			while(start < max) {
+				int input = inputs[i].getInputData(start);
+				int end = start + 1;
+				while((end < max) && (inputs[i].getInputData(end) == input)) end++;
+				writeVarInt(runs, end - start);
+				writeVarInt(runs, input);
+				start = end;
+			}
+
+			writeVarInt(dout, i);
+			writeVarInt(dout, max);
+			dout.writeInt(runs.size());
+			runs.writeTo(dout);
+		}
+		dout.flush();
+	}
+
+	/**
+	 * Read the binary format
+	 * @param in Input stream (not closed)
+	 * @param headerOnly true to read only the properties (inputs will be empty)
+	 * @return ReplayFile
+	 * @throws IOException When the read fails or the data is not a binary replay
+	 */
+	public static ReplayFile read(InputStream in, boolean headerOnly) throws IOException {
+		DataInputStream din = new DataInputStream(in);
+		if(din.readInt() != MAGIC) throw new IOException("Not a binary replay");
+		int version = din.readUnsignedByte();
+		if(version > FORMAT_VERSION) throw new IOException("Unsupported replay format version " + version);
+
+		ReplayFile r = new ReplayFile();
+		byte[] header = new byte[din.readInt()];
+		din.readFully(header);
+		InflaterInputStream zin = new InflaterInputStream(new ByteArrayInputStream(header));
+		r.prop.load(zin);
+		zin.close();
+		if(headerOnly) return r;
+
+		int numPlayers = din.readUnsignedByte();
+		for(int n = 0; n < numPlayers; n++) {
+			int id = readVarInt(din);
+			int max = readVarInt(din);
+			int size = din.readInt();
+			if(id >= r.inputs.length) r.resize(id + 1);
+
+			ReplayData data = new ReplayData();
+			byte[] runs = new byte[size];
+			din.readFully(runs);
+			ByteArrayInputStream rin = new ByteArrayInputStream(runs);
+			while(data.getLength() < max) {
+				int count = readVarInt(rin);
+				int input = readVarInt(rin);
+				if(count > max - data.getLength()) throw new IOException("Broken inputs of player " + id);
+				data.addInputData(input, count);
+			}
+			r.inputs[id] = data;
+			r.maxFrames[id] = max;
+		}
+		return r;
+	}
+
+	/**
+	 * Change the number of players
+	 * @param numPlayers Number of players
+	 */
+	protected void resize(int numPlayers) {
+		ReplayData[] newInputs = new ReplayData[numPlayers];
+		int[] newMaxFrames = new int[numPlayers];
+		System.arraycopy(inputs, 0, newInputs, 0, Math.min(inputs.length, numPlayers));
+		System.arraycopy(maxFrames, 0, newMaxFrames, 0, Math.min(maxFrames.length, numPlayers));
+		inputs = newInputs;
+		maxFrames = newMaxFrames;
+	}
+
+	/**
+	 * Check if a file is a binary replay
+	 * @param file File
+	 * @return true if the file starts with MAGIC
+	 * @throws IOException When the file can't be read
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load a replay file of either format
+	 * @param file File
+	 * @param headerOnly true to read only the properties of a binary replay (a text replay is read completely)
+	 * @return ReplayFile
+	 * @throws IOException When the file can't be read
+	 */
+	public static ReplayFile load(File file, boolean headerOnly) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			in.mark(4);
+			byte[] head = new byte[4];
+			int len = 0, n;
+			while((len < 4) && ((n = in.read(head, len, 4 - len)) > 0)) len += n;
+			in.reset();
+
+			if((len == 4) && (((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF)) == MAGIC)) {
+				return read(in, headerOnly);
+			}
+			CustomProperties legacy = new CustomProperties();
+			legacy.load(in);
+			return fromProperties(legacy);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load a replay file of either format in the properties form (to play it)
+	 * @param filename Filename
+	 * @return Replay in the properties form
+	 * @throws IOException When the file can't be read
+	 */
+	public static CustomProperties loadProperties(String filename) throws IOException {
+		return load(new File(filename), false).toProperties();
+	}
+
+	/**
+	 * Save a replay in the binary format
+	 * @param filename Filename
+	 * @param replayProp Replay in the properties form
+	 * @throws IOException When the write fails
+	 */
+	public static void save(String filename, CustomProperties replayProp) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+		try {
+			fromProperties(replayProp).write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write an unsigned variable length integer (7 bits per byte)
+	 * @param out Output stream
+	 * @param value Value (0 or more)
+	 * @throws IOException When the write fails
+	 */
+	protected static void writeVarInt(OutputStream out, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Read an unsigned variable length integer
+	 * @param in Input stream
+	 * @return Value
+	 * @throws IOException When the read fails
+	 */
+	protected static int readVarInt(InputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if(b < 0) throw new IOException("Unexpected end of replay");
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Broken replay");
+	}
+
+	/**
+	 * Convert a replay file between the text and binary formats
+	 * @param args [input] [output] [text|binary (default)]
+	 */
+	public static void main(String[] args) {
+		BasicConfigurator.configure();
+		if(args.length < 2) {
+			System.err.println("Usage: ReplayFile [input] [output] [text|binary]");
+			return;
+		}
+
+		try {
+			ReplayFile r = load(new File(args[0]), false);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+			try {
+				if((args.length > 2) && args[2].equals("text")) {
+					r.toProperties().store(out, COMMENT);
+				} else {
+					r.write(out);
+				}
+			} finally {
+				out.close();
+			}
+			log.info("Converted " + args[0] + " (" + new File(args[0]).length() + " bytes) to " + args[1] + " (" + new File(args[1]).length() + " bytes)");
+		} catch (IOException e) {
+			log.error("Failed to convert " + args[0], e);
+		}
+	}
+}
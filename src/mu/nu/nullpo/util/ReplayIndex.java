@@ -0,0 +1,462 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import mu.nu.nullpo.game.component.Statistics;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Index of the replay files of a directory.<br>
+ * Keeps the mode name, rule name and Statistics of each replay, so the replay menu can show and filter them
+ * without loading every replay file. The index is saved to {@link #INDEX_FILENAME} in the replay directory.
+ * Each entry remembers the modified time and size of its file, and {@link #update()} starts a background thread
+ * that reads only the new and changed files again (the one given to {@link #prioritize(String)} first).
+ * Reading a replay for the index skips the input data of each frame: only the header of a binary replay is read,
+ * and a text replay is read until every key in {@link #TEXT_HEADER_KEYS} is found.
+ */
+public class ReplayIndex {
+	/** Log */
+	static Logger log = Logger.getLogger(ReplayIndex.class);
+
+	/** Filename of the index (in the replay directory) */
+	public static final String INDEX_FILENAME = "replayindex.txt";
+
+	/** First line of the index file */
+	protected static final String INDEX_HEADER = "#NullpoMino replay index 1";
+
+	/** Keys of a text replay that the index reads (the names and the statistics of the player 1) */
+	protected static final HashSet<String> TEXT_HEADER_KEYS = new HashSet<String>();
+	static {
+		CustomProperties prop = new CustomProperties();
+		new Statistics().writeProperty(prop, 0);
+		for(String key: prop.stringPropertyNames()) {
+			if(key.startsWith("0.statistics.")) TEXT_HEADER_KEYS.add(key);
+		}
+		TEXT_HEADER_KEYS.add("name.mode");
+		TEXT_HEADER_KEYS.add("name.rule");
+	}
+
+	/** Index entry of one replay */
+	public static class Entry {
+		/** Filename (without the directory) */
+		public String filename;
+
+		/** Modified time of the file */
+		public long lastModified;
+
+		/** Size of the file */
+		public long size;
+
+		/** Mode name */
+		public String modeName = "";
+
+		/** Rule name */
+		public String ruleName = "";
+
+		/** Statistics of the player 1 */
+		public Statistics stats = new Statistics();
+	}
+
+	/** Replay directory */
+	protected File dir;
+
+	/** Index file */
+	protected File indexFile;
+
+	/** Filename to entry (guarded by this) */
+	protected HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	/** Sorted replay filenames of the directory at the last update (null if the directory doesn't exist) */
+	protected String[] filenames;
+
+	/** Increased every time filenames or an entry is changed */
+	protected int revision;
+
+	/** true after the index file is loaded */
+	protected boolean indexLoaded;
+
+	/** true if the directory has to be checked again after the current pass of the worker */
+	protected boolean rescan;
+
+	/** true after stop() */
+	protected volatile boolean stopped;
+
+	/** File that is read next if it's not indexed yet */
+	protected volatile String priorityFilename;
+
+	/** Worker thread (null if not running) */
+	protected Thread worker;
+
+	/**
+	 * Constructor
+	 * @param dir Replay directory
+	 */
+	public ReplayIndex(File dir) {
+		this.dir = dir;
+		this.indexFile = new File(dir, INDEX_FILENAME);
+	}
+
+	/**
+	 * Get the replay directory
+	 * @return Replay directory
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * List the replay files and start the worker thread that indexes the new and changed ones.
+	 * The index file is loaded here the first time.
+	 * @return false if the directory doesn't exist
+	 */
+	public boolean update() {
+		String[] list = dir.list(new FilenameFilter() {
+			public boolean accept(File dir1, String name) {
+				return name.endsWith(".rep");
+			}
+		});
+		if(list != null) Arrays.sort(list);
+
+		synchronized(this) {
+			if(!indexLoaded && (list != null)) {
+				loadIndex();
+				indexLoaded = true;
+			}
+			filenames = list;
+			revision++;
+			if(list == null) return false;
+
+			stopped = false;
+			if(worker != null) {
+				rescan = true;
+			} else {
+				worker = new Thread(new Worker(), "ReplayIndex " + dir.getName());
+				worker.setDaemon(true);
+				worker.setPriority(Thread.MIN_PRIORITY);
+				worker.start();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop the worker thread after the file it's reading
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Read this file next if it's not indexed yet (usually the one at the cursor)
+	 * @param filename Filename
+	 */
+	public void prioritize(String filename) {
+		priorityFilename = filename;
+	}
+
+	/**
+	 * Check if the worker thread is running
+	 * @return true if the worker thread is running
+	 */
+	public synchronized boolean isBusy() {
+		return worker != null;
+	}
+
+	/**
+	 * Get the revision. It changes every time the file list or an entry is changed.
+	 * @return Revision
+	 */
+	public synchronized int getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Get the entry of a file
+	 * @param filename Filename
+	 * @return Entry (null if the file is not indexed yet)
+	 */
+	public synchronized Entry getEntry(String filename) {
+		return entries.get(filename);
+	}
+
+	/**
+	 * Get all replay filenames
+	 * @return Sorted filenames (null if the directory doesn't exist)
+	 */
+	public synchronized String[] getFilenames() {
+		return filenames;
+	}
+
+	/**
+	 * Get the replay filenames of a mode and a rule. Files that are not indexed yet are not included.
+	 * @param modeName Mode name (null for any mode)
+	 * @param ruleName Rule name (null for any rule)
+	 * @return Sorted filenames (null if the directory doesn't exist)
+	 */
+	public synchronized String[] getFilenames(String modeName, String ruleName) {
+		if((filenames == null) || ((modeName == null) && (ruleName == null))) return filenames;
+
+		ArrayList<String> result = new ArrayList<String>();
+		for(String filename: filenames) {
+			Entry e = entries.get(filename);
+			if((e != null) && ((modeName == null) || modeName.equals(e.modeName)) &&
+			   ((ruleName == null) || ruleName.equals(e.ruleName)))
+			{
+				result.add(filename);
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Read the index entry of a replay file
+	 * @param file Replay file
+	 * @return Entry
+	 * @throws IOException When the file can't be read
+	 */
+	public static Entry readEntry(File file) throws IOException {
+		Entry e = new Entry();
+		e.filename = file.getName();
+		e.lastModified = file.lastModified();
+		e.size = file.length();
+
+		CustomProperties prop;
+		if(ReplayFile.isBinary(file)) {
+			// Only the header
+			prop = ReplayFile.load(file, true).prop;
+		} else {
+			prop = readTextHeader(file);
+		}
+		e.modeName = prop.getProperty("name.mode", "");
+		e.ruleName = prop.getProperty("name.rule", "");
+		e.stats.readProperty(prop, 0);
+		return e;
+	}
+
+	/**
+	 * Read the names and the statistics of the player 1 from a text replay
+	 * @param file Replay file
+	 * @return Properties
+	 * @throws IOException When the file can't be read
+	 */
+	protected static CustomProperties readTextHeader(File file) throws IOException {
+		// Only the lines of the names and the statistics of the player 1 are parsed,
+		// and the rest of the file is skipped once all of them are found (the keys are not in any particular order)
+		StringBuilder sb = new StringBuilder();
+		HashSet<String> foundKeys = new HashSet<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "ISO-8859-1"));
+		try {
+			String str;
+			while((str = in.readLine()) != null) {
+				if(str.startsWith("name.mode") || str.startsWith("name.rule") || str.startsWith("0.statistics.")) {
+					sb.append(str).append('\n');
+
+					int sep = str.indexOf('=');
+					String key = (sep >= 0) ? str.substring(0, sep).trim() : str.trim();
+					if(TEXT_HEADER_KEYS.contains(key) && foundKeys.add(key) && (foundKeys.size() == TEXT_HEADER_KEYS.size())) {
+						break;
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		CustomProperties prop = new CustomProperties();
+		prop.load(new ByteArrayInputStream(sb.toString().getBytes("ISO-8859-1")));
+		return prop;
+	}
+
+	/**
+	 * Load the index file
+	 */
+	protected void loadIndex() {
+		if(!indexFile.exists()) return;
+
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+			try {
+				String str = in.readLine();
+				if(!INDEX_HEADER.equals(str)) {
+					log.info("Ignored an old replay index " + indexFile);
+					return;
+				}
+				while((str = in.readLine()) != null) {
+					String[] data = str.split("\t", -1);
+					if(data.length < 6) continue;
+					try {
+						Entry e = new Entry();
+						e.filename = data[0];
+						e.lastModified = Long.parseLong(data[1]);
+						e.size = Long.parseLong(data[2]);
+						e.modeName = data[3];
+						e.ruleName = data[4];
+						e.stats.importString(data[5]);
+						entries.put(e.filename, e);
+					} catch (Exception ex) {
+						log.debug("Ignored a broken replay index line: " + str);
+					}
+				}
+			} finally {
+				in.close();
+			}
+			log.debug("Loaded " + entries.size() + " entries from " + indexFile);
+		} catch (IOException e) {
+			log.warn("Failed to load " + indexFile, e);
+		}
+	}
+
+	/**
+	 * Save the index file (only the entries of the current files)
+	 */
+	protected void saveIndex() {
+		ArrayList<Entry> list = new ArrayList<Entry>();
+		synchronized(this) {
+			if(filenames == null) return;
+			for(String filename: filenames) {
+				Entry e = entries.get(filename);
+				if(e != null) list.add(e);
+			}
+		}
+
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+			try {
+				out.write(INDEX_HEADER);
+				out.newLine();
+				for(Entry e: list) {
+					out.write(e.filename + "\t" + e.lastModified + "\t" + e.size + "\t" + e.modeName + "\t" + e.ruleName + "\t" +
+							  e.stats.exportString());
+					out.newLine();
+				}
+			} finally {
+				out.close();
+			}
+			if(!tmpFile.renameTo(indexFile)) {
+				indexFile.delete();
+				if(!tmpFile.renameTo(indexFile)) throw new IOException("Failed to rename " + tmpFile + " to " + indexFile);
+			}
+		} catch (IOException e) {
+			log.warn("Failed to save " + indexFile, e);
+		}
+	}
+
+	/**
+	 * Worker thread
+	 */
+	protected class Worker implements Runnable {
+		public void run() {
+			long start = System.currentTimeMillis();
+			int count = 0;
+			boolean changed = false;
+
+			while(true) {
+				String[] list;
+				synchronized(ReplayIndex.this) {
+					list = filenames;
+					rescan = false;
+					if((list == null) || stopped) {
+						worker = null;
+						break;
+					}
+				}
+
+				LinkedHashSet<String> pending = new LinkedHashSet<String>(Arrays.asList(list));
+				while(!pending.isEmpty() && !stopped) {
+					String filename = priorityFilename;
+					if((filename == null) || !pending.remove(filename)) {
+						Iterator<String> it = pending.iterator();
+						filename = it.next();
+						it.remove();
+					}
+
+					File file = new File(dir, filename);
+					Entry old = getEntry(filename);
+					if((old != null) && (old.lastModified == file.lastModified()) && (old.size == file.length())) continue;
+
+					Entry e;
+					try {
+						e = readEntry(file);
+					} catch (IOException ex) {
+						log.error("Failed to load replay file (" + filename + ")", ex);
+						e = new Entry();
+						e.filename = filename;
+						e.lastModified = file.lastModified();
+						e.size = file.length();
+					}
+					synchronized(ReplayIndex.this) {
+						entries.put(filename, e);
+						revision++;
+					}
+					count++;
+					changed = true;
+				}
+
+				// Forget the deleted files
+				if(pending.isEmpty()) {
+					synchronized(ReplayIndex.this) {
+						changed |= entries.keySet().retainAll(new HashSet<String>(Arrays.asList(list)));
+					}
+				}
+				if(changed) {
+					saveIndex();
+					changed = false;
+				}
+
+				synchronized(ReplayIndex.this) {
+					if(!rescan || stopped) {
+						worker = null;
+						break;
+					}
+				}
+			}
+
+			log.debug("Indexed " + count + " replays in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Startup time measurement.<br>
+ * {@link #mark(String)} logs the time of each startup step since the previous one,
+ * and {@link #finish(String)} logs the total time once (e.g. when the title screen appears).
+ */
+public class StartupTimer {
+	/** Log */
+	static Logger log = Logger.getLogger(StartupTimer.class);
+
+	/** Time of the start (System.nanoTime()) */
+	protected static long startTime = System.nanoTime();
+
+	/** Time of the last mark (System.nanoTime()) */
+	protected static long lastTime = startTime;
+
+	/** true after finish() */
+	protected static boolean finished;
+
+	/**
+	 * Start the measurement (call this first in main)
+	 */
+	public static synchronized void start() {
+		startTime = lastTime = System.nanoTime();
+		finished = false;
+	}
+
+	/**
+	 * Log the time of a startup step
+	 * @param step Name of the step that just ended
+	 */
+	public static synchronized void mark(String step) {
+		if(finished) return;
+		long now = System.nanoTime();
+		log.info(String.format("Startup: %s took %.1f ms", step, (now - lastTime) / 1e6));
+		lastTime = now;
+	}
+
+	/**
+	 * Log the total startup time (only the first call does something)
+	 * @param what What is ready (e.g. "the title screen")
+	 */
+	public static synchronized void finish(String what) {
+		if(finished) return;
+		finished = true;
+		long now = System.nanoTime();
+
+		long uptime = -1;
+		try {
+			uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		} catch (Throwable e) {}
+
+		log.info(String.format("Startup: %.1f ms to %s (%d ms since the JVM started)", (now - startTime) / 1e6, what, uptime));
+	}
+}
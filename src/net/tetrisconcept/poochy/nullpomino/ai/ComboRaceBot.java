@@ -7,6 +7,7 @@ import mu.nu.nullpo.game.component.WallkickResult;
 import mu.nu.nullpo.game.event.EventReceiver;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.subsystem.ai.AIFieldSnapshot;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
 import mu.nu.nullpo.util.GeneralUtil;
 
@@ -21,24 +22,12 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	/** Log */
 	static Logger log = Logger.getLogger(ComboRaceBot.class);
 
-	/** List of field state codes which are possible to sustain a stable combo */
-	private static final short[] FIELDS = {
-		0x7, 0xB, 0xD, 0xE,
-		0x13, 0x15, 0x16, 0x19, 0x1A, 0x1C,
-		0x23, 0x29,
-		0x31, 0x32,
-		0x49, 0x4C,
-		0x61, 0x68,
-		0x83, 0x85, 0x86, 0x89, 0x8A, 0x8C,
-		0xC4, 0xC8,
-		0x111, 0x888
-	};
-
 	protected int[] stateScores = {6, 7, 7, 6, 8, 3, 2, 9, 3, 4, 3, 1, 8, 4, 1, 3, 1, 1, 4, 3, 9, 2, 3, 8, 4, 8, 3, 3};
 	
 	protected int[] pieceScores = {28, 18, 10, 9, 18, 18, 9};
 
-	protected Transition[][] moves;
+	/** Moves of each field state and piece (shared by all bots of the same rule) */
+	protected ComboRaceTable table;
 
 	protected int[] nextQueueIDs;
 
@@ -64,7 +53,10 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	public GameManager gManager;
 
 	/** When true,スレッドにThink routineの実行を指示 */
-	public ThinkRequestMutex thinkRequest;
+	public volatile boolean thinkRequested;
+
+	/** When true, the thread builds the moves table on its next run */
+	public volatile boolean createTablesRequest;
 
 	/** true when thread is executing the think routine. */
 	public boolean thinking;
@@ -75,9 +67,6 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	/** When true,スレッド動作中 */
 	public volatile boolean threadRunning;
 
-	/** Thread for executing the think routine */
-	public Thread thread;
-
 	/** Last input if done in ARE */
 	protected int inputARE;
 	/** Number of pieces to think ahead */
@@ -107,23 +96,23 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 		delay = 0;
 		gEngine = engine;
 		gManager = engine.owner;
-		thinkRequest = new ThinkRequestMutex();
 		thinking = false;
 		threadRunning = false;
+		// The search looks at MAX_THINK_DEPTH pieces after the current one (and the one after it in ARE)
+		engine.aiSnapshotNextIDs = Math.max(engine.aiSnapshotNextIDs, MAX_THINK_DEPTH + 1);
 
 		inputARE = 0;
 		thinkComplete = false;
 		thinkSuccess = false;
 		inARE = false;
 
-		if( ((thread == null) || !thread.isAlive()) && (engine.aiUseThread) ) {
-			thread = new Thread(this, "AI_" + playerID);
-			thread.setDaemon(true);
-			thread.start();
+		if((thinkTask == null) && (engine.aiUseThread)) {
 			thinkDelay = engine.aiThinkDelay;
 			thinkCurrentPieceNo = 0;
 			thinkLastPieceNo = 0;
+			startThinkTask(engine, this);
 		}
+		threadRunning = (thinkTask != null);
 	}
 
 	/*
@@ -131,11 +120,8 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	 */
 	@Override
 	public void shutdown(GameEngine engine, int playerID) {
-		if((thread != null) && (thread.isAlive())) {
-			thread.interrupt();
-			threadRunning = false;
-			thread = null;
-		}
+		stopThinkTask();
+		threadRunning = false;
 	}
 
 	/*
@@ -148,11 +134,20 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 		} else if ((!thinking && !thinkComplete) || !engine.aiPrethink || engine.aiShowHint
 				|| engine.getARE() <= 0 || engine.getARELine() <= 0) {
 			thinkCurrentPieceNo++;
-			thinkRequest.newRequest();
+			requestThink();
 		}
 		movestate = 0;
 	}
 
+	/*
+	 * Ask the scheduler to run the think routine
+	 */
+	@Override
+	protected void requestThink() {
+		thinkRequested = true;
+		super.requestThink();
+	}
+
 	/*
 	 * Called at the start of each frame
 	 */
@@ -165,7 +160,7 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 		{
 			if (DEBUG_ALL) log.debug("Begin pre-think of next piece.");
 			thinkComplete = false;
-			thinkRequest.newRequest();
+			requestThink();
 		}
 		inARE = newInARE;
 		if(inARE && delay >= engine.aiMoveDelay) {
@@ -207,7 +202,10 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	@Override
 	public void onLast(GameEngine engine, int playerID) {
 		if (engine.stat == GameEngine.Status.READY && engine.statc[0] == 0)
-			thinkRequest.newCreateTablesRequest();
+		{
+			createTablesRequest = true;
+			if(thinkTask != null) thinkTask.request();
+		}
 	}
 
 	/*
@@ -300,7 +298,7 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 					//thinkCurrentPieceNo++;
 					//System.out.println("rethink c:" + thinkCurrentPieceNo + " l:" + thinkLastPieceNo);
 					if (DEBUG_ALL) log.debug("Needs rethink - cannot reach desired position");
-					thinkRequest.newRequest();
+					requestThink();
 				} else {
 					// 到達できる場合
 					if((nowX == bestX) && (pieceTouchGround)) {
@@ -473,6 +471,22 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	 * @param playerID Player ID
 	 */
 	public void thinkBestPosition(GameEngine engine, int playerID) {
+		AIFieldSnapshot snap = acquireSnapshot(engine);
+		if (snap == null)
+			return;
+		try {
+			search(engine, snap);
+		} finally {
+			snap.release();
+		}
+	}
+
+	/**
+	 * Search for the best choice on a snapshot of the engine
+	 * @param engine The GameEngine that owns this AI (only its settings are read)
+	 * @param snap Field, pieces and NEXT IDs copied on the game thread
+	 */
+	protected void search(GameEngine engine, AIFieldSnapshot snap) {
 		if (DEBUG_ALL) log.debug("thinkBestPosition called, inARE = " + inARE + ", piece: ");
 		bestHold = false;
 		bestX = 0;
@@ -483,34 +497,34 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 		thinkSuccess = false;
 
 		Field fld;
-		if (engine.field == null)
+		if (snap.field == null)
 			fld = new Field(engine.fieldWidth, engine.fieldHeight,
 					engine.fieldHiddenHeight, engine.ruleopt.fieldCeiling);
 		else
-			fld = new Field(engine.field);
-		Piece pieceNow = engine.nowPieceObject;
-		Piece pieceHold = engine.holdPieceObject;
+			fld = new Field(snap.field);
+		Piece pieceNow = snap.nowPiece;
+		Piece pieceHold = snap.holdPiece;
 		boolean holdBoxEmpty = (pieceHold == null);
-		int nextIndex = engine.nextPieceCount;
+		int nextIndex = 0;
 		if (inARE || pieceNow == null)
 		{
-			pieceNow = engine.getNextObjectCopy(nextIndex);
+			pieceNow = snap.getNext(nextIndex);
 			nextIndex++;
 		}
 		if(holdBoxEmpty)
-			pieceHold = engine.getNextObjectCopy(nextIndex);
+			pieceHold = snap.getNext(nextIndex);
 		else if (holdBoxEmpty)
-			pieceHold = engine.getNextObjectCopy(engine.nextPieceCount);
+			pieceHold = snap.getNext(0);
 		pieceNow = checkOffset(pieceNow, engine);
 		pieceHold = checkOffset(pieceHold, engine);
-		boolean holdOK = engine.isHoldOK();
+		boolean holdOK = snap.holdOK;
 		int holdID = -1;
-		if (engine.holdPieceObject != null)
-			holdID = engine.holdPieceObject.id;
+		if (snap.holdPiece != null)
+			holdID = snap.holdPiece.id;
 
 		nextQueueIDs = new int[MAX_THINK_DEPTH];
 		for (int i = 0; i < nextQueueIDs.length; i++)
-			nextQueueIDs[i] = engine.getNextID(nextIndex+i);
+			nextQueueIDs[i] = snap.getNextID(nextIndex+i);
 
 		int state = fieldToIndex(fld);
 		if (state < 0)
@@ -518,45 +532,41 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 			thinkLastPieceNo++;
 			return;
 		}
-		Transition t = moves[state][pieceNow.id];
+		createTables(engine);
 
-		while (t != null)
+		for (int m = table.getFirstMove(state, pieceNow.id), end = table.getEndMove(state, pieceNow.id); m < end; m++)
 		{
-			int pts = thinkMain(engine, t.newField, holdID, 0);
+			int move = table.getMove(m);
+			int pts = thinkMain(engine, ComboRaceTable.getNewField(move), holdID, 0);
 
 			if (pts > bestPts)
 			{
 				bestPts = pts;
-				bestX = t.x + 3;
-				bestRt = t.rt;
+				bestX = ComboRaceTable.getX(move) + 3;
+				bestRt = ComboRaceTable.getRt(move);
 				bestY = pieceNow.getBottom(bestX, 0, bestRt, fld);
-				bestRtSub = t.rtSub;
+				bestRtSub = ComboRaceTable.getRtSub(move);
 				bestHold = false;
 				thinkSuccess = true;
 			}
-
-			t = t.next;
 		}
 		if (pieceHold.id != pieceNow.id && holdOK)
 		{
-			t = moves[state][pieceHold.id];
-
-			while (t != null)
+			for (int m = table.getFirstMove(state, pieceHold.id), end = table.getEndMove(state, pieceHold.id); m < end; m++)
 			{
-				int pts = thinkMain(engine, t.newField, pieceNow.id, holdBoxEmpty ? 1 : 0);
+				int move = table.getMove(m);
+				int pts = thinkMain(engine, ComboRaceTable.getNewField(move), pieceNow.id, holdBoxEmpty ? 1 : 0);
 
 				if (pts > bestPts)
 				{
 					bestPts = pts;
-					bestX = t.x + 3;
-					bestRt = t.rt;
+					bestX = ComboRaceTable.getX(move) + 3;
+					bestRt = ComboRaceTable.getRt(move);
 					bestY = pieceNow.getBottom(bestX, 0, bestRt, fld);
-					bestRtSub = t.rtSub;
+					bestRtSub = ComboRaceTable.getRtSub(move);
 					bestHold = true;
 					thinkSuccess = true;
 				}
-
-				t = t.next;
 			}
 		}
 
@@ -613,13 +623,10 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 		}
 
 		int bestPts = 0;
-		Transition t = moves[state][nextQueueIDs[depth]];
-
-		while (t != null)
+		for (int m = table.getFirstMove(state, nextQueueIDs[depth]), end = table.getEndMove(state, nextQueueIDs[depth]); m < end; m++)
 		{
 			bestPts = Math.max(bestPts,
-					thinkMain(engine, t.newField, holdID, depth+1) + 1000);
-			t = t.next;
+					thinkMain(engine, ComboRaceTable.getNewField(table.getMove(m)), holdID, depth+1) + 1000);
 		}
 
 		if (engine.ruleopt.holdEnable)
@@ -628,12 +635,10 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 				bestPts = Math.max(bestPts, thinkMain(engine, state, nextQueueIDs[depth], depth+1));
 			else
 			{
-				t = moves[state][holdID];
-				while (t != null)
+				for (int m = table.getFirstMove(state, holdID), end = table.getEndMove(state, holdID); m < end; m++)
 				{
 					bestPts = Math.max(bestPts,
-							thinkMain(engine, t.newField, nextQueueIDs[depth], depth+1) + 1000);
-					t = t.next;
+							thinkMain(engine, ComboRaceTable.getNewField(table.getMove(m)), nextQueueIDs[depth], depth+1) + 1000);
 				}
 			}
 		}
@@ -651,193 +656,38 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	}
 
 	/*
-	 * スレッドの処理
+	 * スレッドの処理 (run by AIThinkScheduler for each request)
 	 */
 	public void run() {
-		log.info("ComboRaceBot: Thread start");
-		threadRunning = true;
-
-		while(threadRunning) {
+		// The think routine needs the moves table, so it is built first
+		if (createTablesRequest) {
+			createTablesRequest = false;
+			createTables(gEngine);
+		}
+		if(thinkRequested) {
+			thinkRequested = false;
+			thinking = true;
 			try {
-				synchronized(thinkRequest)
-				{
-					if (!thinkRequest.active && !thinkRequest.createTablesRequest)
-						thinkRequest.wait();
-				}
-			} catch (InterruptedException e) {
-				log.debug("ComboRaceBot: InterruptedException waiting for thinkRequest signal");
-			}
-			if(thinkRequest.active) {
-				thinkRequest.active = false;
-				thinking = true;
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID);
-					thinkComplete = true;
-					//log.debug("ComboRaceBot: thinkBestPosition completed successfully");
-				} catch (Throwable e) {
-					log.debug("ComboRaceBot: thinkBestPosition Failed", e);
-				}
-				thinking = false;
-			}
-			else if (thinkRequest.createTablesRequest)
-				createTables(gEngine);
-
-			if(thinkDelay > 0) {
-				try {
-					Thread.sleep(thinkDelay);
-				} catch (InterruptedException e) {
-					break;
-				}
+				thinkBestPosition(gEngine, gEngine.playerID);
+				thinkComplete = true;
+				//log.debug("ComboRaceBot: thinkBestPosition completed successfully");
+			} catch (Throwable e) {
+				log.debug("ComboRaceBot: thinkBestPosition Failed", e);
 			}
+			thinking = false;
 		}
-
-		threadRunning = false;
-		log.info("ComboRaceBot: Thread end");
 	}
 
 	/**
-	 * Constructs the moves table if necessary.
+	 * Gets the moves table of the rule if necessary.
+	 * The table is built once per rule and shared by all ComboRaceBots (see {@link ComboRaceTable#get(GameEngine)}).
 	 */
 	public void createTables (GameEngine engine)
 	{
-		if (moves != null)
+		if (table != null)
 			return;
 
-		moves = new Transition[FIELDS.length][7];
-
-		Field fldEmpty = new Field(4, Field.DEFAULT_HEIGHT, Field.DEFAULT_HIDDEN_HEIGHT);
-		Field fldBackup = new Field(fldEmpty);
-		Field fldTemp = new Field(fldEmpty);
-
-		Piece[] pieces = new Piece[7];
-		for (int p = 0; p < 7; p++)
-		{
-			pieces[p] = checkOffset(new Piece(p), engine);
-			pieces[p].setColor(1);
-		}
-
-		int count = 0;
-
-		for (int i = 0; i < FIELDS.length; i++)
-		{
-			fldBackup.copy(fldEmpty);
-			short code = FIELDS[i];
-
-			for (int y = Field.DEFAULT_HEIGHT-1; y > Field.DEFAULT_HEIGHT-4; y--)
-				for (int x = 3; x >= 0; x--)
-				{
-					if ((code & 1) == 1)
-						fldBackup.setBlockColor(x, y, 1);
-					code >>= 1;
-				}
-
-			for (int p = 0; p < 7; p++)
-			{
-				int tempX = engine.getSpawnPosX(fldBackup, pieces[p]);
-				for (int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
-				{
-					int minX = pieces[p].getMostMovableLeft(tempX, 0, rt, fldBackup);
-					int maxX = pieces[p].getMostMovableRight(tempX, 0, rt, fldBackup);
-
-					for (int x = minX; x <= maxX; x++)
-					{
-						int y = pieces[p].getBottom(x, 0, rt, fldBackup);
-						if (p == Piece.PIECE_L || p == Piece.PIECE_T || p == Piece.PIECE_J || rt < 2)
-						{
-							fldTemp.copy(fldBackup);
-							pieces[p].placeToField(x, y, rt, fldTemp);
-							if (fldTemp.checkLine() == 1)
-							{
-								fldTemp.clearLine();
-								fldTemp.downFloatingBlocks();
-								int index = fieldToIndex(fldTemp, 0);
-								if (index >= 0)
-								{
-									moves[i][p] = new Transition(x, rt, index, moves[i][p]);
-									count++;
-								}
-							}
-							if (p == Piece.PIECE_O)
-								continue;
-						}
-
-						// Left rotation
-						if(!engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse) {
-							int rot = pieces[p].getRotateDirection(-1, rt);
-							int newX = x;
-							int newY = y;
-							fldTemp.copy(fldBackup);
-
-							if(pieces[p].checkCollision(x, y, rot, fldTemp) && (engine.wallkick != null) &&
-									(engine.ruleopt.rotateWallkick)) {
-								WallkickResult kick = engine.wallkick.executeWallkick(x, y, -1, rt, rot,
-										(engine.ruleopt.rotateMaxUpwardWallkick != 0), pieces[p], fldTemp, null);
-
-								if(kick != null) {
-									newX = x + kick.offsetX;
-									newY = pieces[p].getBottom(newX, y + kick.offsetY, rot, fldTemp);
-								}
-							}
-							if (!pieces[p].checkCollision(newX, newY, rot, fldTemp)
-									&& newY > pieces[p].getBottom(newX, 0, rot, fldTemp))
-							{
-								pieces[p].placeToField(newX, newY, rot, fldTemp);
-								if (fldTemp.checkLine() == 1)
-								{
-									fldTemp.clearLine();
-									fldTemp.downFloatingBlocks();
-									int index = fieldToIndex(fldTemp, 0);
-									if (index >= 0)
-									{
-										moves[i][p] = new Transition(x, rt, -1, index, moves[i][p]);
-										count++;
-									}
-								}
-							}
-						}
-
-						// Right rotation
-						if(engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse) {
-							int rot = pieces[p].getRotateDirection(1, rt);
-							int newX = x;
-							int newY = y;
-							fldTemp.copy(fldBackup);
-
-							if(pieces[p].checkCollision(x, y, rot, fldTemp) && (engine.wallkick != null) &&
-									(engine.ruleopt.rotateWallkick)) {
-								WallkickResult kick = engine.wallkick.executeWallkick(x, y, 1, rt, rot,
-										(engine.ruleopt.rotateMaxUpwardWallkick != 0), pieces[p], fldTemp, null);
-
-								if(kick != null) {
-									newX = x + kick.offsetX;
-									newY = pieces[p].getBottom(newX, y + kick.offsetY, rot, fldTemp);
-								}
-							}
-							if (!pieces[p].checkCollision(newX, newY, rot, fldTemp)
-									&& newY > pieces[p].getBottom(newX, 0, rot, fldTemp))
-							{
-								pieces[p].placeToField(newX, newY, rot, fldTemp);
-								if (fldTemp.checkLine() == 1)
-								{
-									fldTemp.clearLine();
-									fldTemp.downFloatingBlocks();
-									int index = fieldToIndex(fldTemp, 0);
-									if (index >= 0)
-									{
-										moves[i][p] = new Transition(x, rt, 1, index, moves[i][p]);
-										count++;
-									}
-								}
-							}
-						}
-					}
-
-					if (pieces[p].id == Piece.PIECE_O)
-						break;
-				}
-			}
-		}
-		log.debug("Transition table created. Total entries: " + count);
+		table = ComboRaceTable.get(engine);
 		//TODO: PageRank scores for each state
 	}
 
@@ -849,16 +699,7 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	 */
 	public static short fieldToCode(Field field, int valleyX)
 	{
-		int height = field.getHeight();
-		short result = 0;
-		for (int y = height-3; y < height; y++)
-			for (int x = 0; x < 4; x++)
-			{
-				result <<= 1;
-				if (!field.getBlockEmptyF(x+valleyX, y))
-					result++;
-			}
-		return result;
+		return ComboRaceTable.fieldToCode(field, valleyX);
 	}
 	public static short fieldToCode(Field field)
 	{
@@ -872,20 +713,7 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 	 */
 	public static int fieldToIndex(short field)
 	{
-		int min = 0;
-		int max = FIELDS.length-1;
-		int mid;
-		while (min <= max)
-		{
-			mid = (min+max) >> 1;
-			if (FIELDS[mid] > field)
-				max = mid-1;
-			else if (FIELDS[mid] < field)
-				min = mid+1;
-			else
-				return mid;
-		}
-		return -1;
+		return ComboRaceTable.fieldToIndex(field);
 	}
 
 	/**
@@ -946,7 +774,7 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 		r.drawScoreFont(engine, playerID, 19, 39, "THINK ACTIVE:", EventReceiver.COLOR_BLUE, 0.5f);
 		r.drawScoreFont(engine, playerID, 32, 39, GeneralUtil.getOorX(thinking), 0.5f);
 		r.drawScoreFont(engine, playerID, 19, 40, "THINK REQUEST:", EventReceiver.COLOR_BLUE, 0.5f);
-		r.drawScoreFont(engine, playerID, 33, 40, GeneralUtil.getOorX(thinkRequest.active), 0.5f);
+		r.drawScoreFont(engine, playerID, 33, 40, GeneralUtil.getOorX(thinkRequested), 0.5f);
 		r.drawScoreFont(engine, playerID, 19, 41, "THINK SUCCESS:",
 				thinkSuccess ? EventReceiver.COLOR_BLUE :  EventReceiver.COLOR_RED, 0.5f);
 		r.drawScoreFont(engine, playerID, 33, 41, GeneralUtil.getOorX(thinkSuccess), !thinkSuccess, 0.5f);
@@ -1088,7 +916,7 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 					//thinkCurrentPieceNo++;
 					//System.out.println("rethink c:" + thinkCurrentPieceNo + " l:" + thinkLastPieceNo);
 					if (DEBUG_ALL) log.debug("Needs rethink - cannot reach desired position");
-					thinkRequest.newRequest();
+					requestThink();
 				} else {
 					if((nowX == bestXSub || movestate > 0) && (rt == bestRtSub)) {
 						moveDir = 0;
@@ -1131,62 +959,4 @@ public class ComboRaceBot extends DummyAI implements Runnable {
 			}
 		}
 	}
-
-	protected static class Transition
-	{
-		public int x, rt, rtSub, newField;
-		public Transition next;
-		public Transition (int bestX, int bestRt, int bestRtSub, int newFld)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = bestRtSub;
-			newField = newFld;
-		}
-		public Transition (int bestX, int bestRt, int newFld)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = 0;
-			newField = newFld;
-		}
-		public Transition (int bestX, int bestRt, int bestRtSub, int newFld, Transition nxt)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = bestRtSub;
-			newField = newFld;
-			next = nxt;
-		}
-		public Transition (int bestX, int bestRt, int newFld, Transition nxt)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = 0;
-			newField = newFld;
-			next = nxt;
-		}
-	}
-	
-	//Wrapper for think requests
-	private static class ThinkRequestMutex
-	{
-		public boolean active;
-		public boolean createTablesRequest;
-		public ThinkRequestMutex()
-		{
-			active = false;
-			createTablesRequest = false;
-		}
-		public synchronized void newRequest()
-		{
-			active = true;
-			notifyAll();
-		}
-		public synchronized void newCreateTablesRequest()
-		{
-			createTablesRequest = true;
-			notifyAll();
-		}
-	}
 }
@@ -2,10 +2,8 @@ package net.tetrisconcept.poochy.nullpomino.ai;
 
 import mu.nu.nullpo.game.component.Field;
 import mu.nu.nullpo.game.component.Piece;
-import mu.nu.nullpo.game.component.WallkickResult;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
-import mu.nu.nullpo.game.subsystem.wallkick.StandardWallkick;
 import net.omegaboshi.nullpomino.game.subsystem.randomizer.BagNoSZORandomizer;
 
 import org.apache.log4j.Logger;
@@ -14,19 +12,6 @@ public class ComboRaceSeedSearch extends DummyAI {
 	/** Log (Apache log4j) */
 	static Logger log = Logger.getLogger(ComboRaceSeedSearch.class);
 
-	/** List of field state codes which are possible to sustain a stable combo */
-	private static final short[] FIELDS = {
-		0x7, 0xB, 0xD, 0xE,
-		0x13, 0x15, 0x16, 0x19, 0x1A, 0x1C,
-		0x23, 0x29,
-		0x31, 0x32,
-		0x49, 0x4C,
-		0x61, 0x68,
-		0x83, 0x85, 0x86, 0x89, 0x8A, 0x8C,
-		0xC4, 0xC8,
-		0x111, 0x888
-	};
-
 	/** Number of pieces to think ahead */
 	protected static final int MAX_THINK_DEPTH = 6;
 	/** Length of piece queue */
@@ -35,7 +20,7 @@ public class ComboRaceSeedSearch extends DummyAI {
 	protected static int[] stateScores = {6, 7, 7, 6, 8, 3, 2, 9, 3, 4, 3, 1, 8, 4, 1, 3, 1, 1, 4, 3, 9, 2, 3, 8, 4, 8, 3, 3};
 
 	protected static int[] pieceScores = {28, 18, 10, 9, 18, 18, 9};
-	protected static Transition[][] moves;
+	protected static ComboRaceTable table;
 	protected static int[] nextQueueIDs;
 	protected static int[] queue;
 	public static boolean bestHold;
@@ -84,7 +69,7 @@ public class ComboRaceSeedSearch extends DummyAI {
 				}
 				pos++;
 				result++;
-				if (result > 8l*QUEUE_SIZE*FIELDS.length)
+				if (result > 8l*QUEUE_SIZE*ComboRaceTable.getStateCount())
 				{
 					System.out.println("Endless loop found! Seed = " + Long.toString(seed, 16));
 			    	//long end = System.currentTimeMillis();
@@ -118,37 +103,32 @@ public class ComboRaceSeedSearch extends DummyAI {
 		for (int i = 0; i < nextQueueIDs.length; i++)
 			nextQueueIDs[i] = queue[(nextIndex+i)%queue.length];
 
-		Transition t = moves[state][nowID];
-
-		while (t != null)
+		for (int m = table.getFirstMove(state, nowID), end = table.getEndMove(state, nowID); m < end; m++)
 		{
-			int pts = thinkMain(t.newField, holdID, 0);
+			int newField = ComboRaceTable.getNewField(table.getMove(m));
+			int pts = thinkMain(newField, holdID, 0);
 
 			if (pts > bestPts)
 			{
 				bestPts = pts;
-				bestNext = t.newField;
+				bestNext = newField;
 				bestHold = false;
 			}
-
-			t = t.next;
 		}
 		if (holdID != nowID)
 		{
-			t = moves[state][holdID == -1 ? nextQueueIDs[0] : holdID];
-
-			while (t != null)
+			int swapID = (holdID == -1) ? nextQueueIDs[0] : holdID;
+			for (int m = table.getFirstMove(state, swapID), end = table.getEndMove(state, swapID); m < end; m++)
 			{
-				int pts = thinkMain(t.newField, nowID, (holdID == -1) ? 1 : 0);
+				int newField = ComboRaceTable.getNewField(table.getMove(m));
+				int pts = thinkMain(newField, nowID, (holdID == -1) ? 1 : 0);
 
 				if (pts > bestPts)
 				{
 					bestPts = pts;
-					bestNext = t.newField;
+					bestNext = newField;
 					bestHold = true;
 				}
-
-				t = t.next;
 			}
 		}
 
@@ -178,25 +158,20 @@ public class ComboRaceSeedSearch extends DummyAI {
 		}
 
 		int bestPts = 0;
-		Transition t = moves[state][nextQueueIDs[depth]];
-
-		while (t != null)
+		for (int m = table.getFirstMove(state, nextQueueIDs[depth]), end = table.getEndMove(state, nextQueueIDs[depth]); m < end; m++)
 		{
 			bestPts = Math.max(bestPts,
-					thinkMain(t.newField, holdID, depth+1) + 1000);
-			t = t.next;
+					thinkMain(ComboRaceTable.getNewField(table.getMove(m)), holdID, depth+1) + 1000);
 		}
 
 		if (holdID == -1)
 			bestPts = Math.max(bestPts, thinkMain(state, nextQueueIDs[depth], depth+1));
 		else
 		{
-			t = moves[state][holdID];
-			while (t != null)
+			for (int m = table.getFirstMove(state, holdID), end = table.getEndMove(state, holdID); m < end; m++)
 			{
 				bestPts = Math.max(bestPts,
-						thinkMain(t.newField, nextQueueIDs[depth], depth+1) + 1000);
-				t = t.next;
+						thinkMain(ComboRaceTable.getNewField(table.getMove(m)), nextQueueIDs[depth], depth+1) + 1000);
 			}
 		}
 
@@ -213,145 +188,14 @@ public class ComboRaceSeedSearch extends DummyAI {
 	}
 
 	/**
-	 * Constructs the moves table if necessary.
+	 * Gets the moves table (default rule, standard wallkick) if necessary.
 	 */
 	public static void createTables ()
 	{
-		if (moves != null)
+		if (table != null)
 			return;
-		
-		StandardWallkick wallkick = new StandardWallkick();
-
-		moves = new Transition[FIELDS.length][7];
-
-		Field fldEmpty = new Field(4, Field.DEFAULT_HEIGHT, Field.DEFAULT_HIDDEN_HEIGHT);
-		Field fldBackup = new Field(fldEmpty);
-		Field fldTemp = new Field(fldEmpty);
-
-		Piece[] pieces = new Piece[7];
-		for (int p = 0; p < 7; p++)
-		{
-			pieces[p] = new Piece(p);
-			pieces[p].setColor(1);
-		}
-
-		int count = 0;
-
-		for (int i = 0; i < FIELDS.length; i++)
-		{
-			fldBackup.copy(fldEmpty);
-			short code = FIELDS[i];
-
-			for (int y = Field.DEFAULT_HEIGHT-1; y > Field.DEFAULT_HEIGHT-4; y--)
-				for (int x = 3; x >= 0; x--)
-				{
-					if ((code & 1) == 1)
-						fldBackup.setBlockColor(x, y, 1);
-					code >>= 1;
-				}
-
-			for (int p = 0; p < 7; p++)
-			{
-				int tempX = -1 + (fldBackup.getWidth() - pieces[p].getWidth() + 1) / 2;
-				for (int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
-				{
-					int minX = pieces[p].getMostMovableLeft(tempX, 0, rt, fldBackup);
-					int maxX = pieces[p].getMostMovableRight(tempX, 0, rt, fldBackup);
-
-					for (int x = minX; x <= maxX; x++)
-					{
-						int y = pieces[p].getBottom(x, 0, rt, fldBackup);
-						if (p == Piece.PIECE_L || p == Piece.PIECE_T || p == Piece.PIECE_J || rt < 2)
-						{
-							fldTemp.copy(fldBackup);
-							pieces[p].placeToField(x, y, rt, fldTemp);
-							if (fldTemp.checkLine() == 1)
-							{
-								fldTemp.clearLine();
-								fldTemp.downFloatingBlocks();
-								int index = fieldToIndex(fldTemp, 0);
-								if (index >= 0)
-								{
-									moves[i][p] = new Transition(x, rt, index, moves[i][p]);
-									count++;
-								}
-							}
-							if (p == Piece.PIECE_O)
-								continue;
-						}
-
-						// Left rotation
-						int rot = pieces[p].getRotateDirection(-1, rt);
-						int newX = x;
-						int newY = y;
-						fldTemp.copy(fldBackup);
 
-						if(pieces[p].checkCollision(x, y, rot, fldTemp)) {
-							WallkickResult kick = wallkick.executeWallkick(x, y, -1, rt, rot,
-									true, pieces[p], fldTemp, null);
-
-							if(kick != null) {
-								newX = x + kick.offsetX;
-								newY = pieces[p].getBottom(newX, y + kick.offsetY, rot, fldTemp);
-							}
-						}
-						if (!pieces[p].checkCollision(newX, newY, rot, fldTemp)
-								&& newY > pieces[p].getBottom(newX, 0, rot, fldTemp))
-						{
-							pieces[p].placeToField(newX, newY, rot, fldTemp);
-							if (fldTemp.checkLine() == 1)
-							{
-								fldTemp.clearLine();
-								fldTemp.downFloatingBlocks();
-								int index = fieldToIndex(fldTemp, 0);
-								if (index >= 0)
-								{
-									moves[i][p] = new Transition(x, rt, -1, index, moves[i][p]);
-									count++;
-								}
-							}
-						}
-
-						// Right rotation
-						rot = pieces[p].getRotateDirection(1, rt);
-						newX = x;
-						newY = y;
-						fldTemp.copy(fldBackup);
-
-						if(pieces[p].checkCollision(x, y, rot, fldTemp)) {
-							WallkickResult kick = wallkick.executeWallkick(x, y, 1, rt, rot,
-									true, pieces[p], fldTemp, null);
-
-							if(kick != null) {
-								newX = x + kick.offsetX;
-								newY = pieces[p].getBottom(newX, y + kick.offsetY, rot, fldTemp);
-							}
-						}
-						if (!pieces[p].checkCollision(newX, newY, rot, fldTemp)
-								&& newY > pieces[p].getBottom(newX, 0, rot, fldTemp))
-						{
-							pieces[p].placeToField(newX, newY, rot, fldTemp);
-							if (fldTemp.checkLine() == 1)
-							{
-								fldTemp.clearLine();
-								fldTemp.downFloatingBlocks();
-								int index = fieldToIndex(fldTemp, 0);
-								if (index >= 0)
-								{
-									moves[i][p] = new Transition(x, rt, 1, index, moves[i][p]);
-									count++;
-								}
-							}
-						}
-					}
-
-					if (pieces[p].id == Piece.PIECE_O)
-						break;
-				}
-			}
-		}
-		//log.debug("Transition table created. Total entries: " + count);
-		//TODO: PageRank scores for each state
+		table = ComboRaceTable.getStandard();
 	}
 
 	/**
@@ -362,16 +206,7 @@ public class ComboRaceSeedSearch extends DummyAI {
 	 */
 	public static short fieldToCode(Field field, int valleyX)
 	{
-		int height = field.getHeight();
-		short result = 0;
-		for (int y = height-3; y < height; y++)
-			for (int x = 0; x < 4; x++)
-			{
-				result <<= 1;
-				if (!field.getBlockEmptyF(x+valleyX, y))
-					result++;
-			}
-		return result;
+		return ComboRaceTable.fieldToCode(field, valleyX);
 	}
 	public static short fieldToCode(Field field)
 	{
@@ -385,20 +220,7 @@ public class ComboRaceSeedSearch extends DummyAI {
 	 */
 	public static int fieldToIndex(short field)
 	{
-		int min = 0;
-		int max = FIELDS.length-1;
-		int mid;
-		while (min <= max)
-		{
-			mid = (min+max) >> 1;
-			if (FIELDS[mid] > field)
-				max = mid-1;
-			else if (FIELDS[mid] < field)
-				min = mid+1;
-			else
-				return mid;
-		}
-		return -1;
+		return ComboRaceTable.fieldToIndex(field);
 	}
 
 	/**
@@ -415,40 +237,4 @@ public class ComboRaceSeedSearch extends DummyAI {
 	{
 		return fieldToIndex(fieldToCode(field));
 	}
-	
-	protected static class Transition
-	{
-		public int x, rt, rtSub, newField;
-		public Transition next;
-		public Transition (int bestX, int bestRt, int bestRtSub, int newFld)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = bestRtSub;
-			newField = newFld;
-		}
-		public Transition (int bestX, int bestRt, int newFld)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = 0;
-			newField = newFld;
-		}
-		public Transition (int bestX, int bestRt, int bestRtSub, int newFld, Transition nxt)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = bestRtSub;
-			newField = newFld;
-			next = nxt;
-		}
-		public Transition (int bestX, int bestRt, int newFld, Transition nxt)
-		{
-			x = bestX;
-			rt = bestRt;
-			rtSub = 0;
-			newField = newFld;
-			next = nxt;
-		}
-	}
 }
@@ -0,0 +1,552 @@
+package net.tetrisconcept.poochy.nullpomino.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.component.WallkickResult;
+import mu.nu.nullpo.game.play.GameEngine;
+import mu.nu.nullpo.game.subsystem.wallkick.StandardWallkick;
+import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
+import mu.nu.nullpo.util.GeneralUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Combo race move graph: for each field state and piece, the placements that clear one line
+ * and the field state after them.<br>
+ * A table only depends on the rule (piece offsets, spawn position, rotation buttons and wallkick),
+ * so one immutable table per rule is shared by every bot in the VM ({@link #get(GameEngine)}).
+ * The moves of all states are packed in one int array; the moves of state s and piece p are
+ * the entries from {@link #getFirstMove(int, int)} to {@link #getEndMove(int, int)} (exclusive).
+ * Tables can also be precomputed into {@link #DEFAULT_FILE} with {@link #main(String[])}.
+ * @author Poochy.EXE
+ *         Poochy.Spambucket@gmail.com
+ */
+public class ComboRaceTable
+{
+	/** Log */
+	static Logger log = Logger.getLogger(ComboRaceTable.class);
+
+	/** List of field state codes which are possible to sustain a stable combo */
+	private static final short[] FIELDS = {
+		0x7, 0xB, 0xD, 0xE,
+		0x13, 0x15, 0x16, 0x19, 0x1A, 0x1C,
+		0x23, 0x29,
+		0x31, 0x32,
+		0x49, 0x4C,
+		0x61, 0x68,
+		0x83, 0x85, 0x86, 0x89, 0x8A, 0x8C,
+		0xC4, 0xC8,
+		0x111, 0x888
+	};
+
+	/** Number of piece types in the table */
+	public static final int PIECE_TYPES = 7;
+
+	/** File of precomputed tables */
+	public static final String DEFAULT_FILE = "res/ai/comboracetable.dat";
+
+	/** First 4 bytes of a table file ("NCRT") */
+	private static final int FILE_MAGIC = 0x4E435254;
+
+	/** Version of the table file format */
+	private static final int FILE_VERSION = 1;
+
+	/** Added to X-coordinates so that they are stored as positive numbers */
+	private static final int X_OFFSET = 16;
+
+	/** Tables by rule key */
+	private static final Map<String, ComboRaceTable> tables = new HashMap<String, ComboRaceTable>();
+
+	/** true after DEFAULT_FILE is read (or found missing) */
+	private static boolean fileLoaded;
+
+	/** Index of the first move of each state and piece (state * PIECE_TYPES + piece), plus the end */
+	private final int[] moveStart;
+
+	/** Moves (see {@link #getX(int)}, {@link #getRt(int)}, {@link #getRtSub(int)}, {@link #getNewField(int)}) */
+	private final int[] moveData;
+
+	/**
+	 * Constructor
+	 * @param moveStart Index of the first move of each state and piece, plus the end
+	 * @param moveData Moves
+	 */
+	private ComboRaceTable(int[] moveStart, int[] moveData)
+	{
+		this.moveStart = moveStart;
+		this.moveData = moveData;
+	}
+
+	/**
+	 * Get the table of the rule of an engine (built on the first call for each rule)
+	 * @param engine GameEngine
+	 * @return Table
+	 */
+	public static ComboRaceTable get(GameEngine engine)
+	{
+		String key = getKey(engine);
+		synchronized (tables)
+		{
+			if (!fileLoaded)
+			{
+				fileLoaded = true;
+				File file = new File(DEFAULT_FILE);
+				if (file.exists())
+				{
+					try {
+						readFile(file, tables);
+					} catch (IOException e) {
+						log.warn("Failed to load " + file, e);
+					}
+				}
+			}
+			ComboRaceTable table = tables.get(key);
+			if (table == null)
+			{
+				long start = System.nanoTime();
+				table = create(engine);
+				tables.put(key, table);
+				log.debug("Transition table created in " + (System.nanoTime() - start) / 1000 + " us. Total entries: " +
+						table.getMoveCount());
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Get the table of the default rule with the standard wallkick
+	 * @return Table
+	 */
+	public static ComboRaceTable getStandard()
+	{
+		return get(new GameEngine(null, 0, new RuleOptions(), new StandardWallkick(), null));
+	}
+
+	/**
+	 * Get the key of the parts of a rule that change the table
+	 * @param engine GameEngine
+	 * @return Key
+	 */
+	public static String getKey(GameEngine engine)
+	{
+		RuleOptions ruleopt = engine.ruleopt;
+		StringBuilder key = new StringBuilder();
+		key.append((engine.wallkick == null) ? "-" : engine.wallkick.getClass().getName());
+		key.append(ruleopt.rotateWallkick ? 'W' : 'w');
+		key.append((ruleopt.rotateMaxUpwardWallkick != 0) ? 'U' : 'u');
+		key.append((!ruleopt.rotateButtonDefaultRight || ruleopt.rotateButtonAllowReverse) ? 'L' : 'l');
+		key.append((ruleopt.rotateButtonDefaultRight || ruleopt.rotateButtonAllowReverse) ? 'R' : 'r');
+		key.append(engine.big ? 'B' : 'b');
+		Field fld = new Field(4, Field.DEFAULT_HEIGHT, Field.DEFAULT_HIDDEN_HEIGHT);
+		for (int p = 0; p < PIECE_TYPES; p++)
+		{
+			Piece piece = ComboRaceBot.checkOffset(new Piece(p), engine);
+			key.append(',').append(engine.getSpawnPosX(fld, piece));
+			for (int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
+				key.append(':').append(ruleopt.pieceOffsetX[p][rt]).append(':').append(ruleopt.pieceOffsetY[p][rt]);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Build the table of the rule of an engine
+	 * @param engine GameEngine
+	 * @return Table
+	 */
+	public static ComboRaceTable create(GameEngine engine)
+	{
+		boolean rotateLeft = !engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse;
+		boolean rotateRight = engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse;
+		Wallkick wallkick = engine.ruleopt.rotateWallkick ? engine.wallkick : null;
+		boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick != 0);
+
+		Field fldEmpty = new Field(4, Field.DEFAULT_HEIGHT, Field.DEFAULT_HIDDEN_HEIGHT);
+		Field fldBackup = new Field(fldEmpty);
+		Field fldTemp = new Field(fldEmpty);
+
+		Piece[] pieces = new Piece[PIECE_TYPES];
+		for (int p = 0; p < PIECE_TYPES; p++)
+		{
+			pieces[p] = ComboRaceBot.checkOffset(new Piece(p), engine);
+			pieces[p].setColor(1);
+		}
+
+		int[] moveStart = new int[FIELDS.length * PIECE_TYPES + 1];
+		int[] moveData = new int[256];
+		int count = 0;
+
+		for (int i = 0; i < FIELDS.length; i++)
+		{
+			fldBackup.copy(fldEmpty);
+			short code = FIELDS[i];
+
+			for (int y = Field.DEFAULT_HEIGHT-1; y > Field.DEFAULT_HEIGHT-4; y--)
+				for (int x = 3; x >= 0; x--)
+				{
+					if ((code & 1) == 1)
+						fldBackup.setBlockColor(x, y, 1);
+					code >>= 1;
+				}
+
+			for (int p = 0; p < PIECE_TYPES; p++)
+			{
+				int first = count;
+				int tempX = engine.getSpawnPosX(fldBackup, pieces[p]);
+				for (int rt = 0; rt < Piece.DIRECTION_COUNT; rt++)
+				{
+					int minX = pieces[p].getMostMovableLeft(tempX, 0, rt, fldBackup);
+					int maxX = pieces[p].getMostMovableRight(tempX, 0, rt, fldBackup);
+
+					for (int x = minX; x <= maxX; x++)
+					{
+						int y = pieces[p].getBottom(x, 0, rt, fldBackup);
+						if (p == Piece.PIECE_L || p == Piece.PIECE_T || p == Piece.PIECE_J || rt < 2)
+						{
+							fldTemp.copy(fldBackup);
+							pieces[p].placeToField(x, y, rt, fldTemp);
+							int index = clearAndGetIndex(fldTemp);
+							if (index >= 0)
+							{
+								moveData = add(moveData, count, encode(x, rt, 0, index));
+								count++;
+							}
+							if (p == Piece.PIECE_O)
+								continue;
+						}
+
+						// Left rotation
+						if (rotateLeft)
+						{
+							int index = rotateAndGetIndex(pieces[p], x, y, rt, -1, wallkick, allowUpward, fldBackup, fldTemp);
+							if (index >= 0)
+							{
+								moveData = add(moveData, count, encode(x, rt, -1, index));
+								count++;
+							}
+						}
+
+						// Right rotation
+						if (rotateRight)
+						{
+							int index = rotateAndGetIndex(pieces[p], x, y, rt, 1, wallkick, allowUpward, fldBackup, fldTemp);
+							if (index >= 0)
+							{
+								moveData = add(moveData, count, encode(x, rt, 1, index));
+								count++;
+							}
+						}
+					}
+
+					if (pieces[p].id == Piece.PIECE_O)
+						break;
+				}
+
+				// The bots have always tried the moves from the last one found
+				for (int a = first, b = count - 1; a < b; a++, b--)
+				{
+					int temp = moveData[a];
+					moveData[a] = moveData[b];
+					moveData[b] = temp;
+				}
+				moveStart[i * PIECE_TYPES + p] = first;
+			}
+		}
+		moveStart[moveStart.length - 1] = count;
+
+		int[] result = new int[count];
+		System.arraycopy(moveData, 0, result, 0, count);
+		return new ComboRaceTable(moveStart, result);
+	}
+
+	/**
+	 * Rotate a dropped piece (with wallkick), place it and clear the line
+	 * @return State index after the line clear; -1 if the rotation or the line clear fails or the state is unstable
+	 */
+	private static int rotateAndGetIndex(Piece piece, int x, int y, int rt, int rtDir, Wallkick wallkick,
+			boolean allowUpward, Field fldBackup, Field fldTemp)
+	{
+		int rot = piece.getRotateDirection(rtDir, rt);
+		int newX = x;
+		int newY = y;
+		fldTemp.copy(fldBackup);
+
+		if (piece.checkCollision(x, y, rot, fldTemp) && (wallkick != null))
+		{
+			WallkickResult kick = wallkick.executeWallkick(x, y, rtDir, rt, rot, allowUpward, piece, fldTemp, null);
+
+			if (kick != null)
+			{
+				newX = x + kick.offsetX;
+				newY = piece.getBottom(newX, y + kick.offsetY, rot, fldTemp);
+			}
+		}
+		if (!piece.checkCollision(newX, newY, rot, fldTemp) && newY > piece.getBottom(newX, 0, rot, fldTemp))
+		{
+			piece.placeToField(newX, newY, rot, fldTemp);
+			return clearAndGetIndex(fldTemp);
+		}
+		return -1;
+	}
+
+	/**
+	 * Clear the line of a field where a piece was placed
+	 * @param fld Field
+	 * @return State index after the line clear; -1 if not exactly one line is cleared or the state is unstable
+	 */
+	private static int clearAndGetIndex(Field fld)
+	{
+		if (fld.checkLine() != 1)
+			return -1;
+		fld.clearLine();
+		fld.downFloatingBlocks();
+		return fieldToIndex(fieldToCode(fld, 0));
+	}
+
+	/**
+	 * Put a value in an array, making it larger if needed
+	 */
+	private static int[] add(int[] array, int index, int value)
+	{
+		if (index >= array.length)
+		{
+			int[] newArray = new int[array.length * 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			array = newArray;
+		}
+		array[index] = value;
+		return array;
+	}
+
+	/**
+	 * Pack a move into an int
+	 * @param x X-coordinate in the 4-wide valley
+	 * @param rt Direction
+	 * @param rtSub Rotation after dropping (-1: left, 0: none, 1: right)
+	 * @param newField State index after the move
+	 * @return Move
+	 */
+	private static int encode(int x, int rt, int rtSub, int newField)
+	{
+		return newField | (rt << 8) | ((rtSub + 1) << 10) | ((x + X_OFFSET) << 12);
+	}
+
+	/**
+	 * @param move Move
+	 * @return X-coordinate in the 4-wide valley
+	 */
+	public static int getX(int move)
+	{
+		return (move >> 12) - X_OFFSET;
+	}
+
+	/**
+	 * @param move Move
+	 * @return Direction
+	 */
+	public static int getRt(int move)
+	{
+		return (move >> 8) & 3;
+	}
+
+	/**
+	 * @param move Move
+	 * @return Rotation after dropping (-1: left, 0: none, 1: right)
+	 */
+	public static int getRtSub(int move)
+	{
+		return ((move >> 10) & 3) - 1;
+	}
+
+	/**
+	 * @param move Move
+	 * @return State index after the move
+	 */
+	public static int getNewField(int move)
+	{
+		return move & 0xFF;
+	}
+
+	/**
+	 * @param state State index
+	 * @param piece Piece ID
+	 * @return Index of the first move
+	 */
+	public int getFirstMove(int state, int piece)
+	{
+		return moveStart[state * PIECE_TYPES + piece];
+	}
+
+	/**
+	 * @param state State index
+	 * @param piece Piece ID
+	 * @return Index after the last move
+	 */
+	public int getEndMove(int state, int piece)
+	{
+		return moveStart[state * PIECE_TYPES + piece + 1];
+	}
+
+	/**
+	 * @param index Index (from getFirstMove to getEndMove)
+	 * @return Move
+	 */
+	public int getMove(int index)
+	{
+		return moveData[index];
+	}
+
+	/**
+	 * @return Number of moves of all states
+	 */
+	public int getMoveCount()
+	{
+		return moveData.length;
+	}
+
+	/**
+	 * @return Number of field states
+	 */
+	public static int getStateCount()
+	{
+		return FIELDS.length;
+	}
+
+	/**
+	 * Converts field to field state int code
+	 * @param field Field object
+	 * @param valleyX Leftmost x-coordinate of 4-block-wide valley to combo in
+	 * @return Field state int code.
+	 */
+	public static short fieldToCode(Field field, int valleyX)
+	{
+		int height = field.getHeight();
+		short result = 0;
+		for (int y = height-3; y < height; y++)
+			for (int x = 0; x < 4; x++)
+			{
+				result <<= 1;
+				if (!field.getBlockEmptyF(x+valleyX, y))
+					result++;
+			}
+		return result;
+	}
+
+	/**
+	 * Converts field state int code to FIELDS array index
+	 * @param field Field state int code
+	 * @return State index if found; -1 if not found.
+	 */
+	public static int fieldToIndex(short field)
+	{
+		int min = 0;
+		int max = FIELDS.length-1;
+		int mid;
+		while (min <= max)
+		{
+			mid = (min+max) >> 1;
+			if (FIELDS[mid] > field)
+				max = mid-1;
+			else if (FIELDS[mid] < field)
+				min = mid+1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the tables of a file
+	 * @param file File
+	 * @param result Map to put the tables in (by rule key)
+	 * @throws IOException When the file can't be read or is not a table file
+	 */
+	public static void readFile(File file, Map<String, ComboRaceTable> result) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION || in.readInt() != FIELDS.length)
+				throw new IOException(file + " is not a combo race table file of this version");
+			int count = in.readInt();
+			for (int t = 0; t < count; t++)
+			{
+				String key = in.readUTF();
+				int[] moveStart = new int[FIELDS.length * PIECE_TYPES + 1];
+				for (int i = 0; i < moveStart.length; i++)
+					moveStart[i] = in.readInt();
+				int[] moveData = new int[moveStart[moveStart.length - 1]];
+				for (int i = 0; i < moveData.length; i++)
+					moveData[i] = in.readInt();
+				result.put(key, new ComboRaceTable(moveStart, moveData));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write tables to a file
+	 * @param file File
+	 * @param tables Tables by rule key
+	 * @throws IOException When the file can't be written
+	 */
+	public static void writeFile(File file, Map<String, ComboRaceTable> tables) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(FIELDS.length);
+			out.writeInt(tables.size());
+			for (Map.Entry<String, ComboRaceTable> e : tables.entrySet())
+			{
+				out.writeUTF(e.getKey());
+				for (int v : e.getValue().moveStart)
+					out.writeInt(v);
+				for (int v : e.getValue().moveData)
+					out.writeInt(v);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Precompute the tables of some rules (and the standard one) into DEFAULT_FILE
+	 * @param args Rule files
+	 */
+	public static void main(String[] args)
+	{
+		Map<String, ComboRaceTable> result = new HashMap<String, ComboRaceTable>();
+		GameEngine engine = new GameEngine(null, 0, new RuleOptions(), new StandardWallkick(), null);
+		result.put(getKey(engine), create(engine));
+		for (String ruleFile : args)
+		{
+			RuleOptions ruleopt = GeneralUtil.loadRule(ruleFile);
+			engine = new GameEngine(null, 0, ruleopt, GeneralUtil.loadWallkick(ruleopt.strWallkick), null);
+			result.put(getKey(engine), create(engine));
+		}
+
+		File file = new File(DEFAULT_FILE);
+		try {
+			if (file.getParentFile() != null)
+				file.getParentFile().mkdirs();
+			writeFile(file, result);
+			System.out.println("Wrote " + result.size() + " tables to " + file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
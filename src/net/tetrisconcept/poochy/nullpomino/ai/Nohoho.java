@@ -5,6 +5,7 @@ import mu.nu.nullpo.game.component.Field;
 import mu.nu.nullpo.game.component.Piece;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.subsystem.ai.AIFieldSnapshot;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
 
 import org.apache.log4j.Logger;
@@ -39,9 +40,6 @@ public class Nohoho extends DummyAI implements Runnable {
 	/** The GameManager that owns this AI */
 	public GameManager gManager;
 
-	/** When true,スレッドにThink routineの実行を指示 */
-	public ThinkRequestMutex thinkRequest;
-
 	/** true when thread is executing the think routine. */
 	public boolean thinking;
 
@@ -51,9 +49,6 @@ public class Nohoho extends DummyAI implements Runnable {
 	/** When true,スレッド動作中 */
 	public volatile boolean threadRunning;
 
-	/** Thread for executing the think routine */
-	public Thread thread;
-
 	/** Number of frames for which piece has been stuck */
 	protected int stuckDelay;
 
@@ -90,7 +85,6 @@ public class Nohoho extends DummyAI implements Runnable {
 		delay = 0;
 		gEngine = engine;
 		gManager = engine.owner;
-		thinkRequest = new ThinkRequestMutex();
 		thinking = false;
 		threadRunning = false;
 		setDAS = 0;
@@ -106,25 +100,21 @@ public class Nohoho extends DummyAI implements Runnable {
 		thinkSuccess = false;
 		inARE = false;
 
-		if( ((thread == null) || !thread.isAlive()) && (engine.aiUseThread) ) {
-			thread = new Thread(this, "AI_" + playerID);
-			thread.setDaemon(true);
-			thread.start();
+		if((thinkTask == null) && (engine.aiUseThread)) {
 			thinkDelay = engine.aiThinkDelay;
 			thinkCurrentPieceNo = 0;
 			thinkLastPieceNo = 0;
+			startThinkTask(engine, this);
 		}
+		threadRunning = (thinkTask != null);
 	}
 
 	/*
 	 * 終了処理
 	 */
 	public void shutdown(GameEngine engine, int playerID) {
-		if((thread != null) && (thread.isAlive())) {
-			thread.interrupt();
-			threadRunning = false;
-			thread = null;
-		}
+		stopThinkTask();
+		threadRunning = false;
 	}
 
 	/*
@@ -134,7 +124,7 @@ public class Nohoho extends DummyAI implements Runnable {
 		if(!engine.aiUseThread) {
 			thinkBestPosition(engine, playerID);
 		} else if ((!thinking && !thinkComplete) || !engine.aiPrethink || engine.aiShowHint) {
-			thinkRequest.newRequest();
+			requestThink();
 			thinkCurrentPieceNo++;
 		}
 	}
@@ -152,7 +142,7 @@ public class Nohoho extends DummyAI implements Runnable {
 			{
 				if (DEBUG_ALL) log.debug("Begin pre-think of next piece.");
 				thinkComplete = false;
-				thinkRequest.newRequest();
+				requestThink();
 			}
 			inARE = newInARE;
 		}
@@ -195,7 +185,7 @@ public class Nohoho extends DummyAI implements Runnable {
 				stuckDelay = 0;
 			if (stuckDelay > 4)
 			{
-				thinkRequest.newRequest();
+				requestThink();
 				thinkComplete = false;
 				if (DEBUG_ALL) log.debug("Needs rethink - piece is stuck!");
 			}
@@ -204,14 +194,14 @@ public class Nohoho extends DummyAI implements Runnable {
 				sameStatusTime++;
 				if (sameStatusTime > 4)
 				{
-					thinkRequest.newRequest();
+					requestThink();
 					thinkComplete = false;
 					if (DEBUG_ALL) log.debug("Needs rethink - piece is stuck, last inputs had no effect!");
 				}
 			}
 			if (engine.nowPieceRotateCount >= 8)
 			{
-				thinkRequest.newRequest();
+				requestThink();
 				thinkComplete = false;
 				if (DEBUG_ALL) log.debug("Needs rethink - piece is stuck, too many rotations!");
 			}
@@ -257,7 +247,7 @@ public class Nohoho extends DummyAI implements Runnable {
 				if( ((bestX < minX - 1) || (bestX > maxX + 1) || (bestY < nowY)) && (rt == bestRt) ) {
 					// 到達不能なので再度思考する
 					//thinkBestPosition(engine, playerID);
-					thinkRequest.newRequest();
+					requestThink();
 					thinkComplete = false;
 					//thinkCurrentPieceNo++;
 					//System.out.println("rethink c:" + thinkCurrentPieceNo + " l:" + thinkLastPieceNo);
@@ -361,6 +351,22 @@ public class Nohoho extends DummyAI implements Runnable {
 	 * @param playerID Player ID
 	 */
 	public void thinkBestPosition(GameEngine engine, int playerID) {
+		AIFieldSnapshot snap = acquireSnapshot(engine);
+		if (snap == null)
+			return;
+		try {
+			search(engine, snap);
+		} finally {
+			snap.release();
+		}
+	}
+
+	/**
+	 * Search for the best choice on a snapshot of the engine
+	 * @param engine The GameEngine that owns this AI (only its settings are read)
+	 * @param snap Field and pieces copied on the game thread
+	 */
+	protected void search(GameEngine engine, AIFieldSnapshot snap) {
 		if (DEBUG_ALL) log.debug("thinkBestPosition called, inARE = " + inARE + ", piece: ");
 		bestHold = false;
 		bestX = 0;
@@ -372,25 +378,30 @@ public class Nohoho extends DummyAI implements Runnable {
 		bestPts = 0;
 		thinkSuccess = false;
 
-		engine.createFieldIfNeeded();
-		Field fld = new Field(engine.field);
-		Piece pieceNow = engine.nowPieceObject;
-		Piece pieceHold = engine.holdPieceObject;
-		boolean holdOK = engine.isHoldOK();
+		Field fldSnap = snap.field;
+		if (fldSnap == null)
+			fldSnap = new Field((engine.fieldWidth < 0) ? engine.ruleopt.fieldWidth : engine.fieldWidth,
+					(engine.fieldHeight < 0) ? engine.ruleopt.fieldHeight : engine.fieldHeight,
+					(engine.fieldHiddenHeight < 0) ? engine.ruleopt.fieldHiddenHeight : engine.fieldHiddenHeight,
+					engine.ruleopt.fieldCeiling);
+		Field fld = new Field(fldSnap);
+		Piece pieceNow = snap.nowPiece;
+		Piece pieceHold = snap.holdPiece;
+		boolean holdOK = snap.holdOK;
 		int nowX, nowY;
 		if (inARE || pieceNow == null)
 		{
-			pieceNow = engine.getNextObjectCopy(engine.nextPieceCount);
+			pieceNow = snap.getNext(0);
 			nowX = engine.getSpawnPosX(fld, pieceNow);
 			nowY = engine.getSpawnPosY(pieceNow);
 			if(holdOK && pieceHold == null)
-				pieceHold = engine.getNextObjectCopy(engine.nextPieceCount+1);
+				pieceHold = snap.getNext(1);
 		}
 		else {
-			nowX = engine.nowPieceX;
-			nowY = engine.nowPieceY;
+			nowX = snap.nowPieceX;
+			nowY = snap.nowPieceY;
 			if(holdOK && pieceHold == null)
-				pieceHold = engine.getNextObjectCopy(engine.nextPieceCount);
+				pieceHold = snap.getNext(0);
 		}
 		pieceNow = checkOffset(pieceNow, engine);
 		if(holdOK && pieceHold == null) {
@@ -419,7 +430,7 @@ public class Nohoho extends DummyAI implements Runnable {
 				maxX = 5;
 			for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
 				x = maxX - pieceNow.getMaximumBlockX();
-				fld.copy(engine.field);
+				fld.copy(fldSnap);
 				int y = pieceNow.getBottom(x, nowY, rt, fld);
 
 				if(!pieceNow.checkCollision(x, y, rt, fld)) {
@@ -441,7 +452,7 @@ public class Nohoho extends DummyAI implements Runnable {
 				}
 				if((holdOK == true) && (pieceHold != null)) {
 					x = maxX - pieceHold.getMaximumBlockX();
-					fld.copy(engine.field);
+					fld.copy(fldSnap);
 					y = pieceHold.getBottom(x, nowY, rt, fld);
 
 					if(!pieceHold.checkCollision(x, y, rt, fld)) {
@@ -466,10 +477,10 @@ public class Nohoho extends DummyAI implements Runnable {
 		}
 		else {
 			for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
-				int minX = pieceNow.getMostMovableLeft(nowX, nowY, rt, engine.field);
-				int maxX = pieceNow.getMostMovableRight(nowX, nowY, rt, engine.field);
+				int minX = pieceNow.getMostMovableLeft(nowX, nowY, rt, fldSnap);
+				int maxX = pieceNow.getMostMovableRight(nowX, nowY, rt, fldSnap);
 				for(int x = minX; x <= maxX; x++) {
-					fld.copy(engine.field);
+					fld.copy(fldSnap);
 					int y = pieceNow.getBottom(x, nowY, rt, fld);
 
 					if(!pieceNow.checkCollision(x, y, rt, fld)) {
@@ -494,14 +505,14 @@ public class Nohoho extends DummyAI implements Runnable {
 
 				// Hold piece
 				if((holdOK == true) && (pieceHold != null)) {
-					int spawnX = engine.getSpawnPosX(engine.field, pieceHold);
+					int spawnX = engine.getSpawnPosX(fldSnap, pieceHold);
 					int spawnY = engine.getSpawnPosY(pieceHold);
-					int minHoldX = pieceHold.getMostMovableLeft(spawnX, spawnY, rt, engine.field);
-					int maxHoldX = pieceHold.getMostMovableRight(spawnX, spawnY, rt, engine.field);
+					int minHoldX = pieceHold.getMostMovableLeft(spawnX, spawnY, rt, fldSnap);
+					int maxHoldX = pieceHold.getMostMovableRight(spawnX, spawnY, rt, fldSnap);
 
 					for(int x = minHoldX; x <= maxHoldX; x++)
 					{
-						fld.copy(engine.field);
+						fld.copy(fldSnap);
 						int y = pieceHold.getBottom(x, spawnY, rt, fld);
 
 						if(!pieceHold.checkCollision(x, y, rt, fld)) {
@@ -658,60 +669,17 @@ public class Nohoho extends DummyAI implements Runnable {
 	}
 
 	/*
-	 * スレッドの処理
+	 * スレッドの処理 (run by AIThinkScheduler for each request)
 	 */
 	public void run() {
-		log.info("Nohoho: Thread start");
-		threadRunning = true;
-
-		while(threadRunning) {
-			try {
-				synchronized(thinkRequest)
-				{
-					if (!thinkRequest.active)
-						thinkRequest.wait();
-				}
-			} catch (InterruptedException e) {
-				log.debug("PoochyBot: InterruptedException waiting for thinkRequest signal");
-			}
-			if(thinkRequest.active) {
-				thinkRequest.active = false;
-				thinking = true;
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID);
-					thinkComplete = true;
-					log.debug("Nohoho: thinkBestPosition completed successfully");
-				} catch (Throwable e) {
-					log.debug("Nohoho: thinkBestPosition Failed", e);
-				}
-				thinking = false;
-			}
-
-			if(thinkDelay > 0) {
-				try {
-					Thread.sleep(thinkDelay);
-				} catch (InterruptedException e) {
-					break;
-				}
-			}
-		}
-
-		threadRunning = false;
-		log.info("Nohoho: Thread end");
-	}
-	
-	//Wrapper for think requests
-	private static class ThinkRequestMutex
-	{
-		public boolean active;
-		public ThinkRequestMutex()
-		{
-			active = false;
-		}
-		public synchronized void newRequest()
-		{
-			active = true;
-			notifyAll();
+		thinking = true;
+		try {
+			thinkBestPosition(gEngine, gEngine.playerID);
+			thinkComplete = true;
+			log.debug("Nohoho: thinkBestPosition completed successfully");
+		} catch (Throwable e) {
+			log.debug("Nohoho: thinkBestPosition Failed", e);
 		}
+		thinking = false;
 	}
 }
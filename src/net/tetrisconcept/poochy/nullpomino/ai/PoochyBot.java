@@ -1,14 +1,22 @@
 package net.tetrisconcept.poochy.nullpomino.ai;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import mu.nu.nullpo.game.component.Controller;
 import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.FieldBitboard;
 import mu.nu.nullpo.game.component.Piece;
 import mu.nu.nullpo.game.component.SpeedParam;
 import mu.nu.nullpo.game.component.WallkickResult;
 import mu.nu.nullpo.game.event.EventReceiver;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.subsystem.ai.AIFieldSnapshot;
+import mu.nu.nullpo.game.subsystem.ai.AISearchPool;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
+import mu.nu.nullpo.game.subsystem.ai.SearchArena;
+import mu.nu.nullpo.game.subsystem.ai.TranspositionTable;
 import mu.nu.nullpo.util.GeneralUtil;
 
 import org.apache.log4j.Logger;
@@ -43,9 +51,6 @@ public class PoochyBot extends DummyAI implements Runnable {
 	/** The GameManager that owns this AI */
 	public GameManager gManager;
 
-	/** When true,スレッドにThink routineの実行を指示 */
-	public ThinkRequestMutex thinkRequest;
-
 	/** true when thread is executing the think routine. */
 	public boolean thinking;
 
@@ -55,9 +60,6 @@ public class PoochyBot extends DummyAI implements Runnable {
 	/** When true,スレッド動作中 */
 	public volatile boolean threadRunning;
 
-	/** Thread for executing the think routine */
-	public Thread thread;
-
 	/** Number of frames for which piece has been stuck */
 	protected int stuckDelay;
 
@@ -83,6 +85,26 @@ public class PoochyBot extends DummyAI implements Runnable {
 	protected boolean thinkSuccess;
 	/** Was the game in ARE as of the last frame? */
 	protected boolean inARE;
+	/** Scratch buffers reused by every thinkBestPosition call */
+	public SearchArena arena;
+	/** Root candidates of the current search (reused) */
+	protected RootCandidate[] candidates;
+	/** Number of root candidates in use */
+	protected int candidateCount;
+	/** Tasks (each with its own scratch buffers) for the parallel search */
+	protected SearchTask[] workerTasks;
+	/** Scores of placements already evaluated, kept across thinks (null if disabled) */
+	public TranspositionTable cache;
+	/** Search passes: plain drops of every root candidate first, then shifts and rotations */
+	protected static final int PASS_DROP = 0, PASS_REFINE = 1;
+	/** Length of a frame in nanoseconds (for the search deadline) */
+	protected static final long FRAME_NANOS = 1000000000L / 60;
+	/** Field and pieces being searched (null when not thinking) */
+	protected AIFieldSnapshot snapshot;
+	/** Set when the refine pass of the current search was stopped by the deadline */
+	protected volatile boolean searchCut;
+	/** Number of searches stopped by the deadline */
+	public int searchCutCount;
 
 	/*
 	 * AI's name
@@ -98,7 +120,6 @@ public class PoochyBot extends DummyAI implements Runnable {
 		delay = 0;
 		gEngine = engine;
 		gManager = engine.owner;
-		thinkRequest = new ThinkRequestMutex();
 		thinking = false;
 		threadRunning = false;
 		setDAS = 0;
@@ -114,26 +135,23 @@ public class PoochyBot extends DummyAI implements Runnable {
 		thinkComplete = false;
 		thinkSuccess = false;
 		inARE = false;
+		cache = null;
 
-		if( ((thread == null) || !thread.isAlive()) && (engine.aiUseThread) ) {
-			thread = new Thread(this, "AI_" + playerID);
-			thread.setDaemon(true);
-			thread.start();
+		if((thinkTask == null) && (engine.aiUseThread)) {
 			thinkDelay = engine.aiThinkDelay;
 			thinkCurrentPieceNo = 0;
 			thinkLastPieceNo = 0;
+			startThinkTask(engine, this);
 		}
+		threadRunning = (thinkTask != null);
 	}
 
 	/*
 	 * 終了処理
 	 */
 	public void shutdown(GameEngine engine, int playerID) {
-		if((thread != null) && (thread.isAlive())) {
-			thread.interrupt();
-			threadRunning = false;
-			thread = null;
-		}
+		stopThinkTask();
+		threadRunning = false;
 	}
 
 	/*
@@ -142,11 +160,12 @@ public class PoochyBot extends DummyAI implements Runnable {
 	public void newPiece(GameEngine engine, int playerID) {
 		if(!engine.aiUseThread) {
 			thinkBestPosition(engine, playerID);
+			thinkComplete = true;
 		} else if ((!thinking && !thinkComplete) || !engine.aiPrethink || engine.aiShowHint
 				|| engine.getARE() <= 0 || engine.getARELine() <= 0) {
 			thinkComplete = false;
 			//thinkCurrentPieceNo++;
-			thinkRequest.newRequest();
+			requestThink();
 		}
 	}
 
@@ -161,7 +180,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 		{
 			if (DEBUG_ALL) log.debug("Begin pre-think of next piece.");
 			thinkComplete = false;
-			thinkRequest.newRequest();
+			requestThink();
 		}
 		inARE = newInARE;
 		if(inARE && delay >= engine.aiMoveDelay) {
@@ -212,6 +231,11 @@ public class PoochyBot extends DummyAI implements Runnable {
 	 * Set button input states
 	 */
 	public void setControl(GameEngine engine, int playerID, Controller ctrl) {
+		// Without a thread, rethink requests are served here on the next frame
+		if(!engine.aiUseThread && !thinkComplete && (engine.nowPieceObject != null) && (engine.stat == GameEngine.Status.MOVE)) {
+			thinkBestPosition(engine, playerID);
+			thinkComplete = true;
+		}
 		if( (engine.nowPieceObject != null) && (engine.stat == GameEngine.Status.MOVE) &&
 			(delay >= engine.aiMoveDelay) && (engine.statc[0] > 0) &&
 		    (!engine.aiUseThread || (threadRunning && !thinking && thinkComplete)))
@@ -264,14 +288,14 @@ public class PoochyBot extends DummyAI implements Runnable {
 			{
 				thinkComplete = false;
 				if (DEBUG_ALL) log.debug("Needs rethink - L or J piece is stuck!");
-				thinkRequest.newRequest();
+				requestThink();
 			}
 			if (nowType == Piece.PIECE_O && ((bestX < nowX && pieceNow.checkCollision(nowX-1, nowY, rt, fld))
 					|| (bestX < nowX && pieceNow.checkCollision(nowX-1, nowY, rt, fld))))
 			{
 				thinkComplete = false;
 				if (DEBUG_ALL) log.debug("Needs rethink - O piece is stuck!");
-				thinkRequest.newRequest();
+				requestThink();
 			}
 			if (pieceTouchGround && rt == bestRt &&
 					(pieceNow.getMostMovableRight(nowX, nowY, rt, engine.field) < bestX ||
@@ -283,7 +307,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 			{
 				thinkComplete = false;
 				if (DEBUG_ALL) log.debug("Needs rethink - piece is stuck!");
-				thinkRequest.newRequest();
+				requestThink();
 			}
 			if (nowX == lastX && nowY == lastY && rt == lastRt && lastInput != 0)
 			{
@@ -292,14 +316,14 @@ public class PoochyBot extends DummyAI implements Runnable {
 				{
 					thinkComplete = false;
 					if (DEBUG_ALL) log.debug("Needs rethink - piece is stuck, last inputs had no effect!");
-					thinkRequest.newRequest();
+					requestThink();
 				}
 			}
 			if (engine.nowPieceRotateCount >= 8)
 			{
 				thinkComplete = false;
 				if (DEBUG_ALL) log.debug("Needs rethink - piece is stuck, too many rotations!");
-				thinkRequest.newRequest();
+				requestThink();
 			}
 			else
 				sameStatusTime = 0;
@@ -449,7 +473,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 					//thinkCurrentPieceNo++;
 					//System.out.println("rethink c:" + thinkCurrentPieceNo + " l:" + thinkLastPieceNo);
 					if (DEBUG_ALL) log.debug("Needs rethink - cannot reach desired position");
-					thinkRequest.newRequest();
+					requestThink();
 				} else {
 					// 到達できる場合
 					if((nowX == bestX) && (pieceTouchGround)) {
@@ -783,6 +807,26 @@ public class PoochyBot extends DummyAI implements Runnable {
 	 * @param playerID Player ID
 	 */
 	public void thinkBestPosition(GameEngine engine, int playerID) {
+		AIFieldSnapshot snap = acquireSnapshot(engine);
+		if (snap == null)
+			return;
+		snapshot = snap;
+		try {
+			search(engine, snap);
+		} finally {
+			snapshot = null;
+			snap.release();
+		}
+	}
+
+	/**
+	 * Search for the best move.
+	 * Every root candidate is first scored as a plain drop, so a move is always ready;
+	 * shifts and rotations are then tried until the deadline (see getSearchDeadline).
+	 * @param engine The GameEngine that owns this AI
+	 * @param snap Field and pieces to search against
+	 */
+	protected void search(GameEngine engine, AIFieldSnapshot snap) {
 		if (DEBUG_ALL) log.debug("thinkBestPosition called, inARE = " + inARE + ", piece: ");
 		bestHold = false;
 		bestX = 0;
@@ -794,14 +838,22 @@ public class PoochyBot extends DummyAI implements Runnable {
 		bestPts = 0;
 		thinkSuccess = false;
 
-		Field fld;
-		if (engine.stat == GameEngine.Status.READY)
-			fld = new Field(engine.fieldWidth, engine.fieldHeight,
-					engine.fieldHiddenHeight, engine.ruleopt.fieldCeiling);
+		if (arena == null)
+			arena = new SearchArena();
+		arena.begin();
+		if (engine.aiTranspositionTableSize <= 0)
+			cache = null;
+		else if (cache == null || cache.getCapacity() != Integer.highestOneBit(engine.aiTranspositionTableSize))
+			cache = new TranspositionTable(engine.aiTranspositionTableSize);
+		if (snap.stat == GameEngine.Status.READY)
+			arena.snapshot(new Field(engine.fieldWidth, engine.fieldHeight,
+					engine.fieldHiddenHeight, engine.ruleopt.fieldCeiling));
 		else
-			fld = new Field(engine.field);
-		Piece pieceNow = engine.nowPieceObject;
-		Piece pieceHold = engine.holdPieceObject;
+			arena.snapshot(snap.field);
+		Field fld = arena.field;
+		FieldBitboard fldBase = arena.fieldBase;
+		Piece pieceNow = snap.nowPiece;
+		Piece pieceHold = snap.holdPiece;
 		/*
 		Piece pieceNow = null;
 		if (engine.nowPieceObject != null)
@@ -813,22 +865,22 @@ public class PoochyBot extends DummyAI implements Runnable {
 		int nowX, nowY, nowRt;
 		if (inARE || pieceNow == null)
 		{
-			pieceNow = engine.getNextObjectCopy(engine.nextPieceCount);
+			pieceNow = snap.getNext(0);
 			nowX = engine.getSpawnPosX(fld, pieceNow);
 			nowY = engine.getSpawnPosY(pieceNow);
 			nowRt = engine.ruleopt.pieceDefaultDirection[pieceNow.id];
 			if(pieceHold == null)
-				pieceHold = engine.getNextObjectCopy(engine.nextPieceCount+1);
+				pieceHold = snap.getNext(1);
 		}
 		else {
-			nowX = engine.nowPieceX;
-			nowY = engine.nowPieceY;
+			nowX = snap.nowPieceX;
+			nowY = snap.nowPieceY;
 			nowRt = pieceNow.direction;
 			if (pieceHold == null)
-				pieceHold = engine.getNextObjectCopy(engine.nextPieceCount);
+				pieceHold = snap.getNext(0);
 		}
-		pieceNow = checkOffset(pieceNow, engine);
-		pieceHold = checkOffset(pieceHold, engine);
+		pieceNow = checkOffset(pieceNow, engine, arena.pieceNow);
+		pieceHold = checkOffset(pieceHold, engine, arena.pieceHold);
 		if (pieceHold.id == pieceNow.id)
 			pieceHold = null;
 		/*
@@ -839,448 +891,139 @@ public class PoochyBot extends DummyAI implements Runnable {
 		pieceHold.applyOffsetArray(engine.ruleopt.pieceOffsetX[pieceHold.id],
 				engine.ruleopt.pieceOffsetY[pieceHold.id]);
 		*/
-		boolean holdOK = engine.isHoldOK();
+		boolean holdOK = snap.holdOK;
 
-		boolean canFloorKick = engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick
+		boolean canFloorKick = snap.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick
 			|| engine.ruleopt.rotateMaxUpwardWallkick < 0;
 		boolean canFloorKickI = (pieceNow.id == Piece.PIECE_I && (nowRt&1) == 0 && canFloorKick);
 		boolean canFloorKickT = (pieceNow.id == Piece.PIECE_T && nowRt != Piece.DIRECTION_UP && canFloorKick);
-		if (canFloorKickT && !pieceNow.checkCollision(nowX, nowY, Piece.DIRECTION_UP, fld))
+		if (canFloorKickT && !pieceNow.checkCollision(nowX, nowY, Piece.DIRECTION_UP, fldBase))
 			canFloorKickT = false;
-		else if (canFloorKickT && !pieceNow.checkCollision(nowX-1, nowY, Piece.DIRECTION_UP, fld))
+		else if (canFloorKickT && !pieceNow.checkCollision(nowX-1, nowY, Piece.DIRECTION_UP, fldBase))
 			canFloorKickT = false;
-		else if (canFloorKickT && !pieceNow.checkCollision(nowX+1, nowY, Piece.DIRECTION_UP, fld))
+		else if (canFloorKickT && !pieceNow.checkCollision(nowX+1, nowY, Piece.DIRECTION_UP, fldBase))
 			canFloorKickT = false;
 
 		int move = 1;
 		if (engine.big)
 			move = 2;
 
-		for(int depth = 0; depth < MAX_THINK_DEPTH; depth++) {
-			/*
-			int dirCount = Piece.DIRECTION_COUNT;
-			if (pieceNow.id == Piece.PIECE_I || pieceNow.id == Piece.PIECE_S || pieceNow.id == Piece.PIECE_Z)
-				dirCount = 2;
-			else if (pieceNow.id == Piece.PIECE_O)
-				dirCount = 1;
-			*/
-			for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
-				int tempY = nowY;
-				if (canFloorKickI && (rt&1) == 1)
-					tempY -= 2;
-				else if (canFloorKickT && rt == Piece.DIRECTION_UP)
-					tempY--;
-
-				int minX = Math.max(mostMovableX(nowX, tempY, -1, engine, fld, pieceNow, rt),
-						pieceNow.getMostMovableLeft(nowX, tempY, rt, engine.field));
-				int maxX = Math.min(mostMovableX(nowX, tempY, 1, engine, fld, pieceNow, rt),
-						pieceNow.getMostMovableRight(nowX, tempY, rt, engine.field));
-				boolean spawnOK = true;
-				if (engine.stat == GameEngine.Status.ARE)
-				{
-					int spawnX = engine.getSpawnPosX(fld, pieceNow);
-					int spawnY = engine.getSpawnPosY(pieceNow);
-					spawnOK = !pieceNow.checkCollision(spawnX, spawnY, fld);
-				}
-				for(int x = minX; x <= maxX && spawnOK; x+=move) {
-					fld.copy(engine.field);
-					int y = pieceNow.getBottom(x, tempY, rt, fld);
-
-					if(!pieceNow.checkCollision(x, y, rt, fld)) {
-						// そのまま
-						int pts = thinkMain(x, y, rt, -1, fld, pieceNow, depth);
-
-						if(pts >= bestPts) {
-							bestHold = false;
-							bestX = x;
-							bestY = y;
-							bestRt = rt;
-							bestXSub = x;
-							bestYSub = y;
-							bestRtSub = -1;
-							bestPts = pts;
-							if (DEBUG_ALL)
-								logBest(1);
-							thinkSuccess = true;
-						}
-						//Check regardless
-						//if((depth > 0) || (bestPts <= 10) || (pieceNow.id == Piece.PIECE_T)) {
-						// Left shift
-						fld.copy(engine.field);
-						if(!pieceNow.checkCollision(x - move, y, rt, fld) && pieceNow.checkCollision(x - move, y - 1, rt, fld)) {
-							pts = thinkMain(x - move, y, rt, -1, fld, pieceNow, depth);
-
-							if(pts > bestPts) {
-								bestHold = false;
-								bestX = x;
-								bestY = y;
-								bestRt = rt;
-								bestXSub = x - move;
-								bestYSub = y;
-								bestRtSub = -1;
-								bestPts = pts;
-								if (DEBUG_ALL)
-									logBest(2);
-								thinkSuccess = true;
-							}
-						}
-
-						// Right shift
-						fld.copy(engine.field);
-						if(!pieceNow.checkCollision(x + move, y, rt, fld) && pieceNow.checkCollision(x + 1, y - move, rt, fld)) {
-							pts = thinkMain(x + move, y, rt, -1, fld, pieceNow, depth);
-
-							if(pts > bestPts) {
-								bestHold = false;
-								bestX = x;
-								bestY = y;
-								bestRt = rt;
-								bestXSub = x + 1;
-								bestYSub = y;
-								bestRtSub = -1;
-								bestPts = pts;
-								if (DEBUG_ALL)
-									logBest(3);
-								thinkSuccess = true;
-							}
-						}
-
-						// Left rotation
-						if(!engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse) {
-							int rot = pieceNow.getRotateDirection(-1, rt);
-							int newX = x;
-							int newY = y;
-							fld.copy(engine.field);
-							pts = Integer.MIN_VALUE;
-
-							if(!pieceNow.checkCollision(x, y, rot, fld)) {
-								pts = thinkMain(x, y, rot, rt, fld, pieceNow, depth);
-							} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
-								boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-													  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
-								WallkickResult kick = engine.wallkick.executeWallkick(x, y, -1, rt, rot,
-													  allowUpward, pieceNow, fld, null);
-
-								if(kick != null) {
-									newX = x + kick.offsetX;
-									newY = y + kick.offsetY;
-									pts = thinkMain(newX, newY, rot, rt, fld, pieceNow, depth);
-								}
-							}
-
-							if(pts > bestPts) {
-								bestHold = false;
-								bestX = x;
-								bestY = y;
-								bestRt = rt;
-								bestXSub = newX;
-								bestYSub = newY;
-								bestRtSub = rot;
-								bestPts = pts;
-								if (DEBUG_ALL)
-									logBest(4);
-								thinkSuccess = true;
-							}
-						}
+		// Root candidates (they do not depend on the compromise level)
+		candidateCount = 0;
+		for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
+			int tempY = nowY;
+			if (canFloorKickI && (rt&1) == 1)
+				tempY -= 2;
+			else if (canFloorKickT && rt == Piece.DIRECTION_UP)
+				tempY--;
+
+			int minX = Math.max(mostMovableX(nowX, tempY, -1, engine, snap, fld, pieceNow, rt),
+					pieceNow.getMostMovableLeft(nowX, tempY, rt, snap.field));
+			int maxX = Math.min(mostMovableX(nowX, tempY, 1, engine, snap, fld, pieceNow, rt),
+					pieceNow.getMostMovableRight(nowX, tempY, rt, snap.field));
+			boolean spawnOK = true;
+			if (snap.stat == GameEngine.Status.ARE)
+			{
+				int spawnX = engine.getSpawnPosX(fld, pieceNow);
+				int spawnY = engine.getSpawnPosY(pieceNow);
+				spawnOK = !pieceNow.checkCollision(spawnX, spawnY, fldBase);
+			}
+			for(int x = minX; x <= maxX && spawnOK; x+=move) {
+				int y = pieceNow.getBottom(x, tempY, rt, fldBase);
+				if(!pieceNow.checkCollision(x, y, rt, fldBase))
+					addCandidate(false, x, y, rt, pieceNow, 0);
+			}
 
-						// Right rotation
-						if(engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse) {
-							int rot = pieceNow.getRotateDirection(1, rt);
-							int newX = x;
-							int newY = y;
-							fld.copy(engine.field);
-							pts = Integer.MIN_VALUE;
-
-							if(!pieceNow.checkCollision(x, y, rot, fld)) {
-								pts = thinkMain(x, y, rot, rt, fld, pieceNow, depth);
-							} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
-								boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-													  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
-								WallkickResult kick = engine.wallkick.executeWallkick(x, y, 1, rt, rot,
-													  allowUpward, pieceNow, fld, null);
-
-								if(kick != null) {
-									newX = x + kick.offsetX;
-									newY = y + kick.offsetY;
-									pts = thinkMain(newX, newY, rot, rt, fld, pieceNow, depth);
-								}
-							}
+			// Hold piece
+			if((holdOK == true) && (pieceHold != null)) {
+				int spawnX = engine.getSpawnPosX(snap.field, pieceHold);
+				int spawnY = engine.getSpawnPosY(pieceHold);
+				int minHoldX = Math.max(mostMovableX(spawnX, spawnY, -1, engine, snap, snap.field, pieceHold, rt),
+						pieceHold.getMostMovableLeft(spawnX, spawnY, rt, snap.field));
+				int maxHoldX = Math.min(mostMovableX(spawnX, spawnY, 1, engine, snap, snap.field, pieceHold, rt),
+						pieceHold.getMostMovableRight(spawnX, spawnY, rt, snap.field));
+
+				//Bonus for holding an I piece, penalty for holding an S or Z.
+				int holdType = pieceHold.id;
+				int holdPts = 0;
+				if (holdType == Piece.PIECE_I)
+					holdPts -= 30;
+				else if (holdType == Piece.PIECE_S || holdType == Piece.PIECE_Z)
+					holdPts += 30;
+				else if (holdType == Piece.PIECE_O)
+					holdPts += 10;
+				int nowType = pieceNow.id;
+				if (nowType == Piece.PIECE_I)
+					holdPts += 30;
+				else if (nowType == Piece.PIECE_S || nowType == Piece.PIECE_Z)
+					holdPts -= 30;
+				else if (nowType == Piece.PIECE_O)
+					holdPts -= 10;
 
-							if(pts > bestPts) {
-								bestHold = false;
-								bestX = x;
-								bestY = y;
-								bestRt = rt;
-								bestXSub = newX;
-								bestYSub = newY;
-								bestRtSub = rot;
-								bestPts = pts;
-								if (DEBUG_ALL)
-									logBest(5);
-								thinkSuccess = true;
-							}
-						}
+				for(int x = minHoldX; x <= maxHoldX; x+=move)
+				{
+					int y = pieceHold.getBottom(x, spawnY, rt, fldBase);
+					if(!pieceHold.checkCollision(x, y, rt, fldBase))
+						addCandidate(true, x, y, rt, pieceHold, holdPts);
+				}
+			}
+		}
 
-						// 180-degree rotation
-						if(engine.ruleopt.rotateButtonAllowDouble) {
-							int rot = pieceNow.getRotateDirection(2, rt);
-							int newX = x;
-							int newY = y;
-							fld.copy(engine.field);
-							pts = Integer.MIN_VALUE;
-
-							if(!pieceNow.checkCollision(x, y, rot, fld)) {
-								pts = thinkMain(x, y, rot, rt, fld, pieceNow, depth);
-							} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
-								boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-													  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
-								WallkickResult kick = engine.wallkick.executeWallkick(x, y, 2, rt, rot,
-													  allowUpward, pieceNow, fld, null);
-
-								if(kick != null) {
-									newX = x + kick.offsetX;
-									newY = y + kick.offsetY;
-									pts = thinkMain(newX, newY, rot, rt, fld, pieceNow, depth);
-								}
-							}
+		ForkJoinPool pool = null;
+		if (engine.aiSearchThreads > 1 && candidateCount > 1)
+			pool = AISearchPool.getPool(engine.aiSearchThreads);
 
-							if(pts > bestPts) {
-								bestHold = false;
-								bestX = x;
-								bestY = y;
-								bestRt = rt;
-								bestXSub = newX;
-								bestYSub = newY;
-								bestRtSub = rot;
-								bestPts = pts;
-								if (DEBUG_ALL)
-									logBest(6);
-								thinkSuccess = true;
-							}
+		long deadline = getSearchDeadline(engine, snap);
+		searchCut = false;
+		for(int depth = 0; depth < MAX_THINK_DEPTH; depth++) {
+			for(int pass = PASS_DROP; pass <= PASS_REFINE; pass++) {
+				if (pool == null) {
+					for(int i = 0; i < candidateCount; i++) {
+						if (pass == PASS_REFINE && System.nanoTime() > deadline) {
+							searchCut = true;
+							break;
 						}
-						//}
+						evaluateCandidate(candidates[i], engine, move, depth, pass, arena);
 					}
+				} else {
+					evaluateCandidatesParallel(pool, engine, move, depth, pass, deadline);
 				}
+			}
 
-				// Hold piece
-				if((holdOK == true) && (pieceHold != null)) {
-					int spawnX = engine.getSpawnPosX(engine.field, pieceHold);
-					int spawnY = engine.getSpawnPosY(pieceHold);
-					int minHoldX = Math.max(mostMovableX(spawnX, spawnY, -1, engine, engine.field, pieceHold, rt),
-							pieceHold.getMostMovableLeft(spawnX, spawnY, rt, engine.field));
-					int maxHoldX = Math.min(mostMovableX(spawnX, spawnY, 1, engine, engine.field, pieceHold, rt),
-							pieceHold.getMostMovableRight(spawnX, spawnY, rt, engine.field));
-
-					//Bonus for holding an I piece, penalty for holding an S or Z.
-					int holdType = pieceHold.id;
-					int holdPts = 0;
-					if (holdType == Piece.PIECE_I)
-						holdPts -= 30;
-					else if (holdType == Piece.PIECE_S || holdType == Piece.PIECE_Z)
-						holdPts += 30;
-					else if (holdType == Piece.PIECE_O)
-						holdPts += 10;
-					int nowType = pieceNow.id;
-					if (nowType == Piece.PIECE_I)
-						holdPts += 30;
-					else if (nowType == Piece.PIECE_S || nowType == Piece.PIECE_Z)
-						holdPts -= 30;
-					else if (nowType == Piece.PIECE_O)
-						holdPts -= 10;
-
-					for(int x = minHoldX; x <= maxHoldX; x+=move)
-					{
-						fld.copy(engine.field);
-						int y = pieceHold.getBottom(x, spawnY, rt, fld);
-
-						if(!pieceHold.checkCollision(x, y, rt, fld)) {
-							// そのまま
-							int pts = thinkMain(x, y, rt, -1, fld, pieceHold, depth);
-							if (pts > Integer.MIN_VALUE+30)
-								pts += holdPts;
-							if(pts >= bestPts) {
-								bestHold = true;
-								bestX = x;
-								bestY = y;
-								bestRt = rt;
-								bestXSub = x;
-								bestYSub = y;
-								bestRtSub = -1;
-								bestPts = pts;
-								if (DEBUG_ALL)
-									logBest(7);
-								thinkSuccess = true;
-							}
-							//Check regardless
-							//if((depth > 0) || (bestPts <= 10) || (pieceHold.id == Piece.PIECE_T)) {
-							// Left shift
-							fld.copy(engine.field);
-							if(!pieceHold.checkCollision(x - move, y, rt, fld) && pieceHold.checkCollision(x - move, y - 1, rt, fld)) {
-								pts = thinkMain(x - move, y, rt, -1, fld, pieceHold, depth);
-								if (pts > Integer.MIN_VALUE+30)
-									pts += holdPts;
-								if(pts > bestPts) {
-									bestHold = true;
-									bestX = x;
-									bestY = y;
-									bestRt = rt;
-									bestXSub = x - move;
-									bestYSub = y;
-									bestRtSub = -1;
-									bestPts = pts;
-									if (DEBUG_ALL)
-										logBest(8);
-									thinkSuccess = true;
-								}
-							}
-
-							// Right shift
-							fld.copy(engine.field);
-							if(!pieceHold.checkCollision(x + move, y, rt, fld) && pieceHold.checkCollision(x + move, y - 1, rt, fld)) {
-								pts = thinkMain(x + move, y, rt, -1, fld, pieceHold, depth);
-								if (pts > Integer.MIN_VALUE+30)
-									pts += holdPts;
-								if(pts > bestPts) {
-									bestHold = true;
-									bestX = x;
-									bestY = y;
-									bestRt = rt;
-									bestXSub = x + move;
-									bestYSub = y;
-									bestRtSub = -1;
-									bestPts = pts;
-									if (DEBUG_ALL)
-										logBest(9);
-									thinkSuccess = true;
-								}
-							}
-
-							// Left rotation
-							if(!engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse) {
-								int rot = pieceHold.getRotateDirection(-1, rt);
-								int newX = x;
-								int newY = y;
-								fld.copy(engine.field);
-								pts = Integer.MIN_VALUE;
-
-								if(!pieceHold.checkCollision(x, y, rot, fld)) {
-									pts = thinkMain(x, y, rot, rt, fld, pieceHold, depth);
-								} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
-									boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-														  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
-									WallkickResult kick = engine.wallkick.executeWallkick(x, y, -1, rt, rot,
-														  allowUpward, pieceHold, fld, null);
-
-									if(kick != null) {
-										newX = x + kick.offsetX;
-										newY = y + kick.offsetY;
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceHold, depth);
-									}
-								}
-								if (pts > Integer.MIN_VALUE+30)
-									pts += holdPts;
-								if(pts > bestPts) {
-									bestHold = true;
-									bestX = x;
-									bestY = y;
-									bestRt = rt;
-									bestXSub = newX;
-									bestYSub = newY;
-									bestRtSub = rot;
-									bestPts = pts;
-									if (DEBUG_ALL)
-										logBest(10);
-									thinkSuccess = true;
-								}
-							}
-
-							// Right rotation
-							if(engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse) {
-								int rot = pieceHold.getRotateDirection(1, rt);
-								int newX = x;
-								int newY = y;
-								fld.copy(engine.field);
-								pts = Integer.MIN_VALUE;
-
-								if(!pieceHold.checkCollision(x, y, rot, fld)) {
-									pts = thinkMain(x, y, rot, rt, fld, pieceHold, depth);
-								} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
-									boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-														  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
-									WallkickResult kick = engine.wallkick.executeWallkick(x, y, 1, rt, rot,
-														  allowUpward, pieceHold, fld, null);
-
-									if(kick != null) {
-										newX = x + kick.offsetX;
-										newY = y + kick.offsetY;
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceHold, depth);
-									}
-								}
-								if (pts > Integer.MIN_VALUE+30)
-									pts += holdPts;
-								if(pts > bestPts) {
-									bestHold = true;
-									bestX = x;
-									bestY = y;
-									bestRt = rt;
-									bestXSub = newX;
-									bestYSub = newY;
-									bestRtSub = rot;
-									bestPts = pts;
-									if (DEBUG_ALL)
-										logBest(11);
-									thinkSuccess = true;
-								}
-							}
-
-							// 180-degree rotation
-							if(engine.ruleopt.rotateButtonAllowDouble) {
-								int rot = pieceHold.getRotateDirection(2, rt);
-								int newX = x;
-								int newY = y;
-								fld.copy(engine.field);
-								pts = Integer.MIN_VALUE;
-
-								if(!pieceHold.checkCollision(x, y, rot, fld)) {
-									pts = thinkMain(x, y, rot, rt, fld, pieceHold, depth);
-								} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
-									boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-														  (engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
-									WallkickResult kick = engine.wallkick.executeWallkick(x, y, 2, rt, rot,
-														  allowUpward, pieceHold, fld, null);
-
-									if(kick != null) {
-										newX = x + kick.offsetX;
-										newY = y + kick.offsetY;
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceHold, depth);
-									}
-								}
-								if (pts > Integer.MIN_VALUE+30)
-									pts += holdPts;
-								if(pts > bestPts) {
-									bestHold = true;
-									bestX = x;
-									bestY = y;
-									bestRt = rt;
-									bestXSub = newX;
-									bestYSub = newY;
-									bestRtSub = rot;
-									bestPts = pts;
-									if (DEBUG_ALL)
-										logBest(12);
-									thinkSuccess = true;
-								}
-							}
-						}
+			// Merge in the same order as a single-threaded search, so that ties are broken the same way
+			for(int i = 0; i < candidateCount; i++) {
+				RootCandidate c = candidates[i];
+				for(int m = 0; m < c.moveCount; m++) {
+					int pts = c.pts[m];
+					boolean better = (c.type[m] == RootCandidate.MOVE_DROP) ? (pts >= bestPts) : (pts > bestPts);
+					if(better) {
+						bestHold = c.hold;
+						bestX = c.x;
+						bestY = c.y;
+						bestRt = c.rt;
+						bestXSub = c.xSub[m];
+						bestYSub = c.ySub[m];
+						bestRtSub = c.rtSub[m];
+						bestPts = pts;
+						if (DEBUG_ALL)
+							logBest(c.type[m] + (c.hold ? 7 : 1));
+						thinkSuccess = true;
 					}
 				}
 			}
 
 			if(bestPts > 0)
 				break;
+			else if (searchCut)
+				break;
 			else
 				bestPts = Integer.MIN_VALUE;
 		}
+		arena.end();
+		if (searchCut) {
+			searchCutCount++;
+			if (DEBUG_ALL) log.debug("Search stopped by the deadline");
+		}
 
 		if (engine.aiShowHint)
 		{
@@ -1294,18 +1037,250 @@ public class PoochyBot extends DummyAI implements Runnable {
 		//System.out.println("X:" + bestX + " Y:" + bestY + " R:" + bestRt + " H:" + bestHold + " Pts:" + bestPts);
 	}
 
+	/**
+	 * Get the time the refine pass of a search has to stop at.
+	 * A threaded AI has to answer before the piece would move on its own:
+	 * aiMoveDelay frames after the snapshot (plus one, so 20G still gets a frame).
+	 * Without a thread the game waits for the search, so it is never cut.
+	 * @param engine The GameEngine that owns this AI
+	 * @param snap Field and pieces being searched
+	 * @return Deadline in System.nanoTime()
+	 */
+	protected long getSearchDeadline(GameEngine engine, AIFieldSnapshot snap) {
+		if (thinkTask == null)
+			return Long.MAX_VALUE;
+		return snap.time + (Math.max(0, engine.aiMoveDelay) + 1) * FRAME_NANOS;
+	}
+
+	/**
+	 * Add a root candidate
+	 * @param hold true if the hold piece is used
+	 * @param x X-coordinate
+	 * @param y Y-coordinate after dropping
+	 * @param rt Direction
+	 * @param piece Piece
+	 * @param holdPts Bonus or penalty for using hold
+	 */
+	protected void addCandidate(boolean hold, int x, int y, int rt, Piece piece, int holdPts) {
+		if (candidates == null || candidateCount >= candidates.length) {
+			RootCandidate[] newCandidates = new RootCandidate[(candidates == null) ? 64 : candidates.length * 2];
+			for(int i = 0; i < newCandidates.length; i++)
+				newCandidates[i] = (candidates != null && i < candidates.length) ? candidates[i] : new RootCandidate();
+			candidates = newCandidates;
+		}
+		RootCandidate c = candidates[candidateCount++];
+		c.hold = hold;
+		c.x = x;
+		c.y = y;
+		c.rt = rt;
+		c.piece = piece;
+		c.holdPts = holdPts;
+		c.moveCount = 0;
+	}
+
+	/**
+	 * Evaluate every move that starts from a root candidate
+	 * (drop, shift left/right, rotate left/right/180).
+	 * Only reads the shared search state, so it can run on any thread with its own scratch buffers.
+	 * @param c Root candidate
+	 * @param engine The GameEngine that owns this AI
+	 * @param move 1, or 2 if big
+	 * @param depth Compromise level
+	 * @param pass PASS_DROP: plain drop only, PASS_REFINE: the other moves
+	 * @param scratch Scratch buffers of the calling thread
+	 */
+	protected void evaluateCandidate(RootCandidate c, GameEngine engine, int move, int depth, int pass, SearchArena scratch) {
+		FieldBitboard fldBase = arena.fieldBase;
+		FieldBitboard fldWork = scratch.fieldWork;
+		Piece piece = c.piece;
+		int x = c.x;
+		int y = c.y;
+		int rt = c.rt;
+
+		// そのまま
+		if (pass == PASS_DROP) {
+			c.moveCount = 0;
+			fldWork.undo(0);
+			c.addMove(RootCandidate.MOVE_DROP, thinkCached(x, y, rt, -1, fldWork, piece, depth, scratch), x, y, -1);
+			return;
+		}
+
+		//Check regardless
+		//if((depth > 0) || (bestPts <= 10) || (piece.id == Piece.PIECE_T)) {
+		// Left shift
+		fldWork.undo(0);
+		if(!piece.checkCollision(x - move, y, rt, fldBase) && piece.checkCollision(x - move, y - 1, rt, fldBase)) {
+			c.addMove(RootCandidate.MOVE_LEFT, thinkCached(x - move, y, rt, -1, fldWork, piece, depth, scratch), x - move, y, -1);
+		}
+
+		// Right shift
+		fldWork.undo(0);
+		if(c.hold) {
+			if(!piece.checkCollision(x + move, y, rt, fldBase) && piece.checkCollision(x + move, y - 1, rt, fldBase)) {
+				c.addMove(RootCandidate.MOVE_RIGHT, thinkCached(x + move, y, rt, -1, fldWork, piece, depth, scratch), x + move, y, -1);
+			}
+		} else {
+			if(!piece.checkCollision(x + move, y, rt, fldBase) && piece.checkCollision(x + 1, y - move, rt, fldBase)) {
+				c.addMove(RootCandidate.MOVE_RIGHT, thinkCached(x + move, y, rt, -1, fldWork, piece, depth, scratch), x + 1, y, -1);
+			}
+		}
+
+		// Left rotation
+		if(!engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse)
+			evaluateRotation(c, RootCandidate.MOVE_ROTATE_LEFT, -1, engine, depth, scratch);
+
+		// Right rotation
+		if(engine.ruleopt.rotateButtonDefaultRight || engine.ruleopt.rotateButtonAllowReverse)
+			evaluateRotation(c, RootCandidate.MOVE_ROTATE_RIGHT, 1, engine, depth, scratch);
+
+		// 180-degree rotation
+		if(engine.ruleopt.rotateButtonAllowDouble)
+			evaluateRotation(c, RootCandidate.MOVE_ROTATE_180, 2, engine, depth, scratch);
+		//}
+	}
+
+	/**
+	 * Evaluate a rotation (with wallkick) from a root candidate
+	 * @param c Root candidate
+	 * @param type Move type
+	 * @param rtDir Rotation direction (-1: left, 1: right, 2: 180-degree)
+	 * @param engine The GameEngine that owns this AI
+	 * @param depth Compromise level
+	 * @param scratch Scratch buffers of the calling thread
+	 */
+	protected void evaluateRotation(RootCandidate c, int type, int rtDir, GameEngine engine, int depth, SearchArena scratch) {
+		FieldBitboard fldWork = scratch.fieldWork;
+		Piece piece = c.piece;
+		int x = c.x;
+		int y = c.y;
+		int rt = c.rt;
+		int rot = piece.getRotateDirection(rtDir, rt);
+		int newX = x;
+		int newY = y;
+		fldWork.undo(0);
+		int pts = Integer.MIN_VALUE;
+
+		if(!piece.checkCollision(x, y, rot, arena.fieldBase)) {
+			pts = thinkCached(x, y, rot, rt, fldWork, piece, depth, scratch);
+		} else if((engine.wallkick != null) && (engine.ruleopt.rotateWallkick)) {
+			boolean allowUpward = (engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
+								  (snapshot.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick);
+			WallkickResult kick = engine.wallkick.executeWallkick(x, y, rtDir, rt, rot,
+								  allowUpward, piece, arena.field, null);
+
+			if(kick != null) {
+				newX = x + kick.offsetX;
+				newY = y + kick.offsetY;
+				pts = thinkCached(newX, newY, rot, rt, fldWork, piece, depth, scratch);
+			}
+		}
+		c.addMove(type, pts, newX, newY, rot);
+	}
+
+	/**
+	 * Evaluate all root candidates on a ForkJoinPool.
+	 * The candidates are split into contiguous chunks; the calling thread runs the first one.
+	 * @param pool ForkJoinPool
+	 * @param engine The GameEngine that owns this AI
+	 * @param move 1, or 2 if big
+	 * @param depth Compromise level
+	 * @param pass PASS_DROP or PASS_REFINE
+	 * @param deadline System.nanoTime() after which the refine pass stops
+	 */
+	protected void evaluateCandidatesParallel(ForkJoinPool pool, GameEngine engine, int move, int depth, int pass, long deadline) {
+		int chunks = Math.min(candidateCount, pool.getParallelism() * 2);
+		if (workerTasks == null || workerTasks.length < chunks) {
+			SearchTask[] newTasks = new SearchTask[chunks];
+			for(int i = 0; i < chunks; i++) {
+				if (workerTasks != null && i < workerTasks.length)
+					newTasks[i] = workerTasks[i];
+				else
+					newTasks[i] = new SearchTask(new SearchArena());
+			}
+			workerTasks = newTasks;
+		}
+
+		for(int i = 0; i < chunks; i++) {
+			SearchTask task = workerTasks[i];
+			if (depth == 0 && pass == PASS_DROP)
+				task.scratch.snapshot(arena.fieldBase);
+			task.engine = engine;
+			task.move = move;
+			task.depth = depth;
+			task.pass = pass;
+			task.deadline = deadline;
+			task.from = candidateCount * i / chunks;
+			task.to = candidateCount * (i + 1) / chunks;
+			task.reinitialize();
+			if (i > 0)
+				pool.execute(task);
+		}
+
+		workerTasks[0].compute();
+		for(int i = 1; i < chunks; i++)
+			workerTasks[i].join();
+		for(int i = 0; i < chunks; i++) {
+			SearchArena scratch = workerTasks[i].scratch;
+			arena.nodes += scratch.nodes;
+			arena.cacheHits += scratch.cacheHits;
+			arena.cacheMisses += scratch.cacheMisses;
+			scratch.nodes = 0;
+			scratch.cacheHits = 0;
+			scratch.cacheMisses = 0;
+		}
+	}
+
+	/**
+	 * Evaluate a placement with thinkMain, or take its score from the cache
+	 * if the same placement was already evaluated on the same field.
+	 * The score does not depend on hold (holdPts is added by the caller),
+	 * so the hold and non-hold branches share entries.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param rtOld Direction before rotation (-1: None）
+	 * @param fld FieldBitboard (Can be modified without problems)
+	 * @param piece Piece
+	 * @param depth Compromise level (ranges from 0 through getMaxThinkDepth-1)
+	 * @param scratch Scratch buffers of the calling thread
+	 * @return Evaluation score
+	 */
+	protected int thinkCached(int x, int y, int rt, int rtOld, FieldBitboard fld, Piece piece, int depth, SearchArena scratch) {
+		TranspositionTable table = cache;
+		if (table == null)
+			return thinkMain(x, y, rt, rtOld, fld, piece, depth, scratch);
+
+		// rtOld only matters for the T-Spin check.
+		// thinkMain checks the adjacent blocks and the I valley with the current piece.direction (not rt), so it is a part of the key
+		boolean rotated = (piece.id == Piece.PIECE_T) && (rtOld != -1);
+		long code = (x & 0xFFL) | ((y & 0xFFL) << 8) | ((long)rt << 16) | (rotated ? 1L << 18 : 0L) |
+				((long)piece.id << 19) | (piece.big ? 1L << 24 : 0L) | ((long)(piece.direction & 3) << 25) | ((long)depth << 27);
+		long key = TranspositionTable.key(fld.getHash(), code);
+		long cached = table.get(key);
+		if (cached != TranspositionTable.NOT_FOUND) {
+			scratch.cacheHits++;
+			return (int)cached;
+		}
+		scratch.cacheMisses++;
+		int pts = thinkMain(x, y, rt, rtOld, fld, piece, depth, scratch);
+		table.put(key, pts);
+		return pts;
+	}
+
 	/**
 	 * Think routine
 	 * @param x X-coordinate
 	 * @param y Y-coordinate
 	 * @param rt Direction
 	 * @param rtOld Direction before rotation (-1: None）
-	 * @param fld Field (Can be modified without problems)
+	 * @param fld FieldBitboard (Can be modified without problems)
 	 * @param piece Piece
 	 * @param depth Compromise level (ranges from 0 through getMaxThinkDepth-1)
+	 * @param scratch Scratch buffers of the calling thread
 	 * @return Evaluation score
 	 */
-	public int thinkMain(int x, int y, int rt, int rtOld, Field fld, Piece piece, int depth) {
+	public int thinkMain(int x, int y, int rt, int rtOld, FieldBitboard fld, Piece piece, int depth, SearchArena scratch) {
+		scratch.nodes++;
 		int pts = 0;
 
 		boolean big = piece.big;
@@ -1345,7 +1320,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 			}
 		}
 		//Fetch depths and find valleys that require an I, J, or L.
-		int[] depthsBefore = getColumnDepths(fld);
+		int[] depthsBefore = fld.getHighestBlockYs(scratch.columnsBefore);
 		int deepestY = -1;
 		//int deepestX = -1;
 		for (int i = 0; i < width-1; i++)
@@ -1354,7 +1329,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 				deepestY = depthsBefore[i];
 				//deepestX = i;
 			}
-		int[] valleysBefore = calcValleys(depthsBefore, move);
+		int[] valleysBefore = calcValleys(depthsBefore, move, scratch.resultBefore);
 
 		// Field height (before placement)
 		int heightBefore = fld.getHighestBlockY();
@@ -1403,7 +1378,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 		// Field height (after clears)
 		int heightAfter = fld.getHighestBlockY();
 
-		int[] depthsAfter = getColumnDepths(fld);
+		int[] depthsAfter = fld.getHighestBlockYs(scratch.columnsAfter);
 
 		// Danger flag
 		boolean danger = (heightBefore <= 4*(move+1));
@@ -1474,7 +1449,7 @@ public class PoochyBot extends DummyAI implements Runnable {
 			//int lidAfter = fld.getHowManyLidAboveHoles();
 
 			//Find valleys that need an I, J, or L.
-			int[] valleysAfter = calcValleys(depthsAfter, move);
+			int[] valleysAfter = calcValleys(depthsAfter, move, scratch.resultAfter);
 
 			if(holeAfter > holeBefore) {
 				// Demerits for new holes
@@ -1700,10 +1675,40 @@ public class PoochyBot extends DummyAI implements Runnable {
 			result.applyOffsetArray(engine.ruleopt.pieceOffsetX[p.id], engine.ruleopt.pieceOffsetY[p.id]);
 		return result;
 	}
+
+	/**
+	 * Copies a piece into a scratch piece and applies the rule offsets
+	 * @param p Source piece
+	 * @param engine GameEngine
+	 * @param result Piece to overwrite
+	 * @return <code>result</code>
+	 */
+	public static Piece checkOffset(Piece p, GameEngine engine, Piece result)
+	{
+		result.copy(p);
+		result.big = engine.big;
+		if (!p.offsetApplied)
+			result.applyOffsetArray(engine.ruleopt.pieceOffsetX[p.id], engine.ruleopt.pieceOffsetY[p.id]);
+		return result;
+	}
 	
 	public static int[] calcValleys(int[] depths, int move)
 	{
-		int[] result = {0, 0, 0};
+		return calcValleys(depths, move, new int[3]);
+	}
+
+	/**
+	 * Finds valleys that need an I, J, or L piece
+	 * @param depths Column depths
+	 * @param move 1, or 2 if big
+	 * @param result Output array (only the first 3 elements are used)
+	 * @return <code>result</code>
+	 */
+	public static int[] calcValleys(int[] depths, int move, int[] result)
+	{
+		result[0] = 0;
+		result[1] = 0;
+		result[2] = 0;
 		if (depths[0] > depths[move])
 			result[0] = (depths[0]-depths[move])/3/move;
 		if ((move >= 2) && (depths[depths.length-1] > depths[depths.length-move-1]))
@@ -1783,6 +1788,11 @@ public class PoochyBot extends DummyAI implements Runnable {
 			result[x] = fld.getHighestBlockY(x);
 		return result;
 	}
+
+	public static int[] getColumnDepths (FieldBitboard fld)
+	{
+		return fld.getHighestBlockYs(new int[fld.getWidth()]);
+	}
 	/**
 	 * Returns the farthest x position the piece can move.
 	 * @param x X coord
@@ -1795,6 +1805,45 @@ public class PoochyBot extends DummyAI implements Runnable {
 	 * @return The farthest x position in the direction that the piece can be moved to.
 	 */
 	public int mostMovableX (int x, int y, int dir, GameEngine engine, Field fld, Piece piece, int rt)
+	{
+		SpeedParam speed = engine.speed;
+		return mostMovableX(x, y, dir, engine, speed.gravity, speed.denominator, engine.nowUpwardWallkickCount,
+				engine.stat == GameEngine.Status.ARE, fld, piece, rt);
+	}
+	/**
+	 * Returns the farthest x position the piece can move, using the state of a snapshot.
+	 * @param x X coord
+	 * @param y Y coord
+	 * @param dir -1 to move left, 1 to move right.
+	 * @param engine GameEngine (only the rule is used)
+	 * @param snap Snapshot (gravity, upward wallkick count and status)
+	 * @param fld Field
+	 * @param piece Piece
+	 * @param rt Desired final rotation direction.
+	 * @return The farthest x position in the direction that the piece can be moved to.
+	 */
+	public int mostMovableX (int x, int y, int dir, GameEngine engine, AIFieldSnapshot snap, Field fld, Piece piece, int rt)
+	{
+		return mostMovableX(x, y, dir, engine, snap.gravity, snap.denominator, snap.nowUpwardWallkickCount,
+				snap.stat == GameEngine.Status.ARE, fld, piece, rt);
+	}
+	/**
+	 * Returns the farthest x position the piece can move.
+	 * @param x X coord
+	 * @param y Y coord
+	 * @param dir -1 to move left, 1 to move right.
+	 * @param engine GameEngine (only the rule is used)
+	 * @param gravity Gravity
+	 * @param denominator Gravity denominator
+	 * @param upwardKickCount Number of upward wallkicks used by the piece
+	 * @param inARE true if the piece is not spawned yet (in ARE)
+	 * @param fld Field
+	 * @param piece Piece
+	 * @param rt Desired final rotation direction.
+	 * @return The farthest x position in the direction that the piece can be moved to.
+	 */
+	public int mostMovableX (int x, int y, int dir, GameEngine engine, int gravity, int denominator,
+			int upwardKickCount, boolean inARE, Field fld, Piece piece, int rt)
 	{
 		if (dir == 0)
 			return x;
@@ -1804,12 +1853,11 @@ public class PoochyBot extends DummyAI implements Runnable {
 		int testX = x;
 		int testY = y;
 		int testRt = Piece.DIRECTION_UP;
-		SpeedParam speed = engine.speed;
-		if (speed.gravity >= 0 && speed.gravity < speed.denominator)
+		if (gravity >= 0 && gravity < denominator)
 		{
 			if (DEBUG_ALL)
 				log.debug("mostMovableX not applicable - low gravity (gravity = " +
-						speed.gravity + ", denominator = " + speed.denominator + ")");
+						gravity + ", denominator = " + denominator + ")");
 			if (dir < 0)
 				return piece.getMostMovableLeft(testX, testY, rt, fld);
 			else if (dir > 0)
@@ -1819,9 +1867,8 @@ public class PoochyBot extends DummyAI implements Runnable {
 			return piece.getMostMovableRight(testX, testY, rt, fld);
 		boolean floorKickOK = false;
 		if ((piece.id == Piece.PIECE_I || piece.id == Piece.PIECE_T) &&
-				((engine.nowUpwardWallkickCount < engine.ruleopt.rotateMaxUpwardWallkick
-						|| engine.ruleopt.rotateMaxUpwardWallkick < 0) ||
-						(engine.stat == GameEngine.Status.ARE)))
+				((upwardKickCount < engine.ruleopt.rotateMaxUpwardWallkick
+						|| engine.ruleopt.rotateMaxUpwardWallkick < 0) || inARE))
 			floorKickOK = true;
 		testY = piece.getBottom(testX, testY, testRt, fld);
 		if (piece.id == Piece.PIECE_T && piece.direction != Piece.DIRECTION_UP)
@@ -1937,63 +1984,96 @@ public class PoochyBot extends DummyAI implements Runnable {
 		r.drawScoreFont(engine, playerID, 32, 45, GeneralUtil.getOorX(thinking), 0.5f);
 		r.drawScoreFont(engine, playerID, 19, 46, "IN ARE:", EventReceiver.COLOR_BLUE, 0.5f);
 		r.drawScoreFont(engine, playerID, 26, 46, GeneralUtil.getOorX(inARE), 0.5f);
+		r.drawScoreFont(engine, playerID, 19, 47, "ALLOC/NODE:", EventReceiver.COLOR_BLUE, 0.5f);
+		double bytesPerNode = (arena != null) ? arena.getBytesPerNode() : -1;
+		r.drawScoreFont(engine, playerID, 31, 47, (bytesPerNode < 0) ? "--" : String.valueOf(Math.round(bytesPerNode)), 0.5f);
+		r.drawScoreFont(engine, playerID, 19, 48, "CACHE HIT:", EventReceiver.COLOR_BLUE, 0.5f);
+		if (cache == null || arena == null)
+			r.drawScoreFont(engine, playerID, 30, 48, "OFF", 0.5f);
+		else
+			r.drawScoreFont(engine, playerID, 30, 48, arena.cacheHits + "/" + (arena.cacheHits + arena.cacheMisses), 0.5f);
+		r.drawScoreFont(engine, playerID, 19, 49, "DEADLINE CUT:", EventReceiver.COLOR_BLUE, 0.5f);
+		r.drawScoreFont(engine, playerID, 33, 49, String.valueOf(searchCutCount), 0.5f);
 	}
 
 	/*
-	 * スレッドの処理
+	 * スレッドの処理 (run by AIThinkScheduler for each request)
 	 */
 	public void run() {
-		log.info("PoochyBot: Thread start");
-		threadRunning = true;
-
-		while(threadRunning) {
-			try {
-				synchronized(thinkRequest)
-				{
-					if (!thinkRequest.active)
-						thinkRequest.wait();
-				}
-			} catch (InterruptedException e) {
-				log.debug("PoochyBot: InterruptedException waiting for thinkRequest signal");
-			}
-			if(thinkRequest.active) {
-				thinkRequest.active = false;
-				thinking = true;
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID);
-					thinkComplete = true;
-					log.debug("PoochyBot: thinkBestPosition completed successfully");
-				} catch (Throwable e) {
-					log.debug("PoochyBot: thinkBestPosition Failed", e);
-				}
-				thinking = false;
-			}
-
-			if(thinkDelay > 0) {
-				try {
-					Thread.sleep(thinkDelay);
-				} catch (InterruptedException e) {
-					log.debug("PoochyBot: InterruptedException trying to sleep");
-				}
-			}
+		thinking = true;
+		try {
+			thinkBestPosition(gEngine, gEngine.playerID);
+			thinkComplete = true;
+			log.debug("PoochyBot: thinkBestPosition completed successfully");
+		} catch (Throwable e) {
+			log.debug("PoochyBot: thinkBestPosition Failed", e);
 		}
-
-		threadRunning = false;
-		log.info("PoochyBot: Thread end");
+		thinking = false;
 	}
 	
-	//Wrapper for think requests
-	private static class ThinkRequestMutex
+	/**
+	 * One root move (piece, direction and X position after dropping) and the
+	 * scores of the moves tried from there
+	 */
+	protected static class RootCandidate
 	{
-		public boolean active;
-		public ThinkRequestMutex()
+		/** Move types. Only MOVE_DROP replaces an equal best score. */
+		public static final int MOVE_DROP = 0, MOVE_LEFT = 1, MOVE_RIGHT = 2,
+			MOVE_ROTATE_LEFT = 3, MOVE_ROTATE_RIGHT = 4, MOVE_ROTATE_180 = 5;
+		/** Number of move types */
+		public static final int MOVE_TYPE_COUNT = 6;
+
+		public boolean hold;
+		public int x, y, rt;
+		public Piece piece;
+		/** Bonus or penalty for using hold */
+		public int holdPts;
+
+		/** Number of evaluated moves */
+		public int moveCount;
+		public final int[] type = new int[MOVE_TYPE_COUNT];
+		public final int[] pts = new int[MOVE_TYPE_COUNT];
+		public final int[] xSub = new int[MOVE_TYPE_COUNT];
+		public final int[] ySub = new int[MOVE_TYPE_COUNT];
+		public final int[] rtSub = new int[MOVE_TYPE_COUNT];
+
+		public void addMove(int moveType, int score, int newX, int newY, int newRt)
 		{
-			active = false;
+			if (hold && score > Integer.MIN_VALUE+30)
+				score += holdPts;
+			type[moveCount] = moveType;
+			pts[moveCount] = score;
+			xSub[moveCount] = newX;
+			ySub[moveCount] = newY;
+			rtSub[moveCount] = newRt;
+			moveCount++;
 		}
-		public synchronized void newRequest()
+	}
+
+	/** Evaluates a range of root candidates with its own scratch buffers */
+	protected class SearchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		public final SearchArena scratch;
+		public GameEngine engine;
+		public int move, depth, pass, from, to;
+		public long deadline;
+
+		public SearchTask(SearchArena scratch)
 		{
-			active = true;
-			notifyAll();
+			this.scratch = scratch;
+		}
+
+		@Override
+		protected void compute()
+		{
+			for(int i = from; i < to; i++) {
+				if (pass == PASS_REFINE && System.nanoTime() > deadline) {
+					searchCut = true;
+					break;
+				}
+				evaluateCandidate(candidates[i], engine, move, depth, pass, scratch);
+			}
 		}
 	}
 }
@@ -1,7 +1,8 @@
 package net.tetrisconcept.poochy.nullpomino.ai;
 
-import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.FieldBitboard;
 import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.subsystem.ai.SearchArena;
 
 public class PoochyBotDefensive extends PoochyBot {
 	/*
@@ -18,13 +19,15 @@ public class PoochyBotDefensive extends PoochyBot {
 	 * @param y Y-coordinate
 	 * @param rt Direction
 	 * @param rtOld Direction before rotation (-1: None）
-	 * @param fld Field (Can be modified without problems)
+	 * @param fld FieldBitboard (Can be modified without problems)
 	 * @param piece Piece
 	 * @param depth Compromise level (ranges from 0 through getMaxThinkDepth-1)
+	 * @param scratch Scratch buffers of the calling thread
 	 * @return Evaluation score
 	 */
 	@Override
-	public int thinkMain(int x, int y, int rt, int rtOld, Field fld, Piece piece, int depth) {
+	public int thinkMain(int x, int y, int rt, int rtOld, FieldBitboard fld, Piece piece, int depth, SearchArena scratch) {
+		scratch.nodes++;
 		int pts = 0;
 
 		// Add points for being adjacent to other blocks
@@ -43,7 +46,7 @@ public class PoochyBotDefensive extends PoochyBot {
 		//int lidBefore = fld.getHowManyLidAboveHoles();
 
 		//Fetch depths.
-		int[] depthsBefore = getColumnDepths(fld);
+		int[] depthsBefore = fld.getHighestBlockYs(scratch.columnsBefore);
 		int deepestY = -1;
 		//int deepestX = -1;
 		for (int i = 0; i < width-1; i++)
@@ -147,7 +150,7 @@ public class PoochyBotDefensive extends PoochyBot {
 		// Field height (after clears)
 		int heightAfter = fld.getHighestBlockY();
 
-		int[] depthsAfter = getColumnDepths(fld);
+		int[] depthsAfter = fld.getHighestBlockYs(scratch.columnsAfter);
 
 		// Danger flag
 		//boolean danger = (heightBefore <= 8);